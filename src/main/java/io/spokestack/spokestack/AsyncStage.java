@@ -0,0 +1,450 @@
+package io.spokestack.spokestack;
+
+import androidx.annotation.NonNull;
+import io.spokestack.spokestack.util.SpscRing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * asynchronous speech pipeline stage.
+ *
+ * <p>
+ * This class decouples a slow pipeline stage (such as a cloud ASR component
+ * that performs blocking network calls) from the audio thread. The wrapped
+ * stage runs on its own thread, fed by a bounded lock-free queue of
+ * preallocated frames, so that it cannot stall the stages that follow it or
+ * overflow the audio input's buffer.
+ * </p>
+ *
+ * <p>
+ * On the audio thread, each frame is copied into a pooled queue slot along
+ * with the speech context's state (speech detection, and any change in
+ * activation made by other stages), and the audio thread continues without
+ * waiting. If the queue is full, the frame is dropped and counted as an
+ * overflow. On the stage's thread, the state is applied to a private shadow
+ * context, which also maintains its own frame buffer mirroring the
+ * pipeline's, and the wrapped stage processes the frame against it.
+ * </p>
+ *
+ * <p>
+ * Any state changes and events raised by the wrapped stage on the shadow
+ * context are queued back to the audio thread and applied to the pipeline's
+ * context, in order, at the start of the next frame. Listeners therefore
+ * always receive events on the audio thread, and the pipeline's context is
+ * only ever modified by a single thread. Stage resets are performed on the
+ * stage's thread before its next queued frame. Note that stages which take
+ * over the context externally (via {@link SpeechContext#setManaged(boolean)})
+ * or which detect speech should not run asynchronously, because these state
+ * changes are not propagated back to the pipeline.
+ * </p>
+ *
+ * <p>
+ * Stages are made asynchronous by listing their class names in the
+ * pipeline's configuration, which supports the following properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>async-stages</b> (string): comma-separated list of stage class
+ *      names to run asynchronously
+ *   </li>
+ *   <li>
+ *      <b>async-queue-width</b> (integer): the amount of audio that can be
+ *      queued for each asynchronous stage, in ms (default 1000)
+ *   </li>
+ * </ul>
+ */
+public final class AsyncStage implements SpeechProcessor {
+    /** default async-queue-width configuration value. */
+    public static final int DEFAULT_QUEUE_WIDTH = 1000;
+
+    private static final int EVENT_QUEUE_SIZE = 64;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final SpeechProcessor stage;
+    private final SpeechContext shadow;
+    private final FrameRing buffer;
+    private final SpscRing<FrameSlot> frames;
+    private final SpscRing<EventSlot> events;
+    private final Thread thread;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicBoolean resetPending = new AtomicBoolean();
+    private volatile boolean idle;
+    private volatile int maxDepth;
+    private SpeechContext pipelineContext;
+    private boolean active;
+    private boolean syncing;
+    private boolean closed;
+
+    /**
+     * constructs a new asynchronous stage and starts its thread.
+     *
+     * @param config the pipeline configuration instance
+     * @param wrapped the stage to run asynchronously
+     */
+    public AsyncStage(SpeechConfig config, SpeechProcessor wrapped) {
+        int sampleWidth = 2;
+        int sampleRate = config.getInteger("sample-rate");
+        int frameWidth = config.getInteger("frame-width");
+        int bufferWidth = config.getInteger("buffer-width");
+        int queueWidth = config.getInteger(
+              "async-queue-width",
+              DEFAULT_QUEUE_WIDTH);
+        final int frameSize = sampleRate * frameWidth / 1000 * sampleWidth;
+        int frameCount = Math.max(queueWidth / frameWidth, 1);
+
+        this.stage = wrapped;
+        this.frames = new SpscRing<>(
+              frameCount,
+              () -> new FrameSlot(frameSize));
+        this.events = new SpscRing<>(EVENT_QUEUE_SIZE, EventSlot::new);
+
+        // the shadow context mirrors the pipeline's pre-roll buffer. it
+        // must dispatch on the stage's thread, so that its events are
+        // queued in order with the frames, and so that the state synced
+        // from the pipeline is not forwarded back
+        SpeechConfig shadowConfig =
+              new SpeechConfig(new HashMap<>(config.getParams()))
+              .put("event-dispatch", "sync")
+              .put("trace-buffer", 0);
+        this.shadow = new SpeechContext(shadowConfig);
+        this.buffer = new FrameRing(
+              Math.max(bufferWidth / frameWidth, 1),
+              frameSize,
+              frameWidth);
+        this.shadow.attachBuffer(this.buffer);
+        this.shadow.addOnSpeechEventListener(new Forwarder());
+
+        this.thread = new Thread(
+              this::run,
+              "Spokestack-async-" + wrapped.getClass().getSimpleName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the stage being run asynchronously
+     */
+    public SpeechProcessor getStage() {
+        return this.stage;
+    }
+
+    /**
+     * @return the number of frames processed by the wrapped stage
+     */
+    public long getProcessed() {
+        return this.processed.get();
+    }
+
+    /**
+     * @return the number of frames dropped because the queue was full
+     */
+    public long getOverflows() {
+        return this.overflows.get();
+    }
+
+    /**
+     * @return the maximum number of frames that have been queued at once
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * @return the number of frames that can be queued
+     */
+    public int getCapacity() {
+        return this.frames.capacity();
+    }
+
+    /**
+     * queues a frame for the wrapped stage, after applying any state
+     * changes and events it has raised since the previous frame.
+     *
+     * @param context the current speech context
+     * @param frame   the audio frame to process
+     */
+    @Override
+    public void process(SpeechContext context, ByteBuffer frame) {
+        this.pipelineContext = context;
+        apply(context);
+        if (this.shadow.getAndroidContext() == null) {
+            this.shadow.setAndroidContext(context.getAndroidContext());
+        }
+
+        FrameSlot slot = this.frames.claim();
+        if (slot == null) {
+            this.overflows.incrementAndGet();
+            return;
+        }
+        // only send activation changes made outside this stage, so that
+        // frames queued before the stage's own changes don't undo them
+        slot.type = SlotType.FRAME;
+        slot.speech = context.isSpeech();
+        slot.sync = context.isActive() != this.active;
+        slot.active = context.isActive();
+        this.active = slot.active;
+        slot.frame.clear();
+        frame.rewind();
+        slot.frame.put(frame);
+        enqueue();
+    }
+
+    /**
+     * requests a reset of the wrapped stage, which is performed on the
+     * stage's thread before its next frame.
+     */
+    @Override
+    public void reset() {
+        this.resetPending.set(true);
+        LockSupport.unpark(this.thread);
+    }
+
+    /**
+     * drains the queue, stops the stage's thread, and closes the stage. any
+     * remaining events raised by the stage are applied to the context of the
+     * last frame.
+     *
+     * @throws Exception on error
+     */
+    @Override
+    public void close() throws Exception {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        // the close message must not be dropped, so wait for space. the
+        // stage's thread may itself be waiting for space to raise an event,
+        // so keep applying its events while waiting
+        FrameSlot slot = this.frames.claim();
+        while (slot == null) {
+            flush();
+            LockSupport.parkNanos(this, PARK_NANOS);
+            slot = this.frames.claim();
+        }
+        slot.type = SlotType.CLOSE;
+        enqueue();
+        while (this.thread.isAlive()) {
+            flush();
+            this.thread.join(TimeUnit.NANOSECONDS.toMillis(PARK_NANOS));
+        }
+        flush();
+        this.stage.close();
+        flush();
+        this.shadow.stopDispatch();
+    }
+
+    private void flush() {
+        if (this.pipelineContext != null) {
+            apply(this.pipelineContext);
+        } else {
+            // no frame has been processed, so there is no context to apply
+            // the stage's events to
+            while (this.events.peek() != null) {
+                this.events.peek().clear();
+                this.events.release();
+            }
+        }
+    }
+
+    private void enqueue() {
+        this.frames.publish();
+        int depth = this.frames.size();
+        if (depth > this.maxDepth) {
+            this.maxDepth = depth;
+        }
+        if (this.idle) {
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    private void apply(SpeechContext context) {
+        for (EventSlot slot = this.events.peek();
+             slot != null;
+             slot = this.events.peek()) {
+            switch (slot.event) {
+                case ACTIVATE:
+                    this.active = true;
+                    context.setWakePhrase(slot.wakePhrase);
+                    context.setActive(true);
+                    break;
+                case DEACTIVATE:
+                    this.active = false;
+                    context.setActive(false);
+                    break;
+                case PARTIAL_RECOGNIZE:
+                case RECOGNIZE:
+                    context.setTranscript(slot.transcript);
+                    context.setConfidence(slot.confidence);
+                    context.dispatch(slot.event);
+                    break;
+                case ERROR:
+                    context.setError(slot.error);
+                    context.dispatch(slot.event);
+                    break;
+                case TRACE:
+                    context.traceMessage(slot.message);
+                    break;
+                default:
+                    context.dispatch(slot.event);
+                    break;
+            }
+            slot.clear();
+            this.events.release();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            if (this.resetPending.getAndSet(false)) {
+                resetStage();
+            }
+
+            FrameSlot slot = this.frames.peek();
+            if (slot == null) {
+                this.idle = true;
+                if (this.frames.peek() == null && !this.resetPending.get()) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                this.idle = false;
+                continue;
+            }
+
+            SlotType type = slot.type;
+            if (type == SlotType.FRAME) {
+                try {
+                    step(slot);
+                } catch (Exception e) {
+                    raiseError(e);
+                }
+                this.processed.incrementAndGet();
+            }
+            this.frames.release();
+            if (type == SlotType.CLOSE) {
+                return;
+            }
+        }
+    }
+
+    private void resetStage() {
+        this.syncing = true;
+        this.shadow.reset();
+        this.syncing = false;
+        try {
+            this.stage.reset();
+        } catch (Exception e) {
+            raiseError(e);
+        }
+    }
+
+    private void raiseError(Throwable e) {
+        this.shadow.setError(e);
+        this.shadow.dispatch(SpeechContext.Event.ERROR);
+    }
+
+    private void step(FrameSlot slot) throws Exception {
+        // sync the pipeline's state to the shadow context,
+        // without forwarding the resulting events back
+        this.shadow.setSpeech(slot.speech);
+        if (slot.sync) {
+            this.syncing = true;
+            this.shadow.setActive(slot.active);
+            this.syncing = false;
+        }
+
+        // rotate the shadow's pre-roll buffer, copying in the new frame
+        ByteBuffer frame = this.buffer.rotate();
+        frame.clear();
+        slot.frame.flip();
+        frame.put(slot.frame);
+        frame.rewind();
+
+        this.stage.process(this.shadow, frame);
+    }
+
+    private EventSlot claimEvent() {
+        // events must not be dropped, so wait for the audio thread
+        EventSlot slot = this.events.claim();
+        while (slot == null) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+            slot = this.events.claim();
+        }
+        return slot;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer
+              .allocateDirect(size)
+              .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * forwards events raised on the shadow context to the audio thread.
+     */
+    private final class Forwarder implements OnSpeechEventListener {
+        @Override
+        public void onEvent(@NonNull SpeechContext.Event event,
+                            @NonNull SpeechContext context) {
+            if (syncing) {
+                return;
+            }
+            EventSlot slot = claimEvent();
+            slot.event = event;
+            slot.wakePhrase = context.getWakePhrase();
+            slot.transcript = context.getTranscript();
+            slot.confidence = context.getConfidence();
+            slot.error = context.getError();
+            slot.message = context.getMessage();
+            events.publish();
+        }
+    }
+
+    /**
+     * queued frame slot types.
+     */
+    private enum SlotType {
+        FRAME,
+        CLOSE
+    }
+
+    /**
+     * a pooled frame queued for the stage's thread.
+     */
+    private static final class FrameSlot {
+        private final ByteBuffer frame;
+        private SlotType type;
+        private boolean speech;
+        private boolean sync;
+        private boolean active;
+
+        FrameSlot(int frameSize) {
+            this.frame = allocate(frameSize);
+        }
+    }
+
+    /**
+     * a pooled event queued for the audio thread.
+     */
+    private static final class EventSlot {
+        private SpeechContext.Event event;
+        private String wakePhrase;
+        private String transcript;
+        private double confidence;
+        private Throwable error;
+        private String message;
+
+        void clear() {
+            this.wakePhrase = null;
+            this.transcript = null;
+            this.error = null;
+            this.message = null;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package io.spokestack.spokestack;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * asynchronous speech event dispatcher.
+ *
+ * <p>
+ * By default, the speech context delivers events to its listeners
+ * synchronously, on the thread that raised them, which is usually the
+ * speech pipeline's audio thread. A listener that performs UI work, logging,
+ * or NLU can therefore delay the processing of audio. When asynchronous
+ * dispatch is enabled, each event is instead queued along with a snapshot of
+ * the context (transcript, confidence, error, trace message,
+ * etc.) and delivered, in order, on a dedicated dispatch thread. The snapshot
+ * is passed to listeners in place of the live context, so its state is
+ * unaffected by subsequent frames; it should be treated as read-only. The
+ * snapshot's frame buffer and mel features are not copied, however: they are
+ * shared with the live context, and continue to change as the pipeline runs.
+ * </p>
+ *
+ * <p>
+ * The event queue is bounded. When it is full, the configured overflow
+ * policy determines whether the raising thread waits for space, or whether
+ * the newest or oldest event is dropped. A listener that raises an event
+ * while the queue is full is never made to wait for space, because only its
+ * own thread could make room; under the blocking policy, its event is
+ * dropped instead. The dispatcher counts dropped
+ * events, and late events: those delivered longer than a deadline after they
+ * were raised. The dispatch thread is started on the first event and is
+ * stopped, after delivering all queued events, when the speech pipeline
+ * stops.
+ * </p>
+ *
+ * <p>
+ * This component supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>event-dispatch</b> (string): {@code sync} to deliver events on the
+ *      thread that raised them, or {@code async} to deliver them on the
+ *      dispatch thread (default sync). events are always dispatched
+ *      asynchronously when a {@link TraceBuffer} is configured
+ *   </li>
+ *   <li>
+ *      <b>event-queue-size</b> (integer): the maximum number of events that
+ *      can be queued (default 64)
+ *   </li>
+ *   <li>
+ *      <b>event-overflow</b> (string): the policy applied when the queue is
+ *      full: {@code block} to wait for space, {@code drop-newest} to discard
+ *      the new event, or {@code drop-oldest} to discard the oldest queued
+ *      event (default block)
+ *   </li>
+ *   <li>
+ *      <b>event-deadline</b> (integer): the delay after which a delivered
+ *      event is counted as late, in ms (default 100)
+ *   </li>
+ * </ul>
+ */
+public final class EventDispatcher {
+    /** default event-queue-size configuration value. */
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    /** default event-deadline configuration value. */
+    public static final int DEFAULT_DEADLINE = 100;
+
+    private static final Delivery STOP = new Delivery(null, null);
+
+    /**
+     * queue overflow policies.
+     */
+    public enum Overflow {
+        /** wait for space in the queue. */
+        BLOCK,
+        /** discard the event being raised. */
+        DROP_NEWEST,
+        /** discard the oldest queued event. */
+        DROP_OLDEST
+    }
+
+    private final List<OnSpeechEventListener> listeners;
+    private final int queueSize;
+    private final Overflow overflow;
+    private final long deadlineNanos;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private Worker worker;
+    private Worker stopped;
+
+    /**
+     * constructs a new dispatcher.
+     *
+     * @param config   speech configuration
+     * @param targets  the listeners that receive dispatched events
+     */
+    EventDispatcher(SpeechConfig config, List<OnSpeechEventListener> targets) {
+        String policy = config.getString("event-overflow", "block");
+        int deadline = config.getInteger("event-deadline", DEFAULT_DEADLINE);
+
+        this.listeners = targets;
+        this.queueSize = config.getInteger(
+              "event-queue-size",
+              DEFAULT_QUEUE_SIZE);
+        this.overflow = Overflow.valueOf(
+              policy.toUpperCase().replace('-', '_'));
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadline);
+    }
+
+    /**
+     * @return the configured overflow policy
+     */
+    public Overflow getOverflow() {
+        return this.overflow;
+    }
+
+    /**
+     * @return the number of events delivered to the listeners
+     */
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    /**
+     * @return the number of events discarded because the queue was full
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of events delivered after the deadline
+     */
+    public long getLate() {
+        return this.late.get();
+    }
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    public synchronized int getPending() {
+        return this.worker == null ? 0 : this.worker.queue.size();
+    }
+
+    /**
+     * queues an event for delivery, starting the dispatch thread if needed.
+     *
+     * @param event    the event to dispatch
+     * @param snapshot the context snapshot to deliver with the event
+     */
+    void post(SpeechContext.Event event, SpeechContext snapshot) {
+        Worker target = start();
+        enqueue(target, new Delivery(event, snapshot));
+
+        // if the dispatch thread was stopped and exited before the event was
+        // queued, move its queue to a new thread
+        synchronized (this) {
+            if (target.retired && !target.queue.isEmpty()) {
+                BlockingQueue<Delivery> queue = start().queue;
+                for (Delivery d = target.queue.poll();
+                     d != null;
+                     d = target.queue.poll()) {
+                    if (d != STOP && !queue.offer(d)) {
+                        this.dropped.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    private void enqueue(Worker target, Delivery delivery) {
+        BlockingQueue<Delivery> queue = target.queue;
+        switch (this.overflow) {
+            case DROP_NEWEST:
+                if (!queue.offer(delivery)) {
+                    this.dropped.incrementAndGet();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(delivery)) {
+                    if (queue.poll() != null) {
+                        this.dropped.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                if (queue.offer(delivery)) {
+                    break;
+                }
+                if (Thread.currentThread() == target) {
+                    // only the dispatch thread can make room, so it must
+                    // not wait for it
+                    this.dropped.incrementAndGet();
+                    break;
+                }
+                try {
+                    queue.put(delivery);
+                } catch (InterruptedException e) {
+                    this.dropped.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+        }
+    }
+
+    /**
+     * stops the dispatch thread once all queued events have been delivered.
+     * this method does not wait for delivery, so it may be called from a
+     * listener. events posted afterward start a new dispatch thread.
+     */
+    synchronized void stop() {
+        if (this.worker != null) {
+            // wake the thread if it is idle; if its queue is full,
+            // it will stop once the queue is drained
+            this.worker.stopping = true;
+            this.worker.queue.offer(STOP);
+            this.stopped = this.worker;
+            this.worker = null;
+        }
+    }
+
+    private synchronized Worker start() {
+        if (this.worker == null) {
+            this.worker = new Worker(this.stopped);
+            this.stopped = null;
+            this.worker.start();
+        }
+        return this.worker;
+    }
+
+    private synchronized boolean retire(Worker thread) {
+        // checked under the lock, so that post() either queues its event
+        // before the thread exits, or sees that it has retired
+        if (thread.queue.isEmpty()) {
+            thread.retired = true;
+        }
+        return thread.retired;
+    }
+
+    private void deliver(Delivery delivery) {
+        if (System.nanoTime() - delivery.posted > this.deadlineNanos) {
+            this.late.incrementAndGet();
+        }
+        SpeechContext.Event event = delivery.event;
+        SpeechContext context = delivery.context;
+        for (OnSpeechEventListener listener : this.listeners) {
+            try {
+                listener.onEvent(event, context);
+            } catch (Exception e) {
+                if (event != SpeechContext.Event.TRACE) {
+                    context.traceInfo("dispatch-failed: %s", e.toString());
+                }
+            }
+        }
+        this.delivered.incrementAndGet();
+    }
+
+    /**
+     * event dispatch thread.
+     */
+    private final class Worker extends Thread {
+        private final BlockingQueue<Delivery> queue;
+        private final Thread previous;
+        private volatile boolean stopping;
+        private boolean retired;
+
+        Worker(Thread predecessor) {
+            super("Spokestack-event-dispatcher");
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.previous = predecessor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // wait for any previous thread to deliver its events,
+                // so that events are always delivered in order
+                if (this.previous != null) {
+                    this.previous.join();
+                }
+                while (true) {
+                    Delivery delivery = this.queue.take();
+                    if (delivery != STOP) {
+                        deliver(delivery);
+                    }
+                    if (this.stopping && retire(this)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // exit
+            }
+        }
+    }
+
+    /**
+     * a queued event and its context snapshot.
+     */
+    private static final class Delivery {
+        private final SpeechContext.Event event;
+        private final SpeechContext context;
+        private final long posted;
+
+        Delivery(SpeechContext.Event type, SpeechContext snapshot) {
+            this.event = type;
+            this.context = snapshot;
+            this.posted = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package io.spokestack.spokestack;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * shared mel spectrogram feature extraction pipeline component
+ *
+ * <p>
+ * FeatureExtractor is a speech pipeline component that computes the mel
+ * spectrogram front-end used by the Tensorflow-Lite detectors (such as
+ * {@link io.spokestack.spokestack.wakeword.WakewordTrigger} and
+ * {@link io.spokestack.spokestack.asr.KeywordRecognizer}) once per hop, and
+ * publishes the resulting frames on the speech context (see
+ * {@link MelFrames}) for all of the detectors that follow it in the
+ * pipeline. Without it, each detector computes its own STFT and runs its
+ * own mel filter model for every hop.
+ * </p>
+ *
+ * <p>
+ * The incoming raw audio signal is normalized, pre-emphasized, and
+ * converted to the magnitude Short-Time Fourier Transform (STFT)
+ * representation over a hopped sliding window, exactly as in the wakeword
+ * trigger. The linear spectrogram is then converted to a mel frame via a
+ * "filter" Tensorflow model or a {@link MelFilterbank}. Frames are only computed while speech is
+ * detected or the pipeline is active, which are the states in which the
+ * detectors analyze audio.
+ * </p>
+ *
+ * <p>
+ * To use shared features, add this stage to the pipeline after the voice
+ * activity detector and before the detectors, and set the
+ * <b>mel-features</b> property to {@code shared}. The detectors then skip
+ * loading their own filter models, and read mel frames from the context
+ * instead, so their mel frame widths must match this stage's, and any
+ * detector-specific STFT configuration is ignored. Shared features are not
+ * available to detectors run on their own threads (see {@link AsyncStage}).
+ * </p>
+ *
+ * <p>
+ * This pipeline component supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>mel-filter-path</b> (string): file system path to the "filter"
+ *      Tensorflow-Lite model, which is used to calculate a mel spectrogram
+ *      frame from the linear STFT; its inputs should be shaped [fft-width],
+ *      and its outputs [mel-width] (defaults to wake-filter-path; not used
+ *      if mel-filter-type is java)
+ *   </li>
+ *   <li>
+ *      <b>mel-filter-type</b> (string): how the mel frame is computed from
+ *      the linear STFT: {@code model}, {@code java}, or {@code derived} (see
+ *      {@link MelFilterbank}; default model)
+ *   </li>
+ *   <li>
+ *      <b>rms-target</b> (double): the desired linear Root Mean Squared (RMS)
+ *      signal energy, which is used for signal normalization and should be
+ *      tuned to the RMS target used during training
+ *   </li>
+ *   <li>
+ *      <b>rms-alpha</b> (double): the Exponentially-Weighted Moving Average
+ *      (EWMA) update rate for the current RMS signal energy (0 for no
+ *      RMS normalization)
+ *   </li>
+ *   <li>
+ *      <b>pre-emphasis</b> (double): the pre-emphasis filter weight to apply
+ *      to the normalized audio signal (0 for no pre-emphasis)
+ *   </li>
+ *   <li>
+ *      <b>fft-window-size</b> (integer): the size of the signal window used
+ *      to calculate the STFT, in number of samples - should be a power of
+ *      2 for maximum efficiency
+ *   </li>
+ *   <li>
+ *      <b>fft-window-type</b> (string): the name of the windowing function
+ *      to apply to each audio frame before calculating the STFT; currently
+ *      the "hann" window is supported
+ *   </li>
+ *   <li>
+ *      <b>fft-hop-length</b> (integer): the length of time to skip each
+ *      time the overlapping STFT is calculated, in milliseconds
+ *   </li>
+ *   <li>
+ *      <b>mel-frame-width</b> (integer): the size of each mel spectrogram
+ *      frame, in number of filterbank components
+ *   </li>
+ * </ul>
+ */
+public final class FeatureExtractor implements SpeechProcessor {
+    /** the hann fft-window-type.  */
+    public static final String FFT_WINDOW_TYPE_HANN = "hann";
+
+    /** default fft-window-type configuration value. */
+    public static final String DEFAULT_FFT_WINDOW_TYPE = FFT_WINDOW_TYPE_HANN;
+    /** default rms-target configuration value. */
+    public static final float DEFAULT_RMS_TARGET = 0.08f;
+    /** default rms-alpha configuration value. */
+    public static final float DEFAULT_RMS_ALPHA = 0.0f;
+    /** default pre-emphasis configuration value. */
+    public static final float DEFAULT_PRE_EMPHASIS = 0.0f;
+    /** default fft-window-size configuration value. */
+    public static final int DEFAULT_FFT_WINDOW_SIZE = 512;
+    /** default fft-hop-length configuration value. */
+    public static final int DEFAULT_FFT_HOP_LENGTH = 10;
+    /** default mel-frame-width configuration value. */
+    public static final int DEFAULT_MEL_FRAME_WIDTH = 40;
+
+    // audio signal normalization and pre-emphasis
+    private final float rmsTarget;
+    private final float rmsAlpha;
+    private final float preEmphasis;
+    private float rmsValue;
+    private float prevSample;
+
+    // stft configuration
+    private final FloatFFT_1D fft;
+    private final float[] fftWindow;
+    private final float[] fftFrame;
+    private final float[] spectrum;
+    private final int hopLength;
+
+    // sliding sample window and published mel frames
+    private final RingBuffer sampleWindow;
+    private final MelFrames frames;
+
+    // mel filterbank projection or tensorflow mel filtering model
+    private final MelFilterbank filterbank;
+    private final TensorflowModel filterModel;
+
+    /**
+     * constructs a new feature extractor instance.
+     * @param config the pipeline configuration instance
+     */
+    public FeatureExtractor(SpeechConfig config) {
+        this(config, new TensorflowModel.Loader(config));
+    }
+
+    /**
+     * constructs a new feature extractor instance, for testing.
+     * @param config the pipeline configuration instance
+     * @param loader tensorflow model loader
+     */
+    public FeatureExtractor(
+            SpeechConfig config,
+            TensorflowModel.Loader loader) {
+        // fetch signal normalization config
+        this.rmsTarget = (float) config
+            .getDouble("rms-target", (double) DEFAULT_RMS_TARGET);
+        this.rmsAlpha = (float) config
+            .getDouble("rms-alpha", (double) DEFAULT_RMS_ALPHA);
+        this.preEmphasis = (float) config
+            .getDouble("pre-emphasis", (double) DEFAULT_PRE_EMPHASIS);
+        this.rmsValue = this.rmsTarget;
+
+        // fetch and validate stft/mel spectrogram configuration
+        int sampleRate = config
+            .getInteger("sample-rate");
+        int frameWidth = config
+            .getInteger("frame-width");
+        int windowSize = config
+            .getInteger("fft-window-size", DEFAULT_FFT_WINDOW_SIZE);
+        this.hopLength = config
+            .getInteger("fft-hop-length", DEFAULT_FFT_HOP_LENGTH)
+            * sampleRate / 1000;
+        String windowType = config
+            .getString("fft-window-type", DEFAULT_FFT_WINDOW_TYPE);
+        if (windowSize % 2 != 0)
+            throw new IllegalArgumentException("fft-window-size");
+        int melWidth = config
+            .getInteger("mel-frame-width", DEFAULT_MEL_FRAME_WIDTH);
+
+        // allocate the stft window and FFT/frame buffer
+        if (windowType.equals(FFT_WINDOW_TYPE_HANN))
+            this.fftWindow = hannWindow(windowSize);
+        else
+            throw new IllegalArgumentException("fft-window-type");
+
+        this.fft = new FloatFFT_1D(windowSize);
+        this.fftFrame = new float[windowSize];
+        this.spectrum = new float[windowSize / 2 + 1];
+
+        // allocate the sample window and enough mel frames to retain
+        // all of the hops in an audio frame
+        int frameHops = frameWidth * sampleRate / 1000 / this.hopLength;
+        this.sampleWindow = new RingBuffer(windowSize);
+        this.frames = new MelFrames(frameHops + 2, melWidth);
+
+        // load the tensorflow-lite model, if needed
+        TensorflowModel filter = null;
+        if (MelFilterbank.needsModel(config, "")) {
+            String filterPath = config.containsKey("mel-filter-path")
+                ? config.getString("mel-filter-path")
+                : config.getString("wake-filter-path");
+            filter = loader
+                .setPath(filterPath)
+                .load();
+        }
+        this.filterbank =
+            MelFilterbank.create(config, "", filter, windowSize, melWidth);
+        if (this.filterbank != null && filter != null) {
+            // the derived filterbank replaces the model
+            filter.close();
+            filter = null;
+        }
+        this.filterModel = filter;
+    }
+
+    /**
+     * releases resources associated with the feature extractor.
+     * @throws Exception on error
+     */
+    public void close() throws Exception {
+        if (this.filterModel != null)
+            this.filterModel.close();
+    }
+
+    @Override
+    public void reset() {
+        // empty the sample buffer, so that only contiguous
+        // speech samples are written to it
+        this.sampleWindow.reset();
+    }
+
+    /**
+     * processes a frame of audio.
+     * @param context the current speech context
+     * @param buffer  the audio frame to analyze
+     * @throws Exception on error
+     */
+    public void process(SpeechContext context, ByteBuffer buffer)
+            throws Exception {
+        context.attachFeatures(this.frames);
+        this.frames.startFrame();
+
+        // update the rms normalization factors
+        // maintain an ewma of the rms signal energy for speech samples
+        if (context.isSpeech() && this.rmsAlpha > 0)
+            this.rmsValue =
+                this.rmsAlpha * rms(buffer)
+                + (1 - this.rmsAlpha) * this.rmsValue;
+
+        // process all samples in the frame
+        boolean analyze = context.isSpeech() || context.isActive();
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            // normalize and clip the 16-bit sample to the target rms energy
+            float sample = (float) buffer.getShort() / Short.MAX_VALUE;
+            sample = sample * this.rmsTarget / this.rmsValue;
+            sample = Math.max(-1f, Math.min(sample, 1f));
+
+            // run a pre-emphasis filter to balance high frequencies
+            // and eliminate any dc energy
+            float nextSample = sample;
+            sample -= this.preEmphasis * this.prevSample;
+            this.prevSample = nextSample;
+
+            // process the sample
+            // . write it to the sample sliding window
+            // . publish a mel frame if any detector needs one
+            // . advance the sample sliding window
+            this.sampleWindow.write(sample);
+            if (this.sampleWindow.isFull()) {
+                if (analyze)
+                    analyze();
+                this.sampleWindow.rewind().seek(this.hopLength);
+            }
+        }
+    }
+
+    private void analyze() {
+        // apply the windowing function to the current sample window
+        this.sampleWindow.read(this.fftFrame, 0, this.fftFrame.length);
+        for (int i = 0; i < this.fftFrame.length; i++)
+            this.fftFrame[i] *= this.fftWindow[i];
+
+        // compute the stft
+        this.fft.realForward(this.fftFrame);
+
+        filter();
+    }
+
+    private void filter() {
+        // decode the FFT outputs into the stft magnitudes
+        MelFilterbank.magnitudes(this.fftFrame, this.spectrum);
+
+        // publish the current mel frame, projecting the magnitudes
+        // directly or via the mel filterbank tensorflow model
+        float[] frame = this.frames.claim();
+        if (this.filterbank != null) {
+            this.filterbank.apply(this.spectrum, frame);
+        } else {
+            FloatBuffer input = this.filterModel.floatInputs(0);
+            input.rewind();
+            input.put(this.spectrum);
+            this.filterModel.run();
+            this.filterModel.floatOutputs(0).get(frame);
+        }
+        this.frames.publish();
+    }
+
+    private float[] hannWindow(int len) {
+        // https://en.wikipedia.org/wiki/Hann_function
+        float[] window = new float[len];
+        for (int i = 0; i < len; i++)
+            window[i] = (float) Math.pow(Math.sin(Math.PI * i / (len - 1)), 2);
+        return window;
+    }
+
+    private float rms(ByteBuffer signal) {
+        float sum = 0;
+        int count = 0;
+
+        signal.rewind();
+        while (signal.hasRemaining()) {
+            float sample = (float) signal.getShort() / Short.MAX_VALUE;
+            sum += sample * sample;
+            count++;
+        }
+
+        return (float) Math.sqrt(sum / count);
+    }
+}
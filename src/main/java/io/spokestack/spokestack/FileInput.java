@@ -0,0 +1,282 @@
+package io.spokestack.spokestack;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * file/stream speech input.
+ *
+ * <p>
+ * This class reads audio frames from a recorded file or stream instead of
+ * the microphone, so that recordings can be pushed through the same pipeline
+ * stages used in production (for regression testing, model tuning, etc.).
+ * Files are memory-mapped and copied into each frame in bulk; streams are
+ * read through a channel one frame at a time.
+ * </p>
+ *
+ * <p>
+ * The audio must be single-channel 16-bit PCM at the configured sample rate,
+ * either headerless or wrapped in a RIFF/WAVE container. For WAVE input, the
+ * format chunk is validated, any non-audio chunks before the audio are
+ * skipped, and reading stops at the end of the data chunk, so that chunks
+ * following it (such as LIST metadata) are not read as audio.
+ * </p>
+ *
+ * <p>
+ * Once the audio is exhausted, the final partial frame is padded with
+ * silence, and subsequent reads throw an {@link EOFException}, which the
+ * speech pipeline treats as a clean end of stream rather than an error.
+ * This input is normally used with {@link SpeechPipeline#runOffline()},
+ * which processes frames as fast as possible instead of at the rate of
+ * the audio.
+ * </p>
+ *
+ * <p>
+ * This input supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>input-path</b> (string, required): file system path to the
+ *      audio file to read
+ *   </li>
+ *   <li>
+ *      <b>sample-rate</b> (integer): audio sampling rate, in Hz
+ *   </li>
+ * </ul>
+ */
+public final class FileInput implements SpeechInput {
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_SKIP_SIZE = 6;
+    private static final int SAMPLE_BITS = 16;
+
+    private final int sampleRate;
+    private final ByteBuffer header;
+    private RandomAccessFile file;
+    private ByteBuffer mapped;
+    private ReadableByteChannel channel;
+    private ByteBuffer pending;
+    private long remaining = Long.MAX_VALUE;
+    private boolean exhausted;
+
+    /**
+     * initializes a new file input instance and maps the configured file.
+     *
+     * @param config speech pipeline configuration
+     * @throws IOException if the file cannot be opened or parsed
+     */
+    public FileInput(SpeechConfig config) throws IOException {
+        this.sampleRate = config.getInteger("sample-rate");
+        this.header = ByteBuffer
+              .allocate(RIFF_HEADER_SIZE)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        this.file = new RandomAccessFile(config.getString("input-path"), "r");
+        try {
+            FileChannel fileChannel = this.file.getChannel();
+            this.mapped = fileChannel
+                  .map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            parseHeader();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * initializes a new input instance over an existing audio stream.
+     *
+     * @param config speech pipeline configuration
+     * @param stream the audio stream to read
+     * @throws IOException if the stream cannot be read or parsed
+     */
+    public FileInput(SpeechConfig config, InputStream stream)
+          throws IOException {
+        this(config, Channels.newChannel(stream));
+    }
+
+    /**
+     * initializes a new input instance over an existing audio channel.
+     *
+     * @param config speech pipeline configuration
+     * @param audio  the audio channel to read
+     * @throws IOException if the channel cannot be read or parsed
+     */
+    public FileInput(SpeechConfig config, ReadableByteChannel audio)
+          throws IOException {
+        this.sampleRate = config.getInteger("sample-rate");
+        this.header = ByteBuffer
+              .allocate(RIFF_HEADER_SIZE)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = audio;
+        parseHeader();
+    }
+
+    /**
+     * initializes a new input instance over an in-memory audio buffer.
+     *
+     * @param config speech pipeline configuration
+     * @param audio  the audio buffer to read, from its current position
+     * @throws IOException if the buffer cannot be parsed
+     */
+    public FileInput(SpeechConfig config, ByteBuffer audio)
+          throws IOException {
+        this.sampleRate = config.getInteger("sample-rate");
+        this.header = ByteBuffer
+              .allocate(RIFF_HEADER_SIZE)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        this.mapped = audio.slice();
+        parseHeader();
+    }
+
+    /**
+     * releases the resources associated with the input.
+     *
+     * @throws IOException on error
+     */
+    public void close() throws IOException {
+        this.mapped = null;
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+        if (this.file != null) {
+            this.file.close();
+            this.file = null;
+        }
+    }
+
+    /**
+     * reads the next frame of audio, padding the final frame with silence.
+     *
+     * @param context the current speech context
+     * @param frame   the frame buffer to fill
+     * @throws EOFException once all audio has been read
+     * @throws IOException  if the audio cannot be read
+     */
+    public void read(SpeechContext context, ByteBuffer frame)
+          throws IOException {
+        if (!this.exhausted) {
+            // don't read past the end of the audio data
+            frame.clear();
+            if (frame.remaining() > this.remaining) {
+                frame.limit((int) this.remaining);
+            }
+            transfer(frame);
+            this.remaining -= frame.position();
+            frame.limit(frame.capacity());
+            this.exhausted = frame.position() == 0;
+        }
+        if (this.exhausted) {
+            throw new EOFException("end of audio");
+        }
+
+        if (frame.hasRemaining()) {
+            this.exhausted = true;
+            while (frame.hasRemaining()) {
+                frame.put((byte) 0);
+            }
+        }
+        frame.rewind();
+    }
+
+    private void parseHeader() throws IOException {
+        // headerless audio is replayed from the peeked bytes
+        this.header.clear();
+        transfer(this.header);
+        this.header.flip();
+        if (this.header.remaining() < RIFF_HEADER_SIZE
+              || this.header.getInt(0) != fourcc("RIFF")
+              || this.header.getInt(CHUNK_HEADER_SIZE) != fourcc("WAVE")) {
+            this.pending = this.header;
+            return;
+        }
+
+        // scan the chunks, validating the format and stopping at the audio
+        boolean formatted = false;
+        while (true) {
+            ByteBuffer chunk = readChunk(CHUNK_HEADER_SIZE);
+            int id = chunk.getInt();
+            int size = chunk.getInt();
+            if (id == fourcc("data")) {
+                if (!formatted) {
+                    throw new IOException("missing wave format chunk");
+                }
+                this.remaining = size & 0xffffffffL;
+                return;
+            } else if (id == fourcc("fmt ")) {
+                parseFormat(readChunk(size + size % 2));
+                formatted = true;
+            } else {
+                readChunk(size + size % 2);
+            }
+        }
+    }
+
+    private void parseFormat(ByteBuffer format) {
+        int encoding = format.getShort() & 0xffff;
+        int channels = format.getShort() & 0xffff;
+        int rate = format.getInt();
+        // skip the byte rate and block alignment fields
+        format.position(format.position() + FORMAT_SKIP_SIZE);
+        int bits = format.getShort() & 0xffff;
+        if (encoding != FORMAT_PCM || channels != 1 || bits != SAMPLE_BITS) {
+            throw new IllegalArgumentException("input-format");
+        }
+        if (rate != this.sampleRate) {
+            throw new IllegalArgumentException("sample-rate");
+        }
+    }
+
+    private ByteBuffer readChunk(int size) throws IOException {
+        ByteBuffer chunk = ByteBuffer
+              .allocate(size)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        transfer(chunk);
+        if (chunk.hasRemaining()) {
+            throw new EOFException("truncated wave header");
+        }
+        chunk.flip();
+        return chunk;
+    }
+
+    private void transfer(ByteBuffer dest) throws IOException {
+        if (this.pending != null) {
+            copy(this.pending, dest);
+            if (!this.pending.hasRemaining()) {
+                this.pending = null;
+            }
+        }
+        if (this.mapped != null) {
+            copy(this.mapped, dest);
+        } else {
+            // keep reading until the buffer is full or the stream ends
+            int read = 0;
+            while (dest.hasRemaining() && read >= 0) {
+                read = this.channel.read(dest);
+            }
+        }
+    }
+
+    private void copy(ByteBuffer source, ByteBuffer dest) {
+        int count = Math.min(source.remaining(), dest.remaining());
+        ByteBuffer slice = source.duplicate();
+        slice.limit(slice.position() + count);
+        dest.put(slice);
+        source.position(source.position() + count);
+    }
+
+    private static int fourcc(String id) {
+        return id.charAt(0)
+              | id.charAt(1) << 8
+              | id.charAt(2) << 16
+              | id.charAt(3) << 24;
+    }
+}
@@ -0,0 +1,350 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractCollection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * a fixed-capacity circular buffer of audio frames.
+ *
+ * <p>
+ * This class holds the speech pipeline's pre-roll audio. All frames are
+ * views over a single contiguous off-heap buffer, allocated once, and the
+ * ring is always full. Each call to {@link #rotate()} recycles the oldest
+ * frame as the newest one and advances the ring's sequence number, without
+ * allocation or node churn, so long pre-roll windows (seconds of audio) cost
+ * no more per frame than a single one.
+ * </p>
+ *
+ * <p>
+ * The ring is exposed to stages as a read-only {@link Deque}, ordered from
+ * the oldest frame to the newest, so that existing stages can iterate it to
+ * replay pre-roll audio. Stages may also access frames by index, take
+ * read-only views of individual frames, or take zero-copy slices covering
+ * the most recent frames (or the most recent audio, by duration), which can
+ * be handed to recognizers in bulk.
+ * </p>
+ *
+ * <p>
+ * Structural modifications through the {@link Deque} interface (adding,
+ * removing, or polling frames) are not supported, and throw
+ * {@link UnsupportedOperationException}. This differs from the
+ * {@link java.util.LinkedList} previously attached to the speech context, so
+ * stages that modified the pipeline's buffer through
+ * {@link SpeechContext#getBuffer()} must instead copy the frames they need.
+ * </p>
+ */
+public final class FrameRing extends AbstractCollection<ByteBuffer>
+      implements Deque<ByteBuffer> {
+    private final ByteBuffer storage;
+    private final ByteBuffer[] frames;
+    private final int frameSize;
+    private final int frameWidth;
+    private int head;
+    private long sequence;
+
+    /**
+     * constructs a new frame ring.
+     * @param capacity the number of frames in the ring
+     * @param size     the size of each frame, in bytes
+     * @param width    the duration of each frame, in ms
+     */
+    public FrameRing(int capacity, int size, int width) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        if (width < 1) {
+            throw new IllegalArgumentException("width");
+        }
+        this.frameSize = size;
+        this.frameWidth = width;
+        this.storage = ByteBuffer
+              .allocateDirect(capacity * size)
+              .order(ByteOrder.nativeOrder());
+        this.frames = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.frames[i] = range(i * size, size);
+        }
+    }
+
+    /**
+     * @return the size of each frame, in bytes
+     */
+    public int getFrameSize() {
+        return this.frameSize;
+    }
+
+    /**
+     * @return the duration of each frame, in ms
+     */
+    public int getFrameWidth() {
+        return this.frameWidth;
+    }
+
+    /**
+     * @return the number of frames written to the ring since it was created,
+     * which is also the sequence number of the newest frame
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * recycles the oldest frame as the newest frame, advancing the sequence.
+     * @return the newest frame, to be filled by the caller
+     */
+    public ByteBuffer rotate() {
+        ByteBuffer frame = this.frames[this.head];
+        this.head = (this.head + 1) % this.frames.length;
+        this.sequence++;
+        return frame;
+    }
+
+    /**
+     * retrieves a frame by position.
+     * @param index the frame index, where 0 is the oldest frame
+     * @return the frame at the specified index
+     */
+    public ByteBuffer get(int index) {
+        if (index < 0 || index >= this.frames.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return this.frames[(this.head + index) % this.frames.length];
+    }
+
+    /**
+     * creates a read-only view of a frame, which shares its content.
+     * @param index the frame index, where 0 is the oldest frame
+     * @return a read-only view of the frame at the specified index
+     */
+    public ByteBuffer view(int index) {
+        return readOnly(get(index), 0, this.frameSize);
+    }
+
+    /**
+     * creates read-only views covering the most recent frames, in order.
+     * the frames are returned in one view when they are contiguous in the
+     * ring's storage, or in two views when they wrap around its end.
+     * @param count the number of frames to include
+     * @return views of the specified frames, oldest first
+     */
+    public ByteBuffer[] slices(int count) {
+        if (count < 0 || count > this.frames.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(count));
+        }
+        int capacity = this.frames.length;
+        int start = (this.head + capacity - count) % capacity;
+        if (count == 0) {
+            return new ByteBuffer[0];
+        } else if (start + count <= capacity) {
+            return new ByteBuffer[]{
+                  readOnly(this.storage, start * this.frameSize,
+                        count * this.frameSize)
+            };
+        } else {
+            int first = capacity - start;
+            return new ByteBuffer[]{
+                  readOnly(this.storage, start * this.frameSize,
+                        first * this.frameSize),
+                  readOnly(this.storage, 0, (count - first) * this.frameSize)
+            };
+        }
+    }
+
+    /**
+     * creates read-only views covering the most recent audio, in order, as
+     * with {@link #slices(int)}. the duration is rounded up to a whole
+     * number of frames, and limited to the ring's capacity.
+     * @param millis the duration of audio to include, in ms
+     * @return views of the frames covering the specified duration, oldest
+     * first
+     */
+    public ByteBuffer[] recent(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis");
+        }
+        int count = millis / this.frameWidth;
+        if (millis % this.frameWidth != 0) {
+            count++;
+        }
+        return slices(Math.min(count, this.frames.length));
+    }
+
+    /**
+     * copies the most recent frames into a buffer, in order.
+     * @param count the number of frames to copy
+     * @param dest  the buffer to fill, from its current position
+     * @return the number of bytes copied
+     */
+    public int copyTo(int count, ByteBuffer dest) {
+        int copied = 0;
+        for (ByteBuffer slice : slices(count)) {
+            copied += slice.remaining();
+            dest.put(slice);
+        }
+        return copied;
+    }
+
+    private ByteBuffer range(int offset, int length) {
+        ByteBuffer view = this.storage.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer readOnly(ByteBuffer source, int offset, int length) {
+        ByteBuffer view = source.asReadOnlyBuffer();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public int size() {
+        return this.frames.length;
+    }
+
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new FrameIterator(false);
+    }
+
+    @Override
+    public Iterator<ByteBuffer> descendingIterator() {
+        return new FrameIterator(true);
+    }
+
+    @Override
+    public ByteBuffer getFirst() {
+        return get(0);
+    }
+
+    @Override
+    public ByteBuffer getLast() {
+        return get(this.frames.length - 1);
+    }
+
+    @Override
+    public ByteBuffer peekFirst() {
+        return getFirst();
+    }
+
+    @Override
+    public ByteBuffer peekLast() {
+        return getLast();
+    }
+
+    @Override
+    public ByteBuffer element() {
+        return getFirst();
+    }
+
+    @Override
+    public ByteBuffer peek() {
+        return getFirst();
+    }
+
+    @Override
+    public void addFirst(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addLast(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean offerFirst(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean offerLast(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean offer(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void push(ByteBuffer frame) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer removeFirst() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer removeLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer pollFirst() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer pollLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer poll() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ByteBuffer pop() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeFirstOccurrence(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeLastOccurrence(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * index-based frame iterator.
+     */
+    private final class FrameIterator implements Iterator<ByteBuffer> {
+        private final boolean descending;
+        private int next;
+
+        FrameIterator(boolean reverse) {
+            this.descending = reverse;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < frames.length;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int index = this.next++;
+            return get(this.descending ? frames.length - 1 - index : index);
+        }
+    }
+}
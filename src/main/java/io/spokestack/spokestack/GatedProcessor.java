@@ -0,0 +1,55 @@
+package io.spokestack.spokestack;
+
+/**
+ * gated speech pipeline processor interface.
+ *
+ * <p>
+ * Many stages only have work to do in certain speech context states; for
+ * example, a wakeword trigger has nothing to do while the pipeline is active,
+ * and an ASR stage has nothing to do while it is inactive. Stages that
+ * implement this interface declare the states in which they must run, and
+ * the speech pipeline skips them entirely (without calling
+ * {@link SpeechProcessor#process}) in all other states.
+ * </p>
+ *
+ * <p>
+ * The gate is a bitmask of the following conditions. Conditions on the same
+ * state (such as {@link #ACTIVE} and {@link #INACTIVE}) are combined with a
+ * logical or, and conditions on different states (such as {@link #ACTIVE}
+ * and {@link #SPEECH}) are combined with a logical and. A state with no
+ * conditions does not affect the gate. For example, {@code ACTIVE | SPEECH}
+ * runs the stage only while the pipeline is active and speech is detected,
+ * and {@code INACTIVE} runs it whenever the pipeline is inactive.
+ * </p>
+ *
+ * <p>
+ * Because the stage is not called while its gate is closed, it misses any
+ * state changes that occur in the meantime. The pipeline therefore notifies
+ * the stage when its gate opens or closes, before the frame that caused the
+ * change is dispatched, so that it can catch up on (or reset) its state.
+ * </p>
+ */
+public interface GatedProcessor extends SpeechProcessor {
+    /** run the stage while the speech pipeline is active. */
+    int ACTIVE = 1;
+    /** run the stage while the speech pipeline is inactive. */
+    int INACTIVE = 1 << 1;
+    /** run the stage while speech is detected. */
+    int SPEECH = 1 << 2;
+    /** run the stage while speech is not detected. */
+    int SILENCE = 1 << 3;
+
+    /**
+     * @return the bitmask of conditions under which the stage must run
+     */
+    int getGate();
+
+    /**
+     * notifies the stage that its gate has opened or closed.
+     * @param context the current speech context
+     * @param open    true if the stage will now be run, false if it will
+     *                be skipped
+     * @throws Exception on error
+     */
+    void onGateChange(SpeechContext context, boolean open) throws Exception;
+}
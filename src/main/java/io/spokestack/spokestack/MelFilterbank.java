@@ -0,0 +1,282 @@
+package io.spokestack.spokestack;
+
+import androidx.annotation.Nullable;
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+import java.nio.FloatBuffer;
+
+/**
+ * sparse mel filterbank projection.
+ *
+ * <p>
+ * The "filter" Tensorflow-Lite models used by the mel spectrogram
+ * front-ends only multiply the STFT magnitudes by a mel weight matrix, but
+ * running the interpreter for every hop adds considerable overhead. This
+ * class performs the projection directly, using only the nonzero span of
+ * each (triangular) filter. The weights are either computed from the
+ * configuration, in the same manner as Tensorflow's
+ * {@code linear_to_mel_weight_matrix}, or derived from the filter model at
+ * startup by running it once for each STFT bin.
+ * </p>
+ *
+ * <p>
+ * The front-ends select the filterbank via the following configuration
+ * properties, which the keyword recognizer prefixes with {@code keyword-}:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>mel-filter-type</b> (string): {@code model} to run the filter
+ *      model for each hop, {@code java} to compute the filterbank from the
+ *      configuration (in which case the filter model is not loaded), or
+ *      {@code derived} to derive it from the filter model, falling back to
+ *      running the model if it is not a linear projection (default model)
+ *   </li>
+ *   <li>
+ *      <b>mel-min-frequency</b> (double): the lower edge of the lowest
+ *      filter, in Hz, for the {@code java} type (default 125)
+ *   </li>
+ *   <li>
+ *      <b>mel-max-frequency</b> (double): the upper edge of the highest
+ *      filter, in Hz, for the {@code java} type (default 3800)
+ *   </li>
+ * </ul>
+ */
+public final class MelFilterbank {
+    /** run the filter model for each hop. */
+    public static final String TYPE_MODEL = "model";
+    /** compute the filterbank from the configuration. */
+    public static final String TYPE_JAVA = "java";
+    /** derive the filterbank from the filter model. */
+    public static final String TYPE_DERIVED = "derived";
+
+    /** default mel-min-frequency configuration value. */
+    public static final double DEFAULT_MIN_FREQUENCY = 125;
+    /** default mel-max-frequency configuration value. */
+    public static final double DEFAULT_MAX_FREQUENCY = 3800;
+
+    // maximum relative error allowed when deriving from a model
+    private static final float DERIVE_TOLERANCE = 1e-4f;
+
+    private final int bins;
+    private final int[] offsets;
+    private final float[][] weights;
+
+    /**
+     * constructs a filterbank from a dense weight matrix.
+     * @param matrix the mel weights, shaped [mel-width, stft-bins]
+     */
+    public MelFilterbank(float[][] matrix) {
+        this.bins = matrix[0].length;
+        this.offsets = new int[matrix.length];
+        this.weights = new float[matrix.length][];
+
+        // keep only the span of each filter between its first and last
+        // nonzero weights
+        for (int m = 0; m < matrix.length; m++) {
+            int start = 0;
+            int end = this.bins;
+            while (start < end && matrix[m][start] == 0)
+                start++;
+            while (end > start && matrix[m][end - 1] == 0)
+                end--;
+            this.offsets[m] = start;
+            this.weights[m] = new float[end - start];
+            System.arraycopy(matrix[m], start, this.weights[m], 0, end - start);
+        }
+    }
+
+    /**
+     * creates the filterbank configured for a mel spectrogram front-end.
+     * @param config     the pipeline configuration
+     * @param prefix     the front-end's configuration key prefix
+     * @param model      the front-end's filter model, or null if it was
+     *                   not loaded
+     * @param windowSize the size of the STFT window, in samples
+     * @param melWidth   the number of mel filters
+     * @return the filterbank, or null if the filter model should be run
+     */
+    @Nullable
+    public static MelFilterbank create(SpeechConfig config,
+                                       String prefix,
+                                       @Nullable TensorflowModel model,
+                                       int windowSize,
+                                       int melWidth) {
+        String type = getType(config, prefix);
+        int bins = windowSize / 2 + 1;
+        if (type.equals(TYPE_MODEL))
+            return null;
+        if (type.equals(TYPE_DERIVED))
+            return derive(model, bins, melWidth);
+        if (!type.equals(TYPE_JAVA))
+            throw new IllegalArgumentException(prefix + "mel-filter-type");
+
+        return triangular(
+            config.getInteger("sample-rate"),
+            bins,
+            melWidth,
+            config.getDouble(
+                prefix + "mel-min-frequency",
+                DEFAULT_MIN_FREQUENCY),
+            config.getDouble(
+                prefix + "mel-max-frequency",
+                DEFAULT_MAX_FREQUENCY));
+    }
+
+    /**
+     * @param config the pipeline configuration
+     * @param prefix the front-end's configuration key prefix
+     * @return true if the front-end's filter model must be loaded
+     */
+    public static boolean needsModel(SpeechConfig config, String prefix) {
+        return !getType(config, prefix).equals(TYPE_JAVA);
+    }
+
+    private static String getType(SpeechConfig config, String prefix) {
+        return config.getString(prefix + "mel-filter-type", TYPE_MODEL);
+    }
+
+    /**
+     * computes a triangular filterbank with filters evenly spaced on the
+     * HTK mel scale, as in Tensorflow's
+     * {@code linear_to_mel_weight_matrix}.
+     * @param sampleRate the audio sample rate, in Hz
+     * @param bins       the number of STFT bins
+     * @param melWidth   the number of mel filters
+     * @param minHz      the lower edge of the lowest filter, in Hz
+     * @param maxHz      the upper edge of the highest filter, in Hz
+     * @return the filterbank
+     */
+    public static MelFilterbank triangular(int sampleRate,
+                                           int bins,
+                                           int melWidth,
+                                           double minHz,
+                                           double maxHz) {
+        double nyquist = sampleRate / 2.0;
+        if (minHz < 0 || minHz >= maxHz)
+            throw new IllegalArgumentException("mel-min-frequency");
+        if (maxHz > nyquist)
+            throw new IllegalArgumentException("mel-max-frequency");
+
+        // the filter edges are evenly spaced in mels,
+        // and the dc bin is excluded from all filters
+        double minMel = hzToMel(minHz);
+        double melStep = (hzToMel(maxHz) - minMel) / (melWidth + 1);
+        float[][] matrix = new float[melWidth][bins];
+        for (int m = 0; m < melWidth; m++) {
+            double lower = minMel + m * melStep;
+            double center = lower + melStep;
+            double upper = center + melStep;
+            for (int b = 1; b < bins; b++) {
+                double mel = hzToMel(nyquist * b / (bins - 1));
+                double rising = (mel - lower) / (center - lower);
+                double falling = (upper - mel) / (upper - center);
+                matrix[m][b] = (float) Math.max(0, Math.min(rising, falling));
+            }
+        }
+        return new MelFilterbank(matrix);
+    }
+
+    /**
+     * derives a filterbank from a filter model by running it for a unit
+     * impulse in each STFT bin, then verifying that the model is a linear
+     * projection by comparing a mixed input against the derived weights.
+     * @param model    the filter model
+     * @param bins     the number of STFT bins
+     * @param melWidth the number of mel filters
+     * @return the filterbank, or null if the model is not linear
+     */
+    @Nullable
+    public static MelFilterbank derive(TensorflowModel model,
+                                       int bins,
+                                       int melWidth) {
+        float[] input = new float[bins];
+        float[] output = new float[melWidth];
+        float[][] matrix = new float[melWidth][bins];
+        for (int b = 0; b < bins; b++) {
+            input[b] = 1;
+            runModel(model, input, output);
+            input[b] = 0;
+            for (int m = 0; m < melWidth; m++)
+                matrix[m][b] = output[m];
+        }
+        MelFilterbank filterbank = new MelFilterbank(matrix);
+
+        // the verification input sums to more than one,
+        // in order to detect any bias
+        float[] expected = new float[melWidth];
+        for (int b = 0; b < bins; b++)
+            input[b] = (b % 7 + 1) / 3f;
+        runModel(model, input, output);
+        filterbank.apply(input, expected);
+        for (int m = 0; m < melWidth; m++) {
+            float error = Math.abs(output[m] - expected[m]);
+            if (error > DERIVE_TOLERANCE * Math.max(1, Math.abs(output[m])))
+                return null;
+        }
+        return filterbank;
+    }
+
+    private static void runModel(TensorflowModel model,
+                                 float[] input,
+                                 float[] output) {
+        FloatBuffer inputs = model.floatInputs(0);
+        inputs.rewind();
+        inputs.put(input);
+        model.run();
+        model.floatOutputs(0).get(output);
+    }
+
+    /**
+     * @return the number of STFT bins
+     */
+    public int getBins() {
+        return this.bins;
+    }
+
+    /**
+     * @return the number of mel filters
+     */
+    public int getWidth() {
+        return this.weights.length;
+    }
+
+    /**
+     * computes the STFT magnitudes from the output of a real forward FFT.
+     * @param fft      the packed FFT output
+     * @param spectrum the array to receive the magnitudes, whose length is
+     *                 one more than half the FFT size
+     */
+    public static void magnitudes(float[] fft, float[] spectrum) {
+        // . compute the magnitude (abs) of each complex stft component
+        // . the first and last stft components contain only real parts
+        //   and are stored in the first two positions of the stft output
+        // . the remaining components contain real/imaginary parts
+        spectrum[0] = fft[0];
+        for (int i = 1; i < fft.length / 2; i++) {
+            float re = fft[i * 2 + 0];
+            float im = fft[i * 2 + 1];
+            spectrum[i] = (float) Math.sqrt(re * re + im * im);
+        }
+        spectrum[fft.length / 2] = fft[1];
+    }
+
+    /**
+     * projects an STFT magnitude frame onto the filterbank.
+     * @param spectrum the STFT magnitudes
+     * @param dest     the array to receive the mel frame
+     */
+    public void apply(float[] spectrum, float[] dest) {
+        for (int m = 0; m < this.weights.length; m++) {
+            float[] filter = this.weights[m];
+            int offset = this.offsets[m];
+            float sum = 0;
+            for (int i = 0; i < filter.length; i++)
+                sum += filter[i] * spectrum[offset + i];
+            dest[m] = sum;
+        }
+    }
+
+    private static double hzToMel(double hz) {
+        return 1127.0 * Math.log(1 + hz / 700.0);
+    }
+}
@@ -0,0 +1,101 @@
+package io.spokestack.spokestack;
+
+/**
+ * a stream of mel spectrogram frames shared between pipeline stages.
+ *
+ * <p>
+ * The {@link FeatureExtractor} stage computes a mel frame for each STFT hop
+ * of the audio signal and publishes it here, where it is available to the
+ * stages that follow it in the pipeline via {@link SpeechContext#getFeatures}.
+ * Each frame is numbered with a sequence that increases by one for each
+ * frame published, starting with 1. Only the most recent frames are
+ * retained, so consumers should read the frames published during each audio
+ * frame before the next one is processed.
+ * </p>
+ *
+ * <p>
+ * Frames are returned as references to the stream's own storage, which is
+ * overwritten as new frames are published; they must not be modified.
+ * </p>
+ */
+public final class MelFrames {
+    private final float[][] frames;
+    private long sequence;
+    private long frameStart;
+
+    /**
+     * constructs a new frame stream.
+     * @param capacity the number of frames to retain
+     * @param width    the number of filterbank components in each frame
+     */
+    public MelFrames(int capacity, int width) {
+        this.frames = new float[capacity][width];
+    }
+
+    /**
+     * @return the number of frames retained
+     */
+    public int getCapacity() {
+        return this.frames.length;
+    }
+
+    /**
+     * @return the number of filterbank components in each frame
+     */
+    public int getWidth() {
+        return this.frames[0].length;
+    }
+
+    /**
+     * @return the sequence of the most recently published frame, or 0 if
+     * no frames have been published
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return the sequence of the most recent frame published before the
+     * current audio frame; frames published while processing the current
+     * audio frame have higher sequences
+     */
+    public long getFrameStart() {
+        return this.frameStart;
+    }
+
+    /**
+     * fetches a published frame.
+     * @param seq the sequence of the frame to fetch
+     * @return the frame, or null if it has not been published or is no
+     * longer retained
+     */
+    public float[] get(long seq) {
+        if (seq <= 0
+              || seq > this.sequence
+              || seq <= this.sequence - this.frames.length)
+            return null;
+        return this.frames[(int) (seq % this.frames.length)];
+    }
+
+    /**
+     * marks the start of a new audio frame.
+     */
+    void startFrame() {
+        this.frameStart = this.sequence;
+    }
+
+    /**
+     * @return the storage for the next frame to be published, which
+     * overwrites the oldest retained frame
+     */
+    float[] claim() {
+        return this.frames[(int) ((this.sequence + 1) % this.frames.length)];
+    }
+
+    /**
+     * publishes the frame returned by the last call to {@link #claim()}.
+     */
+    void publish() {
+        this.sequence++;
+    }
+}
@@ -0,0 +1,28 @@
+package io.spokestack.spokestack;
+
+/**
+ * non-blocking speech input interface.
+ *
+ * <p>
+ * This is an optional extension of {@link SpeechInput} for inputs that can
+ * report whether a frame is available without blocking, and that notify a
+ * registered callback when one becomes available. It allows a
+ * {@link SpeechPipelineHost} to schedule a pipeline's frame work only when
+ * its audio has arrived, instead of dedicating a thread to wait for it.
+ * </p>
+ */
+public interface NonBlockingInput extends SpeechInput {
+    /**
+     * @return true if a call to {@code read} would not block, either
+     * because a full frame is available or because the input has ended
+     */
+    boolean isReady();
+
+    /**
+     * registers a callback to invoke whenever the input becomes ready.
+     * the callback may be invoked on any thread, and spuriously.
+     *
+     * @param callback the callback to invoke, or null to remove it
+     */
+    void setOnReady(Runnable callback);
+}
@@ -0,0 +1,233 @@
+package io.spokestack.spokestack;
+
+import io.spokestack.spokestack.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * speech pipeline latency statistics.
+ *
+ * <p>
+ * This class records how long the speech pipeline spends on each audio
+ * frame, so that the stages consuming the frame budget can be identified on
+ * a particular device. Latencies are recorded into fixed-bucket histograms
+ * (see {@link LatencyHistogram}) for the input read, for each stage, and
+ * for each frame as a whole (all stages combined), along with a count of
+ * overruns: frames whose total stage processing time exceeded the width of
+ * the frame, which cannot be sustained in real time. The number of times
+ * each stage was skipped because its gate was closed (see
+ * {@link GatedProcessor}) is also counted.
+ * </p>
+ *
+ * <p>
+ * When the pipeline's stages are reconfigured, the statistics of the stages
+ * that are kept, and of the pipeline as a whole, are carried over.
+ * Statistics are collected on the pipeline's thread; clients obtain
+ * snapshots of them via {@link SpeechPipeline#getStats()}. Summaries are
+ * also traced at the PERF level when the pipeline stops, and periodically if
+ * configured. The pipeline supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>stats-interval</b> (integer): the amount of audio between PERF
+ *      summary traces, in ms, or 0 to trace only when the pipeline stops
+ *      (default 0)
+ *   </li>
+ * </ul>
+ */
+public final class PipelineStats {
+    private static final long NANOS_PER_MS = 1000000;
+
+    private final List<String> names;
+    private final LatencyHistogram input;
+    private final List<LatencyHistogram> stages;
+    private final long[] skipped;
+    private final LatencyHistogram frame;
+    private final long frameNanos;
+    private long overruns;
+
+    /**
+     * constructs a new statistics instance.
+     *
+     * @param stageNames the names of the pipeline's stages, in order
+     * @param frameWidth the width of each frame, in milliseconds
+     */
+    public PipelineStats(List<String> stageNames, int frameWidth) {
+        this.names = Collections.unmodifiableList(
+              new ArrayList<>(stageNames));
+        this.input = new LatencyHistogram();
+        this.stages = new ArrayList<>();
+        for (int i = 0; i < stageNames.size(); i++) {
+            this.stages.add(new LatencyHistogram());
+        }
+        this.skipped = new long[stageNames.size()];
+        this.frame = new LatencyHistogram();
+        this.frameNanos = frameWidth * NANOS_PER_MS;
+    }
+
+    /**
+     * constructs statistics for a reconfigured pipeline, carrying over the
+     * input and frame statistics, and those of the stages that were kept.
+     *
+     * @param previous   the statistics before reconfiguration
+     * @param stageNames the names of the pipeline's new stages, in order
+     * @param sources    for each new stage, the index of its statistics in
+     *                   {@code previous}, or -1 if it is a new stage
+     * @param frameWidth the width of each frame, in milliseconds
+     */
+    PipelineStats(PipelineStats previous,
+                  List<String> stageNames,
+                  int[] sources,
+                  int frameWidth) {
+        this.names = Collections.unmodifiableList(
+              new ArrayList<>(stageNames));
+        this.input = previous.input;
+        this.stages = new ArrayList<>();
+        this.skipped = new long[stageNames.size()];
+        for (int i = 0; i < stageNames.size(); i++) {
+            if (sources[i] >= 0) {
+                this.stages.add(previous.stages.get(sources[i]));
+                this.skipped[i] = previous.skipped[sources[i]];
+            } else {
+                this.stages.add(new LatencyHistogram());
+            }
+        }
+        this.frame = previous.frame;
+        this.frameNanos = frameWidth * NANOS_PER_MS;
+        this.overruns = previous.overruns;
+    }
+
+    private PipelineStats(PipelineStats other) {
+        this.names = other.names;
+        this.input = other.input.copy();
+        this.stages = new ArrayList<>();
+        for (LatencyHistogram stage : other.stages) {
+            this.stages.add(stage.copy());
+        }
+        this.skipped = other.skipped.clone();
+        this.frame = other.frame.copy();
+        this.frameNanos = other.frameNanos;
+        this.overruns = other.overruns;
+    }
+
+    /**
+     * records the time spent reading a frame from the input.
+     *
+     * @param nanos the read latency, in nanoseconds
+     */
+    void recordInput(long nanos) {
+        this.input.record(nanos);
+    }
+
+    /**
+     * records the time spent by a stage processing a frame.
+     *
+     * @param index the index of the stage
+     * @param nanos the processing latency, in nanoseconds
+     */
+    void recordStage(int index, long nanos) {
+        this.stages.get(index).record(nanos);
+    }
+
+    /**
+     * records a frame skipped by a gated stage.
+     *
+     * @param index the index of the stage
+     */
+    void recordSkip(int index) {
+        this.skipped[index]++;
+    }
+
+    /**
+     * records the time spent by all stages processing a frame.
+     *
+     * @param nanos the processing latency, in nanoseconds
+     */
+    void recordFrame(long nanos) {
+        this.frame.record(nanos);
+        if (nanos > this.frameNanos) {
+            this.overruns++;
+        }
+    }
+
+    /**
+     * @return a snapshot of the current statistics
+     */
+    PipelineStats copy() {
+        return new PipelineStats(this);
+    }
+
+    /**
+     * @return the names of the pipeline's stages, in order
+     */
+    public List<String> getStageNames() {
+        return this.names;
+    }
+
+    /**
+     * @return input read latencies
+     */
+    public LatencyHistogram getInput() {
+        return this.input;
+    }
+
+    /**
+     * @param index the index of a pipeline stage
+     * @return the stage's processing latencies
+     */
+    public LatencyHistogram getStage(int index) {
+        return this.stages.get(index);
+    }
+
+    /**
+     * @param index the index of a pipeline stage
+     * @return the number of frames the stage skipped while its gate was
+     * closed
+     */
+    public long getSkipped(int index) {
+        return this.skipped[index];
+    }
+
+    /**
+     * @return total processing latencies for each frame
+     */
+    public LatencyHistogram getFrame() {
+        return this.frame;
+    }
+
+    /**
+     * @return the number of frames processed
+     */
+    public long getFrames() {
+        return this.frame.getCount();
+    }
+
+    /**
+     * @return the number of frames whose processing time exceeded the
+     * frame width
+     */
+    public long getOverruns() {
+        return this.overruns;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(
+              "frames=%d overruns=%d frame[%s] input[%s]",
+              getFrames(),
+              this.overruns,
+              this.frame,
+              this.input));
+        for (int i = 0; i < this.names.size(); i++) {
+            summary.append(String.format(
+                  " %s[%s skipped=%d]",
+                  this.names.get(i),
+                  this.stages.get(i),
+                  this.skipped[i]));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package io.spokestack.spokestack;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+/**
+ * push-based speech input.
+ *
+ * <p>
+ * This class allows audio that arrives from an external source (a network
+ * stream, a call-center media server, a replay harness, etc.) to be written
+ * into a speech pipeline. Producers call {@link #write(ByteBuffer)} with
+ * 16-bit PCM audio at the configured sample rate, in chunks of any size, and
+ * {@link #end()} when the audio is complete. The pipeline reads the audio
+ * back one frame at a time.
+ * </p>
+ *
+ * <p>
+ * Writes block when the input's buffer is full, applying backpressure to the
+ * producer. Reads block until a full frame is available, so this input can
+ * be used with a dedicated pipeline thread; it also implements
+ * {@link NonBlockingInput}, so that a {@link SpeechPipelineHost} only
+ * schedules the pipeline once a frame has arrived. After {@link #end()},
+ * the final partial frame is padded with silence, and subsequent reads throw
+ * an {@link EOFException}.
+ * </p>
+ *
+ * <p>
+ * The pipeline creates its input instance on start; it can be retrieved for
+ * writing via {@link SpeechPipeline#getInput()}.
+ * </p>
+ *
+ * <p>
+ * This input supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>sample-rate</b> (integer): audio sampling rate, in Hz
+ *   </li>
+ *   <li>
+ *      <b>frame-width</b> (integer): speech frame width, in ms
+ *   </li>
+ *   <li>
+ *      <b>push-buffer-width</b> (integer): the amount of audio that can be
+ *      buffered before writes block, in ms (default 1000)
+ *   </li>
+ * </ul>
+ */
+public final class PushInput implements NonBlockingInput {
+    /** default push-buffer-width configuration value. */
+    public static final int DEFAULT_BUFFER_WIDTH = 1000;
+
+    private final Object lock = new Object();
+    private final ByteBuffer buffer;
+    private final int frameSize;
+    private volatile Runnable onReady;
+    private boolean ended;
+    private boolean closed;
+
+    /**
+     * initializes a new push input instance.
+     *
+     * @param config speech pipeline configuration
+     */
+    public PushInput(SpeechConfig config) {
+        int sampleWidth = 2;
+        int sampleRate = config.getInteger("sample-rate");
+        int frameWidth = config.getInteger("frame-width");
+        int bufferWidth = config.getInteger(
+              "push-buffer-width",
+              DEFAULT_BUFFER_WIDTH);
+        this.frameSize = sampleRate * frameWidth / 1000 * sampleWidth;
+        int bufferSize = sampleRate * bufferWidth / 1000 * sampleWidth;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, frameSize));
+    }
+
+    /**
+     * writes audio to the input, blocking until there is space to buffer it.
+     *
+     * @param audio the audio to write, from its position to its limit
+     * @throws InterruptedException if interrupted while blocked
+     * @throws IllegalStateException if the input has been ended or closed
+     */
+    public void write(ByteBuffer audio) throws InterruptedException {
+        while (audio.hasRemaining()) {
+            synchronized (this.lock) {
+                while (!this.buffer.hasRemaining() && !this.ended) {
+                    this.lock.wait();
+                }
+                if (this.ended || this.closed) {
+                    throw new IllegalStateException("input ended");
+                }
+                int count = Math.min(
+                      audio.remaining(),
+                      this.buffer.remaining());
+                ByteBuffer chunk = audio.duplicate();
+                chunk.limit(chunk.position() + count);
+                this.buffer.put(chunk);
+                audio.position(audio.position() + count);
+                this.lock.notifyAll();
+            }
+            notifyReady();
+        }
+    }
+
+    /**
+     * signals the end of the audio; any buffered audio remains readable,
+     * and any blocked writers are released.
+     */
+    public void end() {
+        synchronized (this.lock) {
+            this.ended = true;
+            this.lock.notifyAll();
+        }
+        notifyReady();
+    }
+
+    /**
+     * releases any blocked readers and writers.
+     */
+    public void close() {
+        synchronized (this.lock) {
+            this.ended = true;
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        synchronized (this.lock) {
+            return this.ended || this.buffer.position() >= this.frameSize;
+        }
+    }
+
+    @Override
+    public void setOnReady(Runnable callback) {
+        this.onReady = callback;
+    }
+
+    /**
+     * reads a frame of audio, blocking until one is available.
+     *
+     * @param context the current speech context
+     * @param frame   the frame buffer to fill
+     * @throws EOFException         once all audio has been read
+     * @throws InterruptedException if interrupted while blocked
+     */
+    public void read(SpeechContext context, ByteBuffer frame)
+          throws EOFException, InterruptedException {
+        synchronized (this.lock) {
+            while (!this.ended && this.buffer.position() < frame.capacity()) {
+                this.lock.wait();
+            }
+            if (this.buffer.position() == 0) {
+                throw new EOFException("end of audio");
+            }
+
+            // transfer the frame, padding the final frame with silence
+            frame.clear();
+            this.buffer.flip();
+            int count = Math.min(frame.capacity(), this.buffer.remaining());
+            ByteBuffer chunk = this.buffer.duplicate();
+            chunk.limit(count);
+            frame.put(chunk);
+            while (frame.hasRemaining()) {
+                frame.put((byte) 0);
+            }
+            frame.rewind();
+            this.buffer.position(count);
+            this.buffer.compact();
+            this.lock.notifyAll();
+        }
+    }
+
+    private void notifyReady() {
+        Runnable callback = this.onReady;
+        if (callback != null && isReady()) {
+            callback.run();
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package io.spokestack.spokestack;
 
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
 /**
  * a simple circular buffer of floating point values.
+ *
+ * <p>
+ * In addition to single values, ranges of values can be transferred to and
+ * from arrays and float buffers (such as views of tensorflow model tensors).
+ * Bulk transfers are performed with at most two block copies, one on either
+ * side of the end of the buffer's storage.
+ * </p>
  */
 public final class RingBuffer {
     private final float[] data;     // data buffer (n + 1) elements
@@ -25,6 +36,13 @@ public final class RingBuffer {
         return this.data.length - 1;
     }
 
+    /**
+     * @return the number of elements that can be read
+     */
+    public int size() {
+        return pos(this.wpos - this.rpos);
+    }
+
     /**
      * @return true if no elements can be read, false otherwise
      */
@@ -36,7 +54,7 @@ public final class RingBuffer {
      * @return true if no elements can be written, false otherwise
      */
     public boolean isFull() {
-        return pos(this.wpos + 1) == this.rpos;
+        return next(this.wpos) == this.rpos;
     }
 
     /**
@@ -45,7 +63,7 @@ public final class RingBuffer {
      * @return this
      */
     public RingBuffer rewind() {
-        this.rpos = pos(this.wpos + 1);
+        this.rpos = next(this.wpos);
         return this;
     }
 
@@ -76,8 +94,15 @@ public final class RingBuffer {
      * @return this
      */
     public RingBuffer fill(float value) {
-        while (!isFull())
-            write(value);
+        // the buffer is full when the write head is just behind the read head
+        int last = pos(this.rpos - 1);
+        if (this.wpos <= last) {
+            Arrays.fill(this.data, this.wpos, last, value);
+        } else {
+            Arrays.fill(this.data, this.wpos, this.data.length, value);
+            Arrays.fill(this.data, 0, last, value);
+        }
+        this.wpos = last;
         return this;
     }
 
@@ -90,10 +115,46 @@ public final class RingBuffer {
             throw new IllegalStateException("empty");
 
         float value = this.data[this.rpos];
-        this.rpos = pos(this.rpos + 1);
+        this.rpos = next(this.rpos);
         return value;
     }
 
+    /**
+     * reads a range of values from the buffer.
+     * @param dest   the array to receive the values
+     * @param offset the index in the array of the first value
+     * @param length the number of values to read
+     * @return this
+     */
+    public RingBuffer read(float[] dest, int offset, int length) {
+        if (length > size())
+            throw new IllegalStateException("empty");
+
+        int first = Math.min(length, this.data.length - this.rpos);
+        System.arraycopy(this.data, this.rpos, dest, offset, first);
+        System.arraycopy(this.data, 0, dest, offset + first, length - first);
+        this.rpos = pos(this.rpos + length);
+        return this;
+    }
+
+    /**
+     * reads all remaining values from the buffer.
+     * @param dest the float buffer to receive the values, starting at its
+     *             current position
+     * @return this
+     */
+    public RingBuffer read(FloatBuffer dest) {
+        int length = size();
+        if (length > dest.remaining())
+            throw new BufferOverflowException();
+
+        int first = Math.min(length, this.data.length - this.rpos);
+        dest.put(this.data, this.rpos, first);
+        dest.put(this.data, 0, length - first);
+        this.rpos = this.wpos;
+        return this;
+    }
+
     /**
      * writes the next value to the buffer.
      * @param value the value to write
@@ -103,7 +164,48 @@ public final class RingBuffer {
             throw new IllegalStateException("full");
 
         this.data[this.wpos] = value;
-        this.wpos = pos(this.wpos + 1);
+        this.wpos = next(this.wpos);
+    }
+
+    /**
+     * writes a range of values to the buffer.
+     * @param src    the array containing the values
+     * @param offset the index in the array of the first value
+     * @param length the number of values to write
+     * @return this
+     */
+    public RingBuffer write(float[] src, int offset, int length) {
+        if (length > capacity() - size())
+            throw new IllegalStateException("full");
+
+        int first = Math.min(length, this.data.length - this.wpos);
+        System.arraycopy(src, offset, this.data, this.wpos, first);
+        System.arraycopy(src, offset + first, this.data, 0, length - first);
+        this.wpos = pos(this.wpos + length);
+        return this;
+    }
+
+    /**
+     * writes all remaining values from a float buffer to the buffer.
+     * @param src the float buffer containing the values, starting at its
+     *            current position
+     * @return this
+     */
+    public RingBuffer write(FloatBuffer src) {
+        int length = src.remaining();
+        if (length > capacity() - size())
+            throw new IllegalStateException("full");
+
+        int first = Math.min(length, this.data.length - this.wpos);
+        src.get(this.data, this.wpos, first);
+        src.get(this.data, 0, length - first);
+        this.wpos = pos(this.wpos + length);
+        return this;
+    }
+
+    private int next(int x) {
+        // cheaper than a modulus for single-element steps
+        return x + 1 == this.data.length ? 0 : x + 1;
     }
 
     private int pos(int x) {
@@ -6,7 +6,7 @@ import io.spokestack.spokestack.util.EventTracer;
 
 import java.util.Deque;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.nio.ByteBuffer;
 
 /**
@@ -15,7 +15,8 @@ import java.nio.ByteBuffer;
  * <p>
  * This class maintains global state for the speech pipeline, allowing
  * pipeline components to communicate information among themselves and
- * event handlers.
+ * event handlers. Events are delivered to handlers synchronously, unless
+ * asynchronous dispatch is configured (see {@link EventDispatcher}).
  * </p>
  */
 public final class SpeechContext {
@@ -49,12 +50,16 @@ public final class SpeechContext {
         }
     }
 
-    private final List<OnSpeechEventListener> listeners = new ArrayList<>();
+    private final List<OnSpeechEventListener> listeners;
     private final EventTracer tracer;
+    private final EventDispatcher dispatcher;
+    private final TraceBuffer traceBuffer;
     private Context appContext;
     private Deque<ByteBuffer> buffer;
+    private MelFrames features;
     private boolean speech;
     private boolean active;
+    private String wakePhrase;
     private boolean managed;
     private String transcript = "";
     private double confidence;
@@ -71,6 +76,90 @@ public final class SpeechContext {
             EventTracer.Level.NONE.value());
 
         this.tracer = new EventTracer(traceLevel);
+        this.listeners = new CopyOnWriteArrayList<>();
+
+        // buffered traces are delivered from the trace thread, so they
+        // require asynchronous dispatch to keep listeners on one thread
+        int traceCapacity = config.getInteger("trace-buffer", 0);
+        if ("async".equals(config.getString("event-dispatch", "sync"))
+                || traceCapacity > 0) {
+            this.dispatcher = new EventDispatcher(config, this.listeners);
+        } else {
+            this.dispatcher = null;
+        }
+        if (traceCapacity > 0) {
+            this.traceBuffer = new TraceBuffer(this, traceCapacity);
+        } else {
+            this.traceBuffer = null;
+        }
+    }
+
+    /**
+     * creates an empty snapshot context, for asynchronous dispatch.
+     * @param shared       the listeners to share
+     * @param sharedTracer the tracer to share
+     */
+    private SpeechContext(List<OnSpeechEventListener> shared,
+                          EventTracer sharedTracer) {
+        this.listeners = shared;
+        this.tracer = sharedTracer;
+        this.dispatcher = null;
+        this.traceBuffer = null;
+    }
+
+    /**
+     * creates a snapshot of another context, for asynchronous dispatch.
+     * the snapshot shares the other context's listeners, but dispatches
+     * synchronously.
+     * @param other the context to copy
+     */
+    private SpeechContext(SpeechContext other) {
+        this.listeners = other.listeners;
+        this.tracer = other.tracer;
+        this.dispatcher = null;
+        this.traceBuffer = null;
+        this.appContext = other.appContext;
+        this.buffer = other.buffer;
+        this.features = other.features;
+        this.speech = other.speech;
+        this.active = other.active;
+        this.wakePhrase = other.wakePhrase;
+        this.managed = other.managed;
+        this.transcript = other.transcript;
+        this.confidence = other.confidence;
+        this.error = other.error;
+        this.message = other.message;
+    }
+
+    /**
+     * @return the asynchronous event dispatcher, or null if events are
+     * dispatched synchronously
+     */
+    @Nullable
+    public EventDispatcher getDispatcher() {
+        return this.dispatcher;
+    }
+
+    /**
+     * @return the trace record buffer, or null if traces are delivered
+     * synchronously
+     */
+    @Nullable
+    public TraceBuffer getTraceBuffer() {
+        return this.traceBuffer;
+    }
+
+    /**
+     * stops asynchronous event and trace dispatch once all queued events
+     * have been delivered. dispatch resumes with the next event raised.
+     */
+    void stopDispatch() {
+        if (this.traceBuffer != null) {
+            this.traceBuffer.stop();
+        }
+        if (this.dispatcher != null) {
+            this.dispatcher.stop();
+        }
     }
 
     /**
@@ -89,7 +178,11 @@ public final class SpeechContext {
         this.appContext = androidContext;
     }
 
-    /** @return speech frame buffer */
+    /**
+     * @return speech frame buffer, ordered from the oldest frame to the
+     * newest. within the speech pipeline, this is a {@link FrameRing},
+     * which cannot be structurally modified.
+     */
     public Deque<ByteBuffer> getBuffer() {
         return this.buffer;
     }
@@ -113,6 +206,34 @@ public final class SpeechContext {
         return this;
     }
 
+    /**
+     * @return shared mel spectrogram frames, or null if no
+     * {@link FeatureExtractor} is running
+     */
+    @Nullable
+    public MelFrames getFeatures() {
+        return this.features;
+    }
+
+    /**
+     * attaches a shared mel frame stream to the context.
+     * @param value mel frames to attach
+     * @return this
+     */
+    public SpeechContext attachFeatures(MelFrames value) {
+        this.features = value;
+        return this;
+    }
+
+    /**
+     * removes the attached mel frame stream.
+     * @return this
+     */
+    public SpeechContext detachFeatures() {
+        this.features = null;
+        return this;
+    }
+
     /** @return speech detected indicator */
     public boolean isSpeech() {
         return this.speech;
@@ -145,10 +266,31 @@ public final class SpeechContext {
             dispatch(Event.ACTIVATE);
         } else if (!value && isActive) {
             dispatch(Event.DEACTIVATE);
+            this.wakePhrase = null;
         }
         return this;
     }
 
+    /**
+     * @return the name of the wake phrase that activated the pipeline, or
+     * null if the pipeline is inactive or was activated by other means
+     */
+    @Nullable
+    public String getWakePhrase() {
+        return this.wakePhrase;
+    }
+
+    /**
+     * attaches the name of the wake phrase that is activating the pipeline.
+     * it is detached when the pipeline is deactivated.
+     * @param value the wake phrase name
+     * @return this
+     */
+    public SpeechContext setWakePhrase(@Nullable String value) {
+        this.wakePhrase = value;
+        return this;
+    }
+
     /**
      * @return whether the context is being managed externally.
      */
@@ -226,6 +368,7 @@ public final class SpeechContext {
     public SpeechContext reset() {
         setSpeech(false);
         setActive(false);
+        setWakePhrase(null);
         setManaged(false);
         setTranscript("");
         setConfidence(0);
@@ -291,12 +434,116 @@ public final class SpeechContext {
         return this;
     }
 
+    /**
+     * raises a structured trace event with a numeric field. if a trace
+     * buffer is configured, the message is formatted and delivered by the
+     * trace thread, without allocating on the caller's thread.
+     * @param level  tracing level
+     * @param format trace message format string, which identifies the trace
+     * @param value  numeric trace message parameter
+     * @return this
+     */
+    public SpeechContext traceValue(
+            EventTracer.Level level,
+            String format,
+            double value) {
+        if (this.tracer.canTrace(level)) {
+            if (this.traceBuffer != null) {
+                this.traceBuffer.record(format, value, null, false,
+                    this.active, this.speech, this.wakePhrase);
+            } else {
+                trace(level, format, value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * raises a structured trace event with a numeric field and a text
+     * field. if a trace buffer is configured, the message is formatted and
+     * delivered by the trace thread, without allocating on the caller's
+     * thread.
+     * @param level  tracing level
+     * @param format trace message format string, which identifies the trace
+     * @param value  numeric trace message parameter
+     * @param detail text trace message parameter
+     * @return this
+     */
+    public SpeechContext traceValue(
+            EventTracer.Level level,
+            String format,
+            double value,
+            @Nullable String detail) {
+        if (this.tracer.canTrace(level)) {
+            if (this.traceBuffer != null) {
+                this.traceBuffer.record(format, value, detail, true,
+                    this.active, this.speech, this.wakePhrase);
+            } else {
+                trace(level, format, value, detail);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return a snapshot of the context's current state, for asynchronous
+     * delivery
+     */
+    SpeechContext snapshot() {
+        return new SpeechContext(this);
+    }
+
+    /**
+     * creates a snapshot from state recorded by the trace buffer. called on
+     * the trace thread, so only the context's listeners and tracer are
+     * shared; the remaining state is left at its defaults.
+     * @param isActive the recorded activation state
+     * @param isSpeech the recorded speech detection state
+     * @param phrase   the recorded wake phrase
+     * @return a snapshot of the recorded state, for asynchronous delivery
+     */
+    SpeechContext snapshot(boolean isActive,
+                           boolean isSpeech,
+                           String phrase) {
+        SpeechContext snapshot = new SpeechContext(this.listeners, this.tracer);
+        snapshot.active = isActive;
+        snapshot.speech = isSpeech;
+        snapshot.wakePhrase = phrase;
+        return snapshot;
+    }
+
+    /**
+     * delivers a trace message formatted by the trace buffer.
+     * @param snapshot the context snapshot taken when the trace was recorded
+     * @param value    trace message
+     */
+    void deliverTrace(SpeechContext snapshot, String value) {
+        snapshot.message = value;
+        this.dispatcher.post(Event.TRACE, snapshot);
+    }
+
+    /**
+     * raises a trace event with a preformatted message, bypassing the
+     * trace level check.
+     * @param value trace message
+     * @return this
+     */
+    SpeechContext traceMessage(String value) {
+        this.message = value;
+        dispatch(Event.TRACE);
+        return this;
+    }
+
     /**
      * dispatches a speech event.
      * @param event the event to publish
      * @return this
      */
     public SpeechContext dispatch(Event event) {
+        if (this.dispatcher != null) {
+            this.dispatcher.post(event, new SpeechContext(this));
+            return this;
+        }
         for (OnSpeechEventListener listener: this.listeners) {
             try {
                 listener.onEvent(event, this);
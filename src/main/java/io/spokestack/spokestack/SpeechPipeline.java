@@ -1,12 +1,15 @@
 package io.spokestack.spokestack;
 
 import android.content.Context;
+import io.spokestack.spokestack.tensorflow.ModelCache;
 
+import java.io.EOFException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * Spokestack speech pipeline.
@@ -52,6 +55,30 @@ import java.nio.ByteOrder;
  * blocking operations, and should use message passing when communicating with
  * UI components, etc.
  * </p>
+ *
+ * <p>
+ * For batch processing of recorded audio (see {@link FileInput}), the
+ * pipeline can instead be run synchronously via {@link #runOffline()}, which
+ * processes frames on the calling thread as fast as the stages allow, until
+ * the input signals the end of its audio. To run many pipelines on a shared
+ * pool of threads, see {@link SpeechPipelineHost}.
+ * </p>
+ *
+ * <p>
+ * Slow stages, such as cloud ASR components that make blocking network
+ * calls, can be run on their own threads so that they don't stall the
+ * stages that follow them, by listing their class names in the
+ * {@code async-stages} configuration property (see {@link AsyncStage}).
+ * To find such stages, the pipeline records the latency of each stage
+ * (see {@link #getStats()}).
+ * </p>
+ *
+ * <p>
+ * The stages of a running pipeline can be replaced without stopping it,
+ * via {@link #reconfigure(List)} or {@link #useProfile(String)}. The input
+ * remains open, and instances of stages that are common to the old and new
+ * configurations are kept rather than recreated.
+ * </p>
  */
 public final class SpeechPipeline implements AutoCloseable {
     /**
@@ -68,15 +95,22 @@ public final class SpeechPipeline implements AutoCloseable {
     public static final int DEFAULT_BUFFER_WIDTH = 20;
 
     private final Object lock = new Object();
-    private final String inputClass;
-    private final List<String> stageClasses;
+    private final Object reconfigureLock = new Object();
+    private String inputClass;
+    private List<String> stageClasses;
     private final SpeechConfig config;
     private final SpeechContext context;
     private volatile boolean running;
     private volatile boolean paused;
     private SpeechInput input;
+    private FrameRing buffer;
     private List<SpeechProcessor> stages;
+    private volatile Reconfiguration pending;
+    private boolean[] gates;
+    private volatile PipelineStats stats;
+    private long statsFrames;
     private Thread thread;
+    private Runnable wakeup;
     private boolean managed;
 
     /**
@@ -88,6 +122,7 @@ public final class SpeechPipeline implements AutoCloseable {
         this.inputClass = builder.inputClass;
         this.stageClasses = builder.stageClasses;
         this.config = builder.config;
+        ModelCache.configure(this.config);
         this.context = new SpeechContext(this.config);
         this.context.setAndroidContext(builder.appContext);
         this.stages = new ArrayList<>();
@@ -118,6 +153,32 @@ public final class SpeechPipeline implements AutoCloseable {
         return this.context;
     }
 
+    /**
+     * @return the pipeline's audio input component, or null if the pipeline
+     * is not running
+     */
+    public SpeechInput getInput() {
+        return this.input;
+    }
+
+    /**
+     * @return the pipeline's stage components, or an empty list if the
+     * pipeline is not running. asynchronous stages are returned wrapped
+     * in an {@link AsyncStage}.
+     */
+    public List<SpeechProcessor> getStages() {
+        return Collections.unmodifiableList(this.stages);
+    }
+
+    /**
+     * @return a snapshot of the latency statistics for the current or most
+     * recent run of the pipeline, or null if it has never been started
+     */
+    public PipelineStats getStats() {
+        PipelineStats current = this.stats;
+        return current == null ? null : current.copy();
+    }
+
     /**
      * @return true if the pipeline has been started and is not paused,
      * false otherwise.
@@ -166,6 +227,113 @@ public final class SpeechPipeline implements AutoCloseable {
         this.context.removeOnSpeechEventListener(listener);
     }
 
+    /**
+     * Replaces the stages of the speech pipeline.
+     *
+     * <p>
+     * If the pipeline is running, the new stages are swapped in between
+     * frames, without closing the audio input. Any current stage whose class
+     * appears in the new list is reused (and reset) rather than recreated,
+     * so that its models need not be reloaded; all other stages are created
+     * on the calling thread, and stages that are no longer used are closed.
+     * The speech context is deactivated when the stages are swapped. A paused
+     * pipeline swaps its stages when it is resumed.
+     * </p>
+     *
+     * <p>
+     * Reused stages retain the configuration they were created with. If the
+     * pipeline is not running, the new stages are created when it starts.
+     * </p>
+     *
+     * @param stageClassNames the class names of the new stages, in order
+     * @throws Exception if a new stage cannot be created, in which case the
+     *                   pipeline is not modified
+     */
+    public void reconfigure(List<String> stageClassNames) throws Exception {
+        reconfigure(stageClassNames, null);
+    }
+
+    private void reconfigure(List<String> stageClassNames,
+                             SpeechConfig profileConfig) throws Exception {
+        synchronized (this.reconfigureLock) {
+            if (!this.running) {
+                if (profileConfig != null) {
+                    this.config.getParams().putAll(profileConfig.getParams());
+                }
+                this.stageClasses = new ArrayList<>(stageClassNames);
+                return;
+            }
+
+            // build on any reconfiguration that has not yet been applied,
+            // including its configuration, which is committed by the
+            // pipeline's thread when the stages are swapped
+            Reconfiguration previous = this.pending;
+            List<SpeechProcessor> available = new ArrayList<>(
+                  previous != null ? previous.stages : this.stages);
+            Reconfiguration next = new Reconfiguration();
+            next.config = profileConfig;
+            if (next.config == null && previous != null) {
+                next.config = previous.config;
+            }
+            SpeechConfig stageConfig = next.config != null
+                  ? next.config
+                  : this.config;
+            try {
+                for (String name : stageClassNames) {
+                    SpeechProcessor stage = takeStage(available, name);
+                    if (stage == null) {
+                        stage = createStage(name, stageConfig);
+                        next.created.add(stage);
+                    }
+                    next.stages.add(stage);
+                }
+            } catch (Exception e) {
+                closeStages(next.created);
+                throw e;
+            }
+
+            // release any stages created for the superseded reconfiguration
+            if (previous != null) {
+                previous.created.removeAll(next.stages);
+                closeStages(previous.created);
+            }
+            this.stageClasses = new ArrayList<>(stageClassNames);
+            this.pending = next;
+        }
+    }
+
+    /**
+     * Applies a {@link PipelineProfile} to the speech pipeline, updating its
+     * configuration and replacing its stages as in {@link #reconfigure(List)}.
+     * The profile is applied to a copy of the pipeline's configuration, which
+     * replaces the pipeline's configuration only if the new stages are
+     * created successfully; if the pipeline is running, this happens on its
+     * thread, when the stages are swapped. A change to the profile's input
+     * class takes effect the next time the pipeline is started.
+     *
+     * @param profileClass class name of the profile to apply
+     * @throws IllegalArgumentException if the specified profile does not
+     *                                  exist
+     * @throws Exception                if a new stage cannot be created
+     */
+    public void useProfile(String profileClass) throws Exception {
+        synchronized (this.reconfigureLock) {
+            Reconfiguration previous = this.pending;
+            SpeechConfig base = previous != null && previous.config != null
+                  ? previous.config
+                  : this.config;
+            SpeechConfig profileConfig =
+                  new SpeechConfig(new HashMap<>(base.getParams()));
+            Builder builder = new Builder()
+                  .setConfig(profileConfig)
+                  .setInputClass(this.inputClass)
+                  .setStageClasses(new ArrayList<>(this.stageClasses))
+                  .useProfile(profileClass);
+            reconfigure(builder.stageClasses, profileConfig);
+            this.inputClass = builder.inputClass;
+        }
+    }
+
     /**
      * Starts the speech pipeline. If the pipeline is already running but has
      * been paused, it will be resumed.
@@ -191,6 +359,8 @@ public final class SpeechPipeline implements AutoCloseable {
     }
 
     private void createComponents() throws Exception {
+        this.stats = null;
+
         // create the audio input component
         this.input = (SpeechInput) Class
               .forName(this.inputClass)
@@ -199,12 +369,69 @@ public final class SpeechPipeline implements AutoCloseable {
 
         // create the pipeline stage components
         for (String name : this.stageClasses) {
-            this.stages.add((SpeechProcessor) Class
-                  .forName(name)
-                  .getConstructor(SpeechConfig.class)
-                  .newInstance(new Object[]{this.config})
-            );
+            this.stages.add(createStage(name, this.config));
         }
+        initStages(null);
+    }
+
+    private SpeechProcessor createStage(String name, SpeechConfig stageConfig)
+          throws Exception {
+        SpeechProcessor stage = (SpeechProcessor) Class
+              .forName(name)
+              .getConstructor(SpeechConfig.class)
+              .newInstance(new Object[]{stageConfig});
+
+        // wrap any stages that should run on their own threads
+        String asyncStages = stageConfig.getString("async-stages", "");
+        List<String> asyncClasses =
+              Arrays.asList(asyncStages.trim().split("\\s*,\\s*"));
+        if (asyncClasses.contains(name)) {
+            stage = new AsyncStage(stageConfig, stage);
+        }
+        return stage;
+    }
+
+    private SpeechProcessor takeStage(List<SpeechProcessor> available,
+                                      String name) {
+        for (int i = 0; i < available.size(); i++) {
+            SpeechProcessor stage = available.get(i);
+            if (unwrap(stage).getClass().getName().equals(name)) {
+                return available.remove(i);
+            }
+        }
+        return null;
+    }
+
+    private static SpeechProcessor unwrap(SpeechProcessor stage) {
+        return stage instanceof AsyncStage
+              ? ((AsyncStage) stage).getStage()
+              : stage;
+    }
+
+    private void initStages(List<SpeechProcessor> previous) {
+        // create the latency statistics for the stages, carrying over
+        // those of any previous stages that were kept
+        List<String> names = new ArrayList<>();
+        for (SpeechProcessor stage : this.stages) {
+            names.add(unwrap(stage).getClass().getSimpleName());
+        }
+        int frameWidth = this.config.getInteger("frame-width");
+        this.statsFrames =
+              this.config.getInteger("stats-interval", 0) / frameWidth;
+        if (previous != null && this.stats != null) {
+            int[] sources = new int[this.stages.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = previous.indexOf(this.stages.get(i));
+            }
+            this.stats = new PipelineStats(
+                  this.stats, names, sources, frameWidth);
+        } else {
+            this.stats = new PipelineStats(names, frameWidth);
+        }
+
+        // all stage gates are initially open
+        this.gates = new boolean[this.stages.size()];
+        Arrays.fill(this.gates, true);
     }
 
     private void attachBuffer() throws Exception {
@@ -216,16 +443,9 @@ public final class SpeechPipeline implements AutoCloseable {
         int frameSize = sampleRate * frameWidth / 1000 * sampleWidth;
         int frameCount = Math.max(bufferWidth / frameWidth, 1);
 
-        // allocate the deque of frame buffers
-        LinkedList<ByteBuffer> buffer = new LinkedList<>();
-        for (int i = 0; i < frameCount; i++) {
-            buffer.addLast(ByteBuffer
-                  .allocateDirect(frameSize)
-                  .order(ByteOrder.nativeOrder()));
-        }
-
-        // attach the buffers to the speech context
-        this.context.attachBuffer(buffer);
+        // allocate the ring of frame buffers and attach it to the context
+        this.buffer = new FrameRing(frameCount, frameSize, frameWidth);
+        this.context.attachBuffer(this.buffer);
     }
 
     private void startThread() throws Exception {
@@ -234,6 +454,55 @@ public final class SpeechPipeline implements AutoCloseable {
         this.thread.start();
     }
 
+    /**
+     * Runs the speech pipeline synchronously on the calling thread until its
+     * input is exhausted.
+     *
+     * <p>
+     * Offline mode is intended for finite inputs such as {@link FileInput},
+     * which signal the end of their audio by throwing an
+     * {@link EOFException} from {@code read}. Frames are dispatched as fast
+     * as the stages can process them rather than at the rate of the audio.
+     * At the end of the stream, an active context is deactivated and a frame
+     * of silence is dispatched, so that stages which complete their work on
+     * deactivation (such as ASR) can finish. All components are released
+     * before this method returns.
+     * </p>
+     *
+     * @return statistics about the frames processed during the run
+     * @throws Exception on configuration/startup error
+     */
+    public ThroughputStats runOffline() throws Exception {
+        if (this.running) {
+            throw new IllegalStateException("pipeline is already running");
+        }
+
+        try {
+            createComponents();
+            attachBuffer();
+        } catch (Throwable e) {
+            cleanup();
+            throw e;
+        }
+
+        this.running = true;
+        long frames = 0;
+        long start = System.nanoTime();
+        while (this.running) {
+            if (dispatch()) {
+                frames++;
+            }
+        }
+        flush();
+        ThroughputStats throughput = new ThroughputStats(
+              frames,
+              this.config.getInteger("frame-width"),
+              System.nanoTime() - start);
+        this.context.tracePerf("offline: %s", throughput);
+        cleanup();
+        return throughput;
+    }
+
     /**
      * Pauses the speech pipeline, temporarily stopping passive listening.
      *
@@ -271,6 +540,10 @@ public final class SpeechPipeline implements AutoCloseable {
         synchronized (lock) {
             lock.notify();
         }
+        Runnable hostWakeup = this.wakeup;
+        if (hostWakeup != null) {
+            hostWakeup.run();
+        }
     }
 
     /**
@@ -279,6 +552,15 @@ public final class SpeechPipeline implements AutoCloseable {
     public void stop() {
         if (this.running) {
             this.running = false;
+            if (this.thread == null) {
+                // offline runs stop on the caller's thread,
+                // hosted runs are released by the host
+                Runnable hostWakeup = this.wakeup;
+                if (hostWakeup != null) {
+                    hostWakeup.run();
+                }
+                return;
+            }
             try {
                 this.thread.join();
             } catch (InterruptedException e) {
@@ -288,6 +570,72 @@ public final class SpeechPipeline implements AutoCloseable {
         }
     }
 
+    /**
+     * starts the pipeline for execution by a {@link SpeechPipelineHost}.
+     *
+     * @param hostWakeup callback used to schedule the pipeline on the host
+     *                   when it has frame work to do
+     * @throws Exception on configuration/startup error
+     */
+    void startHosted(Runnable hostWakeup) throws Exception {
+        if (this.running) {
+            throw new IllegalStateException("pipeline is already running");
+        }
+
+        try {
+            createComponents();
+            attachBuffer();
+        } catch (Throwable e) {
+            cleanup();
+            throw e;
+        }
+
+        this.wakeup = hostWakeup;
+        if (this.input instanceof NonBlockingInput) {
+            ((NonBlockingInput) this.input).setOnReady(hostWakeup);
+        }
+        this.running = true;
+    }
+
+    /**
+     * @return true if a hosted pipeline can make progress without blocking:
+     * it has been stopped and must be released, or it is not paused and its
+     * input is ready
+     */
+    boolean hasHostedWork() {
+        if (!this.running) {
+            return true;
+        }
+        if (this.paused) {
+            return false;
+        }
+        return !(this.input instanceof NonBlockingInput)
+              || ((NonBlockingInput) this.input).isReady();
+    }
+
+    /**
+     * processes a single frame of a hosted pipeline.
+     *
+     * @return true if the pipeline is still running, false otherwise
+     */
+    boolean stepHosted() {
+        if (this.running && !this.paused) {
+            dispatch();
+        }
+        return this.running;
+    }
+
+    /**
+     * releases the resources of a stopped hosted pipeline.
+     */
+    void stopHosted() {
+        if (this.input instanceof NonBlockingInput) {
+            ((NonBlockingInput) this.input).setOnReady(null);
+        }
+        this.wakeup = null;
+        cleanup();
+    }
+
     private void run() {
         synchronized (lock) {
             while (this.running) {
@@ -312,60 +660,183 @@ public final class SpeechPipeline implements AutoCloseable {
         }
     }
 
-    private void dispatch() {
+    private boolean dispatch() {
         try {
-            // cycle the deque and fetch the next frame to write
-            ByteBuffer frame = this.context.getBuffer().removeFirst();
-            this.context.getBuffer().addLast(frame);
+            // swap in any new stages between frames
+            if (this.pending != null) {
+                swapStages();
+            }
+
+            // cycle the ring and fetch the next frame to write
+            ByteBuffer frame = this.buffer.rotate();
 
             // fill the frame from the input, stopping if audio cannot be read
+            // finite inputs signal the end of their audio with an EOF
             try {
+                long start = System.nanoTime();
                 this.input.read(this.context, frame);
+                this.stats.recordInput(System.nanoTime() - start);
+            } catch (EOFException e) {
+                this.context.traceDebug("end of input");
+                this.running = false;
+                return false;
             } catch (Exception e) {
                 raiseError(e);
                 stop();
             }
 
-            // when leaving the managed state, reset all stages internally
-            boolean isManaged = this.context.isManaged();
-            if (this.managed && !isManaged) {
-                for (SpeechProcessor stage : this.stages) {
-                    stage.reset();
-                }
+            process(frame);
+        } catch (Exception e) {
+            raiseError(e);
+        }
+        return true;
+    }
+
+    private void swapStages() throws Exception {
+        List<SpeechProcessor> previous = this.stages;
+        List<SpeechProcessor> removed = new ArrayList<>(previous);
+        synchronized (this.reconfigureLock) {
+            removed.removeAll(this.pending.stages);
+            this.stages = this.pending.stages;
+            if (this.pending.config != null) {
+                this.config.getParams().putAll(this.pending.config.getParams());
             }
-            this.managed = isManaged;
+            this.pending = null;
+        }
 
-            // dispatch the frame to the stages
-            for (SpeechProcessor stage : this.stages) {
-                if (!this.managed) {
-                    frame.rewind();
-                    stage.process(this.context, frame);
-                }
+        // deactivate the pipeline and restart the stages that were kept,
+        // then release the ones that were removed
+        this.context.reset();
+        for (SpeechProcessor stage : this.stages) {
+            stage.reset();
+        }
+        closeStages(removed);
+        initStages(previous);
+        this.context.traceDebug("reconfigured: %d stages", this.stages.size());
+    }
+
+    private void flush() {
+        // deactivate the context and dispatch a frame of silence, so that
+        // stages which complete on deactivation can finish
+        try {
+            ByteBuffer frame = this.buffer.rotate();
+            frame.clear();
+            while (frame.hasRemaining()) {
+                frame.put((byte) 0);
+            }
+
+            this.context.setSpeech(false);
+            if (this.context.isActive()) {
+                this.context.setActive(false);
+                process(frame);
             }
         } catch (Exception e) {
             raiseError(e);
         }
     }
 
+    private void process(ByteBuffer frame) throws Exception {
+        // when leaving the managed state, reset all stages internally
+        boolean isManaged = this.context.isManaged();
+        if (this.managed && !isManaged) {
+            for (SpeechProcessor stage : this.stages) {
+                stage.reset();
+            }
+        }
+        this.managed = isManaged;
+
+        // dispatch the frame to the stages, timing each of them
+        // and skipping any whose gates are closed
+        long frameStart = System.nanoTime();
+        for (int i = 0; i < this.stages.size(); i++) {
+            if (!this.managed) {
+                if (!checkGate(i)) {
+                    this.stats.recordSkip(i);
+                    continue;
+                }
+                frame.rewind();
+                long start = System.nanoTime();
+                this.stages.get(i).process(this.context, frame);
+                this.stats.recordStage(i, System.nanoTime() - start);
+            }
+        }
+        if (!this.managed) {
+            this.stats.recordFrame(System.nanoTime() - frameStart);
+            if (this.statsFrames > 0
+                  && this.stats.getFrames() % this.statsFrames == 0) {
+                this.context.tracePerf("stats: %s", this.stats);
+            }
+        }
+    }
+
+    private boolean checkGate(int index) throws Exception {
+        SpeechProcessor stage = this.stages.get(index);
+        if (!(stage instanceof GatedProcessor)) {
+            return true;
+        }
+
+        // each state with gate conditions must satisfy one of them
+        GatedProcessor gated = (GatedProcessor) stage;
+        int gate = gated.getGate();
+        int activity = gate & (GatedProcessor.ACTIVE | GatedProcessor.INACTIVE);
+        int speech = gate & (GatedProcessor.SPEECH | GatedProcessor.SILENCE);
+        int state = (this.context.isActive()
+              ? GatedProcessor.ACTIVE
+              : GatedProcessor.INACTIVE)
+              | (this.context.isSpeech()
+              ? GatedProcessor.SPEECH
+              : GatedProcessor.SILENCE);
+        boolean open = (activity == 0 || (activity & state) != 0)
+              && (speech == 0 || (speech & state) != 0);
+
+        // notify the stage on gate edges, so it can catch up
+        if (open != this.gates[index]) {
+            this.gates[index] = open;
+            gated.onGateChange(this.context, open);
+        }
+        return open;
+    }
+
     private void cleanup() {
-        for (SpeechProcessor stage : this.stages) {
+        if (this.stats != null && this.stats.getFrames() > 0) {
+            this.context.tracePerf("stats: %s", this.stats);
+        }
+
+        List<SpeechProcessor> released;
+        synchronized (this.reconfigureLock) {
+            released = this.stages;
+            this.stages = new ArrayList<>();
+            if (this.pending != null) {
+                released.addAll(this.pending.created);
+                this.pending = null;
+            }
+        }
+        closeStages(released);
+
+        if (this.input != null) {
             try {
-                stage.close();
+                this.input.close();
             } catch (Exception e) {
                 raiseError(e);
             }
+            this.input = null;
         }
-        this.stages.clear();
-
-        try {
-            this.input.close();
-        } catch (Exception e) {
-            raiseError(e);
-        }
-        this.input = null;
 
         this.context.reset();
         this.context.detachBuffer();
+        this.context.detachFeatures();
+        this.context.stopDispatch();
+        this.buffer = null;
+    }
+
+    private void closeStages(List<SpeechProcessor> released) {
+        for (SpeechProcessor stage : released) {
+            try {
+                stage.close();
+            } catch (Exception e) {
+                raiseError(e);
+            }
+        }
     }
 
     private void raiseError(Throwable e) {
@@ -373,6 +844,15 @@ public final class SpeechPipeline implements AutoCloseable {
         this.context.dispatch(SpeechContext.Event.ERROR);
     }
 
+    /**
+     * a pending replacement of the pipeline's stages.
+     */
+    private static final class Reconfiguration {
+        private final List<SpeechProcessor> stages = new ArrayList<>();
+        private final List<SpeechProcessor> created = new ArrayList<>();
+        private SpeechConfig config;
+    }
+
     /**
      * speech pipeline builder.
      */
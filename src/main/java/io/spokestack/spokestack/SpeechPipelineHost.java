@@ -0,0 +1,233 @@
+package io.spokestack.spokestack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * multi-stream speech pipeline host.
+ *
+ * <p>
+ * By default, each {@link SpeechPipeline} runs on its own dedicated thread,
+ * so processing many concurrent audio streams (server-side replay, call
+ * centers, etc.) requires one OS thread per stream. This class instead
+ * multiplexes any number of pipelines onto a bounded pool of worker threads.
+ * </p>
+ *
+ * <p>
+ * Each attached pipeline is scheduled on the pool whenever it has frame work
+ * to do. Pipelines whose input implements {@link NonBlockingInput} (such as
+ * {@link PushInput}) are only scheduled once a frame has arrived; other
+ * inputs are assumed to be ready at all times, and their pipelines are
+ * scheduled round-robin. A pipeline processes at most a configurable number
+ * of frames each time it is scheduled before yielding its worker to other
+ * pipelines. A pipeline is never run by more than one worker at a time, so
+ * its frames are processed in order, and its stages and listeners are
+ * never invoked concurrently.
+ * </p>
+ *
+ * <p>
+ * Inputs that block waiting for audio (such as the microphone inputs) will
+ * tie up a worker for as long as they block, so hosted pipelines should use
+ * non-blocking or finite inputs.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ *  SpeechPipelineHost host = new SpeechPipelineHost(4);
+ *  SpeechPipeline pipeline = new SpeechPipeline.Builder()
+ *      .setInputClass("io.spokestack.spokestack.PushInput")
+ *      .addStageClass("io.spokestack.spokestack.webrtc.VoiceActivityDetector")
+ *      .addOnSpeechEventListener(this)
+ *      .build();
+ *  host.attach(pipeline);
+ *  PushInput input = (PushInput) pipeline.getInput();
+ *  input.write(audio);
+ * }
+ * </pre>
+ */
+public final class SpeechPipelineHost implements AutoCloseable {
+    /** default number of frames processed per scheduling turn. */
+    public static final int DEFAULT_FRAME_QUANTUM = 10;
+
+    private final ExecutorService executor;
+    private final int quantum;
+    private final Map<SpeechPipeline, Task> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * initializes a new host with the specified number of worker threads.
+     *
+     * @param threads the number of worker threads in the pool
+     */
+    public SpeechPipelineHost(int threads) {
+        this(threads, DEFAULT_FRAME_QUANTUM);
+    }
+
+    /**
+     * initializes a new host.
+     *
+     * @param threads      the number of worker threads in the pool
+     * @param frameQuantum the maximum number of frames a pipeline processes
+     *                     each time it is scheduled
+     */
+    public SpeechPipelineHost(int threads, int frameQuantum) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads");
+        }
+        if (frameQuantum < 1) {
+            throw new IllegalArgumentException("frameQuantum");
+        }
+        this.quantum = frameQuantum;
+        this.executor = Executors.newFixedThreadPool(
+              threads,
+              new WorkerFactory());
+    }
+
+    /**
+     * @return the number of pipelines currently attached to the host
+     */
+    public int size() {
+        return this.tasks.size();
+    }
+
+    /**
+     * starts a pipeline on the host's worker pool. the pipeline must not
+     * already be running. hosted pipelines can be paused and resumed as
+     * usual; stopping a hosted pipeline (or exhausting its input) detaches
+     * it from the host once its resources have been released.
+     *
+     * @param pipeline the pipeline to start
+     * @throws Exception on configuration/startup error
+     */
+    public void attach(SpeechPipeline pipeline) throws Exception {
+        if (this.executor.isShutdown()) {
+            throw new IllegalStateException("host closed");
+        }
+        Task task = new Task(pipeline);
+        if (this.tasks.putIfAbsent(pipeline, task) != null) {
+            throw new IllegalStateException("pipeline is already hosted");
+        }
+        try {
+            pipeline.startHosted(task::schedule);
+        } catch (Throwable e) {
+            this.tasks.remove(pipeline, task);
+            throw e;
+        }
+        task.schedule();
+    }
+
+    /**
+     * stops a hosted pipeline, blocking until its resources have been
+     * released. does nothing if the pipeline is not attached to this host.
+     *
+     * @param pipeline the pipeline to stop
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void detach(SpeechPipeline pipeline) throws InterruptedException {
+        Task task = this.tasks.get(pipeline);
+        if (task != null) {
+            pipeline.stop();
+            task.await();
+        }
+    }
+
+    /**
+     * blocks until a hosted pipeline stops on its own, such as when its
+     * input is exhausted. does nothing if the pipeline is not attached to
+     * this host.
+     *
+     * @param pipeline the pipeline to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await(SpeechPipeline pipeline) throws InterruptedException {
+        Task task = this.tasks.get(pipeline);
+        if (task != null) {
+            task.await();
+        }
+    }
+
+    /**
+     * stops all hosted pipelines and shuts down the worker pool.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        List<SpeechPipeline> pipelines = new ArrayList<>(this.tasks.keySet());
+        for (SpeechPipeline pipeline : pipelines) {
+            detach(pipeline);
+        }
+        this.executor.shutdown();
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * the scheduling unit for a single hosted pipeline.
+     */
+    private final class Task implements Runnable {
+        private final SpeechPipeline pipeline;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        Task(SpeechPipeline speechPipeline) {
+            this.pipeline = speechPipeline;
+        }
+
+        void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        void await() throws InterruptedException {
+            this.stopped.await();
+        }
+
+        @Override
+        public void run() {
+            boolean running = true;
+            for (int i = 0; running && i < quantum; i++) {
+                if (!this.pipeline.hasHostedWork()) {
+                    break;
+                }
+                running = this.pipeline.stepHosted();
+            }
+
+            if (!running) {
+                this.pipeline.stopHosted();
+                tasks.remove(this.pipeline);
+                this.stopped.countDown();
+                return;
+            }
+
+            // yield the worker, rescheduling if more work arrived meanwhile
+            this.scheduled.set(false);
+            if (this.pipeline.hasHostedWork()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * creates named daemon worker threads.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(
+                  runnable,
+                  "Spokestack-pipeline-host-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import io.spokestack.spokestack.nlu.tensorflow.parsers.IntegerParser;
 import io.spokestack.spokestack.nlu.tensorflow.parsers.SelsetParser;
 import io.spokestack.spokestack.rasa.RasaOpenSourceNLU;
 import io.spokestack.spokestack.rasa.RasaDialoguePolicy;
+import io.spokestack.spokestack.tensorflow.ModelCache;
 import io.spokestack.spokestack.tts.SynthesisRequest;
 import io.spokestack.spokestack.tts.TTSEvent;
 import io.spokestack.spokestack.tts.TTSManager;
@@ -94,6 +95,7 @@ public final class Spokestack extends SpokestackAdapter
      * @throws Exception if there is an error during initialization.
      */
     private Spokestack(Builder builder) throws Exception {
+        ModelCache.configure(builder.speechConfig);
         this.listeners = new ArrayList<>();
         this.listeners.addAll(builder.listeners);
         this.autoClassify = builder.autoClassify;
@@ -128,6 +130,7 @@ public final class Spokestack extends SpokestackAdapter
      * @param nluManager The NLU manager to inject.
      */
     Spokestack(Builder builder, NLUManager nluManager) throws Exception {
+        ModelCache.configure(builder.speechConfig);
         this.listeners = new ArrayList<>();
         this.listeners.addAll(builder.listeners);
         this.autoClassify = builder.autoClassify;
@@ -454,15 +457,21 @@ public final class Spokestack extends SpokestackAdapter
     @Override
     public void onEvent(@NotNull SpeechContext.Event event,
                         @NotNull SpeechContext context) {
-        // automatically classify final ASR transcripts
-        if (event == SpeechContext.Event.RECOGNIZE) {
+        // automatically classify final ASR transcripts, and speculatively
+        // classify partial ones if the NLU manager is configured to
+        if (event == SpeechContext.Event.RECOGNIZE
+              || event == SpeechContext.Event.PARTIAL_RECOGNIZE) {
             if (this.nlu != null && this.autoClassify) {
                 String transcript = context.getTranscript();
                 if (this.transcriptEditor != null) {
                     transcript =
                           this.transcriptEditor.editTranscript(transcript);
                 }
-                classifyInternal(transcript);
+                if (event == SpeechContext.Event.RECOGNIZE) {
+                    classifyInternal(transcript);
+                } else {
+                    this.nlu.speculate(transcript);
+                }
             }
         }
     }
@@ -598,6 +607,16 @@ public final class Spokestack extends SpokestackAdapter
          *      <b>wordpiece-vocab-path</b> (string): file system path to the
          *      wordpiece vocabulary file used by the wordpiece token encoder.
          *   </li>
+         *   <li>
+         *      <b>nlu-cache-size</b> (integer): the maximum number of
+         *      classification results cached by the NLU manager; see
+         *      {@link NLUManager}.
+         *   </li>
+         *   <li>
+         *      <b>nlu-speculation-stability</b> (integer): the number of
+         *      consecutive partial ASR transcripts required before they are
+         *      classified speculatively; see {@link NLUManager}.
+         *   </li>
          *     </ul>
          *     </li>
          *     <li>
@@ -0,0 +1,86 @@
+package io.spokestack.spokestack;
+
+/**
+ * speech pipeline throughput statistics.
+ *
+ * <p>
+ * This class reports the outcome of an offline pipeline run (see
+ * {@link SpeechPipeline#runOffline()}): the number of audio frames that were
+ * processed and the wall-clock time spent processing them, from which the
+ * frame rate and real-time factor are derived.
+ * </p>
+ */
+public final class ThroughputStats {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MS = 1e6;
+
+    private final long frames;
+    private final int frameWidth;
+    private final long elapsedNanos;
+
+    /**
+     * constructs a new statistics instance.
+     *
+     * @param frameCount the number of frames processed
+     * @param width      the width of each frame, in milliseconds
+     * @param elapsed    the total processing time, in nanoseconds
+     */
+    public ThroughputStats(long frameCount, int width, long elapsed) {
+        this.frames = frameCount;
+        this.frameWidth = width;
+        this.elapsedNanos = elapsed;
+    }
+
+    /**
+     * @return the number of frames processed
+     */
+    public long getFrames() {
+        return this.frames;
+    }
+
+    /**
+     * @return the duration of the processed audio, in milliseconds
+     */
+    public long getAudioMillis() {
+        return this.frames * this.frameWidth;
+    }
+
+    /**
+     * @return the total processing time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return the number of frames processed per second of wall-clock time
+     */
+    public double getFramesPerSecond() {
+        if (this.elapsedNanos == 0) {
+            return 0;
+        }
+        return this.frames * NANOS_PER_SECOND / this.elapsedNanos;
+    }
+
+    /**
+     * @return the ratio of audio time to processing time; values above 1
+     * indicate faster-than-realtime processing
+     */
+    public double getRealTimeFactor() {
+        if (this.elapsedNanos == 0) {
+            return 0;
+        }
+        return getAudioMillis() * NANOS_PER_MS / this.elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+              "frames=%d audio=%dms elapsed=%.1fms fps=%.0f rtf=%.1f",
+              this.frames,
+              getAudioMillis(),
+              this.elapsedNanos / NANOS_PER_MS,
+              getFramesPerSecond(),
+              getRealTimeFactor());
+    }
+}
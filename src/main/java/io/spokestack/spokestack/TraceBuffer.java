@@ -0,0 +1,214 @@
+package io.spokestack.spokestack;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * buffered speech trace records.
+ *
+ * <p>
+ * Formatting a trace message allocates, which creates garbage collection
+ * pressure when PERF or DEBUG tracing is left enabled on the audio thread.
+ * When a trace buffer is configured, structured traces raised through
+ * {@link SpeechContext#traceValue} are instead written into a preallocated
+ * ring of records, each holding the trace's format string (which identifies
+ * it), a numeric value, an optional text detail, and the context's activation,
+ * speech, and wake phrase at the time of the trace. A background thread
+ * formats the records and posts them, with context snapshots built from the
+ * recorded state, to the context's event dispatcher, which delivers them to
+ * the context's listeners as TRACE events. Because
+ * listeners must receive all events on one thread, configuring a trace
+ * buffer also enables asynchronous event dispatch (see
+ * {@link EventDispatcher}).
+ * </p>
+ *
+ * <p>
+ * Recording never blocks or allocates; the ring is a lock-free
+ * single-producer/single-consumer queue (like
+ * {@link io.spokestack.spokestack.util.SpscRing}), written only by the
+ * thread raising traces. If the ring is full, the record is dropped and
+ * counted. The trace thread is started on the first record, and is stopped,
+ * after delivering all buffered records, when the speech pipeline stops.
+ * </p>
+ *
+ * <p>
+ * This component supports the following configuration properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>trace-buffer</b> (integer): the number of trace records to buffer,
+ *      or 0 to format and deliver traces synchronously (default 0). a
+ *      positive value also enables asynchronous event dispatch
+ *   </li>
+ * </ul>
+ */
+public final class TraceBuffer {
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final SpeechContext context;
+    private final String[] formats;
+    private final double[] values;
+    private final String[] details;
+    private final boolean[] detailed;
+    private final boolean[] active;
+    private final boolean[] speech;
+    private final String[] wakePhrases;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread thread;
+    private volatile boolean idle;
+    private volatile boolean stopping;
+
+    /**
+     * constructs a new trace buffer.
+     *
+     * @param target   the context whose listeners receive the traces
+     * @param capacity the number of records to buffer
+     */
+    TraceBuffer(SpeechContext target, int capacity) {
+        this.context = target;
+        this.formats = new String[capacity];
+        this.values = new double[capacity];
+        this.details = new String[capacity];
+        this.detailed = new boolean[capacity];
+        this.active = new boolean[capacity];
+        this.speech = new boolean[capacity];
+        this.wakePhrases = new String[capacity];
+    }
+
+    /**
+     * @return the number of records that can be buffered
+     */
+    public int getCapacity() {
+        return this.formats.length;
+    }
+
+    /**
+     * @return the number of records discarded because the buffer was full
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of records waiting to be delivered
+     */
+    public int getPending() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    /**
+     * buffers a trace record, starting the trace thread if needed. called
+     * only by the thread raising traces on the context.
+     *
+     * @param format    trace message format string
+     * @param value     the numeric field of the message
+     * @param detail    the text field of the message
+     * @param hasDetail true if the message has a text field
+     * @param isActive  the context's activation state
+     * @param isSpeech  the context's speech detection state
+     * @param phrase    the context's wake phrase
+     */
+    void record(String format,
+                double value,
+                String detail,
+                boolean hasDetail,
+                boolean isActive,
+                boolean isSpeech,
+                String phrase) {
+        long t = this.tail.get();
+        if (t - this.head.get() == this.formats.length) {
+            this.dropped.incrementAndGet();
+            return;
+        }
+        int index = (int) (t % this.formats.length);
+        this.formats[index] = format;
+        this.values[index] = value;
+        this.details[index] = detail;
+        this.detailed[index] = hasDetail;
+        this.active[index] = isActive;
+        this.speech[index] = isSpeech;
+        this.wakePhrases[index] = phrase;
+        // a full store, so that the trace thread's exit check in resume()
+        // sees the record or this thread sees that it has exited
+        this.tail.set(t + 1);
+
+        if (this.stopping) {
+            this.stopping = false;
+        }
+        if (!this.running.get() && this.running.compareAndSet(false, true)) {
+            Thread started = new Thread(this::run, "Spokestack-trace");
+            started.setDaemon(true);
+            this.thread = started;
+            started.start();
+        } else if (this.idle) {
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    /**
+     * stops the trace thread once all buffered records have been delivered.
+     */
+    void stop() {
+        this.stopping = true;
+        Thread current = this.thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long h = this.head.get();
+            if (h == this.tail.get()) {
+                if (this.stopping && !resume()) {
+                    // the traces delivered after the dispatcher was stopped
+                    // may have restarted it
+                    this.context.getDispatcher().stop();
+                    return;
+                }
+                this.idle = true;
+                if (h == this.tail.get() && !this.stopping) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                this.idle = false;
+                if (Thread.interrupted()) {
+                    this.running.set(false);
+                    return;
+                }
+                continue;
+            }
+
+            int index = (int) (h % this.formats.length);
+            String format = this.formats[index];
+            double value = this.values[index];
+            String detail = this.details[index];
+            boolean hasDetail = this.detailed[index];
+            SpeechContext snapshot = this.context.snapshot(
+                  this.active[index],
+                  this.speech[index],
+                  this.wakePhrases[index]);
+            this.formats[index] = null;
+            this.details[index] = null;
+            this.wakePhrases[index] = null;
+            this.head.lazySet(h + 1);
+
+            String message = hasDetail
+                  ? String.format(format, value, detail)
+                  : String.format(format, value);
+            this.context.deliverTrace(snapshot, message);
+        }
+    }
+
+    private boolean resume() {
+        // records raised after the empty check either see that this thread
+        // is no longer running and start a new one, or are picked up here
+        this.running.set(false);
+        return this.head.get() != this.tail.get()
+              && this.running.compareAndSet(false, true);
+    }
+}
@@ -2,16 +2,20 @@ package io.spokestack.spokestack.asr;
 
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
+import io.spokestack.spokestack.GatedProcessor;
+import io.spokestack.spokestack.MelFilterbank;
+import io.spokestack.spokestack.MelFrames;
 import io.spokestack.spokestack.RingBuffer;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechContext;
-import io.spokestack.spokestack.SpeechProcessor;
 import io.spokestack.spokestack.tensorflow.TensorflowModel;
+import io.spokestack.spokestack.util.EventTracer;
 import org.jtransforms.fft.FloatFFT_1D;
 
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
  * keyword recognition pipeline component
@@ -57,6 +61,16 @@ import java.nio.ByteBuffer;
  * </p>
  *
  * <p>
+ * When the recognizer computes its own spectrogram, it samples audio even
+ * while the pipeline is inactive (without analyzing it), so that its sample
+ * window and pre-emphasis state are current when an utterance starts, and
+ * the first active frame can be analyzed immediately. When it consumes
+ * shared mel frames, it has no such state, and is gated (see
+ * {@link GatedProcessor}) to run only while the pipeline is active; when its
+ * gate closes, detection is run as above.
+ * </p>
+ *
+ * <p>
  * The keyword recognizer can be used as a stand-alone speech recognizer,
  * using the VAD/timeout (or other activator) to manage activations.
  * Alternatively, the recognizer can be used along with a wakeword detector
@@ -71,7 +85,8 @@ import java.nio.ByteBuffer;
  *      <b>keyword-filter-path</b> (string, required): file system path to the
  *      "filter" Tensorflow-Lite model, which is used to calculate a mel
  *      spectrogram frame from the linear STFT; its inputs should be shaped
- *      [fft-width], and its outputs [mel-width]
+ *      [fft-width], and its outputs [mel-width] (not used if mel-features
+ *      is shared, or if keyword-mel-filter-type is java)
  *   </li>
  *   <li>
  *      <b>keyword-encode-path</b> (string, required): file system path to the
@@ -98,6 +113,13 @@ import java.nio.ByteBuffer;
  *      is not supplied.
  *   </li>
  *   <li>
+ *      <b>mel-features</b> (string): {@code local} to compute the mel
+ *      spectrogram in this component, or {@code shared} to read it from a
+ *      preceding {@link io.spokestack.spokestack.FeatureExtractor}, in
+ *      which case the pre-emphasis and STFT properties below are ignored
+ *      (default local)
+ *   </li>
+ *   <li>
  *      <b>keyword-pre-emphasis</b> (double): the pre-emphasis filter weight
  *      to apply to the audio signal (0 for no pre-emphasis)
  *   </li>
@@ -124,6 +146,15 @@ import java.nio.ByteBuffer;
  *      spectrogram frame, in number of filterbank components
  *   </li>
  *   <li>
+ *      <b>keyword-mel-filter-type</b> (string): how the mel spectrogram
+ *      frame is computed from the linear STFT: {@code model} to run the
+ *      filter model, {@code java} to use a triangular filterbank computed in
+ *      Java (in which case the filter model is not loaded), or
+ *      {@code derived} to derive the filterbank from the filter model at
+ *      startup (see {@link io.spokestack.spokestack.MelFilterbank}; default
+ *      model)
+ *   </li>
+ *   <li>
  *      <b>keyword-encode-length</b> (integer): the length of the sliding
  *      window of encoder output used as an input to the classifier, in
  *      milliseconds
@@ -143,7 +174,7 @@ import java.nio.ByteBuffer;
  *   </li>
  * </ul>
  */
-public final class KeywordRecognizer implements SpeechProcessor {
+public final class KeywordRecognizer implements GatedProcessor {
     /** the hann keyword-fft-window-type.  */
     public static final String FFT_WINDOW_TYPE_HANN = "hann";
 
@@ -177,8 +208,11 @@ public final class KeywordRecognizer implements SpeechProcessor {
     private final FloatFFT_1D fft;
     private final float[] fftWindow;
     private final float[] fftFrame;
+    private final float[] spectrum;
     private final int hopLength;
     private final int melWidth;
+    private final MelFilterbank filterbank;
+    private final float[] melFrame;
 
     // encoder configuration
     private final int encodeWidth;
@@ -188,6 +222,10 @@ public final class KeywordRecognizer implements SpeechProcessor {
     private final RingBuffer frameWindow;
     private final RingBuffer encodeWindow;
 
+    // shared mel frames
+    private final boolean sharedFeatures;
+    private long melSequence;
+
     // tensorflow mel filtering and classifier models
     private final TensorflowModel filterModel;
     private final TensorflowModel encodeModel;
@@ -204,7 +242,7 @@ public final class KeywordRecognizer implements SpeechProcessor {
      * @param config the pipeline configuration instance
      */
     public KeywordRecognizer(SpeechConfig config) {
-        this(config, new TensorflowModel.Loader());
+        this(config, new TensorflowModel.Loader(config));
     }
 
     /**
@@ -250,6 +288,7 @@ public final class KeywordRecognizer implements SpeechProcessor {
 
         this.fft = new FloatFFT_1D(windowSize);
         this.fftFrame = new float[windowSize];
+        this.spectrum = new float[windowSize / 2 + 1];
 
         // fetch and validate encoder configuration
         int encodeLength = config
@@ -270,11 +309,29 @@ public final class KeywordRecognizer implements SpeechProcessor {
         this.frameWindow.fill(0);
         this.encodeWindow.fill(-1);
 
-        // load the tensorflow-lite models
-        this.filterModel = loader
-            .setPath(config.getString("keyword-filter-path"))
-            .load();
-        loader.reset();
+        // load the tensorflow-lite models, skipping the filter model
+        // if mel frames are computed by a feature extractor
+        this.sharedFeatures = "shared"
+            .equals(config.getString("mel-features", "local"));
+        TensorflowModel filter = null;
+        boolean needsFilter = MelFilterbank.needsModel(config, "keyword-");
+        if (!this.sharedFeatures && needsFilter) {
+            filter = loader
+                .setPath(config.getString("keyword-filter-path"))
+                .load();
+            loader.reset();
+        }
+        this.filterbank = this.sharedFeatures
+            ? null
+            : MelFilterbank.create(
+                config, "keyword-", filter, windowSize, this.melWidth);
+        if (this.filterbank != null && filter != null) {
+            // the derived filterbank replaces the model
+            filter.close();
+            filter = null;
+        }
+        this.filterModel = filter;
+        this.melFrame = new float[this.melWidth];
         this.encodeModel = loader
             .setPath(config.getString("keyword-encode-path"))
             .setStatePosition(1)
@@ -317,7 +374,8 @@ public final class KeywordRecognizer implements SpeechProcessor {
      * @throws Exception on error
      */
     public void close() throws Exception {
-        this.filterModel.close();
+        if (this.filterModel != null)
+            this.filterModel.close();
         this.encodeModel.close();
         this.detectModel.close();
     }
@@ -348,7 +406,10 @@ public final class KeywordRecognizer implements SpeechProcessor {
     public void process(SpeechContext context, ByteBuffer buffer)
             throws Exception {
         // run the current frame through the detector pipeline
-        sample(context, buffer);
+        if (this.sharedFeatures)
+            consume(context);
+        else
+            sample(context, buffer);
 
         // on deactivation, see if a keyword was detected
         if (!context.isActive() && this.isActive)
@@ -357,6 +418,47 @@ public final class KeywordRecognizer implements SpeechProcessor {
         this.isActive = context.isActive();
     }
 
+    @Override
+    public int getGate() {
+        // the sample window must see every frame, so only the shared
+        // feature path is gated
+        return this.sharedFeatures ? ACTIVE : 0;
+    }
+
+    @Override
+    public void onGateChange(SpeechContext context, boolean open) {
+        if (open) {
+            // skip any shared mel frames published while the gate was closed
+            if (context.getFeatures() != null)
+                this.melSequence = context.getFeatures().getFrameStart();
+        } else {
+            // the deactivation frame will be skipped,
+            // so see if a keyword was detected now
+            if (this.isActive)
+                detect(context);
+            this.isActive = false;
+        }
+    }
+
+    private void consume(SpeechContext context) {
+        MelFrames features = context.getFeatures();
+        if (features == null)
+            return;
+
+        // run the mel frames published since the last audio frame
+        // through the remainder of the detection pipeline if active
+        long last = features.getSequence();
+        for (long seq = this.melSequence + 1; seq <= last; seq++) {
+            float[] frame = features.get(seq);
+            if (frame != null && context.isActive()) {
+                this.frameWindow.rewind().seek(this.melWidth);
+                this.frameWindow.write(frame, 0, this.melWidth);
+                encode(context);
+            }
+        }
+        this.melSequence = last;
+    }
+
     private void sample(SpeechContext context, ByteBuffer buffer) {
         // process all samples in the frame
         buffer.rewind();
@@ -386,8 +488,9 @@ public final class KeywordRecognizer implements SpeechProcessor {
 
     private void analyze(SpeechContext context) {
         // apply the windowing function to the current sample window
+        this.sampleWindow.read(this.fftFrame, 0, this.fftFrame.length);
         for (int i = 0; i < this.fftFrame.length; i++)
-            this.fftFrame[i] = this.sampleWindow.read() * this.fftWindow[i];
+            this.fftFrame[i] *= this.fftWindow[i];
 
         // compute the stft
         this.fft.realForward(this.fftFrame);
@@ -396,46 +499,38 @@ public final class KeywordRecognizer implements SpeechProcessor {
     }
 
     private void filter(SpeechContext context) {
-        // decode the FFT outputs into the filter model's inputs
-        // . compute the magnitude (abs) of each complex stft component
-        // . the first and last stft components contain only real parts
-        //   and are stored in the first two positions of the stft output
-        // . the remaining components contain real/imaginary parts
-        this.filterModel.inputs(0).rewind();
-        this.filterModel.inputs(0).putFloat(this.fftFrame[0]);
-        for (int i = 1; i < this.fftFrame.length / 2; i++) {
-            float re = this.fftFrame[i * 2 + 0];
-            float im = this.fftFrame[i * 2 + 1];
-            float ab = (float) Math.sqrt(re * re + im * im);
-            this.filterModel.inputs(0).putFloat(ab);
-        }
-        this.filterModel.inputs(0).putFloat(this.fftFrame[1]);
+        // decode the FFT outputs into the stft magnitudes
+        MelFilterbank.magnitudes(this.fftFrame, this.spectrum);
 
-        // execute the mel filterbank tensorflow model
-        this.filterModel.run();
-
-        // copy the current mel frame into the frame window
+        // copy the current mel frame into the frame window, projecting the
+        // magnitudes directly or via the mel filterbank tensorflow model
         this.frameWindow.rewind().seek(this.melWidth);
-        while (this.filterModel.outputs(0).hasRemaining())
-            this.frameWindow.write(this.filterModel.outputs(0).getFloat());
+        if (this.filterbank != null) {
+            this.filterbank.apply(this.spectrum, this.melFrame);
+            this.frameWindow.write(this.melFrame, 0, this.melWidth);
+        } else {
+            FloatBuffer input = this.filterModel.floatInputs(0);
+            input.rewind();
+            input.put(this.spectrum);
+            this.filterModel.run();
+            this.frameWindow.write(this.filterModel.floatOutputs(0));
+        }
 
         encode(context);
     }
 
     private void encode(SpeechContext context) {
         // transfer the mel filterbank window to the encoder model's inputs
-        this.frameWindow.rewind();
-        this.encodeModel.inputs(0).rewind();
-        while (!this.frameWindow.isEmpty())
-            this.encodeModel.inputs(0).putFloat(this.frameWindow.read());
+        FloatBuffer input = this.encodeModel.floatInputs(0);
+        input.rewind();
+        this.frameWindow.rewind().read(input);
 
         // run the encoder tensorflow model
         this.encodeModel.run();
 
         // copy the encoder output into the encode window
         this.encodeWindow.rewind().seek(this.encodeWidth);
-        while (this.encodeModel.outputs(0).hasRemaining())
-            this.encodeWindow.write(this.encodeModel.outputs(0).getFloat());
+        this.encodeWindow.write(this.encodeModel.floatOutputs(0));
     }
 
     private void detect(SpeechContext context) {
@@ -443,10 +538,9 @@ public final class KeywordRecognizer implements SpeechProcessor {
         float confidence = 0;
 
         // transfer the encoder window to the detector model's inputs
-        this.encodeWindow.rewind();
-        this.detectModel.inputs(0).rewind();
-        while (!this.encodeWindow.isEmpty())
-            this.detectModel.inputs(0).putFloat(this.encodeWindow.read());
+        FloatBuffer input = this.detectModel.floatInputs(0);
+        input.rewind();
+        this.encodeWindow.rewind().read(input);
 
         // run the classifier tensorflow model
         this.detectModel.run();
@@ -460,7 +554,11 @@ public final class KeywordRecognizer implements SpeechProcessor {
             }
         }
 
-        context.traceInfo("keyword: %.3f %s", confidence, transcript);
+        context.traceValue(
+              EventTracer.Level.INFO,
+              "keyword: %.3f %s",
+              confidence,
+              transcript);
 
         if (confidence >= this.threshold) {
             // raise the speech recognition event with the class transcript
@@ -2,6 +2,7 @@ package io.spokestack.spokestack.google;
 
 import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
+import java.util.Deque;
 
 import com.google.protobuf.ByteString;
 import com.google.auth.oauth2.ServiceAccountCredentials;
@@ -17,6 +18,7 @@ import com.google.cloud.speech.v1.StreamingRecognizeResponse;
 import com.google.cloud.speech.v1.StreamingRecognitionResult;
 import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
 
+import io.spokestack.spokestack.FrameRing;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechProcessor;
 import io.spokestack.spokestack.SpeechContext;
@@ -47,11 +49,17 @@ import io.spokestack.spokestack.SpeechContext;
  *   <li>
  *      <b>locale</b> (string): language code for speech recognition
  *   </li>
+ *   <li>
+ *      <b>google-preroll-width</b> (integer): the amount of buffered audio
+ *      sent to the API when the recognizer is activated, in ms (default:
+ *      the pipeline's entire buffer)
+ *   </li>
  * </ul>
  */
 public final class GoogleSpeechRecognizer implements SpeechProcessor {
     private final SpeechClient client;
     private StreamingRecognitionConfig config;
+    private int prerollWidth;
     private ApiStreamObserver<StreamingRecognizeRequest> request;
 
     /**
@@ -91,6 +99,9 @@ public final class GoogleSpeechRecognizer implements SpeechProcessor {
     private void configure(SpeechConfig speechConfig) throws Exception {
         int sampleRate = speechConfig.getInteger("sample-rate");
         String locale = speechConfig.getString("locale");
+        this.prerollWidth = speechConfig.getInteger(
+            "google-preroll-width",
+            Integer.MAX_VALUE);
 
         RecognitionConfig recognitionConfig = RecognitionConfig.newBuilder()
             .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
@@ -155,9 +166,17 @@ public final class GoogleSpeechRecognizer implements SpeechProcessor {
         // send any buffered frames to the api
         // based on integration testing,
         // these are transmitted asynchronously by the speech client
-        // so they don't appear to block the frame loop
-        for (ByteBuffer frame: context.getBuffer())
-            send(frame);
+        // so they don't appear to block the frame loop.
+        // the pipeline's frame ring is sent in bulk, as (at most) two
+        // zero-copy views of its storage
+        Deque<ByteBuffer> buffer = context.getBuffer();
+        if (buffer instanceof FrameRing) {
+            for (ByteBuffer audio: ((FrameRing) buffer).recent(prerollWidth))
+                send(audio);
+        } else {
+            for (ByteBuffer frame: buffer)
+                send(frame);
+        }
     }
 
     private void send(ByteBuffer frame) {
@@ -0,0 +1,151 @@
+package io.spokestack.spokestack.nlu;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of classification results, which evicts the least
+ * recently used result when it is full.
+ *
+ * <p>
+ * Results are keyed by their utterances, normalized by trimming them and
+ * collapsing each run of whitespace into a single space, which doesn't affect
+ * how they are tokenized. Utterances are not otherwise normalized (for
+ * example, by case), because slot values are recovered from the original
+ * text. A cached result is returned with the utterance it was requested for.
+ * Results with errors are not cached.
+ * </p>
+ *
+ * <p>
+ * The cache records its hits, misses, and evictions, which are not reset
+ * when it is cleared.
+ * </p>
+ */
+public final class NLUCache {
+    private final int capacity;
+    private final LinkedHashMap<String, NLUResult> results;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxEntries the maximum number of results retained by the cache
+     */
+    public NLUCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries");
+        }
+        this.capacity = maxEntries;
+        this.results = new LinkedHashMap<String, NLUResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                  Map.Entry<String, NLUResult> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Look up the cached result for an utterance.
+     *
+     * @param utterance The utterance to look up.
+     * @return The cached result, with {@code utterance} as its utterance, or
+     * {@code null} if no result is cached for the utterance.
+     */
+    public synchronized NLUResult get(String utterance) {
+        NLUResult cached = this.results.get(normalize(utterance));
+        if (cached == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return new NLUResult.Builder(utterance)
+              .withIntent(cached.getIntent())
+              .withConfidence(cached.getConfidence())
+              .withSlots(new HashMap<>(cached.getSlots()))
+              .withContext(new HashMap<>(cached.getContext()))
+              .build();
+    }
+
+    /**
+     * Cache the result of a classification, evicting the least recently used
+     * result if the cache is full.
+     *
+     * @param utterance The classified utterance.
+     * @param result    The classification result.
+     */
+    public synchronized void put(String utterance, NLUResult result) {
+        if (result.getError() == null) {
+            this.results.put(normalize(utterance), result);
+        }
+    }
+
+    /**
+     * Remove all cached results. The cache should be cleared whenever the
+     * model or metadata used for classification changes.
+     */
+    public synchronized void clear() {
+        this.results.clear();
+    }
+
+    /**
+     * @return The number of results currently cached.
+     */
+    public synchronized int size() {
+        return this.results.size();
+    }
+
+    /**
+     * @return The maximum number of results retained by the cache.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return The number of lookups that found a cached result.
+     */
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of lookups that found no cached result.
+     */
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+
+    /**
+     * @return The number of results evicted to make room for others.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictions;
+    }
+
+    private static String normalize(String utterance) {
+        // collapse the whitespace the wordpiece encoder splits on
+        StringBuilder normalized = new StringBuilder(utterance.length());
+        boolean space = false;
+        for (int i = 0; i < utterance.length(); i++) {
+            char ch = utterance.charAt(i);
+            if (ch == ' ' || (ch >= '\t' && ch <= '\r')) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(ch);
+            }
+        }
+        return normalized.toString();
+    }
+}
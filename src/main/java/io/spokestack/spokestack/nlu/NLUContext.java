@@ -32,6 +32,23 @@ public final class NLUContext {
         this.requestMetadata = new HashMap<>();
     }
 
+    private NLUContext(EventTracer eventTracer,
+                       List<TraceListener> traceListeners) {
+        this.listeners = traceListeners;
+        this.tracer = eventTracer;
+        this.requestMetadata = new HashMap<>();
+    }
+
+    /**
+     * Create a context that shares this context's trace listeners and
+     * trace level, but has its own request metadata.
+     *
+     * @return the new context
+     */
+    NLUContext fork() {
+        return new NLUContext(this.tracer, this.listeners);
+    }
+
     /**
      * Add a listener interested in receiving NLU trace events.
      *
@@ -6,7 +6,9 @@ import io.spokestack.spokestack.nlu.tensorflow.parsers.DigitsParser;
 import io.spokestack.spokestack.nlu.tensorflow.parsers.IdentityParser;
 import io.spokestack.spokestack.nlu.tensorflow.parsers.IntegerParser;
 import io.spokestack.spokestack.nlu.tensorflow.parsers.SelsetParser;
+import androidx.annotation.NonNull;
 import io.spokestack.spokestack.util.AsyncResult;
+import io.spokestack.spokestack.util.Callback;
 import io.spokestack.spokestack.util.EventTracer;
 import io.spokestack.spokestack.util.TraceListener;
 
@@ -23,11 +25,50 @@ import java.util.List;
  * classification (an {@link NLUService}) and manages the context required to
  * perform these classifications and dispatch events to registered listeners.
  * </p>
+ *
+ * <p>
+ * The manager can also cache classification results, so that repeated
+ * utterances (such as common commands) are not classified again. The cache
+ * is cleared whenever the NLU service is rebuilt by {@link #prepare()}, which
+ * reloads its model. Utterances are classified by the service, bypassing the
+ * cache, while the context has request metadata, which may affect their
+ * results. The cache is enabled by the following property:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>nlu-cache-size</b> (integer, optional): the maximum number of
+ *      results retained by the cache. Defaults to 0, which disables the
+ *      cache.
+ *   </li>
+ * </ul>
+ *
+ * <p>
+ * Partial ASR transcripts passed to {@link #speculate(String)} can be
+ * classified speculatively, so that the result for a final transcript that
+ * matches one of them is ready sooner. Speculative classifications use
+ * their own context, which shares the manager's trace listeners but has no
+ * request metadata, so a final transcript is classified normally while the
+ * context has request metadata. Speculation is enabled by the following
+ * property:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>nlu-speculation-stability</b> (integer, optional): the number of
+ *      consecutive times a partial transcript must be reported before it is
+ *      classified speculatively. Defaults to 0, which disables speculation.
+ *   </li>
+ * </ul>
+ *
+ * @see NLUCache
+ * @see NLUSpeculator
  */
 public final class NLUManager implements AutoCloseable {
     private final NLUContext context;
     private final String serviceClass;
     private final SpeechConfig config;
+    private final NLUCache cache;
+    private final NLUSpeculator speculator;
+    private final NLUContext speculationContext;
     private NLUService nlu;
 
     /**
@@ -40,6 +81,11 @@ public final class NLUManager implements AutoCloseable {
         this.context = builder.context;
         this.serviceClass = builder.serviceClass;
         this.config = builder.config;
+        int cacheSize = this.config.getInteger("nlu-cache-size", 0);
+        this.cache = cacheSize > 0 ? new NLUCache(cacheSize) : null;
+        int stability = this.config.getInteger("nlu-speculation-stability", 0);
+        this.speculator = stability > 0 ? new NLUSpeculator(stability) : null;
+        this.speculationContext = this.context.fork();
         prepare();
     }
 
@@ -51,6 +97,9 @@ public final class NLUManager implements AutoCloseable {
     public void prepare() throws Exception {
         if (this.nlu == null) {
             this.nlu = buildService();
+            if (this.cache != null) {
+                this.cache.clear();
+            }
         }
     }
 
@@ -71,11 +120,32 @@ public final class NLUManager implements AutoCloseable {
         return nlu;
     }
 
+    /**
+     * Get the classification result cache.
+     *
+     * @return The result cache, or {@code null} if caching is disabled.
+     */
+    public NLUCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the speculative classification tracker.
+     *
+     * @return The speculator, or {@code null} if speculation is disabled.
+     */
+    public NLUSpeculator getSpeculator() {
+        return speculator;
+    }
+
     /**
      * Releases resources in use by the NLU module.
      */
     @Override
     public void close() throws Exception {
+        if (this.speculator != null) {
+            this.speculator.reset();
+        }
         this.nlu.close();
         this.nlu = null;
     }
@@ -93,7 +163,67 @@ public final class NLUManager implements AutoCloseable {
         if (this.nlu == null) {
             throw new IllegalStateException("NLU closed; call prepare()");
         }
-        return this.nlu.classify(utterance, this.context);
+        if (this.speculator != null) {
+            if (!this.context.getRequestMetadata().isEmpty()) {
+                // speculative results are classified without metadata
+                this.speculator.skip();
+            } else {
+                AsyncResult<NLUResult> speculative =
+                      this.speculator.finish(utterance);
+                if (speculative != null) {
+                    return speculative;
+                }
+            }
+        }
+        return classifyService(utterance, this.context);
+    }
+
+    /**
+     * Report a partial transcript of an utterance that is still being
+     * recognized. If speculation is enabled, the transcript is classified in
+     * the background once it is stable, and the result is returned by {@link
+     * #classify(String)} if the final transcript matches it.
+     *
+     * @param partial The partial transcript.
+     */
+    public void speculate(String partial) {
+        if (this.nlu != null && this.speculator != null
+              && this.speculator.observe(partial)) {
+            this.speculator.start(partial,
+                  classifyService(partial, this.speculationContext));
+        }
+    }
+
+    private AsyncResult<NLUResult> classifyService(String utterance,
+                                                   NLUContext nluContext) {
+        if (this.cache == null
+              || !nluContext.getRequestMetadata().isEmpty()) {
+            return this.nlu.classify(utterance, nluContext);
+        }
+
+        NLUResult cached = this.cache.get(utterance);
+        if (cached != null) {
+            // reset the context as the service would after classification
+            nluContext.traceDebug("Cached result: %s", cached.getIntent());
+            nluContext.reset();
+            AsyncResult<NLUResult> result = new AsyncResult<>(() -> cached);
+            result.run();
+            return result;
+        }
+        AsyncResult<NLUResult> result =
+              this.nlu.classify(utterance, nluContext);
+        result.registerCallback(new Callback<NLUResult>() {
+            @Override
+            public void call(@NonNull NLUResult arg) {
+                cache.put(utterance, arg);
+            }
+
+            @Override
+            public void onError(@NonNull Throwable err) {
+                // failed classifications aren't cached
+            }
+        });
+        return result;
     }
 
     /**
@@ -0,0 +1,206 @@
+package io.spokestack.spokestack.nlu;
+
+import androidx.annotation.NonNull;
+import io.spokestack.spokestack.util.AsyncResult;
+import io.spokestack.spokestack.util.Callback;
+
+/**
+ * Tracks speculative classification of partial ASR transcripts.
+ *
+ * <p>
+ * Recognizers that stream their results report partial transcripts before
+ * the final one. Once the same partial transcript has been reported a number
+ * of times in a row, it is considered stable, and is classified in the
+ * background. A newer stable transcript supersedes the previous one, whose
+ * classification is canceled. When the final transcript matches the one
+ * being classified, the speculative result is used instead of classifying
+ * the final transcript, so that part or all of the classification's latency
+ * is hidden behind the end of the utterance. Speculative results are
+ * classified without request metadata, so they are not used for final
+ * transcripts that are classified with it.
+ * </p>
+ *
+ * <p>
+ * The speculator records how often speculative results are reused, and the
+ * total classification time saved by reusing them.
+ * </p>
+ */
+public final class NLUSpeculator {
+    private final int stability;
+
+    // the latest partial transcript and its consecutive repetitions
+    private String partial;
+    private int repeats;
+
+    // the speculative classification in progress
+    private String utterance;
+    private AsyncResult<NLUResult> pending;
+    private long started;
+    private long completed;
+
+    private long speculations;
+    private long cancellations;
+    private long finals;
+    private long reuses;
+    private long savedNanos;
+
+    /**
+     * Create a new speculator.
+     *
+     * @param repetitions the number of consecutive times a partial transcript
+     *                    must be reported before it is classified
+     */
+    public NLUSpeculator(int repetitions) {
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("repetitions");
+        }
+        this.stability = repetitions;
+    }
+
+    /**
+     * records a partial transcript.
+     *
+     * @param transcript the partial transcript
+     * @return true if the transcript has just become stable and should be
+     * classified, false otherwise
+     */
+    synchronized boolean observe(String transcript) {
+        if (transcript.equals(this.partial)) {
+            this.repeats++;
+        } else {
+            this.partial = transcript;
+            this.repeats = 1;
+        }
+        return this.repeats == this.stability
+              && !transcript.equals(this.utterance);
+    }
+
+    /**
+     * records the start of a speculative classification, canceling the one
+     * it supersedes.
+     *
+     * @param transcript the transcript being classified
+     * @param result     the classification's result
+     */
+    synchronized void start(String transcript, AsyncResult<NLUResult> result) {
+        cancel();
+        this.utterance = transcript;
+        this.pending = result;
+        this.started = System.nanoTime();
+        this.completed = 0;
+        this.speculations++;
+        result.registerCallback(new Callback<NLUResult>() {
+            @Override
+            public void call(@NonNull NLUResult arg) {
+                complete(result);
+            }
+
+            @Override
+            public void onError(@NonNull Throwable err) {
+                complete(result);
+            }
+        });
+    }
+
+    private synchronized void complete(AsyncResult<NLUResult> result) {
+        if (result == this.pending) {
+            this.completed = System.nanoTime();
+        }
+    }
+
+    /**
+     * records a final transcript, ending the current speculation.
+     *
+     * @param transcript the final transcript
+     * @return the speculative result for the transcript, which may still be
+     * in progress, or {@code null} if the transcript was not classified
+     * speculatively
+     */
+    synchronized AsyncResult<NLUResult> finish(String transcript) {
+        this.finals++;
+        AsyncResult<NLUResult> result = null;
+        if (this.pending != null && transcript.equals(this.utterance)) {
+            long end = this.completed > 0 ? this.completed : System.nanoTime();
+            this.savedNanos += end - this.started;
+            this.reuses++;
+            result = this.pending;
+            this.pending = null;
+        }
+        reset();
+        return result;
+    }
+
+    /**
+     * records a final transcript that cannot use a speculative result,
+     * ending the current speculation.
+     */
+    synchronized void skip() {
+        this.finals++;
+        reset();
+    }
+
+    /**
+     * cancels the current speculation, if any, and forgets any partial
+     * transcripts.
+     */
+    synchronized void reset() {
+        cancel();
+        this.partial = null;
+        this.repeats = 0;
+        this.utterance = null;
+    }
+
+    private void cancel() {
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+            this.cancellations++;
+        }
+    }
+
+    /**
+     * @return The number of partial transcripts classified speculatively.
+     */
+    public synchronized long getSpeculationCount() {
+        return this.speculations;
+    }
+
+    /**
+     * @return The number of speculative classifications canceled because
+     * they were superseded or did not match the final transcript.
+     */
+    public synchronized long getCancellationCount() {
+        return this.cancellations;
+    }
+
+    /**
+     * @return The number of final transcripts classified.
+     */
+    public synchronized long getFinalCount() {
+        return this.finals;
+    }
+
+    /**
+     * @return The number of final transcripts resolved by a speculative
+     * result.
+     */
+    public synchronized long getReuseCount() {
+        return this.reuses;
+    }
+
+    /**
+     * @return The fraction of final transcripts resolved by a speculative
+     * result, or 0 if no final transcripts have been classified.
+     */
+    public synchronized double getReuseRate() {
+        return this.finals == 0 ? 0 : (double) this.reuses / this.finals;
+    }
+
+    /**
+     * @return The total time, in milliseconds, that speculative results had
+     * already spent classifying the final transcripts they resolved.
+     */
+    public synchronized long getLatencySaved() {
+        return this.savedNanos / 1000000;
+    }
+}
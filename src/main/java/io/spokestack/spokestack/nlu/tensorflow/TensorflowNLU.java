@@ -20,13 +20,19 @@ import io.spokestack.spokestack.util.Tuple;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * On-device natural language understanding powered by DistilBERT and TensorFlow
@@ -53,7 +59,33 @@ import java.util.concurrent.ThreadFactory;
  *   </li>
  *   <li>
  *      <b>wordpiece-vocab-path</b> (string, required): file system path to the
- *      wordpiece vocabulary file used by the wordpiece token encoder.
+ *      wordpiece vocabulary file used by the wordpiece token encoder. The file
+ *      may be a text vocabulary or one compiled by
+ *      {@link WordpieceVocabCompiler}, which loads faster.
+ *   </li>
+ *   <li>
+ *      <b>nlu-length-buckets</b> (string, optional): comma-separated input
+ *      lengths, in tokens, for which additional instances of the model are
+ *      loaded. Each utterance is classified by the shortest instance it fits,
+ *      so that short utterances aren't padded to the model's full length.
+ *      The model must accept inputs of varying lengths.
+ *   </li>
+ *   <li>
+ *      <b>nlu-batch-size</b> (integer, optional): the maximum number of
+ *      utterances classified by a single model run. When greater than 1
+ *      (the default), an instance of the model is loaded with this batch size,
+ *      and concurrent calls to {@code classify} are collected into batches.
+ *      The model's first input and output dimensions must be its batch size.
+ *      An utterance that no others join is classified by the unbatched (and
+ *      any length-bucketed) instances of the model instead.
+ *   </li>
+ *   <li>
+ *      <b>nlu-batch-wait</b> (integer, optional): the maximum time, in
+ *      milliseconds, that an utterance waits for other utterances to join its
+ *      batch, if batching is enabled. Defaults to 5. Unless its batch fills,
+ *      this wait is added to the latency of every call to {@code classify},
+ *      including those made while no other utterances are being classified.
+ *      The time each utterance waited is traced at the PERF level.
  *   </li>
  *   <li>
  *      <b>slot-&lt;slotType&gt;</b> (string, optional): class name of a slot
@@ -76,6 +108,17 @@ public final class TensorflowNLU implements NLUService {
     private TFNLUOutput outputParser;
     private int maxTokens;
 
+    // model instances by input length, ascending, ending with the full model
+    private int[] bucketLengths;
+    private TensorflowModel[] models;
+    private int[] modelLengths;
+
+    // batched model instance and the requests waiting to join a batch
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private TensorflowModel batchModel;
+    private int batchSize;
+    private long batchWait;
+
     private volatile boolean ready = false;
 
     /**
@@ -122,7 +165,7 @@ public final class TensorflowNLU implements NLUService {
         this.context = nluContext;
         load(speechConfig,
               new WordpieceTextEncoder(speechConfig, this.context),
-              new TensorflowModel.Loader(),
+              new TensorflowModel.Loader(speechConfig),
               Thread::new);
     }
 
@@ -133,6 +176,14 @@ public final class TensorflowNLU implements NLUService {
         String modelPath = config.getString("nlu-model-path");
         String metadataPath = config.getString("nlu-metadata-path");
         Map<String, String> slotParsers = getSlotParsers(config);
+        this.bucketLengths =
+              parseBuckets(config.getString("nlu-length-buckets", ""));
+        this.batchSize = config.getInteger("nlu-batch-size", 1);
+        if (this.batchSize < 1) {
+            throw new IllegalArgumentException("nlu-batch-size");
+        }
+        this.batchWait = TimeUnit.MILLISECONDS.toNanos(
+              config.getInteger("nlu-batch-wait", 5));
         this.textEncoder = encoder;
         this.loadThread = threadFactory.newThread(
               () -> {
@@ -145,6 +196,25 @@ public final class TensorflowNLU implements NLUService {
         this.sepTokenId = encoder.encodeSingle("[SEP]");
     }
 
+    private int[] parseBuckets(String buckets) {
+        TreeSet<Integer> lengths = new TreeSet<>();
+        for (String bucket : buckets.split(",")) {
+            if (!bucket.trim().isEmpty()) {
+                int length = Integer.parseInt(bucket.trim());
+                if (length <= 0) {
+                    throw new IllegalArgumentException("nlu-length-buckets");
+                }
+                lengths.add(length);
+            }
+        }
+        int[] result = new int[lengths.size()];
+        int i = 0;
+        for (int length : lengths) {
+            result[i++] = length;
+        }
+        return result;
+    }
+
     private Map<String, String> getSlotParsers(SpeechConfig config) {
         HashMap<String, String> slotParsers = new HashMap<>();
 
@@ -188,6 +258,8 @@ public final class TensorflowNLU implements NLUService {
                   .load();
             this.maxTokens = this.nluModel.inputs(0).capacity()
                   / this.nluModel.getInputSize();
+            loadBuckets(loader, modelPath);
+            loadBatch(loader, modelPath);
             this.outputParser = new TFNLUOutput(metadata);
             warmup();
         } catch (IOException e) {
@@ -196,12 +268,54 @@ public final class TensorflowNLU implements NLUService {
         }
     }
 
+    private void loadBuckets(TensorflowModel.Loader loader, String modelPath) {
+        // buckets that aren't shorter than the full model are ignored
+        int count = 0;
+        while (count < this.bucketLengths.length
+              && this.bucketLengths[count] < this.maxTokens) {
+            count++;
+        }
+        this.models = new TensorflowModel[count + 1];
+        this.modelLengths = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            int[] shape = this.nluModel.getInputShape(0);
+            shape[shape.length - 1] = this.bucketLengths[i];
+            this.models[i] = loader
+                  .setPath(modelPath)
+                  .setInputShape(0, shape)
+                  .load();
+            this.modelLengths[i] = this.bucketLengths[i];
+        }
+        this.models[count] = this.nluModel;
+        this.modelLengths[count] = this.maxTokens;
+    }
+
+    private void loadBatch(TensorflowModel.Loader loader, String modelPath) {
+        if (this.batchSize > 1) {
+            int[] input = this.nluModel.getInputShape(0);
+            input[0] = this.batchSize;
+            loader.setPath(modelPath).setInputShape(0, input);
+            for (int i = 0; i < 2; i++) {
+                int[] output = this.nluModel.getOutputShape(i);
+                output[0] = this.batchSize;
+                loader.setOutputShape(i, output);
+            }
+            this.batchModel = loader.load();
+        }
+    }
+
     private void warmup() {
-        this.nluModel.inputs(0).rewind();
-        for (int i = 0; i < maxTokens; i++) {
-            this.nluModel.inputs(0).putInt(0);
+        for (int m = 0; m < this.models.length; m++) {
+            TensorflowModel model = this.models[m];
+            model.inputs(0).rewind();
+            for (int i = 0; i < this.modelLengths[m]; i++) {
+                model.inputs(0).putInt(0);
+            }
+            model.run();
+        }
+        if (this.batchModel != null) {
+            this.batchModel.run();
         }
-        this.nluModel.run();
     }
 
     /**
@@ -215,7 +329,14 @@ public final class TensorflowNLU implements NLUService {
     @Override
     public void close() throws Exception {
         this.executor.shutdownNow();
-        this.nluModel.close();
+        for (TensorflowModel model : this.models) {
+            model.close();
+        }
+        if (this.batchModel != null) {
+            this.batchModel.close();
+        }
+        this.models = null;
+        this.batchModel = null;
         this.nluModel = null;
         this.textEncoder = null;
         this.outputParser = null;
@@ -238,28 +359,205 @@ public final class TensorflowNLU implements NLUService {
     public AsyncResult<NLUResult> classify(String utterance,
                                            NLUContext nluContext) {
         ensureReady();
+        if (this.batchModel != null) {
+            // the request's result is completed by the batch that it joins
+            Request request = new Request(utterance, nluContext);
+            this.pending.add(request);
+            this.executor.submit(this::runPending);
+            return request.asyncResult;
+        }
         AsyncResult<NLUResult> asyncResult = new AsyncResult<>(
+              () -> classifySingle(utterance, nluContext));
+        this.executor.submit(asyncResult);
+        return asyncResult;
+    }
+
+    /**
+     * Classify a list of utterances, returning a wrapper that can either
+     * block until all the classifications are complete or call a registered
+     * callback when the results are ready. If batching is enabled, the
+     * utterances are classified in batches of up to {@code nlu-batch-size}
+     * utterances. An utterance that cannot be classified is reported by an
+     * error in its own result.
+     *
+     * @param utterances The utterances to classify.
+     * @return An object representing the results of the asynchronous
+     * classification, in the order of the utterances.
+     */
+    public AsyncResult<List<NLUResult>> classifyBatch(List<String> utterances) {
+        ensureReady();
+        AsyncResult<List<NLUResult>> asyncResult = new AsyncResult<>(
               () -> {
-                  try {
-                      long start = SystemClock.elapsedRealtime();
-                      NLUResult result = tfClassify(utterance, nluContext);
-                      if (nluContext.canTrace(EventTracer.Level.PERF)) {
-                          nluContext.tracePerf("Classification: %5dms",
-                                (SystemClock.elapsedRealtime() - start));
+                  List<NLUResult> results = new ArrayList<>();
+                  if (this.batchModel == null) {
+                      for (String utterance : utterances) {
+                          results.add(classifySingle(utterance, this.context));
+                      }
+                      return results;
+                  }
+                  List<Request> batch = new ArrayList<>(this.batchSize);
+                  for (String utterance : utterances) {
+                      batch.add(new Request(utterance, this.context));
+                      if (batch.size() == this.batchSize) {
+                          results.addAll(runBatch(batch));
+                          batch.clear();
                       }
-                      return result;
-                  } catch (Exception e) {
-                      return new NLUResult.Builder(utterance)
-                            .withError(e)
-                            .build();
-                  } finally {
-                      nluContext.reset();
                   }
+                  if (!batch.isEmpty()) {
+                      results.addAll(runBatch(batch));
+                  }
+                  return results;
               });
         this.executor.submit(asyncResult);
         return asyncResult;
     }
 
+    private NLUResult classifySingle(String utterance,
+                                     NLUContext nluContext) {
+        try {
+            long start = SystemClock.elapsedRealtime();
+            NLUResult result = tfClassify(utterance, nluContext);
+            if (nluContext.canTrace(EventTracer.Level.PERF)) {
+                nluContext.tracePerf("Classification: %5dms",
+                      (SystemClock.elapsedRealtime() - start));
+            }
+            return result;
+        } catch (Exception e) {
+            return errorResult(utterance, e);
+        } finally {
+            nluContext.reset();
+        }
+    }
+
+    private void runPending() {
+        // each request is drained by the task submitted with it, unless an
+        // earlier task has already added it to a batch
+        Request first = this.pending.poll();
+        if (first == null) {
+            return;
+        }
+        List<Request> batch = new ArrayList<>(this.batchSize);
+        batch.add(first);
+        long deadline = first.enqueued + this.batchWait;
+        try {
+            while (batch.size() < this.batchSize) {
+                long wait = deadline - System.nanoTime();
+                Request next = this.pending.poll(
+                      Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long now = System.nanoTime();
+        for (Request request : batch) {
+            if (request.context.canTrace(EventTracer.Level.PERF)) {
+                request.context.tracePerf("Batch wait: %5dms",
+                      TimeUnit.NANOSECONDS.toMillis(now - request.enqueued));
+            }
+        }
+        runBatch(batch);
+        for (Request request : batch) {
+            request.asyncResult.run();
+        }
+    }
+
+    private List<NLUResult> runBatch(List<Request> batch) {
+        if (batch.size() == 1) {
+            // a lone utterance is not padded out to the batch size
+            Request request = batch.get(0);
+            request.result = classifySingle(request.utterance, request.context);
+            return Collections.singletonList(request.result);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        int size = batch.size();
+        EncodedTokens[] encoded = new EncodedTokens[size];
+        try {
+            // encode each utterance into its row of the batch, padding any
+            // unused rows as empty utterances
+            ByteBuffer input = this.batchModel.inputs(0);
+            for (int row = 0; row < this.batchSize; row++) {
+                int[] tokenIds = null;
+                if (row < size) {
+                    Request request = batch.get(row);
+                    try {
+                        encoded[row] = this.textEncoder.encode(
+                              request.utterance);
+                        request.context.traceDebug("Token IDs: %s",
+                              encoded[row].getIds());
+                        tokenIds = pad(encoded[row].getIds(), this.maxTokens);
+                    } catch (Exception e) {
+                        request.result = errorResult(request.utterance, e);
+                    }
+                }
+                if (tokenIds == null) {
+                    tokenIds = pad(Collections.emptyList(), this.maxTokens);
+                }
+                int offset = row * this.maxTokens;
+                for (int i = 0; i < tokenIds.length; i++) {
+                    input.putInt((offset + i) * 4, tokenIds[i]);
+                }
+            }
+
+            long inference = SystemClock.elapsedRealtime();
+            this.batchModel.run();
+            for (Request request : batch) {
+                if (request.context.canTrace(EventTracer.Level.PERF)) {
+                    request.context.tracePerf(
+                          "Inference (%d utterances): %5dms", size,
+                          (SystemClock.elapsedRealtime() - inference));
+                }
+            }
+
+            // decode each row from its offset in the outputs
+            ByteBuffer intents = this.batchModel.outputs(0);
+            ByteBuffer tags = this.batchModel.outputs(1);
+            for (int row = 0; row < size; row++) {
+                Request request = batch.get(row);
+                if (request.result == null) {
+                    intents.position(
+                          row * (intents.capacity() / this.batchSize));
+                    tags.position(row * (tags.capacity() / this.batchSize));
+                    try {
+                        request.result = decode(request.utterance,
+                              encoded[row], intents, tags, request.context);
+                    } catch (Exception e) {
+                        request.result = errorResult(request.utterance, e);
+                    }
+                }
+            }
+            intents.rewind();
+            tags.rewind();
+        } catch (Exception e) {
+            for (Request request : batch) {
+                if (request.result == null) {
+                    request.result = errorResult(request.utterance, e);
+                }
+            }
+        }
+
+        List<NLUResult> results = new ArrayList<>(size);
+        for (Request request : batch) {
+            if (request.context.canTrace(EventTracer.Level.PERF)) {
+                request.context.tracePerf("Classification: %5dms",
+                      (SystemClock.elapsedRealtime() - start));
+            }
+            request.context.reset();
+            results.add(request.result);
+        }
+        return results;
+    }
+
+    private NLUResult errorResult(String utterance, Exception e) {
+        return new NLUResult.Builder(utterance)
+              .withError(e)
+              .build();
+    }
+
     private void ensureReady() {
         if (!this.ready) {
             try {
@@ -274,29 +572,42 @@ public final class TensorflowNLU implements NLUService {
         EncodedTokens encoded = this.textEncoder.encode(utterance);
         nluContext.traceDebug("Token IDs: %s", encoded.getIds());
 
-        int[] tokenIds = pad(encoded.getIds());
-        this.nluModel.inputs(0).rewind();
+        // run the shortest model instance that fits the utterance
+        int bucket = selectBucket(encoded.getIds().size());
+        TensorflowModel model = this.models[bucket];
+        int[] tokenIds = pad(encoded.getIds(), this.modelLengths[bucket]);
+        model.inputs(0).rewind();
         for (int tokenId : tokenIds) {
-            this.nluModel.inputs(0).putInt(tokenId);
+            model.inputs(0).putInt(tokenId);
         }
 
         long start = SystemClock.elapsedRealtime();
-        this.nluModel.run();
+        model.run();
         if (nluContext.canTrace(EventTracer.Level.PERF)) {
-            nluContext.tracePerf("Inference: %5dms",
+            nluContext.tracePerf("Inference (%d tokens): %5dms",
+                  this.modelLengths[bucket],
                   (SystemClock.elapsedRealtime() - start));
         }
 
+        return decode(utterance, encoded,
+              model.outputs(0), model.outputs(1), nluContext);
+    }
+
+    private NLUResult decode(String utterance,
+                             EncodedTokens encoded,
+                             ByteBuffer intents,
+                             ByteBuffer tags,
+                             NLUContext nluContext) {
         // interpret model outputs
-        Tuple<Metadata.Intent, Float> prediction = outputParser.getIntent(
-              this.nluModel.outputs(0));
+        Tuple<Metadata.Intent, Float> prediction =
+              outputParser.getIntent(intents);
         Metadata.Intent intent = prediction.first();
         nluContext.traceDebug("Intent: %s", intent.getName());
 
         Map<String, String> slots = outputParser.getSlots(
               nluContext,
               encoded,
-              this.nluModel.outputs(1));
+              tags);
         Map<String, Slot> parsedSlots = outputParser.parseSlots(intent, slots);
         nluContext.traceDebug("Slots: %s", parsedSlots.toString());
 
@@ -307,17 +618,28 @@ public final class TensorflowNLU implements NLUService {
               .build();
     }
 
-    private int[] pad(List<Integer> ids) {
-        if (ids.size() > this.maxTokens) {
+    private int selectBucket(int tokens) {
+        // bucketed instances must have room for the separator token
+        int last = this.models.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (tokens < this.modelLengths[i]) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    private int[] pad(List<Integer> ids, int length) {
+        if (ids.size() > length) {
             throw new IllegalArgumentException(
                   "input: " + ids.size() + " tokens; max input length is: "
                         + this.maxTokens);
         }
-        int[] padded = new int[this.maxTokens];
+        int[] padded = new int[length];
         for (int i = 0; i < ids.size(); i++) {
             padded[i] = ids.get(i);
         }
-        if (ids.size() < this.maxTokens) {
+        if (ids.size() < length) {
             padded[ids.size()] = sepTokenId;
             // if padTokenId is 0, we can rely on the fact that that's the
             // default value for primitive ints and not bother re-filling the
@@ -331,6 +653,23 @@ public final class TensorflowNLU implements NLUService {
         return padded;
     }
 
+    /**
+     * an utterance awaiting classification in a batch.
+     */
+    private static final class Request {
+        private final String utterance;
+        private final NLUContext context;
+        private final long enqueued = System.nanoTime();
+        private final AsyncResult<NLUResult> asyncResult;
+        private NLUResult result;
+
+        Request(String text, NLUContext nluContext) {
+            this.utterance = text;
+            this.context = nluContext;
+            this.asyncResult = new AsyncResult<>(() -> this.result);
+        }
+    }
+
     /**
      * Add a new listener to receive trace events from the NLU subsystem.
      *
@@ -469,7 +808,7 @@ public final class TensorflowNLU implements NLUService {
                 this.context.addTraceListener(listener);
             }
             if (modelLoader == null) {
-                modelLoader = new TensorflowModel.Loader();
+                modelLoader = new TensorflowModel.Loader(this.config);
             }
             if (textEncoder == null) {
                 textEncoder =
@@ -3,14 +3,15 @@ package io.spokestack.spokestack.nlu.tensorflow;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.nlu.NLUContext;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -23,6 +24,20 @@ import java.util.concurrent.ThreadFactory;
  * handling for CJK (Chinese/Japanese/Korean) characters, so do not expect it to
  * produce the same results on CJK input as other Wordpiece tokenizers.
  * </p>
+ *
+ * <p>
+ * The vocabulary is stored in a {@link WordpieceTrie}, and each word is
+ * encoded by walking the trie over a reusable character buffer, collecting
+ * token IDs in a reusable array. Words that contain only ASCII characters
+ * skip Unicode normalization, which cannot change them.
+ * </p>
+ *
+ * <p>
+ * The vocabulary file is either a text file, with one entry per line, which
+ * is loaded on a background thread, or a vocabulary compiled by
+ * {@link WordpieceVocabCompiler}, which is memory-mapped and ready for use
+ * immediately.
+ * </p>
  */
 final class WordpieceTextEncoder implements TextEncoder {
     private static final String UNKNOWN = "[UNK]";
@@ -31,7 +46,15 @@ final class WordpieceTextEncoder implements TextEncoder {
     private final Thread loadThread;
     private final NLUContext context;
 
-    private HashMap<String, Integer> vocabulary;
+    private WordpieceTrie vocabulary;
+    private int unknownId;
+    private int suffixRoot;
+
+    // encoding buffers, reused by each call to encode
+    private char[] chars = new char[64];
+    private int[] ids = new int[64];
+    private int[] pieceToOriginal = new int[64];
+    private int idCount;
 
     private volatile boolean ready = false;
 
@@ -60,65 +83,99 @@ final class WordpieceTextEncoder implements TextEncoder {
                          ThreadFactory threadFactory) {
         String vocabFile = config.getString("wordpiece-vocab-path");
         this.context = nluContext;
-        this.loadThread = threadFactory.newThread(() -> loadVocab(vocabFile));
-        this.loadThread.start();
+        if (mapVocab(vocabFile)) {
+            this.loadThread = null;
+        } else {
+            this.loadThread =
+                  threadFactory.newThread(() -> loadVocab(vocabFile));
+            this.loadThread.start();
+        }
+    }
+
+    private boolean mapVocab(String fileName) {
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(
+                  FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            // errors are reported by the text loader
+            return false;
+        }
+        if (!WordpieceTrie.isCompiled(buffer)) {
+            return false;
+        }
+        try {
+            setVocabulary(WordpieceTrie.read(buffer));
+        } catch (IllegalArgumentException e) {
+            this.context.traceError("Error loading Wordpiece vocabulary: %s",
+                  e.getLocalizedMessage());
+            setVocabulary(new WordpieceTrie.Builder().build());
+        }
+        this.ready = true;
+        return true;
     }
 
     private void loadVocab(String fileName) {
-        try (
-              FileInputStream inputStream = new FileInputStream(fileName);
-              BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(inputStream))) {
-            HashMap<String, Integer> words = new HashMap<>();
-            int index = 0;
-            String line = reader.readLine();
-            while (line != null) {
-                words.put(line, index);
-                line = reader.readLine();
-                index++;
-            }
-            this.vocabulary = words;
+        try {
+            setVocabulary(WordpieceTrie.readText(fileName));
             this.ready = true;
         } catch (IOException e) {
             this.context.traceError("Error loading Wordpiece vocabulary: %s",
                   e.getLocalizedMessage());
-            this.vocabulary = new HashMap<>();
+            setVocabulary(new WordpieceTrie.Builder().build());
         }
     }
 
+    private void setVocabulary(WordpieceTrie trie) {
+        this.unknownId = trie.get(UNKNOWN);
+        this.suffixRoot = trie.walk(WordpieceTrie.ROOT, SUFFIX_MARKER);
+        this.vocabulary = trie;
+    }
+
     @Override
     public int encodeSingle(String token) {
         ensureReady();
-        Integer tokenId = this.vocabulary.get(token);
-        if (tokenId == null) {
-            tokenId = this.vocabulary.get(UNKNOWN);
+        int tokenId = this.vocabulary.get(token);
+        if (tokenId == WordpieceTrie.NONE) {
+            tokenId = this.unknownId;
         }
         return tokenId;
     }
 
     @Override
-    public EncodedTokens encode(String text) {
+    public synchronized EncodedTokens encode(String text) {
         ensureReady();
-        String[] spaceSeparated = text.split("[\\s\\p{Space}]+");
+        String[] spaceSeparated = splitWhitespace(text);
         EncodedTokens encoded = new EncodedTokens(spaceSeparated);
 
-        String token;
-        String[] punctSeparated;
-        List<Integer> pieceToOriginal = new ArrayList<>();
+        this.idCount = 0;
+        boolean asciiLowerCase = isAsciiLowerCase(Locale.getDefault());
         for (int i = 0; i < spaceSeparated.length; i++) {
-            token = spaceSeparated[i];
-            punctSeparated = normalizeAndStripPunct(token);
-            for (String subToken : punctSeparated) {
-                List<Integer> ids = encodeWordpieces(subToken);
-                encoded.addTokenIds(ids);
-                for (int j = 0; j < ids.size(); j++) {
-                    // add the same original token index once for each wordpiece
-                    // we've found
-                    pieceToOriginal.add(i);
+            String token = spaceSeparated[i];
+            int first = this.idCount;
+            if (asciiLowerCase && isAscii(token)) {
+                encodeAscii(token);
+            } else {
+                for (String subToken : normalizeAndStripPunct(token)) {
+                    int length = subToken.length();
+                    subToken.getChars(0, length, reserveChars(length), 0);
+                    encodeWordpieces(length);
                 }
             }
+            // add the same original token index once for each wordpiece
+            // we've found
+            Arrays.fill(this.pieceToOriginal, first, this.idCount, i);
+        }
+
+        List<Integer> tokenIds = new ArrayList<>(this.idCount);
+        List<Integer> originalIndices = new ArrayList<>(this.idCount);
+        for (int i = 0; i < this.idCount; i++) {
+            tokenIds.add(this.ids[i]);
+            originalIndices.add(this.pieceToOriginal[i]);
         }
-        encoded.setOriginalIndices(pieceToOriginal);
+        encoded.addTokenIds(tokenIds);
+        encoded.setOriginalIndices(originalIndices);
         return encoded;
     }
 
@@ -133,6 +190,88 @@ final class WordpieceTextEncoder implements TextEncoder {
         }
     }
 
+    private String[] splitWhitespace(String text) {
+        // equivalent to text.split("\\s+"), which includes a leading empty
+        // token but drops trailing ones
+        List<String> tokens = new ArrayList<>();
+        int start = 0;
+        boolean split = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (isWhitespace(text.charAt(i))) {
+                if (i > start || i == 0) {
+                    tokens.add(text.substring(start, i));
+                }
+                start = i + 1;
+                split = true;
+            }
+        }
+        if (!split) {
+            return new String[] {text};
+        }
+        if (start < text.length()) {
+            tokens.add(text.substring(start));
+        } else {
+            while (!tokens.isEmpty()
+                  && tokens.get(tokens.size() - 1).isEmpty()) {
+                tokens.remove(tokens.size() - 1);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private boolean isWhitespace(char ch) {
+        return ch == ' ' || (ch >= '\t' && ch <= '\r');
+    }
+
+    private boolean isAscii(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAsciiLowerCase(Locale locale) {
+        // String.toLowerCase maps ASCII characters outside of ASCII only for
+        // these languages' dotted and dotless i
+        String language = locale.getLanguage();
+        return !"tr".equals(language) && !"az".equals(language);
+    }
+
+    private void encodeAscii(String token) {
+        // ASCII is unchanged by NFD normalization, so it is lowercased and
+        // split on punctuation in place
+        char[] buffer = reserveChars(token.length());
+        int length = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char ch = token.charAt(i);
+            if (isPunctuation(ch)) {
+                if (length > 0) {
+                    encodeWordpieces(length);
+                    length = 0;
+                }
+                buffer[0] = ch;
+                encodeWordpieces(1);
+            } else if (!isInvalid(ch)) {
+                if (ch >= 'A' && ch <= 'Z') {
+                    ch += 'a' - 'A';
+                }
+                buffer[length++] = ch;
+            }
+        }
+        if (length > 0) {
+            encodeWordpieces(length);
+        }
+    }
+
+    private char[] reserveChars(int length) {
+        if (this.chars.length < length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        return this.chars;
+    }
+
     private String[] normalizeAndStripPunct(String word) {
         // drop diacritics and split punctuation characters off the main word
         // we do this via iteration in order to do both tasks in a single pass
@@ -178,39 +317,44 @@ final class WordpieceTextEncoder implements TextEncoder {
               || type == Character.FINAL_QUOTE_PUNCTUATION;
     }
 
-    private List<Integer> encodeWordpieces(String word) {
-        List<Integer> ids = new ArrayList<>();
-        String unencoded = encodeLongestWordpieces(word, "", ids);
-        if (unencoded != null) {
-            // if we can't encode part of the word, we can't encode any of it;
-            // there is no ##[UNK], for good reason
-            ids.clear();
-            ids.add(this.vocabulary.get(UNKNOWN));
-        }
-        return ids;
-    }
-
-    private String encodeLongestWordpieces(String text,
-                                           String prefix,
-                                           List<Integer> soFar) {
-        String combined = prefix + text;
-        if (this.vocabulary.containsKey(combined)) {
-            soFar.add(this.vocabulary.get(combined));
-            return null;
-        }
-
-        String unencoded = combined;
-        int minIndex = prefix.isEmpty() ? 0 : prefix.length();
-        for (int i = combined.length() - 1; i > minIndex; i--) {
-            String subToken = combined.substring(0, i);
-            Integer id = this.vocabulary.get(subToken);
-            if (id != null) {
-                soFar.add(id);
-                unencoded = encodeLongestWordpieces(
-                      combined.substring(i), SUFFIX_MARKER, soFar);
-                break;
+    private void encodeWordpieces(int length) {
+        // greedily match the longest vocabulary entry at each position,
+        // starting from the suffix marker after the first piece
+        int first = this.idCount;
+        int position = 0;
+        int start = WordpieceTrie.ROOT;
+        while (position < length) {
+            int node = start;
+            int tokenId = WordpieceTrie.NONE;
+            int end = position;
+            for (int i = position; i < length && node != WordpieceTrie.NONE;
+                 i++) {
+                node = this.vocabulary.child(node, this.chars[i]);
+                if (node != WordpieceTrie.NONE
+                      && this.vocabulary.value(node) != WordpieceTrie.NONE) {
+                    tokenId = this.vocabulary.value(node);
+                    end = i + 1;
+                }
+            }
+            if (tokenId == WordpieceTrie.NONE) {
+                // if we can't encode part of the word, we can't encode any of
+                // it; there is no ##[UNK], for good reason
+                this.idCount = first;
+                addId(this.unknownId);
+                return;
             }
+            addId(tokenId);
+            position = end;
+            start = this.suffixRoot;
+        }
+    }
+
+    private void addId(int tokenId) {
+        if (this.idCount == this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, this.idCount * 2);
+            this.pieceToOriginal =
+                  Arrays.copyOf(this.pieceToOriginal, this.idCount * 2);
         }
-        return unencoded;
+        this.ids[this.idCount++] = tokenId;
     }
 }
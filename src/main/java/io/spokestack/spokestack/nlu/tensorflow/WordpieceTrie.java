@@ -0,0 +1,325 @@
+package io.spokestack.spokestack.nlu.tensorflow;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact character trie mapping the entries of a wordpiece vocabulary to
+ * their token IDs.
+ *
+ * <p>
+ * The trie is walked one character at a time, so that the longest vocabulary
+ * entry at any position in a character buffer can be found without creating
+ * substrings. Each node's children are stored contiguously, sorted by their
+ * characters, and located by binary search.
+ * </p>
+ *
+ * <p>
+ * A trie can be written in a compiled binary form, which is read by mapping
+ * its arrays directly rather than parsing them, so that a compiled vocabulary
+ * is usable as soon as it is mapped, without occupying the heap. The compiled
+ * form is little-endian, and consists of:
+ * </p>
+ * <ul>
+ *   <li>a header: the magic number "WPT1", the node count, and the child
+ *   count, as 32-bit integers</li>
+ *   <li>each node's token ID, as a 32-bit integer</li>
+ *   <li>each node's first child offset, followed by the child count, as
+ *   32-bit integers</li>
+ *   <li>each child's node, as a 32-bit integer</li>
+ *   <li>each child's character, as a 16-bit UTF-16 code unit</li>
+ * </ul>
+ */
+final class WordpieceTrie {
+    /**
+     * the ID returned for strings and nodes not in the trie.
+     */
+    static final int NONE = -1;
+
+    /**
+     * the trie's root node.
+     */
+    static final int ROOT = 0;
+
+    // "WPT1", read as a little-endian integer
+    private static final int MAGIC = 0x31545057;
+    private static final int HEADER_SIZE = 12;
+
+    // per node: the token ID and the offset of its first child
+    private final IntBuffer values;
+    private final IntBuffer childOffsets;
+
+    // per child: its character and node
+    private final CharBuffer labels;
+    private final IntBuffer children;
+
+    private WordpieceTrie(IntBuffer nodeValues,
+                          IntBuffer nodeOffsets,
+                          CharBuffer childLabels,
+                          IntBuffer childNodes) {
+        this.values = nodeValues;
+        this.childOffsets = nodeOffsets;
+        this.labels = childLabels;
+        this.children = childNodes;
+    }
+
+    /**
+     * reads a text vocabulary, with one entry per line. each entry's token ID
+     * is its line number, starting from 0.
+     *
+     * @param fileName the path of the vocabulary
+     * @return the trie
+     * @throws IOException on read failure
+     */
+    static WordpieceTrie readText(String fileName) throws IOException {
+        Builder words = new Builder();
+        try (
+              FileInputStream inputStream = new FileInputStream(fileName);
+              BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(inputStream))) {
+            int index = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                words.add(line, index);
+                line = reader.readLine();
+                index++;
+            }
+        }
+        return words.build();
+    }
+
+    /**
+     * @param buffer the contents of a vocabulary file
+     * @return true if the buffer contains a compiled trie, false if it may
+     * contain a text vocabulary
+     */
+    static boolean isCompiled(ByteBuffer buffer) {
+        return buffer.remaining() >= 4
+              && buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt()
+              == MAGIC;
+    }
+
+    /**
+     * reads a compiled trie. the trie refers to the buffer's contents, which
+     * are not copied.
+     *
+     * @param buffer the compiled trie, such as a mapped file
+     * @return the trie
+     * @throws IllegalArgumentException if the buffer does not contain a
+     *                                  valid compiled trie
+     */
+    static WordpieceTrie read(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (!isCompiled(source) || source.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("invalid vocabulary");
+        }
+        int start = source.position();
+        int nodeCount = source.getInt(start + 4);
+        int childCount = source.getInt(start + 8);
+        long size = HEADER_SIZE
+              + 4L * (2L * nodeCount + 1 + childCount)
+              + 2L * childCount;
+        if (nodeCount < 1 || childCount != nodeCount - 1
+              || size != source.remaining()) {
+            throw new IllegalArgumentException("invalid vocabulary");
+        }
+
+        int position = start + HEADER_SIZE;
+        IntBuffer nodeValues = section(source, position, nodeCount * 4)
+              .asIntBuffer();
+        position += nodeCount * 4;
+        IntBuffer nodeOffsets = section(source, position, nodeCount * 4 + 4)
+              .asIntBuffer();
+        position += nodeCount * 4 + 4;
+        IntBuffer childNodes = section(source, position, childCount * 4)
+              .asIntBuffer();
+        position += childCount * 4;
+        CharBuffer childLabels = section(source, position, childCount * 2)
+              .asCharBuffer();
+        return new WordpieceTrie(
+              nodeValues, nodeOffsets, childLabels, childNodes);
+    }
+
+    private static ByteBuffer section(ByteBuffer source,
+                                      int position,
+                                      int length) {
+        ByteBuffer section = source.duplicate();
+        section.position(position);
+        section.limit(position + length);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * writes the trie in its compiled form.
+     *
+     * @param output the stream to write to
+     * @throws IOException on write failure
+     */
+    void write(OutputStream output) throws IOException {
+        int nodeCount = this.values.limit();
+        int childCount = this.children.limit();
+        ByteBuffer buffer = ByteBuffer
+              .allocate(HEADER_SIZE
+                    + 4 * (2 * nodeCount + 1 + childCount)
+                    + 2 * childCount)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(nodeCount);
+        buffer.putInt(childCount);
+        for (int i = 0; i < nodeCount; i++) {
+            buffer.putInt(this.values.get(i));
+        }
+        for (int i = 0; i <= nodeCount; i++) {
+            buffer.putInt(this.childOffsets.get(i));
+        }
+        for (int i = 0; i < childCount; i++) {
+            buffer.putInt(this.children.get(i));
+        }
+        for (int i = 0; i < childCount; i++) {
+            buffer.putChar(this.labels.get(i));
+        }
+        output.write(buffer.array());
+    }
+
+    /**
+     * finds the child of a node reached by a character.
+     *
+     * @param node the parent node
+     * @param ch   the character to follow
+     * @return the child node, or {@link #NONE} if there is none
+     */
+    int child(int node, char ch) {
+        int low = this.childOffsets.get(node);
+        int high = this.childOffsets.get(node + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = this.labels.get(mid);
+            if (label < ch) {
+                low = mid + 1;
+            } else if (label > ch) {
+                high = mid - 1;
+            } else {
+                return this.children.get(mid);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param node a node in the trie
+     * @return the token ID of the string ending at the node, or {@link #NONE}
+     * if that string is not in the vocabulary
+     */
+    int value(int node) {
+        return this.values.get(node);
+    }
+
+    /**
+     * finds the node reached by a string.
+     *
+     * @param node the node to start from
+     * @param text the characters to follow
+     * @return the node reached, or {@link #NONE} if there is none
+     */
+    int walk(int node, String text) {
+        int current = node;
+        for (int i = 0; i < text.length() && current != NONE; i++) {
+            current = child(current, text.charAt(i));
+        }
+        return current;
+    }
+
+    /**
+     * looks up the token ID of a complete string.
+     *
+     * @param text the string to look up
+     * @return the string's token ID, or {@link #NONE} if it is not in the
+     * vocabulary
+     */
+    int get(String text) {
+        int node = walk(ROOT, text);
+        return node == NONE ? NONE : this.values.get(node);
+    }
+
+    /**
+     * accumulates vocabulary entries and compacts them into a trie.
+     */
+    static final class Builder {
+        private final Node root = new Node();
+        private int nodeCount = 1;
+
+        /**
+         * adds an entry to the trie, replacing the ID of an existing entry.
+         *
+         * @param text    the entry's text
+         * @param tokenId the entry's token ID
+         * @return this
+         */
+        Builder add(String text, int tokenId) {
+            Node node = this.root;
+            for (int i = 0; i < text.length(); i++) {
+                Node next = node.children.get(text.charAt(i));
+                if (next == null) {
+                    next = new Node();
+                    node.children.put(text.charAt(i), next);
+                    this.nodeCount++;
+                }
+                node = next;
+            }
+            node.value = tokenId;
+            return this;
+        }
+
+        /**
+         * @return the compacted trie
+         */
+        WordpieceTrie build() {
+            // number the nodes breadth-first, so that each node's children
+            // are adjacent, in character order
+            int[] values = new int[this.nodeCount];
+            int[] offsets = new int[this.nodeCount + 1];
+            char[] labels = new char[this.nodeCount - 1];
+            int[] children = new int[this.nodeCount - 1];
+            List<Node> queue = new ArrayList<>(this.nodeCount);
+            queue.add(this.root);
+            int edge = 0;
+            for (int node = 0; node < queue.size(); node++) {
+                Node current = queue.get(node);
+                values[node] = current.value;
+                offsets[node] = edge;
+                for (Map.Entry<Character, Node> e
+                      : current.children.entrySet()) {
+                    labels[edge] = e.getKey();
+                    children[edge] = queue.size();
+                    queue.add(e.getValue());
+                    edge++;
+                }
+            }
+            offsets[this.nodeCount] = edge;
+            return new WordpieceTrie(
+                  IntBuffer.wrap(values),
+                  IntBuffer.wrap(offsets),
+                  CharBuffer.wrap(labels),
+                  IntBuffer.wrap(children));
+        }
+
+        /**
+         * a mutable trie node.
+         */
+        private static final class Node {
+            private final TreeMap<Character, Node> children = new TreeMap<>();
+            private int value = NONE;
+        }
+    }
+}
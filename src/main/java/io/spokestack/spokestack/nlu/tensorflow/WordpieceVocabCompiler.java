@@ -0,0 +1,59 @@
+package io.spokestack.spokestack.nlu.tensorflow;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compiles a text Wordpiece vocabulary, with one entry per line, into the
+ * binary form accepted by {@link TensorflowNLU} as its
+ * {@code wordpiece-vocab-path}.
+ *
+ * <p>
+ * A compiled vocabulary is memory-mapped when it is loaded, so it is ready
+ * for use immediately and does not occupy the heap, while a text vocabulary
+ * is parsed into the heap on a background thread. Vocabularies can be
+ * compiled ahead of time, when a model is packaged, by running this class:
+ * </p>
+ * <pre>
+ * java -cp spokestack-android.jar \
+ *   io.spokestack.spokestack.nlu.tensorflow.WordpieceVocabCompiler \
+ *   vocab.txt vocab.bin
+ * </pre>
+ */
+public final class WordpieceVocabCompiler {
+
+    private WordpieceVocabCompiler() {
+    }
+
+    /**
+     * compiles a vocabulary file.
+     *
+     * @param textPath   the path of the text vocabulary
+     * @param outputPath the path of the compiled vocabulary to write
+     * @throws IOException on read or write failure
+     */
+    public static void compile(String textPath, String outputPath)
+          throws IOException {
+        WordpieceTrie trie = WordpieceTrie.readText(textPath);
+        try (OutputStream output = new FileOutputStream(outputPath)) {
+            trie.write(output);
+        }
+    }
+
+    /**
+     * compiles the vocabulary named by the command line.
+     *
+     * @param args the path of the text vocabulary and of the compiled
+     *             vocabulary to write
+     * @throws IOException on read or write failure
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println(
+                  "usage: WordpieceVocabCompiler <vocab.txt> <vocab.bin>");
+            System.exit(1);
+        }
+        compile(args[0], args[1]);
+    }
+}
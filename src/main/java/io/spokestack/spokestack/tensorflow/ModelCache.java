@@ -0,0 +1,196 @@
+package io.spokestack.spokestack.tensorflow;
+
+import io.spokestack.spokestack.SpeechConfig;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of loaded Tensorflow-Lite models.
+ *
+ * <p>
+ * Loading a model maps its file and allocates its interpreter and tensors,
+ * which is repeated each time a pipeline stage or NLU instance is created.
+ * When a {@link TensorflowModel.Loader} is attached to a cache, the models
+ * it loads are leased from the cache instead: closing a leased model
+ * returns it to the cache, where it remains idle until it is leased again
+ * by a loader with the same path, options, and model file (as identified
+ * by its length and modification time), so that restarting a pipeline
+ * reuses its models rather than reloading them, while a model file that
+ * has been replaced is loaded again.
+ * </p>
+ *
+ * <p>
+ * Each lease is exclusive, since models retain their tensors (and any
+ * state) between runs; a model that is leased again is cleared, so that it
+ * behaves like a newly loaded model. Concurrent loads of the same model
+ * load additional instances, which are also cached. Models loaded from a
+ * buffer, rather than a path, are not cached.
+ * </p>
+ *
+ * <p>
+ * The cache is limited by a memory budget, which covers the size of the
+ * model files and tensor buffers of both leased and idle models. When the
+ * budget is exceeded, the least recently used idle models are closed.
+ * Leased models are never evicted, so the budget may be exceeded while
+ * they are in use. The shared cache's budget is configured by the
+ * following property, which also enables caching for the loaders that
+ * pipeline stages create from their configuration. The budget is applied
+ * when a speech pipeline or Spokestack instance is created (see
+ * {@link #configure(SpeechConfig)}), not by each loader.
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>model-cache-budget</b> (integer): the memory budget of the shared
+ *      model cache, in bytes
+ *   </li>
+ * </ul>
+ */
+public final class ModelCache {
+    private static final ModelCache SHARED = new ModelCache(0);
+
+    // idle models, in order of release (least recently used first)
+    private final LinkedHashMap<TensorflowModel, String> idle =
+          new LinkedHashMap<>();
+    private final Map<TensorflowModel, String> leases = new HashMap<>();
+    private long budget;
+    private long size;
+
+    /**
+     * constructs a new model cache.
+     *
+     * @param budgetBytes the memory budget of the cache, in bytes
+     */
+    public ModelCache(long budgetBytes) {
+        setBudget(budgetBytes);
+    }
+
+    /**
+     * @return the process-wide model cache
+     */
+    public static ModelCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * sets the shared cache's memory budget from the model-cache-budget
+     * property, if the configuration contains it.
+     *
+     * @param config the pipeline configuration instance
+     */
+    public static void configure(SpeechConfig config) {
+        if (config.containsKey("model-cache-budget")) {
+            SHARED.setBudget(config.getInteger("model-cache-budget"));
+        }
+    }
+
+    /**
+     * sets the memory budget of the cache, evicting idle models as needed.
+     *
+     * @param budgetBytes the memory budget of the cache, in bytes
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        this.budget = budgetBytes;
+        evict();
+    }
+
+    /**
+     * @return the memory budget of the cache, in bytes
+     */
+    public synchronized long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * @return the size of the leased and idle models, in bytes
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of models currently leased
+     */
+    public synchronized int getLeaseCount() {
+        return this.leases.size();
+    }
+
+    /**
+     * @return the number of idle models retained by the cache
+     */
+    public synchronized int getIdleCount() {
+        return this.idle.size();
+    }
+
+    /**
+     * closes all idle models. leased models are closed when they are
+     * released, if they do not fit within the budget.
+     */
+    public synchronized void clear() {
+        for (TensorflowModel model : this.idle.keySet()) {
+            this.size -= model.getSize();
+            model.dispose();
+        }
+        this.idle.clear();
+    }
+
+    /**
+     * leases a model, reusing an idle model if one was loaded with the same
+     * path, options, and model file, or loading a new one otherwise.
+     *
+     * @param loader the loader configured for the model
+     * @return the leased model
+     */
+    TensorflowModel acquire(TensorflowModel.Loader loader) {
+        String key = loader.getCacheKey();
+        synchronized (this) {
+            for (Map.Entry<TensorflowModel, String> e : this.idle.entrySet()) {
+                if (e.getValue().equals(key)) {
+                    TensorflowModel model = e.getKey();
+                    this.idle.remove(model);
+                    this.leases.put(model, key);
+                    model.clear();
+                    return model;
+                }
+            }
+        }
+
+        // load outside the lock, so that other loads aren't blocked
+        TensorflowModel model = loader.create();
+        model.setCache(this);
+        synchronized (this) {
+            this.size += model.getSize();
+            this.leases.put(model, key);
+            evict();
+        }
+        return model;
+    }
+
+    /**
+     * returns a leased model to the cache.
+     *
+     * @param model the model to release
+     */
+    synchronized void release(TensorflowModel model) {
+        String key = this.leases.remove(model);
+        if (key != null) {
+            this.idle.put(model, key);
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<TensorflowModel> models = this.idle.keySet().iterator();
+        while (this.size > this.budget && models.hasNext()) {
+            TensorflowModel model = models.next();
+            models.remove();
+            this.size -= model.getSize();
+            model.dispose();
+        }
+    }
+}
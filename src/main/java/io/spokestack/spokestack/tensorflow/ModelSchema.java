@@ -0,0 +1,205 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Input/output tensor types read from a Tensorflow-Lite model file.
+ *
+ * <p>
+ * The Tensorflow-Lite Java API does not expose the quantization parameters
+ * of a model's tensors (or 8-bit signed tensor types), so this class reads
+ * them directly from the model's flatbuffer, following the Tensorflow-Lite
+ * schema: {@code Model.subgraphs[0].tensors}, indexed by the subgraph's
+ * {@code inputs} and {@code outputs}.
+ * </p>
+ */
+final class ModelSchema {
+    // Model table fields
+    private static final int MODEL_SUBGRAPHS = 2;
+    // SubGraph table fields
+    private static final int SUBGRAPH_TENSORS = 0;
+    private static final int SUBGRAPH_INPUTS = 1;
+    private static final int SUBGRAPH_OUTPUTS = 2;
+    // Tensor table fields
+    private static final int TENSOR_SHAPE = 0;
+    private static final int TENSOR_TYPE = 1;
+    private static final int TENSOR_QUANTIZATION = 4;
+    // QuantizationParameters table fields
+    private static final int QUANT_SCALE = 2;
+    private static final int QUANT_ZERO_POINT = 3;
+
+    private final List<TensorSpec> inputs;
+    private final List<TensorSpec> outputs;
+
+    /**
+     * constructs a new model schema.
+     *
+     * @param inputSpecs  the specifications of the input tensors
+     * @param outputSpecs the specifications of the output tensors
+     */
+    ModelSchema(List<TensorSpec> inputSpecs,
+                List<TensorSpec> outputSpecs) {
+        this.inputs = Collections.unmodifiableList(inputSpecs);
+        this.outputs = Collections.unmodifiableList(outputSpecs);
+    }
+
+    /**
+     * reads the schema of a model's primary subgraph.
+     *
+     * @param model the model's flatbuffer
+     * @return the model's input/output tensor specifications
+     */
+    static ModelSchema read(ByteBuffer model) {
+        ByteBuffer buf = model.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int root = indirect(buf, 0);
+            int subgraphs = field(buf, root, MODEL_SUBGRAPHS);
+            if (subgraphs == 0 || buf.getInt(indirect(buf, subgraphs)) == 0) {
+                throw new IllegalArgumentException("no subgraphs");
+            }
+            int subgraph = indirect(buf, indirect(buf, subgraphs) + 4);
+            int tensors = indirect(buf, field(buf, subgraph, SUBGRAPH_TENSORS));
+            int inputIndexes = field(buf, subgraph, SUBGRAPH_INPUTS);
+            int outputIndexes = field(buf, subgraph, SUBGRAPH_OUTPUTS);
+            return new ModelSchema(
+                  readSpecs(buf, tensors, inputIndexes),
+                  readSpecs(buf, tensors, outputIndexes));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("invalid model", e);
+        }
+    }
+
+    private static List<TensorSpec> readSpecs(ByteBuffer buf,
+                                              int tensors,
+                                              int indexField) {
+        List<TensorSpec> specs = new ArrayList<>();
+        if (indexField == 0) {
+            return specs;
+        }
+        int indexes = indirect(buf, indexField);
+        int count = buf.getInt(indexes);
+        for (int i = 0; i < count; i++) {
+            int index = buf.getInt(indexes + 4 + i * 4);
+            int tensor = indirect(buf, tensors + 4 + index * 4);
+            specs.add(readSpec(buf, tensor));
+        }
+        return specs;
+    }
+
+    private static TensorSpec readSpec(ByteBuffer buf, int tensor) {
+        int shapeField = field(buf, tensor, TENSOR_SHAPE);
+        int[] shape = new int[0];
+        if (shapeField != 0) {
+            int dims = indirect(buf, shapeField);
+            shape = new int[buf.getInt(dims)];
+            for (int i = 0; i < shape.length; i++) {
+                shape[i] = buf.getInt(dims + 4 + i * 4);
+            }
+        }
+        int typeField = field(buf, tensor, TENSOR_TYPE);
+        TensorflowModel.Loader.DType type =
+              TensorflowModel.Loader.DType.fromCode(
+                    typeField == 0 ? 0 : buf.get(typeField));
+
+        // only per-tensor quantization of 8-bit tensors is supported;
+        // 8-bit tensors without a scale are passed through unconverted
+        int quantField = field(buf, tensor, TENSOR_QUANTIZATION);
+        if (!type.isQuantized() || quantField == 0) {
+            return new TensorSpec(shape, type, null);
+        }
+        int params = indirect(buf, quantField);
+        int scales = field(buf, params, QUANT_SCALE);
+        int zeroPoints = field(buf, params, QUANT_ZERO_POINT);
+        if (scales == 0 || buf.getInt(indirect(buf, scales)) == 0) {
+            return new TensorSpec(shape, type, null);
+        }
+        scales = indirect(buf, scales);
+        if (buf.getInt(scales) > 1) {
+            throw new IllegalArgumentException(
+                  "per-channel quantization is not supported");
+        }
+        float scale = buf.getFloat(scales + 4);
+        int zeroPoint = 0;
+        if (zeroPoints != 0 && buf.getInt(indirect(buf, zeroPoints)) > 0) {
+            zeroPoint = (int) buf.getLong(indirect(buf, zeroPoints) + 4);
+        }
+        return new TensorSpec(
+              shape,
+              type,
+              scale > 0 ? new Quantization(scale, zeroPoint) : null);
+    }
+
+    // returns the absolute position of a table field, or 0 if absent
+    private static int field(ByteBuffer buf, int table, int id) {
+        int vtable = table - buf.getInt(table);
+        int vtableSize = buf.getShort(vtable) & 0xffff;
+        int entry = 4 + id * 2;
+        if (entry >= vtableSize) {
+            return 0;
+        }
+        int offset = buf.getShort(vtable + entry) & 0xffff;
+        return offset == 0 ? 0 : table + offset;
+    }
+
+    // follows the unsigned offset stored at a position
+    private static int indirect(ByteBuffer buf, int position) {
+        return position + buf.getInt(position);
+    }
+
+    /**
+     * @return the specifications of the model's input tensors, in order
+     */
+    List<TensorSpec> getInputs() {
+        return this.inputs;
+    }
+
+    /**
+     * @return the specifications of the model's output tensors, in order
+     */
+    List<TensorSpec> getOutputs() {
+        return this.outputs;
+    }
+
+    /**
+     * the shape, type and quantization of a model tensor.
+     */
+    static final class TensorSpec {
+        private final int[] shape;
+        private final TensorflowModel.Loader.DType type;
+        private final Quantization quantization;
+
+        TensorSpec(int[] dims,
+                   TensorflowModel.Loader.DType dtype,
+                   Quantization params) {
+            this.shape = dims;
+            this.type = dtype;
+            this.quantization = params;
+        }
+
+        /**
+         * @return the tensor's dimensions
+         */
+        int[] getShape() {
+            return this.shape;
+        }
+
+        /**
+         * @return the tensor's element type
+         */
+        TensorflowModel.Loader.DType getType() {
+            return this.type;
+        }
+
+        /**
+         * @return the tensor's quantization parameters, or null if the
+         * tensor is not quantized
+         */
+        Quantization getQuantization() {
+            return this.quantization;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Affine quantization parameters for an 8-bit tensor.
+ *
+ * <p>
+ * Quantized tensors store each real value {@code r} as an integer
+ * {@code q}, where {@code r = scale * (q - zeroPoint)}. This class converts
+ * between the two representations, so that quantized models can be fed and
+ * read via float buffers.
+ * </p>
+ */
+public final class Quantization {
+    private final float scale;
+    private final int zeroPoint;
+
+    /**
+     * constructs a new set of quantization parameters.
+     *
+     * @param scaleValue     the real value of one quantization step
+     * @param zeroPointValue the quantized value representing real zero
+     */
+    public Quantization(float scaleValue, int zeroPointValue) {
+        if (scaleValue <= 0) {
+            throw new IllegalArgumentException("scale");
+        }
+        this.scale = scaleValue;
+        this.zeroPoint = zeroPointValue;
+    }
+
+    /**
+     * @return the real value of one quantization step
+     */
+    public float getScale() {
+        return this.scale;
+    }
+
+    /**
+     * @return the quantized value representing real zero
+     */
+    public int getZeroPoint() {
+        return this.zeroPoint;
+    }
+
+    /**
+     * quantizes a real value, rounding to the nearest step and clamping to
+     * the range of the tensor type.
+     *
+     * @param value the real value
+     * @param type  the quantized tensor type
+     * @return the quantized value
+     */
+    public int quantize(float value, TensorflowModel.Loader.DType type) {
+        int q = Math.round(value / this.scale) + this.zeroPoint;
+        return Math.max(type.minValue(), Math.min(q, type.maxValue()));
+    }
+
+    /**
+     * dequantizes a value.
+     *
+     * @param value the quantized value
+     * @return the real value
+     */
+    public float dequantize(int value) {
+        return this.scale * (value - this.zeroPoint);
+    }
+
+    /**
+     * quantizes a buffer of floats into a quantized tensor buffer. both
+     * buffers are read/written from position zero.
+     *
+     * @param src  the float buffer
+     * @param dst  the quantized tensor buffer
+     * @param type the quantized tensor type
+     */
+    public void quantize(ByteBuffer src,
+                         ByteBuffer dst,
+                         TensorflowModel.Loader.DType type) {
+        int count = dst.capacity();
+        for (int i = 0; i < count; i++) {
+            dst.put(i, (byte) quantize(src.getFloat(i * 4), type));
+        }
+    }
+
+    /**
+     * dequantizes a quantized tensor buffer into a buffer of floats. both
+     * buffers are read/written from position zero.
+     *
+     * @param src  the quantized tensor buffer
+     * @param dst  the float buffer
+     * @param type the quantized tensor type
+     */
+    public void dequantize(ByteBuffer src,
+                           ByteBuffer dst,
+                           TensorflowModel.Loader.DType type) {
+        int count = src.capacity();
+        for (int i = 0; i < count; i++) {
+            int q = type == TensorflowModel.Loader.DType.UINT8
+                  ? src.get(i) & 0xff
+                  : src.get(i);
+            dst.putFloat(i * 4, dequantize(q));
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package io.spokestack.spokestack.tensorflow;
 
+import io.spokestack.spokestack.SpeechConfig;
 import org.tensorflow.lite.Interpreter;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Tensorflow-Lite model wrapper and loader
@@ -19,17 +25,47 @@ import java.util.Map;
  * input/output byte buffers used for passing input tensors into a model
  * and retrieving outputs.
  * </p>
+ *
+ * <p>
+ * The element type and quantization parameters of each input and output
+ * tensor are read from the model file, and the tensor buffers are sized
+ * accordingly. The buffers of 8-bit quantized tensors are presented to
+ * clients as float buffers, which are quantized before the model is run and
+ * dequantized after, so that quantized models can be used in place of float
+ * models without changes to the code that feeds them.
+ * </p>
+ *
+ * <p>
+ * Models are memory-mapped from their file system path, or may be supplied
+ * to the loader in a direct buffer (for example, one mapped from an
+ * uncompressed Android asset). The loader also configures the interpreter's
+ * thread count and its use of the Android neural networks API.
+ * </p>
  */
 public class TensorflowModel implements AutoCloseable {
     private final Interpreter interpreter;
-    private final List<ByteBuffer> inputBuffers = new ArrayList<>();
-    private final List<ByteBuffer> outputBuffers = new ArrayList<>();
+    private final ModelSchema.TensorSpec[] inputSpecs;
+    private final ModelSchema.TensorSpec[] outputSpecs;
     private final int inputSize;
+    private final long size;
 
+    // client buffers and their typed views, which are swapped along with
+    // the tensors passed to the interpreter for stateful models
+    private final ByteBuffer[] inputBuffers;
+    private final ByteBuffer[] outputBuffers;
+    private final ByteBuffer[] inputTensors;
+    private final ByteBuffer[] outputTensors;
+    private final FloatBuffer[] inputFloats;
+    private final FloatBuffer[] outputFloats;
+    private final IntBuffer[] inputInts;
+    private final IntBuffer[] outputInts;
+
+    // interpreter arguments, bound once to the tensors
     private final Object[] inputArray;
     private final Map<Integer, Object> outputMap;
 
-    private Integer statePosition;
+    private final int statePosition;
+    private ModelCache cache;
 
     /**
      * constructs a new tensorflow model.
@@ -37,29 +73,106 @@ public class TensorflowModel implements AutoCloseable {
      * @param loader the loader (builder) for the model
      */
     public TensorflowModel(Loader loader) {
-        this.interpreter = new Interpreter(new File(loader.path));
-        for (int i = 0; i < this.interpreter.getInputTensorCount(); i++) {
-            int[] shape = this.interpreter.getInputTensor(i).shape();
-            int combinedShape = combineShape(shape);
-            this.inputBuffers.add(
-                  ByteBuffer.allocateDirect(combinedShape * loader.inputSize)
-                        .order(ByteOrder.nativeOrder()));
+        this(loader, loader.buffer != null
+              ? loader.buffer
+              : map(new File(loader.path)));
+    }
+
+    private TensorflowModel(Loader loader, ByteBuffer model) {
+        this(loader, model, ModelSchema.read(model));
+    }
+
+    /**
+     * constructs a model from its schema. the model file is mapped once and
+     * shared by the schema reader and the interpreter, which retains the
+     * buffer for its lifetime.
+     *
+     * @param loader the loader (builder) for the model
+     * @param model  the model file, or null to run the model via an
+     *               overridden {@link #invoke} instead of an interpreter
+     * @param schema the model's tensor specifications
+     */
+    TensorflowModel(Loader loader, ByteBuffer model, ModelSchema schema) {
+        if (model != null) {
+            Interpreter.Options options = new Interpreter.Options()
+                  .setUseNNAPI(loader.useNNAPI);
+            if (loader.threadCount != null) {
+                options.setNumThreads(loader.threadCount);
+            }
+            this.interpreter = new Interpreter(model, options);
+        } else {
+            this.interpreter = null;
+        }
+
+        this.inputSpecs = schema.getInputs()
+              .toArray(new ModelSchema.TensorSpec[0]);
+        this.outputSpecs = schema.getOutputs()
+              .toArray(new ModelSchema.TensorSpec[0]);
+        for (Map.Entry<Integer, int[]> e : loader.inputShapes.entrySet()) {
+            int index = e.getKey();
+            ModelSchema.TensorSpec spec = this.inputSpecs[index];
+            this.inputSpecs[index] = new ModelSchema.TensorSpec(
+                  e.getValue(), spec.getType(), spec.getQuantization());
+            if (this.interpreter != null) {
+                this.interpreter.resizeInput(index, e.getValue());
+            }
+        }
+        for (Map.Entry<Integer, int[]> e : loader.outputShapes.entrySet()) {
+            int index = e.getKey();
+            ModelSchema.TensorSpec spec = this.outputSpecs[index];
+            this.outputSpecs[index] = new ModelSchema.TensorSpec(
+                  e.getValue(), spec.getType(), spec.getQuantization());
         }
-        for (int i = 0; i < this.interpreter.getOutputTensorCount(); i++) {
-            int[] shape = this.interpreter.getOutputTensor(i).shape();
-            int combinedShape = combineShape(shape);
-            this.outputBuffers.add(
-                  ByteBuffer.allocateDirect(combinedShape * loader.outputSize)
-                        .order(ByteOrder.nativeOrder()));
+        int inputCount = this.inputSpecs.length;
+        int outputCount = this.outputSpecs.length;
+        this.inputBuffers = new ByteBuffer[inputCount];
+        this.outputBuffers = new ByteBuffer[outputCount];
+        this.inputTensors = new ByteBuffer[inputCount];
+        this.outputTensors = new ByteBuffer[outputCount];
+        this.inputFloats = new FloatBuffer[inputCount];
+        this.outputFloats = new FloatBuffer[outputCount];
+        this.inputInts = new IntBuffer[inputCount];
+        this.outputInts = new IntBuffer[outputCount];
+
+        long total = model != null ? model.capacity() : 0;
+        for (int i = 0; i < inputCount; i++) {
+            total += allocate(this.inputSpecs[i], i,
+                  this.inputTensors, this.inputBuffers);
+        }
+        for (int i = 0; i < outputCount; i++) {
+            total += allocate(this.outputSpecs[i], i,
+                  this.outputTensors, this.outputBuffers);
+        }
+        createViews(this.inputBuffers, this.inputFloats, this.inputInts);
+        createViews(this.outputBuffers, this.outputFloats, this.outputInts);
+
+        this.inputSize = inputCount == 0
+              ? Loader.DType.FLOAT.byteSize()
+              : elementSize(this.inputSpecs[0]);
+        this.statePosition = loader.statePosition != null
+              ? loader.statePosition
+              : -1;
+        this.size = total;
+
+        this.inputArray = new Object[inputCount];
+        this.outputMap = new HashMap<>(outputCount * 2);
+        System.arraycopy(this.inputTensors, 0, this.inputArray, 0, inputCount);
+        for (int i = 0; i < outputCount; i++) {
+            this.outputMap.put(i, this.outputTensors[i]);
         }
+    }
 
-        this.inputSize = loader.inputSize;
-        this.statePosition = loader.statePosition;
-        this.inputArray = new Object[this.inputBuffers.size()];
-        this.outputMap = new HashMap<>();
+    private static ByteBuffer map(File file) {
+        try (RandomAccessFile stream = new RandomAccessFile(file, "r");
+             FileChannel channel = stream.getChannel()) {
+            return channel.map(
+                  FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(file.getPath(), e);
+        }
     }
 
-    private int combineShape(int[] dims) {
+    private static int combineShape(int[] dims) {
         int product = 1;
         for (int dim : dims) {
             product *= dim;
@@ -67,17 +180,96 @@ public class TensorflowModel implements AutoCloseable {
         return product;
     }
 
+    private static long allocate(ModelSchema.TensorSpec spec,
+                                 int index,
+                                 ByteBuffer[] tensors,
+                                 ByteBuffer[] buffers) {
+        // quantized tensors are presented to clients as float buffers
+        int elements = combineShape(spec.getShape());
+        ByteBuffer tensor = ByteBuffer
+              .allocateDirect(elements * spec.getType().byteSize())
+              .order(ByteOrder.nativeOrder());
+        ByteBuffer buffer = tensor;
+        if (spec.getQuantization() != null) {
+            buffer = ByteBuffer
+                  .allocateDirect(elements * elementSize(spec))
+                  .order(ByteOrder.nativeOrder());
+        }
+        tensors[index] = tensor;
+        buffers[index] = buffer;
+        return buffer == tensor
+              ? tensor.capacity()
+              : tensor.capacity() + buffer.capacity();
+    }
+
+    private static void createViews(ByteBuffer[] buffers,
+                                    FloatBuffer[] floats,
+                                    IntBuffer[] ints) {
+        for (int i = 0; i < buffers.length; i++) {
+            floats[i] = buffers[i].asFloatBuffer();
+            ints[i] = buffers[i].asIntBuffer();
+        }
+    }
+
+    private static int elementSize(ModelSchema.TensorSpec spec) {
+        return spec.getQuantization() != null
+              ? Loader.DType.FLOAT.byteSize()
+              : spec.getType().byteSize();
+    }
+
     /**
-     * @return the byte size of the model's inputs.
+     * @return the byte size of each element of the model's first input
+     * buffer, which is the size of a float for quantized inputs.
      */
     public int getInputSize() {
         return inputSize;
     }
 
     /**
-     * releases the tensorflow interpreter.
+     * releases the tensorflow interpreter, or returns the model to its
+     * cache if it was leased from one.
      */
     public void close() {
+        if (this.cache != null) {
+            this.cache.release(this);
+        } else {
+            dispose();
+        }
+    }
+
+    void setCache(ModelCache value) {
+        this.cache = value;
+    }
+
+    /**
+     * @return the approximate memory size of the model file and tensor
+     * buffers, in bytes
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * zeroes the model's tensor buffers, including its state, so that a
+     * cached model behaves like a newly loaded one.
+     */
+    void clear() {
+        clear(this.inputTensors);
+        clear(this.inputBuffers);
+        clear(this.outputTensors);
+        clear(this.outputBuffers);
+        rewind();
+    }
+
+    private static void clear(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    void dispose() {
         this.interpreter.close();
     }
 
@@ -88,17 +280,99 @@ public class TensorflowModel implements AutoCloseable {
      * @return the input tensor buffer at the specified index.
      */
     public ByteBuffer inputs(int index) {
-        return this.inputBuffers.get(index);
+        return this.inputBuffers[index];
+    }
+
+    /**
+     * Get a float view of the input buffer at the specified index. The view
+     * shares the buffer's contents, but is allocated once and rewound after
+     * each run, so that it can be filled in bulk without allocation.
+     *
+     * @param index The index of the desired input buffer.
+     * @return a float view of the input buffer at the specified index.
+     */
+    public FloatBuffer floatInputs(int index) {
+        return this.inputFloats[index];
+    }
+
+    /**
+     * Get an integer view of the input buffer at the specified index, see
+     * {@link #floatInputs(int)}.
+     *
+     * @param index The index of the desired input buffer.
+     * @return an integer view of the input buffer at the specified index.
+     */
+    public IntBuffer intInputs(int index) {
+        return this.inputInts[index];
     }
 
     /**
      * @return the state tensor buffer
      */
     public ByteBuffer states() {
-        if (this.statePosition == null) {
+        if (this.statePosition < 0) {
             return null;
         }
-        return this.inputBuffers.get(this.statePosition);
+        return this.inputBuffers[this.statePosition];
+    }
+
+    /**
+     * @return the number of input tensors declared by the model
+     */
+    public int getInputCount() {
+        return this.inputSpecs.length;
+    }
+
+    /**
+     * @param index the index of an input tensor
+     * @return the tensor's dimensions
+     */
+    public int[] getInputShape(int index) {
+        return this.inputSpecs[index].getShape().clone();
+    }
+
+    /**
+     * @param index the index of an input tensor
+     * @return the tensor's element type in the model
+     */
+    public Loader.DType getInputType(int index) {
+        return this.inputSpecs[index].getType();
+    }
+
+    /**
+     * @param index the index of an input tensor
+     * @return the tensor's quantization parameters, or null if the tensor
+     * is not quantized, in which case its buffer is passed to the model
+     * directly
+     */
+    public Quantization getInputQuantization(int index) {
+        return this.inputSpecs[index].getQuantization();
+    }
+
+    /**
+     * @param index the index of an output tensor
+     * @return the tensor's dimensions
+     */
+    public int[] getOutputShape(int index) {
+        return this.outputSpecs[index].getShape().clone();
+    }
+
+    /**
+     * @param index the index of an output tensor
+     * @return the tensor's element type in the model
+     */
+    public Loader.DType getOutputType(int index) {
+        return this.outputSpecs[index].getType();
+    }
+
+    /**
+     * @param index the index of an output tensor
+     * @return the tensor's quantization parameters, or null if the tensor
+     * is not quantized, in which case its buffer is read from the model
+     * directly
+     */
+    public Quantization getOutputQuantization(int index) {
+        return this.outputSpecs[index].getQuantization();
     }
 
     /**
@@ -108,44 +382,113 @@ public class TensorflowModel implements AutoCloseable {
      * @return the output tensor buffer at the specified index.
      */
     public ByteBuffer outputs(int index) {
-        return this.outputBuffers.get(index);
+        return this.outputBuffers[index];
+    }
+
+    /**
+     * Get a float view of the output buffer at the specified index, see
+     * {@link #floatInputs(int)}.
+     *
+     * @param index The index of the desired output buffer.
+     * @return a float view of the output buffer at the specified index.
+     */
+    public FloatBuffer floatOutputs(int index) {
+        return this.outputFloats[index];
+    }
+
+    /**
+     * Get an integer view of the output buffer at the specified index, see
+     * {@link #floatInputs(int)}.
+     *
+     * @param index The index of the desired output buffer.
+     * @return an integer view of the output buffer at the specified index.
+     */
+    public IntBuffer intOutputs(int index) {
+        return this.outputInts[index];
     }
 
     /**
      * executes the model using the attached buffers.
+     *
+     * <p>
+     * The run path does not allocate: the interpreter's arguments are bound
+     * to the tensor buffers when the model is constructed, and only the
+     * state tensor's bindings change between runs.
+     * </p>
      */
     public void run() {
-        for (ByteBuffer buffer : this.inputBuffers) {
-            buffer.rewind();
+        // quantize any float inputs presented for quantized tensors
+        for (int i = 0; i < this.inputTensors.length; i++) {
+            Quantization quantization = this.inputSpecs[i].getQuantization();
+            if (quantization != null) {
+                quantization.quantize(
+                      this.inputBuffers[i],
+                      this.inputTensors[i],
+                      this.inputSpecs[i].getType());
+            }
+            this.inputTensors[i].rewind();
         }
-        for (ByteBuffer buffer : this.outputBuffers) {
-            buffer.rewind();
+        for (ByteBuffer tensor : this.outputTensors) {
+            tensor.rewind();
         }
 
-        for (int i = 0; i < this.inputBuffers.size(); i++) {
-            this.inputArray[i] = this.inputBuffers.get(i);
+        invoke(this.inputArray, this.outputMap);
+
+        // dequantize any quantized outputs into their float buffers
+        for (int i = 0; i < this.outputTensors.length; i++) {
+            Quantization quantization = this.outputSpecs[i].getQuantization();
+            if (quantization != null) {
+                quantization.dequantize(
+                      this.outputTensors[i],
+                      this.outputBuffers[i],
+                      this.outputSpecs[i].getType());
+            }
         }
-        for (int i = 0; i < this.outputBuffers.size(); i++) {
-            this.outputMap.put(i, this.outputBuffers.get(i));
+
+        if (this.statePosition >= 0) {
+            swapState();
         }
+        rewind();
+    }
+
+    /**
+     * runs the interpreter on the bound tensors.
+     *
+     * @param inputs  the input tensors, by index
+     * @param outputs the output tensors, by index
+     */
+    void invoke(Object[] inputs, Map<Integer, Object> outputs) {
+        this.interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
 
-        this.interpreter.runForMultipleInputsOutputs(
-              this.inputArray,
-              this.outputMap);
+    private void swapState() {
+        int pos = this.statePosition;
+        swap(this.inputBuffers, this.outputBuffers, pos);
+        swap(this.inputTensors, this.outputTensors, pos);
+        swap(this.inputFloats, this.outputFloats, pos);
+        swap(this.inputInts, this.outputInts, pos);
 
-        if (this.statePosition != null) {
-            ByteBuffer temp =
-                  this.inputBuffers.remove((int) this.statePosition);
-            ByteBuffer tempOutput =
-                  this.outputBuffers.remove((int) this.statePosition);
-            this.inputBuffers.add(this.statePosition, tempOutput);
-            this.outputBuffers.add(this.statePosition, temp);
-        }
-        for (ByteBuffer buffer : this.inputBuffers) {
-            buffer.rewind();
+        // rebind the swapped tensors; the boxed index is cached by Integer
+        this.inputArray[pos] = this.inputTensors[pos];
+        this.outputMap.put(pos, this.outputTensors[pos]);
+    }
+
+    private static <T> void swap(T[] inputs, T[] outputs, int pos) {
+        T temp = inputs[pos];
+        inputs[pos] = outputs[pos];
+        outputs[pos] = temp;
+    }
+
+    private void rewind() {
+        for (int i = 0; i < this.inputBuffers.length; i++) {
+            this.inputBuffers[i].rewind();
+            this.inputFloats[i].rewind();
+            this.inputInts[i].rewind();
         }
-        for (ByteBuffer buffer : this.outputBuffers) {
-            buffer.rewind();
+        for (int i = 0; i < this.outputBuffers.length; i++) {
+            this.outputBuffers[i].rewind();
+            this.outputFloats[i].rewind();
+            this.outputInts[i].rewind();
         }
     }
 
@@ -160,13 +503,77 @@ public class TensorflowModel implements AutoCloseable {
             /**
              * 32-bit floating tensor.
              */
-            FLOAT
+            FLOAT(0, 4, 0, 0),
+            /**
+             * 32-bit integer tensor.
+             */
+            INT32(2, 4, 0, 0),
+            /**
+             * 8-bit unsigned integer (quantized) tensor.
+             */
+            UINT8(3, 1, 0, 255),
+            /**
+             * 64-bit integer tensor.
+             */
+            INT64(4, 8, 0, 0),
+            /**
+             * 8-bit signed integer (quantized) tensor.
+             */
+            INT8(9, 1, -128, 127);
+
+            private final int code;
+            private final int size;
+            private final int min;
+            private final int max;
+
+            DType(int typeCode, int byteSize, int minValue, int maxValue) {
+                this.code = typeCode;
+                this.size = byteSize;
+                this.min = minValue;
+                this.max = maxValue;
+            }
+
+            /**
+             * @return the size of each tensor element, in bytes
+             */
+            public int byteSize() {
+                return this.size;
+            }
+
+            /**
+             * @return true if tensors of this type may be quantized
+             */
+            public boolean isQuantized() {
+                return this.size == 1;
+            }
+
+            int minValue() {
+                return this.min;
+            }
+
+            int maxValue() {
+                return this.max;
+            }
+
+            static DType fromCode(int typeCode) {
+                for (DType type : values()) {
+                    if (type.code == typeCode) {
+                        return type;
+                    }
+                }
+                throw new IllegalArgumentException(
+                      "unsupported tensor type: " + typeCode);
+            }
         }
 
         private String path;
-        private int inputSize;
-        private int outputSize;
+        private ByteBuffer buffer;
         private Integer statePosition = null;
+        private Integer threadCount;
+        private boolean useNNAPI;
+        private ModelCache cache;
+        private final Map<Integer, int[]> inputShapes = new TreeMap<>();
+        private final Map<Integer, int[]> outputShapes = new TreeMap<>();
 
         /**
          * initializes a new loader instance.
@@ -175,6 +582,21 @@ public class TensorflowModel implements AutoCloseable {
             this.reset();
         }
 
+        /**
+         * initializes a new loader instance, which leases models from the
+         * shared model cache if the configuration sets its budget. the
+         * budget itself is applied by {@link ModelCache#configure}.
+         *
+         * @param config the pipeline configuration instance
+         * @see ModelCache
+         */
+        public Loader(SpeechConfig config) {
+            this();
+            if (config.containsKey("model-cache-budget")) {
+                this.cache = ModelCache.getShared();
+            }
+        }
+
         /**
          * resets the loader to the default state.
          *
@@ -182,9 +604,12 @@ public class TensorflowModel implements AutoCloseable {
          */
         public Loader reset() {
             this.path = null;
-            this.inputSize = 4;
-            this.outputSize = 4;
+            this.buffer = null;
             this.statePosition = null;
+            this.threadCount = null;
+            this.useNNAPI = false;
+            this.inputShapes.clear();
+            this.outputShapes.clear();
             return this;
         }
 
@@ -199,6 +624,59 @@ public class TensorflowModel implements AutoCloseable {
             return this;
         }
 
+        /**
+         * sets a buffer containing the TF-Lite model, which is used in
+         * place of the model path. the buffer must be a direct buffer, such
+         * as a {@link java.nio.MappedByteBuffer} mapped from an uncompressed
+         * asset, and must not be modified while the model is in use.
+         *
+         * @param value value to assign
+         * @return this
+         */
+        public Loader setBuffer(ByteBuffer value) {
+            this.buffer = value;
+            return this;
+        }
+
+        /**
+         * attaches a model cache, from which models are leased by
+         * {@link #load()}. the cache is retained when the loader is reset.
+         *
+         * @param value the cache, or null to load models directly
+         * @return this
+         */
+        public Loader setCache(ModelCache value) {
+            this.cache = value;
+            return this;
+        }
+
+        /**
+         * sets the number of threads used by the interpreter. by default,
+         * the interpreter chooses the number of threads.
+         *
+         * @param value value to assign
+         * @return this
+         */
+        public Loader setThreadCount(int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException("threadCount");
+            }
+            this.threadCount = value;
+            return this;
+        }
+
+        /**
+         * enables or disables the Android neural networks API delegate,
+         * which runs the model on hardware accelerators where available.
+         *
+         * @param value value to assign
+         * @return this
+         */
+        public Loader setUseNNAPI(boolean value) {
+            this.useNNAPI = value;
+            return this;
+        }
+
         /**
          * sets the position of the model's state tensor in its input array.
          *
@@ -210,15 +688,72 @@ public class TensorflowModel implements AutoCloseable {
             return this;
         }
 
+        /**
+         * resizes one of the model's inputs, for models that accept inputs
+         * of varying lengths. the output buffers retain the shapes in the
+         * model file, so outputs whose shapes follow the input are only
+         * filled in part, from the start of the buffer.
+         *
+         * @param index the index of the input tensor
+         * @param shape the tensor's new dimensions
+         * @return this
+         */
+        public Loader setInputShape(int index, int[] shape) {
+            this.inputShapes.put(index, shape.clone());
+            return this;
+        }
+
+        /**
+         * sizes the buffer for one of the model's outputs, for outputs whose
+         * shapes follow a resized input, such as its batch size. the
+         * interpreter determines the output's actual shape.
+         *
+         * @param index the index of the output tensor
+         * @param shape the tensor's dimensions
+         * @return this
+         */
+        public Loader setOutputShape(int index, int[] shape) {
+            this.outputShapes.put(index, shape.clone());
+            return this;
+        }
+
         /**
          * loads the tensorflow model using the attached configuration.
          *
          * @return the new tensorflow model
          */
         public TensorflowModel load() {
-            TensorflowModel model = new TensorflowModel(this);
+            TensorflowModel model = this.cache != null && this.buffer == null
+                  ? this.cache.acquire(this)
+                  : create();
             this.reset();
             return model;
         }
+
+        TensorflowModel create() {
+            return new TensorflowModel(this);
+        }
+
+        String getCacheKey() {
+            // a replaced model file has a new length or modification time
+            File file = new File(this.path);
+            return this.path
+                  + "|" + file.length()
+                  + "|" + file.lastModified()
+                  + "|" + this.statePosition
+                  + "|" + this.threadCount
+                  + "|" + this.useNNAPI
+                  + "|" + shapeKey(this.inputShapes)
+                  + "|" + shapeKey(this.outputShapes);
+        }
+
+        private static String shapeKey(Map<Integer, int[]> shapes) {
+            StringBuilder key = new StringBuilder();
+            for (Map.Entry<Integer, int[]> e : shapes.entrySet()) {
+                key.append(e.getKey())
+                      .append(Arrays.toString(e.getValue()));
+            }
+            return key.toString();
+        }
     }
 }
@@ -0,0 +1,151 @@
+package io.spokestack.spokestack.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-bucket histogram of latencies, cheap enough to update on every
+ * audio frame.
+ *
+ * <p>
+ * Latencies are recorded in microseconds into logarithmic buckets, four per
+ * power of two, so that any reported percentile is within 25% of the true
+ * value while the histogram itself never allocates after construction.
+ * Recording is not synchronized; a histogram should be updated by a single
+ * thread, and {@link #copy() copies} taken by other threads while it is
+ * being updated may be slightly inconsistent.
+ * </p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_COUNT;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Creates a new, empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        this.counts = Arrays.copyOf(other.counts, BUCKETS);
+        this.count = other.count;
+        this.total = other.total;
+        this.max = other.max;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency to record, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos / NANOS_PER_MICRO, 0);
+        this.counts[bucket(micros)]++;
+        this.count++;
+        this.total += micros;
+        if (micros > this.max) {
+            this.max = micros;
+        }
+    }
+
+    /**
+     * Clears all recorded latencies.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.total = 0;
+        this.max = 0;
+    }
+
+    /**
+     * @return A snapshot of the histogram's current contents.
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * @return The number of latencies recorded.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return The largest latency recorded, in microseconds.
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * @return The mean latency recorded, in microseconds.
+     */
+    public double getMean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+
+    /**
+     * Estimates a latency percentile.
+     *
+     * @param percentile The percentile to estimate, in the range [0, 100].
+     * @return The upper bound of the bucket containing the percentile, in
+     * microseconds, capped at the largest latency recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile");
+        }
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * this.count);
+        rank = Math.max(rank, 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+              "p50=%dus p99=%dus max=%dus",
+              getPercentile(50),
+              getPercentile(99),
+              getMax());
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        // the top bits select the power of two,
+        // the next bits select the sub-bucket within it
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,121 @@
+package io.spokestack.spokestack.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free, single-producer/single-consumer queue of
+ * preallocated elements.
+ *
+ * <p>
+ * The ring owns a fixed pool of mutable elements, so no allocation occurs
+ * after construction. The producer thread claims the next free element,
+ * fills it in place, and publishes it; the consumer thread peeks at the
+ * oldest published element, uses it in place, and releases it back to the
+ * pool. Exactly one thread may act as the producer and exactly one thread
+ * as the consumer at any given time.
+ * </p>
+ *
+ * @param <T> The type of element stored in the ring.
+ */
+public final class SpscRing<T> {
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a new ring, rounding its capacity up to a power of two.
+     *
+     * @param capacity The minimum number of elements the ring can hold.
+     * @param factory  Factory used to preallocate the ring's elements.
+     */
+    public SpscRing(int capacity, Factory<T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = factory.create();
+        }
+    }
+
+    /**
+     * @return The maximum number of elements the ring can hold.
+     */
+    public int capacity() {
+        return this.slots.length;
+    }
+
+    /**
+     * @return The number of published elements that have not been released.
+     * This is a snapshot that may be stale as soon as it is returned.
+     */
+    public int size() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    /**
+     * Claims the next free element for writing. Called by the producer.
+     * The element is not visible to the consumer until {@link #publish()} is
+     * called; claiming again before publishing returns the same element.
+     *
+     * @return The next free element, or null if the ring is full.
+     */
+    @SuppressWarnings("unchecked")
+    public T claim() {
+        long t = this.tail.get();
+        if (t - this.head.get() == this.slots.length) {
+            return null;
+        }
+        return (T) this.slots[(int) t & this.mask];
+    }
+
+    /**
+     * Publishes the most recently claimed element to the consumer. Called by
+     * the producer.
+     */
+    public void publish() {
+        this.tail.lazySet(this.tail.get() + 1);
+    }
+
+    /**
+     * Retrieves the oldest published element without removing it. Called by
+     * the consumer.
+     *
+     * @return The oldest published element, or null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long h = this.head.get();
+        if (h == this.tail.get()) {
+            return null;
+        }
+        return (T) this.slots[(int) h & this.mask];
+    }
+
+    /**
+     * Releases the oldest published element back to the producer. Called by
+     * the consumer once it has finished with the element returned by
+     * {@link #peek()}.
+     */
+    public void release() {
+        this.head.lazySet(this.head.get() + 1);
+    }
+
+    /**
+     * A factory for the ring's preallocated elements.
+     *
+     * @param <T> The type of element to create.
+     */
+    public interface Factory<T> {
+        /**
+         * @return A new element.
+         */
+        T create();
+    }
+}
@@ -0,0 +1,275 @@
+package io.spokestack.spokestack.wakeword;
+
+import androidx.annotation.Nullable;
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+import java.nio.FloatBuffer;
+
+/**
+ * low-power first stage for the wakeword detector
+ *
+ * <p>
+ * The wakeword cascade is a cheap detector that runs for every STFT hop in
+ * front of the {@link WakewordTrigger}'s filter/encode/detect models, and
+ * must fire before those models are run. It scores each hop's features (the
+ * linear STFT magnitudes, or the shared mel frames if the trigger reads
+ * them from a feature extractor) using one of the following methods:
+ * </p>
+ * <ul>
+ *   <li>
+ *      {@code energy}: the mean level of the feature vector
+ *   </li>
+ *   <li>
+ *      {@code flux}: the spectral flux, the mean positive change in the
+ *      feature vector since the previous hop, which responds to onsets
+ *      rather than sustained noise
+ *   </li>
+ *   <li>
+ *      {@code model}: the first output of a small Tensorflow-Lite model
+ *      whose inputs are shaped [feature-width]
+ *   </li>
+ * </ul>
+ *
+ * <p>
+ * The cascade fires when the score exceeds a threshold, and remains open
+ * for a hangover period after the last firing, so that the models see the
+ * entire wakeword phrase. It also retains a few hops of pre-roll while
+ * closed, which are replayed through the models when it opens, so that the
+ * phrase onset is not lost.
+ * </p>
+ *
+ * <p>
+ * The cascade counts the hops it scores and the hops (including pre-roll)
+ * it passes to the models, so that its threshold can be tuned for the
+ * fraction of hops that reach them.
+ * </p>
+ *
+ * <p>
+ * The trigger configures its cascade with the following properties:
+ * </p>
+ * <ul>
+ *   <li>
+ *      <b>wake-cascade</b> (string): the cascade scoring method,
+ *      {@code energy}, {@code flux}, or {@code model}, or {@code none} to
+ *      run the models for every hop (default none)
+ *   </li>
+ *   <li>
+ *      <b>wake-cascade-threshold</b> (double, required): the score above
+ *      which the cascade fires, which must be tuned to the features and
+ *      scoring method
+ *   </li>
+ *   <li>
+ *      <b>wake-cascade-path</b> (string): file system path to the cascade
+ *      Tensorflow-Lite model, required for the {@code model} method
+ *   </li>
+ *   <li>
+ *      <b>wake-cascade-hangover</b> (integer): the length of time the
+ *      cascade remains open after it last fired, in milliseconds
+ *   </li>
+ *   <li>
+ *      <b>wake-cascade-preroll</b> (integer): the length of time replayed
+ *      through the models when the cascade opens, in milliseconds
+ *   </li>
+ * </ul>
+ */
+public final class WakewordCascade implements AutoCloseable {
+    /** run the models for every hop. */
+    public static final String TYPE_NONE = "none";
+    /** score the mean feature level. */
+    public static final String TYPE_ENERGY = "energy";
+    /** score the spectral flux. */
+    public static final String TYPE_FLUX = "flux";
+    /** score the hop with a tensorflow model. */
+    public static final String TYPE_MODEL = "model";
+
+    /** default wake-cascade configuration value. */
+    public static final String DEFAULT_WAKE_CASCADE = TYPE_NONE;
+    /** default wake-cascade-hangover configuration value. */
+    public static final int DEFAULT_WAKE_CASCADE_HANGOVER = 500;
+    /** default wake-cascade-preroll configuration value. */
+    public static final int DEFAULT_WAKE_CASCADE_PREROLL = 100;
+
+    private final String type;
+    private final float threshold;
+    private final TensorflowModel model;
+    private final int hangover;
+    private final int preroll;
+
+    // circular history of hop features, for flux and pre-roll
+    private final float[][] history;
+    private int head;
+    private int buffered;
+    private boolean primed;
+    private int remaining;
+
+    // cascade metrics
+    private long hops;
+    private long passed;
+
+    /**
+     * constructs a new cascade instance.
+     * @param config    the pipeline configuration instance
+     * @param loader    tensorflow model loader
+     * @param width     the size of each hop's feature vector
+     * @param hopLength the length of each hop, in milliseconds
+     */
+    public WakewordCascade(SpeechConfig config,
+                           TensorflowModel.Loader loader,
+                           int width,
+                           int hopLength) {
+        this.type = config.getString("wake-cascade", DEFAULT_WAKE_CASCADE);
+        if (!this.type.equals(TYPE_ENERGY)
+                && !this.type.equals(TYPE_FLUX)
+                && !this.type.equals(TYPE_MODEL))
+            throw new IllegalArgumentException("wake-cascade");
+        this.threshold = (float) config
+            .getDouble("wake-cascade-threshold");
+        this.hangover = config
+            .getInteger("wake-cascade-hangover", DEFAULT_WAKE_CASCADE_HANGOVER)
+            / hopLength;
+        this.preroll = config
+            .getInteger("wake-cascade-preroll", DEFAULT_WAKE_CASCADE_PREROLL)
+            / hopLength;
+        if (this.hangover < 0)
+            throw new IllegalArgumentException("wake-cascade-hangover");
+        if (this.preroll < 0)
+            throw new IllegalArgumentException("wake-cascade-preroll");
+
+        // retain the pre-roll, the current hop, and the previous hop
+        this.history = new float[this.preroll + 2][width];
+        if (this.type.equals(TYPE_MODEL)) {
+            this.model = loader
+                .setPath(config.getString("wake-cascade-path"))
+                .load();
+            loader.reset();
+        } else {
+            this.model = null;
+        }
+    }
+
+    /**
+     * creates the cascade configured for a wakeword trigger.
+     * @param config    the pipeline configuration instance
+     * @param loader    tensorflow model loader
+     * @param width     the size of each hop's feature vector
+     * @param hopLength the length of each hop, in milliseconds
+     * @return the cascade, or null if the cascade is disabled
+     */
+    @Nullable
+    public static WakewordCascade create(SpeechConfig config,
+                                         TensorflowModel.Loader loader,
+                                         int width,
+                                         int hopLength) {
+        String type = config.getString("wake-cascade", DEFAULT_WAKE_CASCADE);
+        if (type.equals(TYPE_NONE))
+            return null;
+        return new WakewordCascade(config, loader, width, hopLength);
+    }
+
+    /**
+     * releases resources associated with the cascade.
+     */
+    @Override
+    public void close() {
+        if (this.model != null)
+            this.model.close();
+    }
+
+    /**
+     * resets the cascade's detection state, but not its metrics.
+     */
+    public void reset() {
+        this.buffered = 0;
+        this.primed = false;
+        this.remaining = 0;
+    }
+
+    /**
+     * scores a hop, and determines which hops should be run through the
+     * models.
+     * @param features the hop's feature vector
+     * @return the number of hops to run through the models, which are
+     * fetched via {@link #get(int)}: 0 if the cascade is closed, 1 for
+     * the current hop, or more if pre-roll hops should be replayed before it
+     */
+    public int admit(float[] features) {
+        float[] prev = this.history[this.head];
+        this.head = (this.head + 1) % this.history.length;
+        float[] current = this.history[this.head];
+        System.arraycopy(features, 0, current, 0, current.length);
+        this.hops++;
+
+        // score the hop, extending the hangover if the cascade fires
+        boolean open = this.remaining > 0;
+        if (score(current, prev) > this.threshold)
+            this.remaining = this.hangover + 1;
+        this.primed = true;
+        if (this.remaining == 0) {
+            this.buffered = Math.min(this.buffered + 1, this.preroll);
+            return 0;
+        }
+        this.remaining--;
+
+        // replay the pre-roll if the cascade just opened
+        int count = open ? 1 : this.buffered + 1;
+        this.buffered = 0;
+        this.passed += count;
+        return count;
+    }
+
+    /**
+     * fetches a hop to run through the models.
+     * @param age the age of the hop, in hops before the current one
+     * @return the hop's feature vector
+     */
+    public float[] get(int age) {
+        int index = this.head - age;
+        if (index < 0)
+            index += this.history.length;
+        return this.history[index];
+    }
+
+    private float score(float[] current, float[] prev) {
+        float sum = 0;
+        if (this.type.equals(TYPE_ENERGY)) {
+            for (float x : current)
+                sum += x;
+        } else if (this.type.equals(TYPE_FLUX)) {
+            // the first hop after a reset has no previous hop
+            if (!this.primed)
+                return 0;
+            for (int i = 0; i < current.length; i++)
+                sum += Math.max(0, current[i] - prev[i]);
+        } else {
+            FloatBuffer input = this.model.floatInputs(0);
+            input.rewind();
+            input.put(current);
+            this.model.run();
+            return this.model.floatOutputs(0).get(0);
+        }
+        return sum / current.length;
+    }
+
+    /**
+     * @return the number of hops scored by the cascade
+     */
+    public long getHops() {
+        return this.hops;
+    }
+
+    /**
+     * @return the number of hops passed to the models, including pre-roll
+     */
+    public long getPassed() {
+        return this.passed;
+    }
+
+    /**
+     * @return the fraction of hops scored by the cascade that were passed
+     * to the models
+     */
+    public double getPassRate() {
+        return this.hops > 0 ? (double) this.passed / this.hops : 0;
+    }
+}
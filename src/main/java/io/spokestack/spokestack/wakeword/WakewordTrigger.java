@@ -1,13 +1,18 @@
 package io.spokestack.spokestack.wakeword;
 
+import androidx.annotation.Nullable;
+import io.spokestack.spokestack.GatedProcessor;
+import io.spokestack.spokestack.MelFilterbank;
+import io.spokestack.spokestack.MelFrames;
 import io.spokestack.spokestack.RingBuffer;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechContext;
-import io.spokestack.spokestack.SpeechProcessor;
 import io.spokestack.spokestack.tensorflow.TensorflowModel;
+import io.spokestack.spokestack.util.EventTracer;
 import org.jtransforms.fft.FloatFFT_1D;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 
 /**
@@ -53,6 +58,27 @@ import java.nio.ByteBuffer;
  * </p>
  *
  * <p>
+ * The trigger may detect several wake phrases, each with its own "detect"
+ * model and threshold, which share the trigger's STFT, mel filter, and
+ * encoder, so that each additional phrase only adds a detector model run
+ * for each hop. When a phrase activates the pipeline, its name is attached
+ * to the speech context (see {@link SpeechContext#getWakePhrase()}). If
+ * several phrases cross their thresholds on the same hop, the phrase with
+ * the highest posterior wins.
+ * </p>
+ *
+ * <p>
+ * On battery-powered devices, the models can be guarded by a low-power
+ * first stage (see {@link WakewordCascade}), which scores each hop and
+ * must fire before the models are run for it.
+ * </p>
+ *
+ * <p>
+ * The trigger has nothing to do while the pipeline is active, so it is gated
+ * (see {@link GatedProcessor}) to run only while the pipeline is inactive.
+ * </p>
+ *
+ * <p>
  * Activations have configurable minimum/maximum lengths. The minimum length
  * prevents the activation from being aborted if the user pauses after saying
  * the wakeword (which untriggers the VAD). The maximum activation length
@@ -77,7 +103,8 @@ import java.nio.ByteBuffer;
  *      <b>wake-filter-path</b> (string, required): file system path to the
  *      "filter" Tensorflow-Lite model, which is used to calculate a mel
  *      spectrogram frame from the linear STFT; its inputs should be shaped
- *      [fft-width], and its outputs [mel-width]
+ *      [fft-width], and its outputs [mel-width] (not used if mel-features
+ *      is shared, or if mel-filter-type is java)
  *   </li>
  *   <li>
  *      <b>wake-encode-path</b> (string, required): file system path to the
@@ -89,7 +116,21 @@ import java.nio.ByteBuffer;
  *   <li>
  *      <b>wake-detect-path</b> (string, required): file system path to the
  *      "detect" Tensorflow-Lite model; its inputs shoudld be shaped
- *      [encode-length, encode-width], and its outputs [1]
+ *      [encode-length, encode-width], and its outputs [1]; if multiple
+ *      wake-phrases are configured, a comma-separated list of paths to
+ *      each phrase's detector model, in phrase order
+ *   </li>
+ *   <li>
+ *      <b>wake-phrases</b> (string): comma-separated names of the wake
+ *      phrases detected by the trigger, one for each detector model
+ *      (default wakeword)
+ *   </li>
+ *   <li>
+ *      <b>mel-features</b> (string): {@code local} to compute the mel
+ *      spectrogram in this component, or {@code shared} to read it from a
+ *      preceding {@link io.spokestack.spokestack.FeatureExtractor}, which
+ *      then handles the normalization and STFT configuration below
+ *      (default local)
  *   </li>
  *   <li>
  *      <b>rms-target</b> (double): the desired linear Root Mean Squared (RMS)
@@ -128,6 +169,14 @@ import java.nio.ByteBuffer;
  *      frame, in number of filterbank components
  *   </li>
  *   <li>
+ *      <b>mel-filter-type</b> (string): how the mel spectrogram frame is
+ *      computed from the linear STFT: {@code model} to run the filter model,
+ *      {@code java} to use a triangular filterbank computed in Java (in
+ *      which case the filter model is not loaded), or {@code derived} to
+ *      derive the filterbank from the filter model at startup (see
+ *      {@link io.spokestack.spokestack.MelFilterbank}; default model)
+ *   </li>
+ *   <li>
  *      <b>wake-encode-length</b> (integer): the length of the sliding
  *      window of encoder output used as an input to the classifier, in
  *      milliseconds
@@ -141,13 +190,34 @@ import java.nio.ByteBuffer;
  *      in vector units (defaults to wake-encode-width)
  *   </li>
  *   <li>
+ *      <b>wake-input-layout</b> (string): the layout of the sliding windows
+ *      in the encoder and detector input tensors: {@code window} to copy
+ *      each window into its tensor in time order for every frame, or
+ *      {@code rolling} to write only the newest frame into each tensor,
+ *      over the oldest one, so that the window is stored in circular order
+ *      (default window); rolling inputs reduce the per-frame copies from
+ *      the window length to a single frame, but require models that
+ *      declare an additional scalar "offset" input (the encoder's third
+ *      input and the detector's second), which receives the position of
+ *      the oldest frame in the circular window, in frames, so that the
+ *      model can restore the window's time order
+ *   </li>
+ *   <li>
+ *      <b>wake-cascade</b> (string): the low-power first stage's scoring
+ *      method, or {@code none} to run the models for every hop; see
+ *      {@link WakewordCascade} for this and the other wake-cascade
+ *      properties (default none)
+ *   </li>
+ *   <li>
  *      <b>wake-threshold</b> (double): the threshold of the classifier's
  *      posterior output, above which the trigger activates the pipeline,
- *      in the range [0, 1]
+ *      in the range [0, 1]; if multiple wake-phrases are configured, either
+ *      a single threshold shared by all phrases or a comma-separated list of
+ *      each phrase's threshold, in phrase order
  *   </li>
  * </ul>
  */
-public final class WakewordTrigger implements SpeechProcessor {
+public final class WakewordTrigger implements GatedProcessor {
     /** the hann fft-window-type.  */
     public static final String FFT_WINDOW_TYPE_HANN = "hann";
 
@@ -171,6 +241,14 @@ public final class WakewordTrigger implements SpeechProcessor {
     public static final int DEFAULT_WAKE_ENCODE_LENGTH = 1000;
     /** default wake-encode-width configuration value. */
     public static final int DEFAULT_WAKE_ENCODE_WIDTH = 128;
+    /** the window wake-input-layout. */
+    public static final String INPUT_LAYOUT_WINDOW = "window";
+    /** the rolling wake-input-layout. */
+    public static final String INPUT_LAYOUT_ROLLING = "rolling";
+    /** default wake-input-layout configuration value. */
+    public static final String DEFAULT_WAKE_INPUT_LAYOUT = INPUT_LAYOUT_WINDOW;
+    /** default wake-phrases configuration value. */
+    public static final String DEFAULT_WAKE_PHRASES = "wakeword";
     /** default wake-threshold value. */
     public static final float DEFAULT_WAKE_THRESHOLD = 0.5f;
 
@@ -191,8 +269,11 @@ public final class WakewordTrigger implements SpeechProcessor {
     private final FloatFFT_1D fft;
     private final float[] fftWindow;
     private final float[] fftFrame;
+    private final float[] spectrum;
     private final int hopLength;
     private final int melWidth;
+    private final MelFilterbank filterbank;
+    private final float[] melFrame;
 
     // encoder configuration
     private final int encodeWidth;
@@ -202,13 +283,31 @@ public final class WakewordTrigger implements SpeechProcessor {
     private final RingBuffer frameWindow;
     private final RingBuffer encodeWindow;
 
+    // rolling model input positions, in frames, and the indexes of the
+    // model inputs that receive the position of the oldest frame
+    private static final int ENCODE_OFFSET_INPUT = 2;
+    private static final int DETECT_OFFSET_INPUT = 1;
+    private final boolean rollingInputs;
+    private final int melLength;
+    private final int encodeLength;
+    private int melOffset;
+    private int encodeOffset;
+
+    // shared mel frames
+    private final boolean sharedFeatures;
+    private long melSequence;
+
+    // low-power first stage
+    private final WakewordCascade cascade;
+
     // tensorflow mel filtering and classifier models
     private final TensorflowModel filterModel;
     private final TensorflowModel encodeModel;
-    private final TensorflowModel detectModel;
+    private final TensorflowModel[] detectModels;
 
     // wakeword activation management
-    private final float posteriorThreshold;
+    private final String[] phrases;
+    private final float[] posteriorThresholds;
     private float posteriorMax;
 
     /**
@@ -216,7 +315,7 @@ public final class WakewordTrigger implements SpeechProcessor {
      * @param config the pipeline configuration instance
      */
     public WakewordTrigger(SpeechConfig config) {
-        this(config, new TensorflowModel.Loader());
+        this(config, new TensorflowModel.Loader(config));
     }
 
     /**
@@ -248,7 +347,7 @@ public final class WakewordTrigger implements SpeechProcessor {
             .getString("fft-window-type", DEFAULT_FFT_WINDOW_TYPE);
         if (windowSize % 2 != 0)
             throw new IllegalArgumentException("fft-window-size");
-        int melLength = config
+        this.melLength = config
             .getInteger("mel-frame-length", DEFAULT_MEL_FRAME_LENGTH)
             * sampleRate / 1000 / this.hopLength;
         this.melWidth = config
@@ -262,9 +361,10 @@ public final class WakewordTrigger implements SpeechProcessor {
 
         this.fft = new FloatFFT_1D(windowSize);
         this.fftFrame = new float[windowSize];
+        this.spectrum = new float[windowSize / 2 + 1];
 
         // fetch and validate encoder configuration
-        int encodeLength = config
+        this.encodeLength = config
             .getInteger("wake-encode-length", DEFAULT_WAKE_ENCODE_LENGTH)
             * sampleRate / 1000 / this.hopLength;
         this.encodeWidth = config
@@ -272,33 +372,122 @@ public final class WakewordTrigger implements SpeechProcessor {
         int stateWidth = config
             .getInteger("wake-state-width", this.encodeWidth);
 
+        String inputLayout = config
+            .getString("wake-input-layout", DEFAULT_WAKE_INPUT_LAYOUT);
+        if (inputLayout.equals(INPUT_LAYOUT_ROLLING))
+            this.rollingInputs = true;
+        else if (inputLayout.equals(INPUT_LAYOUT_WINDOW))
+            this.rollingInputs = false;
+        else
+            throw new IllegalArgumentException("wake-input-layout");
+
         // allocate sliding windows
         // fill all buffers (except samples) with zero, in order to
         // minimize detection delay caused by buffering
+        // rolling inputs keep the mel/encode windows in the model tensors
         this.sampleWindow = new RingBuffer(windowSize);
-        this.frameWindow = new RingBuffer(melLength * this.melWidth);
-        this.encodeWindow = new RingBuffer(encodeLength * this.encodeWidth);
+        if (this.rollingInputs) {
+            this.frameWindow = null;
+            this.encodeWindow = null;
+        } else {
+            this.frameWindow = new RingBuffer(
+                this.melLength * this.melWidth);
+            this.encodeWindow = new RingBuffer(
+                this.encodeLength * this.encodeWidth);
+            this.frameWindow.fill(0);
+            this.encodeWindow.fill(-1);
+        }
 
-        this.frameWindow.fill(0);
-        this.encodeWindow.fill(-1);
+        // fetch and validate the wake phrases, each with its own
+        // detector model and activation threshold
+        this.phrases = config
+            .getString("wake-phrases", DEFAULT_WAKE_PHRASES)
+            .split(",");
+
+        String[] thresholds = config
+            .getString("wake-threshold", Float.toString(DEFAULT_WAKE_THRESHOLD))
+            .split(",");
+        if (thresholds.length != 1
+                && thresholds.length != this.phrases.length)
+            throw new IllegalArgumentException("wake-threshold");
+        this.posteriorThresholds = new float[this.phrases.length];
+        for (int i = 0; i < this.phrases.length; i++) {
+            String threshold = thresholds[thresholds.length > 1 ? i : 0];
+            this.posteriorThresholds[i] = Float.parseFloat(threshold.trim());
+        }
 
-        // load the tensorflow-lite models
-        this.filterModel = loader
-            .setPath(config.getString("wake-filter-path"))
-            .load();
-        loader.reset();
+        String[] detectPaths = config.getString("wake-detect-path").split(",");
+        if (detectPaths.length != this.phrases.length)
+            throw new IllegalArgumentException("wake-detect-path");
+
+        // load the tensorflow-lite models, skipping the filter model
+        // if mel frames are computed by a feature extractor
+        this.sharedFeatures = "shared"
+            .equals(config.getString("mel-features", "local"));
+        TensorflowModel filter = null;
+        if (!this.sharedFeatures && MelFilterbank.needsModel(config, "")) {
+            filter = loader
+                .setPath(config.getString("wake-filter-path"))
+                .load();
+            loader.reset();
+        }
+        this.filterbank = this.sharedFeatures
+            ? null
+            : MelFilterbank.create(config, "", filter, windowSize, melWidth);
+        if (this.filterbank != null && filter != null) {
+            // the derived filterbank replaces the model
+            filter.close();
+            filter = null;
+        }
+        this.filterModel = filter;
+        this.melFrame = new float[this.melWidth];
         this.encodeModel = loader
             .setPath(config.getString("wake-encode-path"))
             .setStatePosition(1)
             .load();
         loader.reset();
-        this.detectModel = loader
-            .setPath(config.getString("wake-detect-path"))
-            .load();
+        this.detectModels = new TensorflowModel[this.phrases.length];
+        for (int i = 0; i < this.phrases.length; i++) {
+            this.phrases[i] = this.phrases[i].trim();
+            this.detectModels[i] = loader
+                .setPath(detectPaths[i].trim())
+                .load();
+            loader.reset();
+        }
+        this.cascade = WakewordCascade.create(
+            config,
+            loader,
+            this.sharedFeatures ? this.melWidth : this.spectrum.length,
+            config.getInteger("fft-hop-length", DEFAULT_FFT_HOP_LENGTH));
+
+        if (this.rollingInputs) {
+            checkOffsetInput(this.encodeModel, ENCODE_OFFSET_INPUT);
+            for (TensorflowModel detectModel : this.detectModels)
+                checkOffsetInput(detectModel, DETECT_OFFSET_INPUT);
+            resetInputs();
+        }
+    }
+
+    private void checkOffsetInput(TensorflowModel model, int index) {
+        // rolling inputs are rotated, so the models must accept the
+        // window's starting position in order to interpret them
+        if (model.getInputCount() <= index) {
+            try {
+                close();
+            } catch (Exception e) {
+                // the configuration error takes precedence
+            }
+            throw new IllegalArgumentException("wake-input-layout");
+        }
+    }
 
-        // configure the wakeword activation lengths
-        this.posteriorThreshold = (float) config
-            .getDouble("wake-threshold", (double) DEFAULT_WAKE_THRESHOLD);
+    private static void setOffset(TensorflowModel model,
+                                  int index,
+                                  int offset) {
+        if (model.getInputType(index) == TensorflowModel.Loader.DType.INT32)
+            model.intInputs(index).put(0, offset);
+        else
+            model.floatInputs(index).put(0, offset);
     }
 
     /**
@@ -306,9 +495,22 @@ public final class WakewordTrigger implements SpeechProcessor {
      * @throws Exception on error
      */
     public void close() throws Exception {
-        this.filterModel.close();
+        if (this.filterModel != null)
+            this.filterModel.close();
         this.encodeModel.close();
-        this.detectModel.close();
+        for (TensorflowModel detectModel : this.detectModels)
+            detectModel.close();
+        if (this.cascade != null)
+            this.cascade.close();
+    }
+
+    /**
+     * @return the trigger's low-power first stage, or null if it runs the
+     * models for every hop
+     */
+    @Nullable
+    public WakewordCascade getCascade() {
+        return this.cascade;
     }
 
     @Override
@@ -320,8 +522,12 @@ public final class WakewordTrigger implements SpeechProcessor {
         // reset and fill the other buffers,
         // which prevents them from delaying detection
         // the encoder has a tanh nonlinearity, so fill it with -1
-        this.frameWindow.reset().fill(0);
-        this.encodeWindow.reset().fill(-1);
+        if (this.rollingInputs) {
+            resetInputs();
+        } else {
+            this.frameWindow.reset().fill(0);
+            this.encodeWindow.reset().fill(-1);
+        }
 
         // reset the encoder states
         while (this.encodeModel.states().hasRemaining())
@@ -329,6 +535,10 @@ public final class WakewordTrigger implements SpeechProcessor {
 
         // reset the maximum posterior
         this.posteriorMax = 0;
+
+        // reset the first stage's hangover and pre-roll
+        if (this.cascade != null)
+            this.cascade.reset();
     }
 
     /**
@@ -355,8 +565,68 @@ public final class WakewordTrigger implements SpeechProcessor {
         if (!context.isActive()) {
             // run the current frame through the detector pipeline
             // activate if a keyword phrase was detected
-            sample(context, buffer);
+            if (this.sharedFeatures)
+                consume(context);
+            else
+                sample(context, buffer);
+        }
+    }
+
+    private void resetInputs() {
+        ByteBuffer mels = this.encodeModel.inputs(0);
+        mels.rewind();
+        while (mels.hasRemaining())
+            mels.putFloat(0);
+        for (TensorflowModel detectModel : this.detectModels) {
+            ByteBuffer encodes = detectModel.inputs(0);
+            encodes.rewind();
+            while (encodes.hasRemaining())
+                encodes.putFloat(-1);
+        }
+        this.melOffset = 0;
+        this.encodeOffset = 0;
+    }
+
+    @Override
+    public int getGate() {
+        return INACTIVE;
+    }
+
+    @Override
+    public void onGateChange(SpeechContext context, boolean open) {
+        // the gate closes on activation, and the trigger won't see the
+        // deactivation frame, so record an activation here in order to
+        // reset the detector when the gate reopens
+        if (!open) {
+            this.isActive = true;
+            this.isSpeech = false;
+        } else if (context.getFeatures() != null) {
+            // skip any shared mel frames published while the gate was closed
+            this.melSequence = context.getFeatures().getFrameStart();
+        }
+    }
+
+    private void consume(SpeechContext context) {
+        MelFrames features = context.getFeatures();
+        if (features == null)
+            return;
+
+        // run the mel frames published since the last audio frame
+        // through the remainder of the detection pipeline if speech
+        long last = features.getSequence();
+        for (long seq = this.melSequence + 1; seq <= last; seq++) {
+            float[] frame = features.get(seq);
+            if (frame != null && context.isSpeech()) {
+                if (this.cascade == null) {
+                    encode(context, frame);
+                } else {
+                    int count = this.cascade.admit(frame);
+                    for (int age = count - 1; age >= 0; age--)
+                        encode(context, this.cascade.get(age));
+                }
+            }
         }
+        this.melSequence = last;
     }
 
     private void sample(SpeechContext context, ByteBuffer buffer) {
@@ -396,90 +666,132 @@ public final class WakewordTrigger implements SpeechProcessor {
 
     private void analyze(SpeechContext context) {
         // apply the windowing function to the current sample window
+        this.sampleWindow.read(this.fftFrame, 0, this.fftFrame.length);
         for (int i = 0; i < this.fftFrame.length; i++)
-            this.fftFrame[i] = this.sampleWindow.read() * this.fftWindow[i];
+            this.fftFrame[i] *= this.fftWindow[i];
 
         // compute the stft
         this.fft.realForward(this.fftFrame);
 
-        filter(context);
-    }
-
-    private void filter(SpeechContext context) {
-        // decode the FFT outputs into the filter model's inputs
-        // . compute the magnitude (abs) of each complex stft component
-        // . the first and last stft components contain only real parts
-        //   and are stored in the first two positions of the stft output
-        // . the remaining components contain real/imaginary parts
-        this.filterModel.inputs(0).rewind();
-        this.filterModel.inputs(0).putFloat(this.fftFrame[0]);
-        for (int i = 1; i < this.fftFrame.length / 2; i++) {
-            float re = this.fftFrame[i * 2 + 0];
-            float im = this.fftFrame[i * 2 + 1];
-            float ab = (float) Math.sqrt(re * re + im * im);
-            this.filterModel.inputs(0).putFloat(ab);
+        // decode the FFT outputs into the stft magnitudes
+        MelFilterbank.magnitudes(this.fftFrame, this.spectrum);
+
+        // run the magnitudes through the remainder of the detection
+        // pipeline, once the first stage (if any) has fired
+        if (this.cascade == null) {
+            filter(context, this.spectrum);
+        } else {
+            int count = this.cascade.admit(this.spectrum);
+            for (int age = count - 1; age >= 0; age--)
+                filter(context, this.cascade.get(age));
         }
-        this.filterModel.inputs(0).putFloat(this.fftFrame[1]);
-
-        // execute the mel filterbank tensorflow model
-        this.filterModel.run();
+    }
 
-        // copy the current mel frame into the mel window
-        this.frameWindow.rewind().seek(this.melWidth);
-        while (this.filterModel.outputs(0).hasRemaining()) {
-            this.frameWindow.write(
-                  this.filterModel.outputs(0).getFloat());
+    private void filter(SpeechContext context, float[] magnitudes) {
+        // compute the current mel frame, projecting the magnitudes
+        // directly or via the mel filterbank tensorflow model
+        if (this.filterbank != null) {
+            this.filterbank.apply(magnitudes, this.melFrame);
+        } else {
+            FloatBuffer input = this.filterModel.floatInputs(0);
+            input.rewind();
+            input.put(magnitudes);
+            this.filterModel.run();
+            this.filterModel.floatOutputs(0).get(this.melFrame);
         }
 
-        encode(context);
+        encode(context, this.melFrame);
     }
 
-    private void encode(SpeechContext context) {
-        // transfer the mel filterbank window to the encoder model's inputs
-        this.frameWindow.rewind();
-        this.encodeModel.inputs(0).rewind();
-        while (!this.frameWindow.isEmpty()) {
-            this.encodeModel.inputs(0).putFloat(this.frameWindow.read());
+    private void encode(SpeechContext context, float[] frame) {
+        FloatBuffer input = this.encodeModel.floatInputs(0);
+        if (this.rollingInputs) {
+            // overwrite the oldest mel frame in the encoder model's inputs
+            input.position(this.melOffset * this.melWidth);
+            input.put(frame, 0, this.melWidth);
+            this.melOffset = (this.melOffset + 1) % this.melLength;
+            setOffset(this.encodeModel, ENCODE_OFFSET_INPUT, this.melOffset);
+        } else {
+            // copy the current mel frame into the mel window, and
+            // transfer the window to the encoder model's inputs
+            this.frameWindow.rewind().seek(this.melWidth);
+            this.frameWindow.write(frame, 0, this.melWidth);
+            input.rewind();
+            this.frameWindow.rewind().read(input);
         }
 
         // run the encoder tensorflow model
         this.encodeModel.run();
 
-        // copy the encoder output into the encode window
-        this.encodeWindow.rewind().seek(this.encodeWidth);
-        while (this.encodeModel.outputs(0).hasRemaining()) {
-            this.encodeWindow.write(
-                  this.encodeModel.outputs(0).getFloat());
-        }
-
         detect(context);
     }
 
     private void detect(SpeechContext context) {
-        // transfer the encoder window to the detector model's inputs
-        this.encodeWindow.rewind();
-        this.detectModel.inputs(0).rewind();
-        while (!this.encodeWindow.isEmpty())
-            this.detectModel.inputs(0).putFloat(this.encodeWindow.read());
-
-        // run the classifier tensorflow model
-        this.detectModel.run();
-
-        // check the classifier's output and activate
-        float posterior = this.detectModel.outputs(0).getFloat();
-        if (posterior > this.posteriorMax)
-            this.posteriorMax = posterior;
-        if (posterior > this.posteriorThreshold)
-            activate(context);
+        // copy the encoder output into the encode window,
+        // unless it is written directly to the detector inputs
+        FloatBuffer encoded = this.encodeModel.floatOutputs(0);
+        if (!this.rollingInputs) {
+            this.encodeWindow.rewind().seek(this.encodeWidth);
+            this.encodeWindow.write(encoded);
+        }
+
+        // run each phrase's detector, and select the phrase with
+        // the highest posterior above its threshold
+        int detected = -1;
+        float detectedPosterior = 0;
+        int oldest = (this.encodeOffset + 1) % this.encodeLength;
+        for (int i = 0; i < this.detectModels.length; i++) {
+            TensorflowModel detectModel = this.detectModels[i];
+            FloatBuffer input = detectModel.floatInputs(0);
+            if (this.rollingInputs) {
+                // overwrite the oldest encoder output in the detector
+                // model's inputs
+                input.position(this.encodeOffset * this.encodeWidth);
+                encoded.rewind();
+                input.put(encoded);
+                setOffset(detectModel, DETECT_OFFSET_INPUT, oldest);
+            } else {
+                // transfer the encode window to the detector model's inputs
+                input.rewind();
+                this.encodeWindow.rewind().read(input);
+            }
+
+            // run the classifier tensorflow model
+            detectModel.run();
+
+            // check the classifier's output
+            float posterior = detectModel.outputs(0).getFloat();
+            if (posterior > this.posteriorMax)
+                this.posteriorMax = posterior;
+            if (posterior > this.posteriorThresholds[i]
+                    && (detected < 0 || posterior > detectedPosterior)) {
+                detected = i;
+                detectedPosterior = posterior;
+            }
+        }
+        if (this.rollingInputs)
+            this.encodeOffset = oldest;
+
+        if (detected >= 0)
+            activate(context, detected);
     }
 
-    private void activate(SpeechContext context) {
+    private void activate(SpeechContext context, int phrase) {
         trace(context);
+        context.setWakePhrase(this.phrases[phrase]);
         context.setActive(true);
     }
 
     private void trace(SpeechContext context) {
-        context.traceInfo(String.format("wake: %f", this.posteriorMax));
+        context.traceValue(
+              EventTracer.Level.INFO,
+              "wake: %f",
+              this.posteriorMax);
+        if (this.cascade != null)
+            context.traceValue(
+                  EventTracer.Level.PERF,
+                  "wake: cascade %f",
+                  this.cascade.getPassRate());
     }
 
     private float[] hannWindow(int len) {
@@ -132,7 +132,10 @@ public class AutomaticGainControl implements SpeechProcessor {
             // trace them once per tracing interval
             this.counter %= this.maxCounter;
             if (this.counter == 0)
-                context.tracePerf("agc: %.4f", this.level);
+                context.traceValue(
+                      EventTracer.Level.PERF,
+                      "agc: %.4f",
+                      this.level);
         }
     }
 
@@ -0,0 +1,386 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import io.spokestack.spokestack.util.EventTracer;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncStageTest implements OnSpeechEventListener {
+    private final List<SpeechContext.Event> events = new ArrayList<>();
+
+    @Test
+    public void testEvents() throws Exception {
+        SpeechConfig config = config();
+        config.put("trace-level", EventTracer.Level.DEBUG.value());
+        SpeechContext context = context(config);
+        ScriptStage script = new ScriptStage();
+        AsyncStage stage = new AsyncStage(config, script);
+        assertSame(script, stage.getStage());
+        assertEquals(128, stage.getCapacity());
+        context.setSpeech(true);
+
+        // the stage activates on frame 2, recognizes on frame 4,
+        // and fails on frame 6
+        for (int i = 0; i < 8; i++) {
+            stage.process(context, frame(i));
+            awaitProcessed(stage, i + 1);
+        }
+        stage.close();
+        assertEquals(1, script.closed.get());
+        assertEquals(0, script.errors.get());
+        assertEquals(8, stage.getProcessed());
+        assertEquals(0, stage.getOverflows());
+
+        // events are delivered on the pipeline's context, in order
+        assertEquals(SpeechContext.Event.ACTIVATE, this.events.get(0));
+        assertEquals(SpeechContext.Event.TRACE, this.events.get(1));
+        assertEquals(SpeechContext.Event.RECOGNIZE, this.events.get(2));
+        assertEquals(SpeechContext.Event.DEACTIVATE, this.events.get(3));
+        assertEquals(SpeechContext.Event.ERROR, this.events.get(4));
+        assertEquals(5, this.events.size());
+        assertFalse(context.isActive());
+        assertEquals("test", context.getTranscript());
+        assertEquals(0.5, context.getConfidence());
+        assertEquals("recognized", context.getMessage());
+        assertEquals("fail", context.getError().getMessage());
+
+        // the stage saw the pipeline's frames and speech state
+        assertEquals(8, script.frames.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, (int) script.frames.get(i));
+        }
+        assertTrue(script.speech);
+    }
+
+    @Test
+    public void testActivation() throws Exception {
+        SpeechConfig config = config();
+        SpeechContext context = context(config);
+        ScriptStage script = new ScriptStage();
+        AsyncStage stage = new AsyncStage(config, script);
+
+        // activation by other stages is visible to the async stage
+        context.setActive(true);
+        stage.process(context, frame(100));
+        awaitProcessed(stage, 1);
+        assertTrue(script.active);
+
+        context.setActive(false);
+        stage.process(context, frame(101));
+        awaitProcessed(stage, 2);
+        assertFalse(script.active);
+
+        // resets are performed on the stage's thread
+        stage.reset();
+        while (script.resets.get() == 0) {
+            Thread.sleep(1);
+        }
+        stage.close();
+        stage.close();
+        assertEquals(1, script.closed.get());
+        assertEquals(0, script.errors.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testAsyncDispatch() throws Exception {
+        SpeechConfig config = config();
+        config.put("event-dispatch", "async");
+        int dispatchers = countDispatchers();
+        SpeechContext context = context(config);
+        ScriptStage script = new ScriptStage();
+        AsyncStage stage = new AsyncStage(config, script);
+
+        // activation synced from the pipeline is not echoed back,
+        // even though the pipeline dispatches asynchronously
+        context.setActive(true);
+        stage.process(context, frame(100));
+        awaitProcessed(stage, 1);
+        context.setActive(false);
+        stage.process(context, frame(101));
+        awaitProcessed(stage, 2);
+        stage.process(context, frame(102));
+        awaitProcessed(stage, 3);
+        stage.close();
+        assertFalse(context.isActive());
+        assertEquals(0, script.errors.get());
+
+        // the shadow context starts no dispatch threads of its own
+        context.stopDispatch();
+        while (countDispatchers() > dispatchers) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, context.getDispatcher().getDelivered());
+        assertEquals(SpeechContext.Event.ACTIVATE, this.events.get(0));
+        assertEquals(SpeechContext.Event.DEACTIVATE, this.events.get(1));
+    }
+
+    @Test
+    public void testWakePhrase() throws Exception {
+        SpeechConfig config = config();
+        SpeechContext context = context(config);
+        AsyncStage stage = new AsyncStage(config, new ScriptStage());
+
+        // the wake phrase is applied along with the stage's activation,
+        // which is delivered at the start of the following frame
+        for (int i = 0; i < 4; i++) {
+            stage.process(context, frame(i));
+            awaitProcessed(stage, i + 1);
+        }
+        assertTrue(context.isActive());
+        assertEquals("script", context.getWakePhrase());
+
+        // and is detached on deactivation
+        for (int i = 4; i < 6; i++) {
+            stage.process(context, frame(i));
+            awaitProcessed(stage, i + 1);
+        }
+        assertFalse(context.isActive());
+        assertNull(context.getWakePhrase());
+        stage.close();
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        SpeechConfig config = config();
+        config.put("async-queue-width", 40);
+        SpeechContext context = context(config);
+        BlockingStage blocking = new BlockingStage();
+        AsyncStage stage = new AsyncStage(config, blocking);
+        assertEquals(4, stage.getCapacity());
+
+        // a stalled stage does not block the audio thread;
+        // frames are dropped once its queue is full
+        for (int i = 0; i < 10; i++) {
+            stage.process(context, frame(i));
+        }
+        assertTrue(blocking.started.await(1, TimeUnit.SECONDS));
+        assertTrue(stage.getOverflows() > 0);
+        assertEquals(4, stage.getMaxDepth());
+
+        blocking.release.countDown();
+        stage.close();
+        assertEquals(10, stage.getProcessed() + stage.getOverflows());
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseWithEventsQueued() throws Exception {
+        SpeechConfig config = config();
+        config.put("trace-level", EventTracer.Level.DEBUG.value());
+        SpeechContext context = context(config);
+        ChattyStage chatty = new ChattyStage();
+        AsyncStage stage = new AsyncStage(config, chatty);
+
+        // the stage raises more events than its event queue can hold,
+        // so it waits for them to be applied while the pipeline closes it
+        stage.process(context, frame(0));
+        assertTrue(chatty.started.await(1, TimeUnit.SECONDS));
+        stage.close();
+        assertEquals(1, stage.getProcessed());
+        assertEquals(ChattyStage.EVENTS, this.events.size());
+        for (SpeechContext.Event event : this.events) {
+            assertEquals(SpeechContext.Event.TRACE, event);
+        }
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        String stageClass =
+              "io.spokestack.spokestack.AsyncStageTest$BlockingStage";
+        SpeechPipeline pipeline = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.AsyncStageTest$Input")
+              .addStageClass(stageClass)
+              .addStageClass(
+                  "io.spokestack.spokestack.AsyncStageTest$ScriptStage")
+              .setProperty("async-stages", " " + stageClass + " ")
+              .addOnSpeechEventListener(this)
+              .build();
+        assertTrue(pipeline.getStages().isEmpty());
+
+        pipeline.start();
+        List<SpeechProcessor> stages = pipeline.getStages();
+        assertEquals(2, stages.size());
+        assertTrue(stages.get(0) instanceof AsyncStage);
+        assertTrue(((AsyncStage) stages.get(0)).getStage()
+              instanceof BlockingStage);
+        assertTrue(stages.get(1) instanceof ScriptStage);
+        assertThrows(UnsupportedOperationException.class,
+              () -> stages.remove(0));
+
+        // the blocked stage doesn't stall the stages after it
+        ScriptStage script = (ScriptStage) stages.get(1);
+        while (script.frames.size() < 10) {
+            Thread.sleep(1);
+        }
+        BlockingStage blocking =
+              (BlockingStage) ((AsyncStage) stages.get(0)).getStage();
+        blocking.release.countDown();
+        pipeline.stop();
+        assertTrue(pipeline.getStages().isEmpty());
+        assertEquals(1, blocking.closed.get());
+    }
+
+    private SpeechConfig config() {
+        SpeechConfig config = new SpeechConfig();
+        config.put("sample-rate", 16000);
+        config.put("frame-width", 10);
+        config.put("buffer-width", 20);
+        return config;
+    }
+
+    private SpeechContext context(SpeechConfig config) {
+        SpeechContext context = new SpeechContext(config);
+        context.addOnSpeechEventListener(this);
+        return context;
+    }
+
+    private int countDispatchers() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("Spokestack-event-dispatcher")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private ByteBuffer frame(int sequence) {
+        ByteBuffer frame = ByteBuffer
+              .allocateDirect(320)
+              .order(ByteOrder.nativeOrder());
+        frame.putInt(0, sequence);
+        return frame;
+    }
+
+    private void awaitProcessed(AsyncStage stage, long count)
+          throws InterruptedException {
+        while (stage.getProcessed() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    public void onEvent(@NonNull SpeechContext.Event event,
+                        @NonNull SpeechContext context) {
+        this.events.add(event);
+    }
+
+    public static class Input implements SpeechInput {
+        public Input(SpeechConfig config) {
+        }
+
+        public void close() {
+        }
+
+        public void read(SpeechContext context, ByteBuffer frame)
+              throws InterruptedException {
+            context.setSpeech(true);
+            Thread.sleep(1);
+        }
+    }
+
+    public static class ScriptStage implements SpeechProcessor {
+        public final List<Integer> frames =
+              Collections.synchronizedList(new ArrayList<>());
+        public final AtomicInteger resets = new AtomicInteger();
+        public final AtomicInteger closed = new AtomicInteger();
+        public final AtomicInteger errors = new AtomicInteger();
+        public volatile boolean active;
+        public volatile boolean speech;
+        private Thread thread;
+
+        public ScriptStage() {
+        }
+
+        public ScriptStage(SpeechConfig config) {
+        }
+
+        public void reset() {
+            checkThread();
+            this.resets.incrementAndGet();
+        }
+
+        public void close() {
+            this.closed.incrementAndGet();
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame)
+              throws Exception {
+            checkThread();
+            this.active = context.isActive();
+            this.speech = context.isSpeech();
+            int sequence = frame.getInt(0);
+            this.frames.add(sequence);
+            if (sequence == 2) {
+                context.setWakePhrase("script");
+                context.setActive(true);
+            } else if (sequence == 4) {
+                context.setTranscript("test");
+                context.setConfidence(0.5);
+                context.traceDebug("recognized");
+                context.dispatch(SpeechContext.Event.RECOGNIZE);
+                context.setActive(false);
+            } else if (sequence == 6) {
+                throw new Exception("fail");
+            }
+        }
+
+        private void checkThread() {
+            if (this.thread == null) {
+                this.thread = Thread.currentThread();
+            } else if (this.thread != Thread.currentThread()) {
+                this.errors.incrementAndGet();
+            }
+        }
+    }
+
+    public static class ChattyStage implements SpeechProcessor {
+        public static final int EVENTS = 500;
+        public final CountDownLatch started = new CountDownLatch(1);
+
+        public void reset() {
+        }
+
+        public void close() {
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            this.started.countDown();
+            for (int i = 0; i < EVENTS; i++) {
+                context.traceDebug("event %d", i);
+            }
+        }
+    }
+
+    public static class BlockingStage implements SpeechProcessor {
+        public final CountDownLatch started = new CountDownLatch(1);
+        public final CountDownLatch release = new CountDownLatch(1);
+        public final AtomicInteger closed = new AtomicInteger();
+
+        public BlockingStage() {
+        }
+
+        public BlockingStage(SpeechConfig config) {
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+            this.closed.incrementAndGet();
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame)
+              throws InterruptedException {
+            this.started.countDown();
+            this.release.await();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.mockito.Mockito.*;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+public class FeatureExtractorTest {
+    @Test
+    public void testConstruction() throws Exception {
+        final TensorflowModel.Loader loader =
+            spy(TensorflowModel.Loader.class);
+        final TestModel filter = mock(TestModel.class);
+        doReturn(filter).when(loader).load();
+
+        // the filter path defaults to the wakeword filter
+        new FeatureExtractor(testConfig(), loader).close();
+        verify(loader).setPath("filter-path");
+        verify(filter).close();
+
+        // invalid fft window size
+        assertThrows(IllegalArgumentException.class, () ->
+            new FeatureExtractor(
+                testConfig().put("fft-window-size", 161), loader));
+
+        // invalid fft window type
+        assertThrows(IllegalArgumentException.class, () ->
+            new FeatureExtractor(
+                testConfig().put("fft-window-type", "hamming"), loader));
+
+        // explicit filter path
+        new FeatureExtractor(
+            testConfig().put("mel-filter-path", "mel-path"), loader);
+        verify(loader).setPath("mel-path");
+
+        // java filterbanks don't load the filter model
+        new FeatureExtractor(
+            testConfig()
+                .put("mel-filter-type", "java")
+                .put("mel-filter-path", "java-path"),
+            loader).close();
+        verify(loader, never()).setPath("java-path");
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        SpeechConfig config = testConfig();
+        TestModel filter = mock(TestModel.class);
+        TensorflowModel.Loader loader = spy(TensorflowModel.Loader.class);
+        doReturn(ByteBuffer
+                    .allocateDirect(81 * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(filter).inputs(0);
+        doReturn(ByteBuffer
+                    .allocateDirect(40 * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(filter).outputs(0);
+        TestModel.bindViews(filter);
+        doCallRealMethod().when(filter).run();
+        doReturn(filter).when(loader).load();
+
+        FeatureExtractor extractor = new FeatureExtractor(config, loader);
+        SpeechContext context = new SpeechContext(config);
+        ByteBuffer frame = ByteBuffer.allocateDirect(320 * 2);
+
+        // no frames are computed without speech or activation,
+        // but the sample window is still filled
+        extractor.process(context, frame);
+        MelFrames features = context.getFeatures();
+        assertNotNull(features);
+        assertEquals(40, features.getWidth());
+        assertEquals(0, features.getSequence());
+        assertNull(features.get(1));
+        verify(filter, never()).run();
+
+        // each hop in a speech frame is published
+        context.setSpeech(true);
+        filter.setOutputs(1, 2, 3);
+        extractor.process(context, frame);
+        assertEquals(0, features.getFrameStart());
+        assertEquals(2, features.getSequence());
+        assertEquals(1, features.get(1)[0]);
+        assertEquals(3, features.get(2)[2]);
+        verify(filter, times(2)).run();
+
+        // as is each hop in an active frame
+        context.setSpeech(false);
+        context.setActive(true);
+        extractor.process(context, frame);
+        assertEquals(2, features.getFrameStart());
+        assertEquals(4, features.getSequence());
+
+        // older frames are eventually discarded
+        for (int i = 0; i < features.getCapacity(); i++)
+            extractor.process(context, frame);
+        assertNull(features.get(1));
+        assertNotNull(features.get(features.getSequence()));
+        assertNull(features.get(features.getSequence() + 1));
+    }
+
+    public SpeechConfig testConfig() {
+        return new SpeechConfig()
+            .put("sample-rate", 16000)
+            .put("frame-width", 20)
+            .put("pre-emphasis", 0.97)
+            .put("fft-hop-length", 10)
+            .put("fft-window-size", 160)
+            .put("mel-frame-width", 40)
+            .put("wake-filter-path", "filter-path");
+    }
+
+    public static class TestModel extends TensorflowModel {
+        public TestModel(TensorflowModel.Loader loader) {
+            super(loader);
+        }
+
+        public void run() {
+            this.inputs(0).rewind();
+            this.outputs(0).rewind();
+            this.floatInputs(0).rewind();
+            this.floatOutputs(0).rewind();
+        }
+
+        public static void bindViews(TestModel model) {
+            doReturn(model.inputs(0).asFloatBuffer())
+                .when(model).floatInputs(0);
+            doReturn(model.outputs(0).asFloatBuffer())
+                .when(model).floatOutputs(0);
+        }
+
+        public final void setOutputs(float ...outputs) {
+            this.outputs(0).rewind();
+            for (float o: outputs)
+                this.outputs(0).putFloat(o);
+            this.outputs(0).rewind();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package io.spokestack.spokestack;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileInputTest {
+    private static final int FRAME_SIZE = 320;
+
+    @Test
+    public void testConstruction() throws Exception {
+        SpeechConfig config = testConfig();
+
+        // missing file
+        config.put("input-path", "missing.wav");
+        assertThrows(IOException.class, () -> new FileInput(config));
+
+        // invalid sample rate
+        byte[] wave = wave(16, 8000, 1, 16, samples(10));
+        assertThrows(IllegalArgumentException.class, () ->
+              new FileInput(config, ByteBuffer.wrap(wave)));
+
+        // invalid sample format
+        byte[] stereo = wave(16, 16000, 2, 16, samples(10));
+        assertThrows(IllegalArgumentException.class, () ->
+              new FileInput(config, ByteBuffer.wrap(stereo)));
+
+        // truncated header
+        byte[] truncated = new byte[16];
+        System.arraycopy(wave, 0, truncated, 0, truncated.length);
+        assertThrows(EOFException.class, () ->
+              new FileInput(config, ByteBuffer.wrap(truncated)));
+    }
+
+    @Test
+    public void testWaveFile() throws Exception {
+        File file = File.createTempFile("spokestack", ".wav");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(wave(18, 16000, 1, 16, samples(FRAME_SIZE)));
+        }
+
+        SpeechConfig config = testConfig()
+              .put("input-path", file.getAbsolutePath());
+        try (FileInput input = new FileInput(config)) {
+            verifySamples(input, FRAME_SIZE);
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        SpeechConfig config = testConfig();
+        byte[] wave = wave(16, 16000, 1, 16, samples(FRAME_SIZE + 10));
+        try (FileInput input =
+                   new FileInput(config, new ByteArrayInputStream(wave))) {
+            verifySamples(input, FRAME_SIZE + 10);
+        }
+    }
+
+    @Test
+    public void testTrailingChunk() throws Exception {
+        SpeechConfig config = testConfig();
+        byte[] wave = wave(16, 16000, 1, 16, samples(FRAME_SIZE + 10));
+
+        // chunks following the audio data are not read as audio
+        ByteBuffer trailed = ByteBuffer
+              .allocate(wave.length + 8 + 64)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        trailed.put(wave);
+        trailed.put("LIST".getBytes());
+        trailed.putInt(64);
+        while (trailed.hasRemaining()) {
+            trailed.put((byte) 0x7f);
+        }
+        byte[] bytes = trailed.array();
+        try (FileInput input = new FileInput(config, ByteBuffer.wrap(bytes))) {
+            verifySamples(input, FRAME_SIZE + 10);
+        }
+        try (FileInput input =
+                   new FileInput(config, new ByteArrayInputStream(bytes))) {
+            verifySamples(input, FRAME_SIZE + 10);
+        }
+    }
+
+    @Test
+    public void testRawAudio() throws Exception {
+        SpeechConfig config = testConfig();
+        byte[] raw = samples(FRAME_SIZE * 2 + 3);
+        try (FileInput input = new FileInput(config, ByteBuffer.wrap(raw))) {
+            verifySamples(input, FRAME_SIZE * 2 + 3);
+        }
+
+        // tiny raw streams are shorter than a wave header
+        byte[] tiny = samples(3);
+        try (FileInput input =
+                   new FileInput(config, new ByteArrayInputStream(tiny))) {
+            verifySamples(input, 3);
+        }
+    }
+
+    private void verifySamples(FileInput input, int count) throws Exception {
+        SpeechContext context = new SpeechContext(testConfig());
+        ByteBuffer frame = ByteBuffer
+              .allocateDirect(FRAME_SIZE * 2)
+              .order(ByteOrder.LITTLE_ENDIAN);
+
+        int sample = 0;
+        int frames = (count + FRAME_SIZE - 1) / FRAME_SIZE;
+        for (int f = 0; f < frames; f++) {
+            input.read(context, frame);
+            assertEquals(0, frame.position());
+            for (int i = 0; i < FRAME_SIZE; i++, sample++) {
+                short expected = sample < count ? (short) sample : 0;
+                assertEquals(expected, frame.getShort());
+            }
+        }
+
+        // further reads signal the end of the stream
+        assertThrows(EOFException.class, () -> input.read(context, frame));
+        assertThrows(EOFException.class, () -> input.read(context, frame));
+    }
+
+    private SpeechConfig testConfig() {
+        return new SpeechConfig()
+              .put("sample-rate", 16000)
+              .put("frame-width", 20);
+    }
+
+    private static byte[] samples(int count) {
+        ByteBuffer buffer = ByteBuffer
+              .allocate(count * 2)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort((short) i);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] wave(int formatSize,
+                               int sampleRate,
+                               int channels,
+                               int bits,
+                               byte[] data) {
+        ByteBuffer buffer = ByteBuffer
+              .allocate(12 + 8 + formatSize + 8 + 2 + 8 + data.length)
+              .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes());
+        buffer.putInt(buffer.capacity() - 8);
+        buffer.put("WAVE".getBytes());
+        buffer.put("fmt ".getBytes());
+        buffer.putInt(formatSize);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) channels);
+        buffer.putInt(sampleRate);
+        buffer.putInt(sampleRate * channels * bits / 8);
+        buffer.putShort((short) (channels * bits / 8));
+        buffer.putShort((short) bits);
+        buffer.position(buffer.position() + formatSize - 16);
+        // unknown chunks (with odd sizes) are skipped
+        buffer.put("junk".getBytes());
+        buffer.putInt(1);
+        buffer.put((byte) 0).put((byte) 0);
+        buffer.put("data".getBytes());
+        buffer.putInt(data.length);
+        buffer.put(data);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,136 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameRingTest {
+    @Test
+    public void testConstruction() {
+        assertThrows(IllegalArgumentException.class,
+              () -> new FrameRing(0, 4, 10));
+        assertThrows(IllegalArgumentException.class,
+              () -> new FrameRing(3, 4, 0));
+
+        FrameRing ring = new FrameRing(3, 4, 10);
+        assertEquals(3, ring.size());
+        assertEquals(4, ring.getFrameSize());
+        assertEquals(10, ring.getFrameWidth());
+        assertEquals(0, ring.getSequence());
+        for (ByteBuffer frame : ring) {
+            assertTrue(frame.isDirect());
+            assertEquals(ByteOrder.nativeOrder(), frame.order());
+            assertEquals(4, frame.capacity());
+            assertEquals(0, frame.getInt(0));
+        }
+
+        // structural modifications are unsupported
+        ByteBuffer frame = ByteBuffer.allocate(4);
+        assertThrows(UnsupportedOperationException.class,
+              () -> ring.addLast(frame));
+        assertThrows(UnsupportedOperationException.class,
+              () -> ring.add(frame));
+        assertThrows(UnsupportedOperationException.class,
+              ring::removeFirst);
+        assertThrows(UnsupportedOperationException.class,
+              ring::poll);
+        assertThrows(UnsupportedOperationException.class,
+              ring::clear);
+    }
+
+    @Test
+    public void testRotation() {
+        FrameRing ring = new FrameRing(3, 4, 10);
+
+        // frames are recycled oldest first
+        ByteBuffer oldest = ring.getFirst();
+        for (int i = 1; i <= 4; i++) {
+            ByteBuffer frame = ring.rotate();
+            frame.putInt(0, i);
+            assertSame(frame, ring.getLast());
+            assertEquals(i, ring.getSequence());
+        }
+        assertSame(oldest, ring.getLast());
+
+        // the ring is ordered from oldest to newest
+        assertEquals(2, ring.getFirst().getInt(0));
+        assertEquals(2, ring.peek().getInt(0));
+        assertEquals(3, ring.get(1).getInt(0));
+        assertEquals(4, ring.peekLast().getInt(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> ring.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> ring.get(-1));
+
+        int expected = 2;
+        for (ByteBuffer frame : ring) {
+            assertEquals(expected++, frame.getInt(0));
+        }
+        Iterator<ByteBuffer> reverse = ring.descendingIterator();
+        for (int i = 4; i >= 2; i--) {
+            assertEquals(i, reverse.next().getInt(0));
+        }
+        assertFalse(reverse.hasNext());
+        assertThrows(NoSuchElementException.class, reverse::next);
+    }
+
+    @Test
+    public void testViews() {
+        FrameRing ring = new FrameRing(4, 4, 10);
+        for (int i = 1; i <= 6; i++) {
+            ring.rotate().putInt(0, i);
+        }
+
+        // frame views are read-only and share content
+        ByteBuffer view = ring.view(3);
+        assertTrue(view.isReadOnly());
+        assertEquals(ByteOrder.nativeOrder(), view.order());
+        assertEquals(6, view.getInt(0));
+        assertThrows(ReadOnlyBufferException.class, () -> view.putInt(0, 0));
+        ring.getLast().putInt(0, 7);
+        assertEquals(7, view.getInt(0));
+        ring.getLast().putInt(0, 6);
+
+        // contiguous slices
+        ByteBuffer[] slices = ring.slices(1);
+        assertEquals(1, slices.length);
+        assertEquals(4, slices[0].remaining());
+        assertEquals(6, slices[0].getInt(0));
+        assertEquals(0, ring.slices(0).length);
+        assertThrows(IndexOutOfBoundsException.class, () -> ring.slices(5));
+
+        // wrapped slices
+        slices = ring.slices(4);
+        assertEquals(2, slices.length);
+        assertEquals(8, slices[0].remaining());
+        assertEquals(3, slices[0].getInt(0));
+        assertEquals(4, slices[0].getInt(4));
+        assertEquals(8, slices[1].remaining());
+        assertEquals(5, slices[1].getInt(0));
+        assertEquals(6, slices[1].getInt(4));
+
+        // slices by duration, rounded up to whole frames
+        assertEquals(0, ring.recent(0).length);
+        slices = ring.recent(15);
+        assertEquals(1, slices.length);
+        assertEquals(8, slices[0].remaining());
+        assertEquals(5, slices[0].getInt(0));
+        assertEquals(16, ring.recent(40)[0].remaining()
+              + ring.recent(40)[1].remaining());
+        assertEquals(2, ring.recent(1000).length);
+        assertThrows(IllegalArgumentException.class, () -> ring.recent(-1));
+
+        // bulk copies
+        ByteBuffer dest = ByteBuffer
+              .allocate(16)
+              .order(ByteOrder.nativeOrder());
+        assertEquals(12, ring.copyTo(3, dest));
+        assertEquals(12, dest.position());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 4, dest.getInt(i * 4));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.spokestack.spokestack;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assume.*;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+/**
+ * per-hop latency of the mel filterbank projection, run via a filter model
+ * and via the java filterbank, on the host CPU. this benchmark requires a
+ * filter model and the native tensorflow-lite library, so it is not run
+ * with the unit tests. it is run as follows:
+ *
+ * mvn test -Dtest=MelFilterbankBenchmark \
+ *   -Dmel.benchmark.model=path/to/filter.tflite \
+ *   -Dmel.benchmark.runs=10000
+ *
+ * the java filterbank is derived from the model (see the derived
+ * mel-filter-type), or computed from the default configuration if the model
+ * is not a linear projection.
+ */
+public class MelFilterbankBenchmark {
+    @Test
+    public void benchmark() throws Exception {
+        String path = System.getProperty("mel.benchmark.model");
+        assumeTrue(path != null);
+        int runs = Integer.getInteger("mel.benchmark.runs", 10000);
+
+        try (TensorflowModel model = new TensorflowModel.Loader()
+                .setPath(path)
+                .setThreadCount(1)
+                .load()) {
+            int[] inputShape = model.getInputShape(0);
+            int[] outputShape = model.getOutputShape(0);
+            int bins = inputShape[inputShape.length - 1];
+            int melWidth = outputShape[outputShape.length - 1];
+
+            String type = MelFilterbank.TYPE_DERIVED;
+            MelFilterbank filterbank =
+                MelFilterbank.derive(model, bins, melWidth);
+            if (filterbank == null) {
+                type = MelFilterbank.TYPE_JAVA;
+                filterbank = MelFilterbank.triangular(16000, bins, melWidth,
+                    MelFilterbank.DEFAULT_MIN_FREQUENCY,
+                    MelFilterbank.DEFAULT_MAX_FREQUENCY);
+            }
+
+            float[][] spectra = new float[64][bins];
+            Random random = new Random(42);
+            for (float[] spectrum : spectra)
+                for (int i = 0; i < bins; i++)
+                    spectrum[i] = random.nextFloat();
+            float[] frame = new float[melWidth];
+
+            System.out.printf("%-8s %8s %8s %10s %10s%n",
+                "filter", "bins", "mels", "mean (us)", "p99 (us)");
+            measure(MelFilterbank.TYPE_MODEL, bins, melWidth, runs, i -> {
+                FloatBuffer input = model.floatInputs(0);
+                input.rewind();
+                input.put(spectra[i % spectra.length]);
+                model.run();
+                model.floatOutputs(0).get(frame);
+            });
+            MelFilterbank java = filterbank;
+            measure(type, bins, melWidth, runs, i ->
+                java.apply(spectra[i % spectra.length], frame));
+        }
+    }
+
+    private void measure(String name,
+                         int bins,
+                         int melWidth,
+                         int runs,
+                         Hop hop) {
+        // warm up before timing runs
+        for (int i = 0; i < Math.min(runs, 1000); i++)
+            hop.run(i);
+        long[] latencies = new long[runs];
+        long total = 0;
+        for (int i = 0; i < runs; i++) {
+            long begin = System.nanoTime();
+            hop.run(i);
+            latencies[i] = System.nanoTime() - begin;
+            total += latencies[i];
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %8d %8d %10.2f %10.2f%n",
+            name,
+            bins,
+            melWidth,
+            total / 1e3 / runs,
+            latencies[(int) (runs * 0.99)] / 1e3);
+    }
+
+    private interface Hop {
+        void run(int index);
+    }
+}
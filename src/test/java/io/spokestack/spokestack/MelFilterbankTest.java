@@ -0,0 +1,190 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.mockito.Mockito.*;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+public class MelFilterbankTest {
+    @Test
+    public void testConstruction() throws Exception {
+        // the default type runs the filter model
+        assertTrue(MelFilterbank.needsModel(new SpeechConfig(), ""));
+        assertNull(MelFilterbank.create(
+            new SpeechConfig(), "", null, 512, 40));
+
+        // java filterbanks don't need the model
+        SpeechConfig config = new SpeechConfig()
+            .put("sample-rate", 16000)
+            .put("keyword-mel-filter-type", "java");
+        assertTrue(MelFilterbank.needsModel(config, ""));
+        assertFalse(MelFilterbank.needsModel(config, "keyword-"));
+        MelFilterbank filterbank =
+            MelFilterbank.create(config, "keyword-", null, 512, 40);
+        assertEquals(257, filterbank.getBins());
+        assertEquals(40, filterbank.getWidth());
+
+        // invalid type
+        assertThrows(IllegalArgumentException.class, () ->
+            MelFilterbank.create(
+                new SpeechConfig().put("mel-filter-type", "dense"),
+                "", null, 512, 40));
+
+        // invalid frequency ranges
+        assertThrows(IllegalArgumentException.class, () ->
+            MelFilterbank.triangular(16000, 257, 40, -1, 3800));
+        assertThrows(IllegalArgumentException.class, () ->
+            MelFilterbank.triangular(16000, 257, 40, 3800, 125));
+        assertThrows(IllegalArgumentException.class, () ->
+            MelFilterbank.triangular(16000, 257, 40, 125, 8001));
+    }
+
+    @Test
+    public void testTriangular() {
+        int sampleRate = 16000;
+        int bins = 81;
+        int melWidth = 10;
+        MelFilterbank filterbank = MelFilterbank.triangular(
+            sampleRate, bins, melWidth, 125, 3800);
+        float[][] expected = reference(sampleRate, bins, melWidth, 125, 3800);
+
+        // the sparse projection matches the dense reference product
+        float[] spectrum = new float[bins];
+        for (int b = 0; b < bins; b++)
+            spectrum[b] = (float) Math.sin(b) + 1;
+        float[] actual = new float[melWidth];
+        filterbank.apply(spectrum, actual);
+        for (int m = 0; m < melWidth; m++)
+            assertEquals(dot(expected[m], spectrum), actual[m], 1e-4);
+
+        // the dc bin is excluded, as are frequencies above the top edge
+        spectrum = new float[bins];
+        spectrum[0] = 1;
+        spectrum[bins - 1] = 1;
+        filterbank.apply(spectrum, actual);
+        for (int m = 0; m < melWidth; m++)
+            assertEquals(0, actual[m]);
+    }
+
+    @Test
+    public void testMagnitudes() {
+        float[] fft = {1, -2, 3, 4, 0, 0, -5, 12};
+        float[] spectrum = new float[5];
+        MelFilterbank.magnitudes(fft, spectrum);
+        assertArrayEquals(new float[] {1, 5, 0, 13, -2}, spectrum);
+    }
+
+    @Test
+    public void testDerive() throws Exception {
+        int bins = 81;
+        int melWidth = 10;
+        float[][] matrix = reference(16000, bins, melWidth, 125, 3800);
+
+        // a linear filter model is replaced by an equivalent filterbank
+        LinearModel model = mockModel(bins, melWidth);
+        model.matrix = matrix;
+        model.bias = 0;
+        SpeechConfig config = new SpeechConfig()
+            .put("mel-filter-type", "derived");
+        assertTrue(MelFilterbank.needsModel(config, ""));
+        MelFilterbank filterbank =
+            MelFilterbank.create(config, "", model, 160, melWidth);
+        assertNotNull(filterbank);
+
+        float[] spectrum = new float[bins];
+        for (int b = 0; b < bins; b++)
+            spectrum[b] = b % 5;
+        float[] actual = new float[melWidth];
+        filterbank.apply(spectrum, actual);
+        for (int m = 0; m < melWidth; m++)
+            assertEquals(dot(matrix[m], spectrum), actual[m], 1e-4);
+
+        // models that aren't linear projections are retained
+        model.bias = 0.5f;
+        assertNull(MelFilterbank.create(config, "", model, 160, melWidth));
+    }
+
+    private float[][] reference(int sampleRate,
+                                int bins,
+                                int melWidth,
+                                double minHz,
+                                double maxHz) {
+        // dense implementation of tensorflow's linear_to_mel_weight_matrix
+        double[] edges = new double[melWidth + 2];
+        double minMel = mel(minHz);
+        double maxMel = mel(maxHz);
+        for (int i = 0; i < edges.length; i++)
+            edges[i] = minMel + i * (maxMel - minMel) / (melWidth + 1);
+
+        float[][] matrix = new float[melWidth][bins];
+        for (int b = 1; b < bins; b++) {
+            double hz = sampleRate / 2.0 * b / (bins - 1);
+            for (int m = 0; m < melWidth; m++) {
+                double lower = (mel(hz) - edges[m])
+                    / (edges[m + 1] - edges[m]);
+                double upper = (edges[m + 2] - mel(hz))
+                    / (edges[m + 2] - edges[m + 1]);
+                matrix[m][b] = (float) Math.max(0, Math.min(lower, upper));
+            }
+        }
+        return matrix;
+    }
+
+    private double mel(double hz) {
+        return 1127.0 * Math.log(1 + hz / 700.0);
+    }
+
+    private float dot(float[] x, float[] y) {
+        float sum = 0;
+        for (int i = 0; i < x.length; i++)
+            sum += x[i] * y[i];
+        return sum;
+    }
+
+    private LinearModel mockModel(int bins, int melWidth) {
+        LinearModel model = mock(LinearModel.class);
+        doReturn(ByteBuffer
+                    .allocateDirect(bins * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(model).inputs(0);
+        doReturn(ByteBuffer
+                    .allocateDirect(melWidth * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(model).outputs(0);
+        doReturn(model.inputs(0).asFloatBuffer())
+            .when(model).floatInputs(0);
+        doReturn(model.outputs(0).asFloatBuffer())
+            .when(model).floatOutputs(0);
+        doCallRealMethod().when(model).run();
+        return model;
+    }
+
+    public static class LinearModel extends TensorflowModel {
+        public float[][] matrix;
+        public float bias;
+
+        public LinearModel(TensorflowModel.Loader loader) {
+            super(loader);
+        }
+
+        public void run() {
+            this.inputs(0).rewind();
+            FloatBuffer input = this.inputs(0).asFloatBuffer();
+            FloatBuffer output = this.outputs(0).asFloatBuffer();
+            for (float[] row : this.matrix) {
+                float sum = this.bias;
+                for (int b = 0; b < row.length; b++)
+                    sum += row[b] * input.get(b);
+                output.put(sum);
+            }
+            this.floatInputs(0).rewind();
+            this.floatOutputs(0).rewind();
+        }
+    }
+}
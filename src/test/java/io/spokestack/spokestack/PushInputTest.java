@@ -0,0 +1,146 @@
+package io.spokestack.spokestack;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PushInputTest {
+    @Test
+    public void testReadWrite() throws Exception {
+        SpeechContext context = new SpeechContext(testConfig());
+        PushInput input = new PushInput(testConfig());
+        ByteBuffer frame = ByteBuffer
+              .allocateDirect(320)
+              .order(ByteOrder.nativeOrder());
+        AtomicInteger notified = new AtomicInteger();
+        input.setOnReady(notified::incrementAndGet);
+
+        // partial frames are not readable
+        assertFalse(input.isReady());
+        input.write(samples(0, 100));
+        assertFalse(input.isReady());
+        assertEquals(0, notified.get());
+
+        // full frames are readable, in order
+        input.write(samples(100, 300));
+        assertTrue(input.isReady());
+        assertTrue(notified.get() > 0);
+        input.read(context, frame);
+        for (int i = 0; i < 160; i++) {
+            assertEquals((short) i, frame.getShort());
+        }
+        assertFalse(input.isReady());
+
+        // the final frame is padded after the input ends
+        input.end();
+        assertTrue(input.isReady());
+        input.read(context, frame);
+        for (int i = 160; i < 300; i++) {
+            assertEquals((short) i, frame.getShort());
+        }
+        while (frame.hasRemaining()) {
+            assertEquals(0, frame.get());
+        }
+        assertThrows(EOFException.class, () -> input.read(context, frame));
+        assertThrows(IllegalStateException.class,
+              () -> input.write(samples(0, 1)));
+        input.close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        SpeechContext context = new SpeechContext(testConfig());
+        PushInput input = new PushInput(testConfig()
+              .put("push-buffer-width", 10));
+        ByteBuffer frame = ByteBuffer
+              .allocateDirect(320)
+              .order(ByteOrder.nativeOrder());
+
+        // the producer blocks until the reader consumes frames
+        Thread producer = new Thread(() -> {
+            try {
+                input.write(samples(0, 800));
+                input.end();
+            } catch (InterruptedException e) {
+                fail("interrupted");
+            }
+        });
+        producer.start();
+
+        int sample = 0;
+        for (int f = 0; f < 5; f++) {
+            input.read(context, frame);
+            for (int i = 0; i < 160; i++) {
+                assertEquals((short) sample++, frame.getShort());
+            }
+        }
+        assertThrows(EOFException.class, () -> input.read(context, frame));
+        producer.join();
+
+        // closing releases blocked writers
+        PushInput closed = new PushInput(testConfig()
+              .put("push-buffer-width", 10));
+        Thread writer = new Thread(() -> {
+            try {
+                closed.write(samples(0, 400));
+            } catch (IllegalStateException | InterruptedException e) {
+                // expected
+            }
+        });
+        writer.start();
+        closed.close();
+        writer.join();
+    }
+
+    @Test
+    public void testWriteAfterEnd() throws Exception {
+        PushInput input = new PushInput(testConfig()
+              .put("push-buffer-width", 10));
+        input.write(samples(0, 160));
+
+        // writing to a full, ended input fails instead of blocking
+        input.end();
+        assertThrows(IllegalStateException.class,
+              () -> input.write(samples(0, 1)));
+
+        // ending the input releases writers blocked on a full buffer
+        PushInput blocked = new PushInput(testConfig()
+              .put("push-buffer-width", 10));
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                blocked.write(samples(0, 400));
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        blocked.end();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertTrue(error.get() instanceof IllegalStateException);
+        blocked.close();
+    }
+
+    private SpeechConfig testConfig() {
+        return new SpeechConfig()
+              .put("sample-rate", 16000)
+              .put("frame-width", 10);
+    }
+
+    static ByteBuffer samples(int start, int end) {
+        ByteBuffer buffer = ByteBuffer
+              .allocate((end - start) * 2)
+              .order(ByteOrder.nativeOrder());
+        for (int i = start; i < end; i++) {
+            buffer.putShort((short) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
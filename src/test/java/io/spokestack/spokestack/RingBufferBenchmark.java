@@ -0,0 +1,126 @@
+package io.spokestack.spokestack;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assume.*;
+
+/**
+ * latency and allocation of the transfers between ring buffer windows and
+ * model tensors, per hop, as performed by the wakeword trigger and keyword
+ * recognizer. each transfer is measured one value at a time, in bulk through
+ * a float view created for the hop, and in bulk through the model's cached
+ * float view (see TensorflowModel.floatInputs). this benchmark is not run
+ * with the unit tests. it is run as follows:
+ *
+ * mvn test -Dtest=RingBufferBenchmark \
+ *   -Dringbuffer.benchmark=true \
+ *   -Dringbuffer.benchmark.runs=100000
+ */
+public class RingBufferBenchmark {
+    // default wakeword mel window (40 x 40) and encoder window (100 x 128)
+    private static final int MEL_WIDTH = 40;
+    private static final int MEL_LENGTH = 40;
+    private static final int ENCODE_WIDTH = 128;
+    private static final int ENCODE_LENGTH = 100;
+
+    @Test
+    public void benchmark() {
+        assumeTrue(Boolean.getBoolean("ringbuffer.benchmark"));
+        int runs = Integer.getInteger("ringbuffer.benchmark.runs", 100000);
+
+        System.out.printf("%-8s %-8s %10s %10s %12s%n",
+            "window", "transfer", "mean (ns)", "p99 (ns)", "alloc (B)");
+        measure("mel", MEL_WIDTH, MEL_LENGTH, runs);
+        measure("encode", ENCODE_WIDTH, ENCODE_LENGTH, runs);
+    }
+
+    private void measure(String name, int width, int length, int runs) {
+        RingBuffer window = new RingBuffer(width * length);
+        ByteBuffer output = allocate(width);
+        ByteBuffer input = allocate(width * length);
+        FloatBuffer outputView = output.asFloatBuffer();
+        FloatBuffer inputView = input.asFloatBuffer();
+        window.fill(0);
+
+        // the original per-value transfers
+        measure(name, "values", runs, () -> {
+            output.rewind();
+            window.rewind().seek(width);
+            while (output.hasRemaining())
+                window.write(output.getFloat());
+            input.rewind();
+            window.rewind();
+            while (input.hasRemaining())
+                input.putFloat(window.read());
+        });
+
+        // bulk transfers through views created for each hop
+        measure(name, "view", runs, () -> {
+            output.rewind();
+            window.rewind().seek(width);
+            window.write(output.asFloatBuffer());
+            input.rewind();
+            window.rewind().read(input.asFloatBuffer());
+        });
+
+        // bulk transfers through cached views
+        measure(name, "cached", runs, () -> {
+            outputView.rewind();
+            window.rewind().seek(width);
+            window.write(outputView);
+            inputView.rewind();
+            window.rewind().read(inputView);
+        });
+    }
+
+    private void measure(String name,
+                         String transfer,
+                         int runs,
+                         Runnable hop) {
+        // warm up before timing runs
+        for (int i = 0; i < Math.min(runs, 10000); i++)
+            hop.run();
+
+        long allocStart = allocated();
+        long[] latencies = new long[runs];
+        long total = 0;
+        for (int i = 0; i < runs; i++) {
+            long begin = System.nanoTime();
+            hop.run();
+            latencies[i] = System.nanoTime() - begin;
+            total += latencies[i];
+        }
+        long alloc = allocated() - allocStart;
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %-8s %10.1f %10d %12.1f%n",
+            name,
+            transfer,
+            (double) total / runs,
+            latencies[(int) (runs * 0.99)],
+            allocStart < 0 ? Double.NaN : (double) alloc / runs);
+    }
+
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported())
+            return -1;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static ByteBuffer allocate(int floats) {
+        return ByteBuffer
+            .allocateDirect(floats * 4)
+            .order(ByteOrder.nativeOrder());
+    }
+}
@@ -1,5 +1,7 @@
 package io.spokestack.spokestack;
 
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
 import java.util.*;
 
 import org.junit.Test;
@@ -155,4 +157,75 @@ public class RingBufferTest {
 
         assertEquals(buffer.read(), 2);
     }
+
+    @Test
+    public void testBulkReadWrite() {
+        final RingBuffer buffer = new RingBuffer(5);
+        float[] values = new float[] {1, 2, 3, 4, 5, 6, 7};
+
+        // invalid transfers
+        assertThrows(IllegalStateException.class, new Executable() {
+            public void execute() throws Exception {
+                buffer.read(new float[1], 0, 1);
+            }
+        });
+        assertThrows(IllegalStateException.class, new Executable() {
+            public void execute() throws Exception {
+                buffer.write(new float[6], 0, 6);
+            }
+        });
+
+        // transfers that wrap around the end of the buffer
+        for (int i = 0; i < 3; i++) {
+            buffer.write(0);
+            buffer.read();
+        }
+        buffer.write(values, 1, 4);
+        assertEquals(4, buffer.size());
+        float[] read = new float[6];
+        buffer.read(read, 1, 4);
+        assertArrayEquals(new float[] {0, 2, 3, 4, 5, 0}, read);
+        assertTrue(buffer.isEmpty());
+
+        // float buffer transfers
+        buffer.write(FloatBuffer.wrap(values, 0, 5));
+        assertTrue(buffer.isFull());
+        final FloatBuffer small = FloatBuffer.allocate(4);
+        assertThrows(BufferOverflowException.class, new Executable() {
+            public void execute() throws Exception { buffer.read(small); }
+        });
+        assertEquals(0, small.position());
+        FloatBuffer dest = FloatBuffer.allocate(5);
+        buffer.read(dest);
+        assertArrayEquals(new float[] {1, 2, 3, 4, 5}, dest.array());
+        assertTrue(buffer.isEmpty());
+
+        // bulk transfers match single-value transfers
+        buffer.rewind().seek(2);
+        assertEquals(3, buffer.size());
+        assertEquals(3, buffer.read());
+        buffer.read(read, 0, 2);
+        assertEquals(4, read[0]);
+        assertEquals(5, read[1]);
+    }
+
+    @Test
+    public void testFillWrap() {
+        RingBuffer buffer = new RingBuffer(4);
+
+        // fill a buffer whose free space wraps around the end
+        for (int i = 0; i < 3; i++)
+            buffer.write(i + 1);
+        buffer.read();
+        buffer.read();
+        buffer.fill(9);
+        assertTrue(buffer.isFull());
+        assertEquals(3, buffer.read());
+        for (int i = 0; i < 3; i++)
+            assertEquals(9, buffer.read());
+
+        // fill a full buffer
+        buffer.rewind().fill(0);
+        assertEquals(4, buffer.size());
+    }
 }
@@ -1,11 +1,16 @@
 package io.spokestack.spokestack;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
 
 import androidx.annotation.NonNull;
 import io.spokestack.spokestack.util.EventTracer;
 import org.junit.Test;
+import static org.junit.Assume.assumeTrue;
 import static org.junit.jupiter.api.Assertions.*;
 
 import io.spokestack.spokestack.SpeechContext.Event;
@@ -51,6 +56,24 @@ public class SpeechContextTest implements OnSpeechEventListener {
         assertFalse(context.isActive());
     }
 
+    @Test
+    public void testWakePhrase() {
+        SpeechContext context = new SpeechContext(new SpeechConfig());
+        assertNull(context.getWakePhrase());
+
+        context.setWakePhrase("test");
+        context.setActive(true);
+        assertEquals("test", context.getWakePhrase());
+
+        // the phrase is detached on deactivation
+        context.setActive(false);
+        assertNull(context.getWakePhrase());
+
+        context.setWakePhrase("test");
+        context.reset();
+        assertNull(context.getWakePhrase());
+    }
+
     @Test
     public void testTranscript() {
         SpeechContext context = new SpeechContext(new SpeechConfig());
@@ -134,6 +157,287 @@ public class SpeechContextTest implements OnSpeechEventListener {
         assertEquals(Event.TRACE, this.event);
     }
 
+    @Test
+    public void testAsyncDispatch() throws Exception {
+        SpeechConfig config = new SpeechConfig()
+            .put("trace-level", EventTracer.Level.INFO.value())
+            .put("event-dispatch", "async");
+        SpeechContext context = new SpeechContext(config);
+        EventDispatcher dispatcher = context.getDispatcher();
+        assertNotNull(dispatcher);
+        assertEquals(EventDispatcher.Overflow.BLOCK, dispatcher.getOverflow());
+        assertNull(new SpeechContext(new SpeechConfig()).getDispatcher());
+
+        // events are delivered in order on the dispatch thread,
+        // with a snapshot of the context as of the event
+        List<String> received = Collections.synchronizedList(
+            new ArrayList<>());
+        Thread caller = Thread.currentThread();
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            assertNotSame(caller, Thread.currentThread());
+            received.add(event + ":" + snapshot.getTranscript());
+        });
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            if (event == Event.TIMEOUT) {
+                throw new Exception("failed");
+            }
+        });
+        context.setTranscript("first");
+        context.dispatch(Event.RECOGNIZE);
+        context.setTranscript("second");
+        context.dispatch(Event.RECOGNIZE);
+        context.dispatch(Event.TIMEOUT);
+        await(dispatcher, 3);
+        assertEquals(Arrays.asList(
+            "recognize:first",
+            "recognize:second",
+            "timeout:second",
+            "trace:second"), received);
+        assertEquals(0, dispatcher.getDropped());
+        assertEquals(0, dispatcher.getPending());
+
+        // dispatch resumes after the dispatcher is stopped
+        context.stopDispatch();
+        context.stopDispatch();
+        context.setActive(true);
+        await(dispatcher, 4);
+        assertEquals("activate:second", received.get(4));
+        context.stopDispatch();
+    }
+
+    @Test
+    public void testDispatchOverflow() throws Exception {
+        SpeechConfig config = new SpeechConfig()
+            .put("event-dispatch", "async")
+            .put("event-queue-size", 2)
+            .put("event-overflow", "drop-newest")
+            .put("event-deadline", 10);
+        SpeechContext context = new SpeechContext(config);
+        EventDispatcher dispatcher = context.getDispatcher();
+        assertEquals(EventDispatcher.Overflow.DROP_NEWEST,
+            dispatcher.getOverflow());
+
+        // a blocked listener doesn't block the raising thread;
+        // events are dropped once the queue is full, and delayed
+        // events are counted as late
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            started.countDown();
+            release.await();
+        });
+        context.dispatch(Event.ACTIVATE);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            context.dispatch(Event.PARTIAL_RECOGNIZE);
+        }
+        assertEquals(2, dispatcher.getPending());
+        assertEquals(3, dispatcher.getDropped());
+        Thread.sleep(20);
+        release.countDown();
+        await(dispatcher, 3);
+        assertEquals(2, dispatcher.getLate());
+        context.stopDispatch();
+
+        // the oldest events can be dropped instead
+        config.put("event-overflow", "drop-oldest");
+        context = new SpeechContext(config);
+        dispatcher = context.getDispatcher();
+        List<Event> received = Collections.synchronizedList(
+            new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            blocked.await();
+            received.add(event);
+        });
+        context.dispatch(Event.ACTIVATE);
+        while (dispatcher.getPending() > 0) {
+            Thread.sleep(1);
+        }
+        context.dispatch(Event.PARTIAL_RECOGNIZE);
+        context.dispatch(Event.PARTIAL_RECOGNIZE);
+        context.dispatch(Event.RECOGNIZE);
+        assertEquals(1, dispatcher.getDropped());
+        blocked.countDown();
+        await(dispatcher, 3);
+        assertEquals(Arrays.asList(
+            Event.ACTIVATE,
+            Event.PARTIAL_RECOGNIZE,
+            Event.RECOGNIZE), received);
+        context.stopDispatch();
+    }
+
+    @Test(timeout = 10000)
+    public void testDispatchReentrancy() throws Exception {
+        SpeechConfig config = new SpeechConfig()
+            .put("event-dispatch", "async")
+            .put("event-queue-size", 1);
+        SpeechContext context = new SpeechContext(config);
+        EventDispatcher dispatcher = context.getDispatcher();
+
+        // a listener raising events on a full queue doesn't wait for
+        // its own thread to make room; its excess events are dropped
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            if (event == Event.ACTIVATE) {
+                for (int i = 0; i < 3; i++) {
+                    context.dispatch(Event.PARTIAL_RECOGNIZE);
+                }
+            }
+        });
+        context.dispatch(Event.ACTIVATE);
+        await(dispatcher, 2);
+        assertEquals(2, dispatcher.getDropped());
+        context.stopDispatch();
+    }
+
+    @Test(timeout = 10000)
+    public void testDispatchAfterStop() throws Exception {
+        SpeechConfig config = new SpeechConfig()
+            .put("event-dispatch", "async");
+        SpeechContext context = new SpeechContext(config);
+        EventDispatcher dispatcher = context.getDispatcher();
+
+        // events raised while the dispatcher is stopping are not lost
+        for (int i = 0; i < 500; i++) {
+            context.dispatch(Event.PARTIAL_RECOGNIZE);
+            context.stopDispatch();
+        }
+        await(dispatcher, 500);
+        assertEquals(0, dispatcher.getDropped());
+        context.stopDispatch();
+    }
+
+    private void await(EventDispatcher dispatcher, long count)
+            throws InterruptedException {
+        while (dispatcher.getDelivered() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testTraceValue() throws Exception {
+        SpeechConfig config = new SpeechConfig()
+            .put("trace-level", EventTracer.Level.PERF.value());
+        SpeechContext context = new SpeechContext(config)
+            .addOnSpeechEventListener(this);
+        assertNull(context.getTraceBuffer());
+
+        // synchronous tracing
+        context.traceValue(EventTracer.Level.DEBUG, "skip: %f", 1);
+        assertNull(this.event);
+        context.traceValue(EventTracer.Level.PERF, "value: %.1f", 1);
+        assertEquals(Event.TRACE, this.event);
+        assertEquals("value: 1.0", context.getMessage());
+        context.traceValue(EventTracer.Level.INFO, "detail: %.1f %s", 2, null);
+        assertEquals("detail: 2.0 null", context.getMessage());
+
+        // buffered tracing, delivered in order on the dispatch thread,
+        // which is enabled along with the trace buffer, with a snapshot
+        // of the context's activation state as of the trace
+        config.put("trace-buffer", 2);
+        config.put("event-queue-size", 1);
+        context = new SpeechContext(config);
+        TraceBuffer buffer = context.getTraceBuffer();
+        EventDispatcher dispatcher = context.getDispatcher();
+        assertEquals(2, buffer.getCapacity());
+        assertNotNull(dispatcher);
+        List<String> received = Collections.synchronizedList(
+            new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        context.addOnSpeechEventListener((event, snapshot) -> {
+            release.await();
+            assertNotSame(caller, Thread.currentThread());
+            received.add(snapshot.getMessage() + snapshot.getWakePhrase());
+        });
+
+        // fill the dispatcher: the first trace is being delivered, the
+        // second is queued, and the trace thread waits to queue the third
+        context.setWakePhrase("-a");
+        context.traceValue(EventTracer.Level.PERF, "first: %.1f", 1);
+        awaitPending(buffer, dispatcher, 0);
+        context.setWakePhrase("-b");
+        context.traceValue(EventTracer.Level.DEBUG, "skip: %f", 1);
+        context.traceValue(EventTracer.Level.PERF, "second: %.1f %s", 2, "x");
+        awaitPending(buffer, dispatcher, 1);
+        context.traceValue(EventTracer.Level.PERF, "third: %.1f", 3);
+        while (buffer.getPending() > 0) {
+            Thread.sleep(1);
+        }
+
+        // then fill the trace buffer
+        context.traceValue(EventTracer.Level.PERF, "fourth: %.1f", 4);
+        context.traceValue(EventTracer.Level.PERF, "fifth: %.1f", 5);
+        context.traceValue(EventTracer.Level.PERF, "sixth: %.1f", 6);
+        assertEquals(2, buffer.getPending());
+        assertEquals(1, buffer.getDropped());
+        assertNull(context.getMessage());
+
+        release.countDown();
+        while (received.size() < 5) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList(
+            "first: 1.0-a",
+            "second: 2.0 x-b",
+            "third: 3.0-b",
+            "fourth: 4.0-b",
+            "fifth: 5.0-b"), received);
+
+        // the trace thread restarts after it is stopped
+        context.stopDispatch();
+        context.traceValue(EventTracer.Level.PERF, "seventh: %.1f", 7);
+        while (received.size() < 6) {
+            Thread.sleep(1);
+        }
+        assertEquals("seventh: 7.0-b", received.get(5));
+        context.stopDispatch();
+    }
+
+    @Test
+    public void testTraceAllocation() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        SpeechConfig config = new SpeechConfig()
+            .put("trace-level", EventTracer.Level.PERF.value())
+            .put("trace-buffer", 64);
+        SpeechContext context = new SpeechContext(config)
+            .addOnSpeechEventListener((event, snapshot) -> { });
+        context.setWakePhrase("test");
+        for (int i = 0; i < 10000; i++) {
+            context.traceValue(EventTracer.Level.PERF, "value: %.1f", i);
+            context.traceValue(EventTracer.Level.PERF, "detail: %.1f %s", i,
+                "x");
+        }
+
+        // buffering a trace allocates nothing on the caller's thread,
+        // whether it is recorded or dropped
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            context.traceValue(EventTracer.Level.PERF, "value: %.1f", i);
+            context.traceValue(EventTracer.Level.PERF, "detail: %.1f %s", i,
+                "x");
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+        context.stopDispatch();
+    }
+
+    private void awaitPending(TraceBuffer buffer,
+                              EventDispatcher dispatcher,
+                              int dispatching) throws InterruptedException {
+        while (buffer.getPending() > 0
+                || dispatcher.getPending() < dispatching) {
+            Thread.sleep(1);
+        }
+    }
+
     @Test
     public void testTrace() {
         SpeechConfig config = new SpeechConfig();
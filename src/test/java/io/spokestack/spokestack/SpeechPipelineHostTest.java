@@ -0,0 +1,199 @@
+package io.spokestack.spokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpeechPipelineHostTest implements OnSpeechEventListener {
+    private final List<SpeechContext.Event> events = new ArrayList<>();
+
+    @Test
+    public void testConstruction() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+              () -> new SpeechPipelineHost(0));
+        assertThrows(IllegalArgumentException.class,
+              () -> new SpeechPipelineHost(1, 0));
+
+        SpeechPipelineHost host = new SpeechPipelineHost(1);
+        assertEquals(0, host.size());
+
+        // startup errors are propagated
+        SpeechPipeline invalid = new SpeechPipeline.Builder()
+              .setInputClass("invalid")
+              .build();
+        assertThrows(ClassNotFoundException.class, () -> host.attach(invalid));
+        assertEquals(0, host.size());
+
+        host.close();
+        assertThrows(IllegalStateException.class, () -> host.attach(invalid));
+    }
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        int streams = 16;
+        int frames = 50;
+        SequenceStage.clear();
+        SpeechPipelineHost host = new SpeechPipelineHost(3, 4);
+
+        List<SpeechPipeline> pipelines = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            SpeechPipeline pipeline = pushPipeline().build();
+            host.attach(pipeline);
+            assertTrue(pipeline.isRunning());
+            pipelines.add(pipeline);
+        }
+        assertEquals(streams, host.size());
+
+        // interleave frame-numbered audio across all of the streams
+        for (int f = 0; f < frames; f++) {
+            for (SpeechPipeline pipeline : pipelines) {
+                ((PushInput) pipeline.getInput()).write(frame(f));
+            }
+        }
+        for (SpeechPipeline pipeline : pipelines) {
+            ((PushInput) pipeline.getInput()).end();
+        }
+
+        // every pipeline stops at the end of its input,
+        // having seen each of its frames in order
+        for (SpeechPipeline pipeline : pipelines) {
+            host.await(pipeline);
+            assertFalse(pipeline.isRunning());
+            assertNull(pipeline.getInput());
+        }
+        assertEquals(0, host.size());
+        assertEquals(0, SequenceStage.errors.get());
+        assertEquals(streams, SequenceStage.counts.size());
+        for (int count : SequenceStage.counts.values()) {
+            assertEquals(frames, count);
+        }
+        assertEquals(streams, SequenceStage.closed.get());
+        host.close();
+    }
+
+    @Test
+    public void testPauseDetach() throws Exception {
+        SequenceStage.clear();
+        SpeechPipelineHost host = new SpeechPipelineHost(1);
+        SpeechPipeline pipeline = pushPipeline()
+              .addOnSpeechEventListener(this)
+              .build();
+        host.attach(pipeline);
+        PushInput input = (PushInput) pipeline.getInput();
+
+        // paused pipelines are not scheduled
+        pipeline.pause();
+        input.write(frame(0));
+        Thread.sleep(20);
+        assertTrue(SequenceStage.counts.isEmpty());
+
+        // resuming schedules the buffered frame
+        pipeline.resume();
+        while (SequenceStage.counts.isEmpty()) {
+            Thread.sleep(1);
+        }
+
+        // attempting to host a running pipeline fails
+        assertThrows(IllegalStateException.class, () -> host.attach(pipeline));
+        assertThrows(IllegalStateException.class, pipeline::runOffline);
+
+        // detaching stops the pipeline and releases its resources,
+        // even while it is paused
+        pipeline.pause();
+        host.detach(pipeline);
+        assertFalse(pipeline.isRunning());
+        assertEquals(1, SequenceStage.closed.get());
+        assertEquals(0, host.size());
+        assertFalse(this.events.contains(SpeechContext.Event.ERROR));
+
+        // detaching an unknown pipeline does nothing
+        host.detach(pipeline);
+        host.await(pipeline);
+
+        // pipelines with ordinary inputs are scheduled round-robin
+        SpeechPipeline free = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.SpeechPipelineHostTest$CountingInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineHostTest$SequenceStage")
+              .build();
+        host.attach(free);
+        while (CountingInput.counter.get() < 100) {
+            Thread.sleep(1);
+        }
+        host.close();
+        assertEquals(-1, CountingInput.counter.get());
+    }
+
+    private SpeechPipeline.Builder pushPipeline() {
+        return new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.PushInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineHostTest$SequenceStage")
+              .setProperty("frame-width", 10);
+    }
+
+    private ByteBuffer frame(int sequence) {
+        ByteBuffer frame = ByteBuffer
+              .allocate(320)
+              .order(ByteOrder.nativeOrder());
+        frame.putInt(0, sequence);
+        return frame;
+    }
+
+    public void onEvent(@NonNull SpeechContext.Event event,
+                        @NonNull SpeechContext context) {
+        this.events.add(event);
+    }
+
+    public static class CountingInput implements SpeechInput {
+        public static AtomicInteger counter = new AtomicInteger();
+
+        public CountingInput(SpeechConfig config) {
+            counter.set(0);
+        }
+
+        public void close() {
+            counter.set(-1);
+        }
+
+        public void read(SpeechContext context, ByteBuffer frame) {
+            frame.putInt(0, counter.getAndIncrement());
+        }
+    }
+
+    public static class SequenceStage implements SpeechProcessor {
+        public static Map<SpeechContext, Integer> counts;
+        public static AtomicInteger errors;
+        public static AtomicInteger closed;
+
+        public static void clear() {
+            counts = new ConcurrentHashMap<>();
+            errors = new AtomicInteger();
+            closed = new AtomicInteger();
+        }
+
+        public SequenceStage(SpeechConfig config) {
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+            closed.incrementAndGet();
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            int expected = counts.getOrDefault(context, 0);
+            if (frame.getInt(0) != expected) {
+                errors.incrementAndGet();
+            }
+            counts.put(context, expected + 1);
+        }
+    }
+}
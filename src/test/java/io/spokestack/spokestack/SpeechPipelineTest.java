@@ -1,5 +1,7 @@
 package io.spokestack.spokestack;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
@@ -8,6 +10,7 @@ import java.nio.ByteBuffer;
 
 import androidx.annotation.NonNull;
 import io.spokestack.spokestack.android.AudioRecordError;
+import io.spokestack.spokestack.tensorflow.ModelCache;
 import io.spokestack.spokestack.util.EventTracer;
 import org.junit.After;
 import org.junit.Before;
@@ -106,6 +109,15 @@ public class SpeechPipelineTest implements OnSpeechEventListener {
             pipeline.start();
             Input.stop();
         }
+
+        // the model cache budget is applied when the pipeline is built
+        try (SpeechPipeline pipeline = new SpeechPipeline.Builder()
+                .setProperty("model-cache-budget", 1234)
+                .build()) {
+            assertEquals(1234, ModelCache.getShared().getBudget());
+        } finally {
+            ModelCache.getShared().setBudget(0);
+        }
     }
 
     @Test
@@ -323,6 +335,224 @@ public class SpeechPipelineTest implements OnSpeechEventListener {
         assertFalse(pipeline.getContext().isActive());
     }
 
+    @Test
+    public void testOffline() throws Exception {
+        // 10 full frames followed by a partial frame
+        File file = File.createTempFile("spokestack", ".pcm");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[640 * 10 + 100]);
+        }
+
+        SpeechPipeline pipeline = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.FileInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$CountStage")
+              .setProperty("input-path", file.getAbsolutePath())
+              .setProperty("trace-level", EventTracer.Level.PERF.value())
+              .addOnSpeechEventListener(this)
+              .build();
+
+        ThroughputStats stats = pipeline.runOffline();
+        assertEquals(11, stats.getFrames());
+        assertEquals(220, stats.getAudioMillis());
+        assertTrue(stats.getElapsedNanos() > 0);
+        assertTrue(stats.getFramesPerSecond() > 0);
+        assertTrue(stats.getRealTimeFactor() > 0);
+        assertNotNull(stats.toString());
+
+        // the activation is flushed at the end of the stream,
+        // giving the stage one more frame, and no errors are raised
+        assertEquals(12, CountStage.counter);
+        assertEquals(SpeechContext.Event.ACTIVATE, this.events.get(0));
+        assertEquals(SpeechContext.Event.DEACTIVATE, this.events.get(1));
+        assertEquals(SpeechContext.Event.TRACE, this.events.get(2));
+        assertFalse(this.events.contains(SpeechContext.Event.ERROR));
+        assertFalse(pipeline.isRunning());
+        assertNull(pipeline.getContext().getBuffer());
+        assertFalse(CountStage.open);
+
+        // startup errors are propagated
+        SpeechPipeline invalid = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.FileInput")
+              .build();
+        assertThrows(InvocationTargetException.class, invalid::runOffline);
+        assertFalse(invalid.isRunning());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        File file = File.createTempFile("spokestack", ".pcm");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[640 * 10]);
+        }
+
+        SpeechPipeline pipeline = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.FileInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$CountStage")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$SlowStage")
+              .setProperty("input-path", file.getAbsolutePath())
+              .setProperty("trace-level", EventTracer.Level.PERF.value())
+              .setProperty("stats-interval", 100)
+              .addOnSpeechEventListener(this)
+              .build();
+        assertNull(pipeline.getStats());
+        pipeline.runOffline();
+
+        // every stage and the input are timed, and the slow frame
+        // is counted as an overrun
+        PipelineStats stats = pipeline.getStats();
+        assertEquals(Arrays.asList("CountStage", "SlowStage"),
+              stats.getStageNames());
+        assertEquals(11, stats.getFrames());
+        assertEquals(1, stats.getOverruns());
+        assertEquals(10, stats.getInput().getCount());
+        assertEquals(11, stats.getStage(0).getCount());
+        assertEquals(11, stats.getStage(1).getCount());
+        assertTrue(stats.getStage(1).getMax() >= 30000);
+        assertTrue(stats.getFrame().getMax() >= 30000);
+        assertTrue(stats.getStage(1).getPercentile(50) < 30000);
+        assertTrue(stats.toString().contains("SlowStage["));
+
+        // summaries are traced every 5 frames and when the pipeline stops,
+        // after the offline throughput trace
+        int summaries = 0;
+        for (SpeechContext.Event event : this.events) {
+            if (event == SpeechContext.Event.TRACE) {
+                summaries++;
+            }
+        }
+        assertEquals(4, summaries);
+    }
+
+    @Test
+    public void testGating() throws Exception {
+        File file = File.createTempFile("spokestack", ".pcm");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[640 * 10]);
+        }
+
+        SpeechPipeline pipeline = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.FileInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$ToggleStage")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$GateStage")
+              .setProperty("input-path", file.getAbsolutePath())
+              .build();
+        pipeline.runOffline();
+
+        // the gated stage only runs while the pipeline is active,
+        // and is notified when its gate closes and reopens
+        GateStage gated = GateStage.instance;
+        PipelineStats stats = pipeline.getStats();
+        assertEquals(4, gated.processed);
+        assertEquals(Arrays.asList(false, true, false), gated.edges);
+        assertEquals(0, stats.getSkipped(0));
+        assertEquals(stats.getFrames() - 4, stats.getSkipped(1));
+        assertEquals(4, stats.getStage(1).getCount());
+        assertTrue(stats.toString().contains("skipped="));
+    }
+
+    @Test
+    public void testReconfigure() throws Exception {
+        TallyStage.instances.clear();
+        SpeechPipeline pipeline = new SpeechPipeline.Builder()
+              .setInputClass("io.spokestack.spokestack.PushInput")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$TallyStage")
+              .addStageClass("io.spokestack.spokestack.SpeechPipelineTest$SlowStage")
+              .build();
+
+        // profiles update the configuration
+        SpeechPipeline stopped = new SpeechPipeline.Builder().build();
+        stopped.useProfile(
+              "io.spokestack.spokestack.profile.TFWakewordKeywordASR");
+        assertEquals(0.9, stopped.getConfig().getDouble("wake-threshold"));
+        assertTrue(stopped.getStages().isEmpty());
+
+        pipeline.start();
+        PushInput input = (PushInput) pipeline.getInput();
+        TallyStage tally = TallyStage.instances.get(0);
+        input.write(ByteBuffer.allocate(640));
+        while (tally.frames < 1) {
+            Thread.sleep(1);
+        }
+
+        // the running pipeline swaps in the new stages on the next frame,
+        // keeping its input and the stages it already has
+        pipeline.activate();
+        pipeline.reconfigure(Arrays.asList(
+              "io.spokestack.spokestack.SpeechPipelineTest$ToggleStage",
+              "io.spokestack.spokestack.SpeechPipelineTest$TallyStage"));
+        assertTrue(pipeline.getStages().get(1) instanceof SlowStage);
+        input.write(ByteBuffer.allocate(640));
+        while (tally.frames < 2) {
+            Thread.sleep(1);
+        }
+        assertSame(input, pipeline.getInput());
+        assertTrue(pipeline.getStages().get(0) instanceof ToggleStage);
+        assertSame(tally, pipeline.getStages().get(1));
+        assertEquals(1, TallyStage.instances.size());
+        assertTrue(tally.reset);
+        assertFalse(tally.closed);
+        assertEquals(Arrays.asList("ToggleStage", "TallyStage"),
+              pipeline.getStats().getStageNames());
+
+        // the statistics of the stages that were kept are carried over
+        while (pipeline.getStats().getFrames() < 2) {
+            Thread.sleep(1);
+        }
+        PipelineStats stats = pipeline.getStats();
+        assertEquals(2, stats.getStage(1).getCount());
+        assertTrue(stats.getStage(0).getCount() < 2);
+
+        // a stage that cannot be created leaves the pipeline unmodified
+        assertThrows(ClassNotFoundException.class, () ->
+              pipeline.reconfigure(Arrays.asList(
+                    "io.spokestack.spokestack.SpeechPipelineTest$TallyStage",
+                    "io.spokestack.spokestack.MissingStage")));
+        input.write(ByteBuffer.allocate(640));
+        while (tally.frames < 3) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, pipeline.getStages().size());
+
+        // a profile is applied to the configuration only if its
+        // stages can be created, when they are swapped in
+        assertThrows(ClassNotFoundException.class, () ->
+              pipeline.useProfile(
+                    "io.spokestack.spokestack.SpeechPipelineTest$FailProfile"));
+        assertFalse(pipeline.getConfig().containsKey("profile-property"));
+        pipeline.useProfile(
+              "io.spokestack.spokestack.SpeechPipelineTest$TallyProfile");
+        assertFalse(pipeline.getConfig().containsKey("profile-property"));
+        input.write(ByteBuffer.allocate(640));
+        while (tally.frames < 4) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, pipeline.getStages().size());
+        assertEquals(1, pipeline.getConfig().getInteger("profile-property"));
+
+        input.end();
+        pipeline.stop();
+        assertTrue(tally.closed);
+    }
+
+    @Test
+    public void testOfflineEmpty() {
+        assertThrows(IllegalStateException.class, () -> {
+            SpeechPipeline pipeline = new SpeechPipeline.Builder()
+                  .setInputClass("io.spokestack.spokestack.SpeechPipelineTest$Input")
+                  .build();
+            pipeline.start();
+            try {
+                pipeline.runOffline();
+            } finally {
+                Input.stop();
+                pipeline.stop();
+            }
+        });
+    }
+
     private void transact(boolean managed) throws Exception {
         this.events.clear();
         Input.send();
@@ -420,6 +650,120 @@ public class SpeechPipelineTest implements OnSpeechEventListener {
         }
     }
 
+    public static class CountStage implements SpeechProcessor {
+        public static boolean open;
+        public static int counter;
+
+        public CountStage(SpeechConfig config) {
+            open = true;
+            counter = 0;
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+            open = false;
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            if (++counter == 1) {
+                context.setActive(true);
+            }
+        }
+    }
+
+    public static class SlowStage implements SpeechProcessor {
+        private int frames;
+
+        public SlowStage(SpeechConfig config) {
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame)
+              throws InterruptedException {
+            if (++this.frames == 3) {
+                Thread.sleep(30);
+            }
+        }
+    }
+
+    public static class ToggleStage implements SpeechProcessor {
+        private int frames;
+
+        public ToggleStage(SpeechConfig config) {
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            this.frames++;
+            context.setActive(this.frames >= 3 && this.frames <= 6);
+        }
+    }
+
+    public static class GateStage implements GatedProcessor {
+        private static GateStage instance;
+        private final List<Boolean> edges = new ArrayList<>();
+        private int processed;
+
+        public GateStage(SpeechConfig config) {
+            instance = this;
+        }
+
+        public int getGate() {
+            return ACTIVE;
+        }
+
+        public void onGateChange(SpeechContext context, boolean open) {
+            assertEquals(open, context.isActive());
+            this.edges.add(open);
+        }
+
+        public void reset() {
+        }
+
+        public void close() {
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            assertTrue(context.isActive());
+            this.processed++;
+        }
+    }
+
+    public static class TallyStage implements SpeechProcessor {
+        private static final List<TallyStage> instances = new ArrayList<>();
+        private volatile int frames;
+        private boolean reset;
+        private boolean closed;
+
+        public TallyStage(SpeechConfig config) {
+            instances.add(this);
+        }
+
+        public void reset() {
+            this.reset = true;
+        }
+
+        public void close() {
+            this.closed = true;
+        }
+
+        public void process(SpeechContext context, ByteBuffer frame) {
+            this.frames++;
+        }
+    }
+
     public static class FailInput implements SpeechInput {
         public FailInput(SpeechConfig config) {
         }
@@ -471,6 +815,30 @@ public class SpeechPipelineTest implements OnSpeechEventListener {
         }
     }
 
+    private static class TallyProfile implements PipelineProfile {
+        public TallyProfile() {}
+
+        @Override
+        public SpeechPipeline.Builder apply(SpeechPipeline.Builder builder) {
+            return builder
+                  .setProperty("profile-property", 1)
+                  .setStageClasses(Collections.singletonList(
+                        "io.spokestack.spokestack.SpeechPipelineTest$TallyStage"));
+        }
+    }
+
+    private static class FailProfile implements PipelineProfile {
+        public FailProfile() {}
+
+        @Override
+        public SpeechPipeline.Builder apply(SpeechPipeline.Builder builder) {
+            return builder
+                  .setProperty("profile-property", 0)
+                  .setStageClasses(Collections.singletonList(
+                        "io.spokestack.spokestack.MissingStage"));
+        }
+    }
+
     private static class TestProfile implements PipelineProfile {
 
         public TestProfile() {}
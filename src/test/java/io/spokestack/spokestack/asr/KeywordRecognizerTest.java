@@ -11,6 +11,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import static org.mockito.Mockito.*;
 
+import io.spokestack.spokestack.FeatureExtractor;
+import io.spokestack.spokestack.GatedProcessor;
 import io.spokestack.spokestack.OnSpeechEventListener;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechContext;
@@ -173,6 +175,72 @@ public class KeywordRecognizerTest {
         assertEquals(0.9f, env.context.getConfidence());
     }
 
+    @Test
+    public void testGating() throws Exception {
+        // verify that the recognizer keeps sampling while inactive,
+        // so that the first active frame is analyzed immediately, even
+        // though its window spans multiple frames
+        TestEnv env = new TestEnv(testConfig()
+            .put("keyword-fft-window-size", 320));
+        assertEquals(0, env.recognizer.getGate());
+
+        env.context.setActive(false);
+        for (int i = 0; i < 2; i++)
+            env.process();
+        verify(env.filter, never()).run();
+
+        env.context.setActive(true);
+        env.process();
+        verify(env.filter).run();
+        verify(env.detect, never()).run();
+
+        // the shared feature path is gated, and runs detection
+        // when its gate closes
+        env = new TestEnv(testConfig()
+            .put("mel-features", "shared")
+            .put("mel-filter-path", "filter-path")
+            .put("fft-window-size", 160));
+        assertEquals(GatedProcessor.ACTIVE, env.recognizer.getGate());
+        env.context.setActive(true);
+        env.recognizer.onGateChange(env.context, true);
+        env.process();
+        env.context.setActive(false);
+        env.recognizer.onGateChange(env.context, false);
+        verify(env.detect).run();
+        assertEquals(SpeechContext.Event.TIMEOUT, env.event);
+
+        // closing the gate again doesn't repeat detection
+        env.recognizer.onGateChange(env.context, true);
+        env.recognizer.onGateChange(env.context, false);
+        verify(env.detect).run();
+    }
+
+    @Test
+    public void testSharedFeatures() throws Exception {
+        // verify that the recognizer runs only its encoder and detector
+        // over mel frames published by a feature extractor
+        TestEnv env = new TestEnv(testConfig()
+            .put("mel-features", "shared")
+            .put("mel-filter-path", "filter-path")
+            .put("fft-window-size", 160));
+
+        env.context.setActive(false);
+        env.process();
+        verify(env.encode, never()).run();
+
+        env.context.setActive(true);
+        env.recognizer.onGateChange(env.context, true);
+        env.process();
+        verify(env.encode, atLeast(1)).run();
+        verify(env.detect, never()).run();
+
+        env.context.setActive(false);
+        env.detect.setOutputs(0.5f, 0.9f);
+        env.process();
+        assertEquals(SpeechContext.Event.RECOGNIZE, env.event);
+        assertEquals("dog", env.context.getTranscript());
+    }
+
     @Test
     public void testTracing() throws Exception {
         // exercise trace events on deactivation/recognition
@@ -214,6 +282,15 @@ public class KeywordRecognizerTest {
         public void run() {
             this.inputs(0).rewind();
             this.outputs(0).rewind();
+            this.floatInputs(0).rewind();
+            this.floatOutputs(0).rewind();
+        }
+
+        public static void bindViews(TestModel model) {
+            doReturn(model.inputs(0).asFloatBuffer())
+                .when(model).floatInputs(0);
+            doReturn(model.outputs(0).asFloatBuffer())
+                .when(model).floatOutputs(0);
         }
 
         public final void setOutputs(float ...outputs) {
@@ -229,6 +306,7 @@ public class KeywordRecognizerTest {
         public final TestModel encode;
         public final TestModel detect;
         public final ByteBuffer frame;
+        public final FeatureExtractor features;
         public final KeywordRecognizer recognizer;
         public final SpeechContext context;
         public SpeechContext.Event event;
@@ -279,6 +357,9 @@ public class KeywordRecognizerTest {
                         .allocateDirect(2 * 4)
                         .order(ByteOrder.nativeOrder()))
                 .when(this.detect).outputs(0);
+            TestModel.bindViews(this.filter);
+            TestModel.bindViews(this.encode);
+            TestModel.bindViews(this.detect);
             doCallRealMethod().when(this.filter).run();
             doCallRealMethod().when(this.encode).run();
             doCallRealMethod().when(this.detect).run();
@@ -289,6 +370,9 @@ public class KeywordRecognizerTest {
 
             // create the frame buffer and keyword recognizer
             this.frame = ByteBuffer.allocateDirect(frameWidth * sampleRate / 1000 * 2);
+            this.features = "shared".equals(config.getString("mel-features", "local"))
+                ? new FeatureExtractor(config, this.loader)
+                : null;
             this.recognizer = new KeywordRecognizer(config, this.loader);
 
             // create the speech context for processing calls
@@ -297,6 +381,8 @@ public class KeywordRecognizerTest {
         }
 
         public void process() throws Exception {
+            if (this.features != null)
+                this.features.process(this.context, this.frame);
             this.recognizer.process(this.context, this.frame);
         }
 
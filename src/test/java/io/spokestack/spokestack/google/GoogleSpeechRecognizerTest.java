@@ -19,6 +19,7 @@ import com.google.cloud.speech.v1.StreamingRecognizeResponse;
 import com.google.cloud.speech.v1.StreamingRecognitionResult;
 import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
 
+import io.spokestack.spokestack.FrameRing;
 import io.spokestack.spokestack.OnSpeechEventListener;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechContext;
@@ -93,6 +94,43 @@ public class GoogleSpeechRecognizerTest implements OnSpeechEventListener {
         verify(client.getStub()).close();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPreRoll() throws Exception {
+        SpeechConfig config = createConfig();
+        config.put("google-preroll-width", 25);
+        SpeechContext context = new SpeechContext(config);
+        FrameRing ring = new FrameRing(4, 320, 10);
+        for (int i = 1; i <= 6; i++) {
+            ring.rotate().putShort(0, (short) i);
+        }
+        context.attachBuffer(ring);
+        MockSpeechClient client = spy(MockSpeechClient.class);
+        GoogleSpeechRecognizer recognizer =
+            new GoogleSpeechRecognizer(config, client);
+
+        // the last 30ms of the ring are sent in bulk; they wrap around
+        // the end of its storage, so they are sent in two requests
+        context.setActive(true);
+        recognizer.process(context, ring.getLast());
+        ArgumentCaptor<StreamingRecognizeRequest> requests =
+            ArgumentCaptor.forClass(StreamingRecognizeRequest.class);
+        verify(client.getRequests(), times(3)).onNext(requests.capture());
+        List<StreamingRecognizeRequest> sent = requests.getAllValues();
+        ByteBuffer first = sent.get(1).getAudioContent().asReadOnlyByteBuffer()
+            .order(ring.getFirst().order());
+        ByteBuffer second = sent.get(2).getAudioContent()
+            .asReadOnlyByteBuffer()
+            .order(ring.getFirst().order());
+        assertEquals(320, first.remaining());
+        assertEquals(4, first.getShort(0));
+        assertEquals(640, second.remaining());
+        assertEquals(5, second.getShort(0));
+        assertEquals(6, second.getShort(320));
+
+        recognizer.close();
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testTimeout() throws Exception {
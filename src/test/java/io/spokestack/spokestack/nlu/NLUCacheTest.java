@@ -0,0 +1,109 @@
+package io.spokestack.spokestack.nlu;
+
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.nlu.tensorflow.NLUTestUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NLUCacheTest {
+
+    @Test
+    public void testCache() {
+        assertThrows(IllegalArgumentException.class, () -> new NLUCache(0));
+
+        NLUCache cache = new NLUCache(2);
+        assertEquals(2, cache.getCapacity());
+        assertNull(cache.get("next"));
+        assertEquals(1, cache.getMissCount());
+
+        // results are keyed by utterances with normalized whitespace
+        cache.put("play  music ", result("play  music ", "play"));
+        NLUResult cached = cache.get("\tplay music");
+        assertEquals("play", cached.getIntent());
+        assertEquals(0.5f, cached.getConfidence());
+        assertEquals("\tplay music", cached.getUtterance());
+        assertEquals(1, cached.getSlots().size());
+        assertNull(cache.get("Play music"));
+        assertNull(cache.get("playmusic"));
+        assertEquals(1, cache.getHitCount());
+
+        // errors aren't cached
+        cache.put("error", new NLUResult.Builder("error")
+              .withError(new IllegalStateException())
+              .build());
+        assertNull(cache.get("error"));
+
+        // the least recently used result is evicted
+        cache.put("next", result("next", "next"));
+        cache.get("play music");
+        cache.put("stop", result("stop", "stop"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("next"));
+        assertNotNull(cache.get("play music"));
+        assertNotNull(cache.get("stop"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("stop"));
+        assertEquals(4, cache.getHitCount());
+    }
+
+    @Test
+    public void testManager() throws Exception {
+        NLUManager manager = new NLUManager.Builder()
+              .setServiceClass(NLUTestUtils.MockNLU.class.getName())
+              .build();
+        assertNull(manager.getCache());
+
+        manager = new NLUManager.Builder()
+              .setServiceClass(ContextNLU.class.getName())
+              .setProperty("nlu-cache-size", 10)
+              .build();
+        NLUCache cache = manager.getCache();
+        assertEquals("next", manager.classify("next").get().getIntent());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        // repeated utterances are resolved by the cache
+        NLUResult result = manager.classify(" next ").get();
+        assertEquals("next", result.getIntent());
+        assertEquals(" next ", result.getUtterance());
+        assertEquals(1, cache.getHitCount());
+
+        // requests with metadata bypass the cache
+        HashMap<String, Object> metadata = new HashMap<>();
+        metadata.put("key", "value");
+        ContextNLU.context.setRequestMetadata(metadata);
+        manager.classify("next").get();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // rebuilding the service clears the cache
+        manager.close();
+        manager.prepare();
+        assertEquals(0, cache.size());
+    }
+
+    private NLUResult result(String utterance, String intent) {
+        HashMap<String, Slot> slots = new HashMap<>();
+        slots.put("slot", new Slot("slot", "value", "value"));
+        return new NLUResult.Builder(utterance)
+              .withIntent(intent)
+              .withConfidence(0.5f)
+              .withSlots(slots)
+              .build();
+    }
+
+    public static class ContextNLU extends NLUTestUtils.MockNLU {
+        private static NLUContext context;
+
+        public ContextNLU(SpeechConfig config, NLUContext nluContext) {
+            super(config, nluContext);
+            context = nluContext;
+        }
+    }
+}
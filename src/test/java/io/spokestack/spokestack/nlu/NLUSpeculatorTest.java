@@ -0,0 +1,132 @@
+package io.spokestack.spokestack.nlu;
+
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.util.AsyncResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NLUSpeculatorTest {
+
+    @Test
+    public void testSpeculation() throws Exception {
+        assertThrows(IllegalArgumentException.class, () ->
+              new NLUSpeculator(0));
+
+        NLUManager manager = new NLUManager.Builder()
+              .setServiceClass(DeferredNLU.class.getName())
+              .build();
+        assertNull(manager.getSpeculator());
+        manager.speculate("play");
+        assertTrue(DeferredNLU.requests.isEmpty());
+
+        manager = new NLUManager.Builder()
+              .setServiceClass(DeferredNLU.class.getName())
+              .setProperty("nlu-speculation-stability", 2)
+              .build();
+        NLUSpeculator speculator = manager.getSpeculator();
+
+        // partial transcripts are classified once they're stable
+        manager.speculate("play");
+        manager.speculate("play music");
+        assertTrue(DeferredNLU.requests.isEmpty());
+        manager.speculate("play music");
+        manager.speculate("play music");
+        assertEquals(1, DeferredNLU.requests.size());
+        assertEquals(1, speculator.getSpeculationCount());
+
+        // a newer stable transcript cancels the superseded request
+        AsyncResult<NLUResult> superseded = DeferredNLU.requests.get(0);
+        manager.speculate("play music by");
+        manager.speculate("play music by");
+        assertTrue(superseded.isCancelled());
+        assertEquals(1, speculator.getCancellationCount());
+        AsyncResult<NLUResult> speculative = DeferredNLU.requests.get(1);
+        speculative.run();
+
+        // a matching final transcript reuses the speculative result
+        AsyncResult<NLUResult> result = manager.classify("play music by");
+        assertSame(speculative, result);
+        assertEquals("play music by", result.get().getIntent());
+        assertEquals(2, DeferredNLU.requests.size());
+        assertEquals(1, speculator.getReuseCount());
+        assertEquals(1.0, speculator.getReuseRate());
+        assertTrue(speculator.getLatencySaved() >= 0);
+
+        // a different final transcript is classified normally
+        manager.speculate("stop");
+        manager.speculate("stop");
+        speculative = DeferredNLU.requests.get(2);
+        result = manager.classify("stop it");
+        assertNotSame(speculative, result);
+        assertTrue(speculative.isCancelled());
+        assertEquals(4, DeferredNLU.requests.size());
+        assertEquals(2, speculator.getFinalCount());
+        assertEquals(0.5, speculator.getReuseRate());
+        assertEquals(2, speculator.getCancellationCount());
+
+        // speculation has its own context, so the service's reset of it
+        // leaves the manager's request metadata intact
+        HashMap<String, Object> metadata = new HashMap<>();
+        metadata.put("key", "value");
+        DeferredNLU.context.setRequestMetadata(metadata);
+        manager.speculate("pause");
+        manager.speculate("pause");
+        speculative = DeferredNLU.requests.get(4);
+        NLUContext speculationContext = DeferredNLU.contexts.get(4);
+        assertNotSame(DeferredNLU.context, speculationContext);
+        assertTrue(speculationContext.getRequestMetadata().isEmpty());
+        speculationContext.reset();
+        assertEquals("value",
+              DeferredNLU.context.getRequestMetadata().get("key"));
+
+        // a final transcript with request metadata is classified normally
+        result = manager.classify("pause");
+        assertNotSame(speculative, result);
+        assertTrue(speculative.isCancelled());
+        assertSame(DeferredNLU.context, DeferredNLU.contexts.get(5));
+        assertEquals(3, speculator.getFinalCount());
+        assertEquals(1, speculator.getReuseCount());
+        DeferredNLU.context.reset();
+
+        // closing the manager cancels speculation
+        manager.speculate("next");
+        manager.speculate("next");
+        speculative = DeferredNLU.requests.get(6);
+        manager.close();
+        assertTrue(speculative.isCancelled());
+        DeferredNLU.requests.clear();
+        DeferredNLU.contexts.clear();
+    }
+
+    public static class DeferredNLU implements NLUService {
+        private static final List<AsyncResult<NLUResult>> requests =
+              new ArrayList<>();
+        private static final List<NLUContext> contexts = new ArrayList<>();
+        private static NLUContext context;
+
+        public DeferredNLU(SpeechConfig config, NLUContext nluContext) {
+            context = nluContext;
+        }
+
+        @Override
+        public AsyncResult<NLUResult> classify(String utterance,
+                                               NLUContext nluContext) {
+            contexts.add(nluContext);
+            AsyncResult<NLUResult> result = new AsyncResult<>(() ->
+                  new NLUResult.Builder(utterance)
+                        .withIntent(utterance)
+                        .build());
+            requests.add(result);
+            return result;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
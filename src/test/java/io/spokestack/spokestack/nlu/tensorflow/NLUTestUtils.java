@@ -79,22 +79,7 @@ public class NLUTestUtils {
             // create/mock tensorflow-lite models
             int maxTokens = 100;
             this.loader = spy(TensorflowModel.Loader.class);
-            this.testModel = mock(TestModel.class);
-
-            doReturn(ByteBuffer
-                  .allocateDirect(maxTokens * metadata.getIntents().length * 4)
-                  .order(ByteOrder.nativeOrder()))
-                  .when(this.testModel).inputs(0);
-            doReturn(ByteBuffer
-                  .allocateDirect(metadata.getIntents().length * 4)
-                  .order(ByteOrder.nativeOrder()))
-                  .when(this.testModel).outputs(0);
-            doReturn(ByteBuffer
-                  .allocateDirect(maxTokens * metadata.getTags().length * 4)
-                  .order(ByteOrder.nativeOrder()))
-                  .when(this.testModel).outputs(1);
-            doReturn(4).when(this.testModel).getInputSize();
-            doCallRealMethod().when(this.testModel).run();
+            this.testModel = mockModel(maxTokens);
             doReturn(this.testModel)
                   .when(this.loader).load();
 
@@ -105,6 +90,37 @@ public class NLUTestUtils {
                         .setTextEncoder(this);
         }
 
+        public TestModel mockModel(int maxTokens) {
+            return mockModel(maxTokens, 1);
+        }
+
+        public TestModel mockModel(int maxTokens, int batchSize) {
+            int numIntents = metadata.getIntents().length;
+            int numTags = metadata.getTags().length;
+            TestModel model = mock(TestModel.class);
+            doReturn(ByteBuffer
+                  .allocateDirect(batchSize * maxTokens * numIntents * 4)
+                  .order(ByteOrder.nativeOrder()))
+                  .when(model).inputs(0);
+            doReturn(ByteBuffer
+                  .allocateDirect(batchSize * numIntents * 4)
+                  .order(ByteOrder.nativeOrder()))
+                  .when(model).outputs(0);
+            doReturn(ByteBuffer
+                  .allocateDirect(batchSize * maxTokens * numTags * 4)
+                  .order(ByteOrder.nativeOrder()))
+                  .when(model).outputs(1);
+            doReturn(4).when(model).getInputSize();
+            doAnswer(invocation -> new int[] {batchSize, maxTokens})
+                  .when(model).getInputShape(0);
+            doAnswer(invocation -> new int[] {batchSize, numIntents})
+                  .when(model).getOutputShape(0);
+            doAnswer(invocation -> new int[] {batchSize, maxTokens, numTags})
+                  .when(model).getOutputShape(1);
+            doCallRealMethod().when(model).run();
+            return model;
+        }
+
         private Metadata loadMetadata(String metadataPath)
               throws FileNotFoundException {
             FileReader fileReader = new FileReader(metadataPath);
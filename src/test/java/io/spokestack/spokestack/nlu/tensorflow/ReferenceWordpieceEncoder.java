@@ -0,0 +1,150 @@
+package io.spokestack.spokestack.nlu.tensorflow;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The original, map-based implementation of the wordpiece encoder, which
+ * {@link WordpieceTextEncoder} must match exactly. Used for testing and
+ * benchmarking.
+ */
+final class ReferenceWordpieceEncoder implements TextEncoder {
+    private static final String UNKNOWN = "[UNK]";
+    private static final String SUFFIX_MARKER = "##";
+
+    private final HashMap<String, Integer> vocabulary = new HashMap<>();
+
+    ReferenceWordpieceEncoder(String fileName) throws IOException {
+        try (
+              FileInputStream inputStream = new FileInputStream(fileName);
+              BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(inputStream))) {
+            int index = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                this.vocabulary.put(line, index);
+                line = reader.readLine();
+                index++;
+            }
+        }
+    }
+
+    @Override
+    public int encodeSingle(String token) {
+        Integer tokenId = this.vocabulary.get(token);
+        if (tokenId == null) {
+            tokenId = this.vocabulary.get(UNKNOWN);
+        }
+        return tokenId;
+    }
+
+    @Override
+    public EncodedTokens encode(String text) {
+        String[] spaceSeparated = text.split("[\\s\\p{Space}]+");
+        EncodedTokens encoded = new EncodedTokens(spaceSeparated);
+
+        String token;
+        String[] punctSeparated;
+        List<Integer> pieceToOriginal = new ArrayList<>();
+        for (int i = 0; i < spaceSeparated.length; i++) {
+            token = spaceSeparated[i];
+            punctSeparated = normalizeAndStripPunct(token);
+            for (String subToken : punctSeparated) {
+                List<Integer> ids = encodeWordpieces(subToken);
+                encoded.addTokenIds(ids);
+                for (int j = 0; j < ids.size(); j++) {
+                    pieceToOriginal.add(i);
+                }
+            }
+        }
+        encoded.setOriginalIndices(pieceToOriginal);
+        return encoded;
+    }
+
+    private String[] normalizeAndStripPunct(String word) {
+        // drop diacritics and split punctuation characters off the main word
+        // we do this via iteration in order to do both tasks in a single pass
+        // input to this method is expected to have been split on whitespace
+        List<String> subTokens = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        String decomposed = Normalizer.normalize(word, Normalizer.Form.NFD);
+        for (int i = 0; i < decomposed.length(); i++) {
+            char ch = decomposed.charAt(i);
+            if (isPunctuation(ch)) {
+                if (builder.length() > 0) {
+                    subTokens.add(builder.toString().toLowerCase());
+                    builder = new StringBuilder();
+                }
+                subTokens.add(String.valueOf(ch));
+            } else if (!isInvalid(ch)) {
+                builder.append(ch);
+            }
+        }
+        if (builder.length() > 0) {
+            subTokens.add(builder.toString().toLowerCase());
+        }
+
+        return subTokens.toArray(new String[0]);
+    }
+
+    private boolean isInvalid(char ch) {
+        int charType = Character.getType(ch);
+        return (charType == Character.NON_SPACING_MARK
+              || charType == Character.DIRECTIONALITY_NONSPACING_MARK
+              || charType == Character.ENCLOSING_MARK
+              || charType == Character.FORMAT
+              || charType == Character.CONTROL);
+    }
+
+    private boolean isPunctuation(char ch) {
+        int type = Character.getType(ch);
+        // all types between DASH and OTHER are also punctuation,
+        // but the quote groups are off by themselves
+        return (type >= Character.DASH_PUNCTUATION
+              && type <= Character.OTHER_PUNCTUATION)
+              || type == Character.INITIAL_QUOTE_PUNCTUATION
+              || type == Character.FINAL_QUOTE_PUNCTUATION;
+    }
+
+    private List<Integer> encodeWordpieces(String word) {
+        List<Integer> ids = new ArrayList<>();
+        String unencoded = encodeLongestWordpieces(word, "", ids);
+        if (unencoded != null) {
+            // if we can't encode part of the word, we can't encode any of it;
+            // there is no ##[UNK], for good reason
+            ids.clear();
+            ids.add(this.vocabulary.get(UNKNOWN));
+        }
+        return ids;
+    }
+
+    private String encodeLongestWordpieces(String text,
+                                           String prefix,
+                                           List<Integer> soFar) {
+        String combined = prefix + text;
+        if (this.vocabulary.containsKey(combined)) {
+            soFar.add(this.vocabulary.get(combined));
+            return null;
+        }
+
+        String unencoded = combined;
+        int minIndex = prefix.isEmpty() ? 0 : prefix.length();
+        for (int i = combined.length() - 1; i > minIndex; i--) {
+            String subToken = combined.substring(0, i);
+            Integer id = this.vocabulary.get(subToken);
+            if (id != null) {
+                soFar.add(id);
+                unencoded = encodeLongestWordpieces(
+                      combined.substring(i), SUFFIX_MARKER, soFar);
+                break;
+            }
+        }
+        return unencoded;
+    }
+}
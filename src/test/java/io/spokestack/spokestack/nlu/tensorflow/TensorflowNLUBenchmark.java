@@ -0,0 +1,108 @@
+package io.spokestack.spokestack.nlu.tensorflow;
+
+import android.os.SystemClock;
+import io.spokestack.spokestack.nlu.NLUResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assume.assumeTrue;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+/**
+ * classification throughput of the NLU batching options, on the host CPU.
+ * this benchmark requires a model and the native tensorflow-lite library, so
+ * it is not run with the unit tests. it is run as follows:
+ *
+ * mvn test -Dtest=TensorflowNLUBenchmark \
+ *   -Dnlu.benchmark.model=path/to/nlu.tflite \
+ *   -Dnlu.benchmark.metadata=path/to/metadata.json \
+ *   -Dnlu.benchmark.vocab=path/to/vocab.txt \
+ *   -Dnlu.benchmark.batches=1,4,8 \
+ *   -Dnlu.benchmark.callers=8
+ *
+ * each batch size is measured both with concurrent callers of classify,
+ * which are collected into batches, and with classifyBatch.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SystemClock.class)
+public class TensorflowNLUBenchmark {
+    private static final String[] UTTERANCES = {
+          "what's the weather like today",
+          "play the next song",
+          "set a timer for ten minutes",
+          "turn off the lights in the kitchen",
+          "how many miles is it to the nearest gas station from here",
+          "stop",
+    };
+
+    @Before
+    public void before() {
+        mockStatic(SystemClock.class);
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        String model = System.getProperty("nlu.benchmark.model");
+        String metadata = System.getProperty("nlu.benchmark.metadata");
+        String vocab = System.getProperty("nlu.benchmark.vocab");
+        assumeTrue(model != null && metadata != null && vocab != null);
+        String batches = System.getProperty("nlu.benchmark.batches", "1,4,8");
+        int callers = Integer.getInteger("nlu.benchmark.callers", 8);
+        int count = Integer.getInteger("nlu.benchmark.utterances", 512);
+        List<String> utterances = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            utterances.add(UTTERANCES[i % UTTERANCES.length]);
+        }
+
+        System.out.printf("%-8s %12s %14s%n",
+              "batch", "concurrent/s", "classifyBatch/s");
+        for (String batch : batches.split(",")) {
+            TensorflowNLU nlu = new TensorflowNLU.Builder()
+                  .setProperty("nlu-model-path", model)
+                  .setProperty("nlu-metadata-path", metadata)
+                  .setProperty("wordpiece-vocab-path", vocab)
+                  .setProperty("nlu-batch-size", Integer.parseInt(batch.trim()))
+                  .build();
+            try {
+                // warm up before timing
+                nlu.classifyBatch(utterances.subList(0, 16)).get();
+                double concurrent = concurrent(nlu, utterances, callers);
+                long start = System.nanoTime();
+                nlu.classifyBatch(utterances).get();
+                double batched = count / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("%-8s %12.1f %14.1f%n",
+                      batch.trim(), concurrent, batched);
+            } finally {
+                nlu.close();
+            }
+        }
+    }
+
+    private double concurrent(TensorflowNLU nlu,
+                              List<String> utterances,
+                              int callers) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            long start = System.nanoTime();
+            List<Future<NLUResult>> results = new ArrayList<>();
+            for (String utterance : utterances) {
+                results.add(pool.submit(() -> nlu.classify(utterance).get()));
+            }
+            for (Future<NLUResult> result : results) {
+                result.get();
+            }
+            return utterances.size() / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
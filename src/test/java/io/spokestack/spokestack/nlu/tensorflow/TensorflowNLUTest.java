@@ -12,14 +12,18 @@ import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.spokestack.spokestack.nlu.tensorflow.NLUTestUtils.TestEnv;
 import static io.spokestack.spokestack.nlu.tensorflow.NLUTestUtils.testConfig;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 @RunWith(PowerMockRunner.class)
@@ -142,6 +146,121 @@ public class TensorflowNLUTest {
         assertTrue(result.getContext().isEmpty());
     }
 
+    @Test
+    public void testBuckets() throws Exception {
+        // invalid lengths
+        assertThrows(IllegalArgumentException.class, () ->
+              new TestEnv(testConfig().put("nlu-length-buckets", "4,-1"))
+                    .nluBuilder.build());
+
+        // buckets that aren't shorter than the model are ignored
+        TestEnv env = new TestEnv(
+              testConfig().put("nlu-length-buckets", "8, 4,100000"));
+        NLUTestUtils.TestModel short4 = env.mockModel(4);
+        NLUTestUtils.TestModel short8 = env.mockModel(8);
+        doReturn(env.testModel, short4, short8).when(env.loader).load();
+        int numIntents = env.metadata.getIntents().length;
+
+        // the shortest instance with room for the separator is run
+        short4.setOutputs(buildIntentResult(2, numIntents), new float[0]);
+        NLUResult result = env.classify("a b c").get();
+        assertNull(result.getError());
+        assertEquals("describe_test", result.getIntent());
+        verify(env.loader).setInputShape(0, new int[] {1, 4});
+        verify(env.loader).setInputShape(0, new int[] {1, 8});
+        verify(short4, times(2)).run();
+        verify(short8, times(1)).run();
+
+        short8.setOutputs(buildIntentResult(1, numIntents), new float[0]);
+        result = env.classify("a b c d").get();
+        assertNull(result.getError());
+        assertEquals(env.metadata.getIntents()[1].getName(),
+              result.getIntent());
+        verify(short8, times(2)).run();
+
+        // longer utterances run the full model
+        env.testModel.setOutputs(
+              buildIntentResult(2, numIntents), new float[0]);
+        result = env.classify("a b c d e f g h i").get();
+        assertNull(result.getError());
+        verify(env.testModel, times(2)).run();
+
+        env.nlu.close();
+        verify(short4).close();
+        verify(short8).close();
+        verify(env.testModel).close();
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        // invalid batch size
+        assertThrows(IllegalArgumentException.class, () ->
+              new TestEnv(testConfig().put("nlu-batch-size", 0))
+                    .nluBuilder.build());
+
+        TestEnv env = new TestEnv(testConfig()
+              .put("nlu-batch-size", 2)
+              .put("nlu-batch-wait", 1000)
+              .put("trace-level", EventTracer.Level.PERF.value()));
+        AtomicBoolean waitTraced = new AtomicBoolean(false);
+        env.nluBuilder.addTraceListener((level, message) -> {
+            if (message.startsWith("Batch wait")) {
+                waitTraced.set(true);
+            }
+        });
+        NLUTestUtils.TestModel batch = env.mockModel(100, 2);
+        doReturn(env.testModel, batch).when(env.loader).load();
+        int numIntents = env.metadata.getIntents().length;
+        float[] intents = new float[numIntents * 2];
+        intents[2] = 10;
+        intents[numIntents + 1] = 10;
+        batch.setOutputs(intents, new float[0]);
+        env.testModel.setOutputs(
+              buildIntentResult(2, numIntents), new float[0]);
+
+        // concurrent requests are classified by a single batched run
+        Future<NLUResult> first = env.classify("a b c");
+        Future<NLUResult> second = env.nlu.classify("d e");
+        NLUResult result = first.get();
+        assertNull(result.getError());
+        assertEquals("a b c", result.getUtterance());
+        assertEquals("describe_test", result.getIntent());
+        result = second.get();
+        assertNull(result.getError());
+        assertEquals("d e", result.getUtterance());
+        assertEquals(env.metadata.getIntents()[1].getName(),
+              result.getIntent());
+        verify(env.loader).setInputShape(0, new int[] {2, 100});
+        verify(env.loader).setOutputShape(0, new int[] {2, numIntents});
+        verify(batch, times(2)).run();
+        verify(env.testModel, times(1)).run();
+        assertTrue(waitTraced.get());
+
+        // a request that no others join waits for the batch, and is
+        // classified by the unbatched model
+        result = env.nlu.classify("f g").get();
+        assertNull(result.getError());
+        assertEquals("describe_test", result.getIntent());
+        verify(batch, times(2)).run();
+        verify(env.testModel, times(2)).run();
+
+        // lists are classified in batches, with errors in their own results
+        List<NLUResult> results = env.nlu
+              .classifyBatch(Arrays.asList("a", "error", "b c"))
+              .get();
+        assertEquals(3, results.size());
+        assertNull(results.get(0).getError());
+        assertEquals("describe_test", results.get(0).getIntent());
+        assertNotNull(results.get(1).getError());
+        assertNull(results.get(2).getError());
+        assertEquals("describe_test", results.get(2).getIntent());
+        verify(batch, times(3)).run();
+        verify(env.testModel, times(3)).run();
+
+        env.nlu.close();
+        verify(batch).close();
+    }
+
     private float[] buildIntentResult(int index, int numIntents) {
         float[] result = new float[numIntents];
         result[index] = 10;
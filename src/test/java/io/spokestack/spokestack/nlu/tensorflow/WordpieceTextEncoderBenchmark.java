@@ -0,0 +1,125 @@
+package io.spokestack.spokestack.nlu.tensorflow;
+
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.nlu.NLUContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * encoding throughput and allocation of the trie-based wordpiece encoder,
+ * and the load time and heap use of its text and compiled vocabularies,
+ * compared to the original map-based encoder. this benchmark requires a full
+ * vocabulary, so it is not run with the unit tests. it is run as follows:
+ *
+ * mvn test -Dtest=WordpieceTextEncoderBenchmark \
+ *   -Dwordpiece.benchmark.vocab=path/to/vocab.txt \
+ *   -Dwordpiece.benchmark.runs=100000
+ */
+public class WordpieceTextEncoderBenchmark {
+    private static final String[] UTTERANCES = {
+          "what's the weather like today",
+          "Play the next song by Beyoncé",
+          "set a timer for ten minutes, please",
+          "turn off the lights in the kitchen",
+          "how many miles is it to the nearest gas station from here?",
+          "stop",
+    };
+
+    @Test
+    public void encode() throws Exception {
+        String vocab = System.getProperty("wordpiece.benchmark.vocab");
+        assumeTrue(vocab != null);
+        int runs = Integer.getInteger("wordpiece.benchmark.runs", 100000);
+        SpeechConfig config = new SpeechConfig()
+              .put("wordpiece-vocab-path", vocab);
+
+        System.out.printf("%-10s %12s %14s%n",
+              "encoder", "mean (ns)", "alloc (bytes)");
+        measure("map", new ReferenceWordpieceEncoder(vocab), runs);
+        measure("trie", new WordpieceTextEncoder(
+              config, new NLUContext(config)), runs);
+    }
+
+    private TextEncoder loaded;
+
+    @Test
+    public void load() throws Exception {
+        String vocab = System.getProperty("wordpiece.benchmark.vocab");
+        assumeTrue(vocab != null);
+        File compiled = File.createTempFile("vocab", ".bin");
+        compiled.deleteOnExit();
+        WordpieceVocabCompiler.compile(vocab, compiled.getPath());
+
+        System.out.printf("%-10s %12s %14s%n",
+              "vocab", "load (ms)", "heap (bytes)");
+        measureLoad("map", () -> new ReferenceWordpieceEncoder(vocab));
+        measureLoad("text", () -> encoder(vocab));
+        measureLoad("compiled", () -> encoder(compiled.getPath()));
+    }
+
+    private TextEncoder encoder(String path) {
+        SpeechConfig config = new SpeechConfig()
+              .put("wordpiece-vocab-path", path);
+        return new WordpieceTextEncoder(config, new NLUContext(config));
+    }
+
+    private void measureLoad(String name, EncoderFactory factory)
+          throws Exception {
+        long start = System.nanoTime();
+        this.loaded = factory.create();
+        // wait for the vocabulary to finish loading
+        this.loaded.encodeSingle("[UNK]");
+        double load = (System.nanoTime() - start) / 1e6;
+
+        // measure the heap retained by the encoder by releasing it
+        long heap = usedHeap();
+        this.loaded = null;
+        heap -= usedHeap();
+        System.out.printf("%-10s %12.2f %14d%n", name, load, heap);
+    }
+
+    private long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private interface EncoderFactory {
+        TextEncoder create() throws Exception;
+    }
+
+    private void measure(String name, TextEncoder encoder, int runs) {
+        // warm up before timing runs
+        for (int i = 0; i < runs; i++) {
+            encoder.encode(UTTERANCES[i % UTTERANCES.length]);
+        }
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            encoder.encode(UTTERANCES[i % UTTERANCES.length]);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        System.out.printf("%-10s %12.1f %14d%n",
+              name,
+              (double) elapsed / runs,
+              allocated / runs);
+    }
+
+    private long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                  .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
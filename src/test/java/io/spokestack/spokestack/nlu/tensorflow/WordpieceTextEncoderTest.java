@@ -6,13 +6,20 @@ import io.spokestack.spokestack.util.EventTracer;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WordpieceTextEncoderTest {
@@ -100,6 +107,113 @@ public class WordpieceTextEncoderTest {
         assertEquals("these)\" decisions", encoded.decodeRange(0, 9, true));
     }
 
+    @Test
+    public void compiledVocab() throws Exception {
+        File compiled = File.createTempFile("vocab", ".bin");
+        compiled.deleteOnExit();
+        WordpieceVocabCompiler.compile(VOCAB_PATH, compiled.getPath());
+        SpeechConfig config = new SpeechConfig();
+        config.put("wordpiece-vocab-path", compiled.getPath());
+        NLUContext context = new NLUContext(config);
+        AtomicBoolean loadError = new AtomicBoolean(false);
+        context.addTraceListener((level, message) -> {
+            if (level.equals(EventTracer.Level.ERROR)) {
+                loadError.set(true);
+            }
+        });
+
+        // compiled vocabularies are mapped without a loading thread
+        ControllableFactory factory = new ControllableFactory();
+        WordpieceTextEncoder encoder =
+              new WordpieceTextEncoder(config, context, factory);
+        assertNull(factory.theOneThread);
+        assertEquals(1, encoder.encodeSingle("the"));
+        assertEquals(0, encoder.encodeSingle("tea"));
+        assertEquals(Arrays.asList(0, 0, 1, 2, 3, 4, 5, 0),
+              encoder.encode("I made the WORST decisions.").getIds());
+        assertFalse(loadError.get());
+
+        // truncated vocabulary
+        try (RandomAccessFile file = new RandomAccessFile(compiled, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+        encoder = new WordpieceTextEncoder(config, context, factory);
+        assertNull(factory.theOneThread);
+        assertTrue(loadError.get());
+        assertEquals(-1, encoder.encodeSingle("the"));
+    }
+
+    @Test
+    public void matchesReference() throws Exception {
+        // random vocabularies and texts built from a small alphabet, so that
+        // partial matches, suffixes, and unknown words are all common
+        String[] pieces = {"a", "b", "c", "e", "i", "ı", "é", ".", "#", ",",
+              "ﬁ"};
+        String[] chars = {"a", "b", "c", "e", "A", "E", "I", "i", "é", "É",
+              "e\u0301", "ß", "ﬁ", "İ", "\u200b", "\u0001", ".", ",", "#",
+              "\"", "(", "1", " ", "  ", "\t", "\n", "\u000b"};
+        Random random = new Random(42);
+        Locale locale = Locale.getDefault();
+        try {
+            for (int v = 0; v < 20; v++) {
+                File vocab = File.createTempFile("vocab", ".txt");
+                vocab.deleteOnExit();
+                try (PrintWriter writer = new PrintWriter(vocab, "UTF-8")) {
+                    writer.println("[UNK]");
+                    for (int i = 0; i < 30; i++) {
+                        StringBuilder entry = new StringBuilder(
+                              random.nextBoolean() ? "##" : "");
+                        for (int j = random.nextInt(3); j >= 0; j--) {
+                            entry.append(
+                                  pieces[random.nextInt(pieces.length)]);
+                        }
+                        writer.println(entry);
+                    }
+                }
+                // alternate between text and compiled vocabularies
+                String path = vocab.getPath();
+                if (v % 2 == 1) {
+                    File compiled = File.createTempFile("vocab", ".bin");
+                    compiled.deleteOnExit();
+                    WordpieceVocabCompiler.compile(path, compiled.getPath());
+                    path = compiled.getPath();
+                }
+                SpeechConfig config = new SpeechConfig();
+                config.put("wordpiece-vocab-path", path);
+                WordpieceTextEncoder encoder = new WordpieceTextEncoder(
+                      config, new NLUContext(config));
+                ReferenceWordpieceEncoder reference =
+                      new ReferenceWordpieceEncoder(vocab.getPath());
+
+                Locale.setDefault(v % 4 == 0 ? new Locale("tr") : Locale.US);
+                for (int t = 0; t < 200; t++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int i = random.nextInt(12); i >= 0; i--) {
+                        text.append(chars[random.nextInt(chars.length)]);
+                    }
+                    assertSameEncoding(reference.encode(text.toString()),
+                          encoder.encode(text.toString()));
+                }
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private void assertSameEncoding(EncodedTokens expected,
+                                    EncodedTokens actual) {
+        assertEquals(expected.getIds(), actual.getIds());
+        int count = expected.getIds().size();
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.decodeRange(i, i + 1, false),
+                  actual.decodeRange(i, i + 1, false));
+        }
+        if (count > 0) {
+            assertEquals(expected.decodeRange(0, count, false),
+                  actual.decodeRange(0, count, false));
+        }
+    }
+
     static class ControllableFactory implements ThreadFactory {
         private Thread theOneThread;
 
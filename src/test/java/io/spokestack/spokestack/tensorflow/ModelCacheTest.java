@@ -0,0 +1,153 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.mockito.Mockito.*;
+
+import io.spokestack.spokestack.SpeechConfig;
+
+public class ModelCacheTest {
+    @Test
+    public void testConstruction() {
+        assertThrows(IllegalArgumentException.class, () ->
+            new ModelCache(-1));
+        assertEquals(100, new ModelCache(100).getBudget());
+
+        // the shared cache is configured by the pipeline configuration,
+        // but not by the loaders created from it
+        SpeechConfig config = new SpeechConfig();
+        ModelCache.configure(config);
+        assertEquals(0, ModelCache.getShared().getBudget());
+        config.put("model-cache-budget", 1234);
+        ModelCache.configure(config);
+        assertEquals(1234, ModelCache.getShared().getBudget());
+        new TensorflowModel.Loader(config.put("model-cache-budget", 10));
+        assertEquals(1234, ModelCache.getShared().getBudget());
+        ModelCache.getShared().setBudget(0);
+    }
+
+    @Test
+    public void testLeases() {
+        ModelCache cache = new ModelCache(1000);
+        TensorflowModel.Loader loader = spy(TensorflowModel.Loader.class);
+        loader.setCache(cache);
+        TensorflowModel first = mockModel(100);
+        TensorflowModel second = mockModel(100);
+        TensorflowModel other = mockModel(100);
+        doReturn(first, second, other).when(loader).create();
+
+        // concurrent leases of a model load separate instances
+        assertSame(first, loader.setPath("model").load());
+        assertSame(second, loader.setPath("model").load());
+        assertEquals(2, cache.getLeaseCount());
+        assertEquals(200, cache.getSize());
+        verify(first).setCache(cache);
+
+        // released models are reused, and cleared, by the same path
+        cache.release(first);
+        cache.release(first);
+        assertEquals(1, cache.getIdleCount());
+        assertSame(first, loader.setPath("model").load());
+        verify(first).clear();
+        assertEquals(0, cache.getIdleCount());
+
+        // but not by different options
+        cache.release(first);
+        assertSame(other, loader
+            .setPath("model")
+            .setStatePosition(1)
+            .load());
+        assertEquals(300, cache.getSize());
+
+        // the cache is retained when the loader is reset
+        loader.reset();
+        assertSame(first, loader.setPath("model").load());
+
+        // clearing the cache closes only idle models
+        cache.release(second);
+        cache.clear();
+        verify(second).dispose();
+        verify(first, never()).dispose();
+        assertEquals(200, cache.getSize());
+        assertEquals(2, cache.getLeaseCount());
+    }
+
+    @Test
+    public void testReplacedFile() throws Exception {
+        ModelCache cache = new ModelCache(1000);
+        TensorflowModel.Loader loader = spy(TensorflowModel.Loader.class);
+        loader.setCache(cache);
+        TensorflowModel first = mockModel(100);
+        TensorflowModel second = mockModel(100);
+        doReturn(first, second).when(loader).create();
+
+        File file = File.createTempFile("model", ".tflite");
+        file.deleteOnExit();
+        try {
+            Files.write(file.toPath(), new byte[4]);
+            String path = file.getPath();
+            assertSame(first, loader.setPath(path).load());
+            cache.release(first);
+            assertSame(first, loader.setPath(path).load());
+            cache.release(first);
+
+            // a model file that has been replaced is loaded again
+            Files.write(file.toPath(), new byte[8]);
+            assertSame(second, loader.setPath(path).load());
+            assertEquals(1, cache.getIdleCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        ModelCache cache = new ModelCache(250);
+        TensorflowModel.Loader loader = spy(TensorflowModel.Loader.class);
+        loader.setCache(cache);
+        TensorflowModel a = mockModel(100);
+        TensorflowModel b = mockModel(100);
+        TensorflowModel c = mockModel(100);
+        doReturn(a, b, c).when(loader).create();
+
+        // leased models are never evicted
+        loader.setPath("a").load();
+        loader.setPath("b").load();
+        loader.setPath("c").load();
+        assertEquals(300, cache.getSize());
+
+        // idle models are evicted in least recently used order
+        cache.release(a);
+        verify(a).dispose();
+        cache.release(b);
+        cache.release(c);
+        verify(b, never()).dispose();
+        assertSame(b, loader.setPath("b").load());
+        cache.release(b);
+        cache.setBudget(100);
+        verify(c).dispose();
+        verify(b, never()).dispose();
+        assertEquals(100, cache.getSize());
+
+        // models loaded from a buffer are not cached
+        TensorflowModel.Loader direct = spy(TensorflowModel.Loader.class);
+        TensorflowModel d = mockModel(100);
+        doReturn(d).when(direct).create();
+        direct.setCache(cache)
+            .setBuffer(ByteBuffer.allocateDirect(4))
+            .load();
+        assertEquals(0, cache.getLeaseCount());
+        verify(d, never()).setCache(cache);
+    }
+
+    private TensorflowModel mockModel(long size) {
+        TensorflowModel model = mock(TensorflowModel.class);
+        doReturn(size).when(model).getSize();
+        return model;
+    }
+}
@@ -0,0 +1,213 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel.Loader.DType;
+
+public class ModelSchemaTest {
+    @Test
+    public void testRead() {
+        FlatBuilder builder = new FlatBuilder();
+        int uint8 = builder.tensor(
+            new int[] {1, 40}, 3, builder.quantization(0.5f, 128L));
+        int float32 = builder.tensor(null, null);
+        int int8 = builder.tensor(9, builder.quantization(0.25f, -3L));
+        int int32 = builder.tensor(2, null);
+        int unscaled = builder.tensor(3, builder.quantization());
+        ModelSchema schema = ModelSchema.read(builder.model(
+            new int[] {uint8, float32, int8, int32, unscaled},
+            new int[] {0, 3},
+            new int[] {1, 2, 4}));
+
+        assertEquals(2, schema.getInputs().size());
+        ModelSchema.TensorSpec spec = schema.getInputs().get(0);
+        assertEquals(DType.UINT8, spec.getType());
+        assertArrayEquals(new int[] {1, 40}, spec.getShape());
+        assertEquals(0.5f, spec.getQuantization().getScale());
+        assertEquals(128, spec.getQuantization().getZeroPoint());
+        spec = schema.getInputs().get(1);
+        assertEquals(DType.INT32, spec.getType());
+        assertNull(spec.getQuantization());
+
+        assertEquals(3, schema.getOutputs().size());
+        spec = schema.getOutputs().get(0);
+        assertEquals(DType.FLOAT, spec.getType());
+        assertEquals(0, spec.getShape().length);
+        assertNull(spec.getQuantization());
+        spec = schema.getOutputs().get(1);
+        assertEquals(DType.INT8, spec.getType());
+        assertEquals(0.25f, spec.getQuantization().getScale());
+        assertEquals(-3, spec.getQuantization().getZeroPoint());
+
+        // 8-bit tensors without a scale are passed through unconverted
+        spec = schema.getOutputs().get(2);
+        assertEquals(DType.UINT8, spec.getType());
+        assertNull(spec.getQuantization());
+    }
+
+    @Test
+    public void testInvalid() {
+        // truncated model
+        assertThrows(IllegalArgumentException.class, () ->
+            ModelSchema.read(ByteBuffer.allocate(2)));
+
+        // unsupported tensor type (string)
+        FlatBuilder builder = new FlatBuilder();
+        int string = builder.tensor(5, null);
+        ByteBuffer model = builder.model(
+            new int[] {string}, new int[] {0}, new int[] {0});
+        assertThrows(IllegalArgumentException.class, () ->
+            ModelSchema.read(model));
+
+        // per-channel quantization
+        FlatBuilder channels = new FlatBuilder();
+        int tensor = channels.tensor(
+            9, channels.quantization(new float[] {1, 2}, 0L, 0L));
+        ByteBuffer channelModel = channels.model(
+            new int[] {tensor}, new int[] {0}, new int[] {0});
+        assertThrows(IllegalArgumentException.class, () ->
+            ModelSchema.read(channelModel));
+    }
+
+    @Test
+    public void testTypes() {
+        assertEquals(DType.FLOAT, DType.fromCode(0));
+        assertEquals(DType.INT8, DType.fromCode(9));
+        assertThrows(IllegalArgumentException.class, () ->
+            DType.fromCode(1));
+
+        assertEquals(4, DType.FLOAT.byteSize());
+        assertEquals(8, DType.INT64.byteSize());
+        assertTrue(DType.UINT8.isQuantized());
+        assertFalse(DType.INT32.isQuantized());
+    }
+
+    // minimal little-endian flatbuffer writer, for tables whose fields are
+    // all stored in 4-byte slots
+    private static class FlatBuilder {
+        private final ByteBuffer buf = ByteBuffer
+            .allocate(4096)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        FlatBuilder() {
+            // root table offset
+            this.buf.putInt(0);
+        }
+
+        ByteBuffer model(int[] tensors, int[] inputs, int[] outputs) {
+            int subgraph = table(0, 0, 0);
+            ref(slot(subgraph, 0), tables(tensors));
+            ref(slot(subgraph, 1), ints(inputs));
+            ref(slot(subgraph, 2), ints(outputs));
+            int model = table(3, null, 0);
+            ref(slot(model, 2), tables(new int[] {subgraph}));
+            ref(0, model);
+
+            ByteBuffer result = this.buf.duplicate();
+            result.flip();
+            return result.slice();
+        }
+
+        int tensor(Integer type, Integer quantization) {
+            return tensor(null, type, quantization);
+        }
+
+        int tensor(int[] shape, Integer type, Integer quantization) {
+            int tensor = table(shape == null ? null : 0, type, null, null,
+                quantization == null ? null : 0);
+            if (shape != null)
+                ref(slot(tensor, 0), ints(shape));
+            if (quantization != null)
+                ref(slot(tensor, 4), quantization);
+            return tensor;
+        }
+
+        int quantization() {
+            return table(null, null, null, null);
+        }
+
+        int quantization(float scale, long zeroPoint) {
+            return quantization(new float[] {scale}, zeroPoint);
+        }
+
+        int quantization(float[] scales, long... zeroPoints) {
+            int params = table(null, null, 0, 0);
+            ref(slot(params, 2), floats(scales));
+            ref(slot(params, 3), longs(zeroPoints));
+            return params;
+        }
+
+        private int table(Integer... fields) {
+            int vtable = this.buf.position();
+            int present = 0;
+            for (Integer field : fields)
+                present += field == null ? 0 : 1;
+            this.buf.putShort((short) (4 + 2 * fields.length));
+            this.buf.putShort((short) (4 + 4 * present));
+            int offset = 4;
+            for (Integer field : fields) {
+                this.buf.putShort((short) (field == null ? 0 : offset));
+                offset += field == null ? 0 : 4;
+            }
+            align(4, 0);
+
+            int table = this.buf.position();
+            this.buf.putInt(table - vtable);
+            for (Integer field : fields)
+                if (field != null)
+                    this.buf.putInt(field);
+            return table;
+        }
+
+        private int slot(int table, int id) {
+            int vtable = table - this.buf.getInt(table);
+            return table + this.buf.getShort(vtable + 4 + id * 2);
+        }
+
+        private void ref(int position, int target) {
+            this.buf.putInt(position, target - position);
+        }
+
+        private int tables(int[] tables) {
+            int vector = ints(new int[tables.length]);
+            for (int i = 0; i < tables.length; i++)
+                ref(vector + 4 + i * 4, tables[i]);
+            return vector;
+        }
+
+        private int ints(int[] values) {
+            int vector = this.buf.position();
+            this.buf.putInt(values.length);
+            for (int value : values)
+                this.buf.putInt(value);
+            return vector;
+        }
+
+        private int floats(float[] values) {
+            int vector = this.buf.position();
+            this.buf.putInt(values.length);
+            for (float value : values)
+                this.buf.putFloat(value);
+            return vector;
+        }
+
+        private int longs(long[] values) {
+            // vector elements are aligned to their size
+            align(8, 4);
+            int vector = this.buf.position();
+            this.buf.putInt(values.length);
+            for (long value : values)
+                this.buf.putLong(value);
+            return vector;
+        }
+
+        private void align(int size, int offset) {
+            while ((this.buf.position() + offset) % size != 0)
+                this.buf.put((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.spokestack.spokestack.tensorflow.TensorflowModel.Loader.DType;
+
+public class QuantizationTest {
+    @Test
+    public void testConstruction() {
+        assertThrows(IllegalArgumentException.class, () ->
+            new Quantization(0, 0));
+        assertThrows(IllegalArgumentException.class, () ->
+            new Quantization(-0.5f, 0));
+
+        Quantization quant = new Quantization(0.5f, 128);
+        assertEquals(0.5f, quant.getScale());
+        assertEquals(128, quant.getZeroPoint());
+    }
+
+    @Test
+    public void testScalar() {
+        Quantization quant = new Quantization(0.5f, 128);
+
+        // values round to the nearest step
+        assertEquals(128, quant.quantize(0, DType.UINT8));
+        assertEquals(130, quant.quantize(1.1f, DType.UINT8));
+        assertEquals(125, quant.quantize(-1.4f, DType.UINT8));
+        assertEquals(1.0f, quant.dequantize(130));
+        assertEquals(-1.5f, quant.dequantize(125));
+
+        // values clamp to the range of the type
+        assertEquals(255, quant.quantize(100, DType.UINT8));
+        assertEquals(0, quant.quantize(-100, DType.UINT8));
+        assertEquals(127, quant.quantize(100, DType.INT8));
+        assertEquals(-128, quant.quantize(-1000, DType.INT8));
+    }
+
+    @Test
+    public void testBuffers() {
+        float[] values = {-1, 0, 0.5f, 20};
+        ByteBuffer floats = floatBuffer(values);
+        ByteBuffer quantized = ByteBuffer.allocateDirect(values.length);
+        ByteBuffer actual = floatBuffer(new float[values.length]);
+
+        // unsigned tensors
+        Quantization quant = new Quantization(0.25f, 10);
+        quant.quantize(floats, quantized, DType.UINT8);
+        assertEquals(6, quantized.get(0));
+        assertEquals(10, quantized.get(1));
+        assertEquals(90, quantized.get(3));
+        quant.dequantize(quantized, actual, DType.UINT8);
+        for (int i = 0; i < values.length; i++)
+            assertEquals(values[i], actual.getFloat(i * 4));
+
+        // values above 127 are not sign-extended for unsigned tensors
+        quant = new Quantization(0.1f, 0);
+        quant.quantize(floats, quantized, DType.UINT8);
+        assertEquals(200, quantized.get(3) & 0xff);
+        quant.dequantize(quantized, actual, DType.UINT8);
+        assertEquals(20, actual.getFloat(12), 1e-5);
+
+        // signed tensors
+        quant = new Quantization(0.5f, -3);
+        quant.quantize(floats, quantized, DType.INT8);
+        assertEquals(-5, quantized.get(0));
+        assertEquals(37, quantized.get(3));
+        quant.dequantize(quantized, actual, DType.INT8);
+        for (int i = 0; i < values.length; i++)
+            assertEquals(values[i], actual.getFloat(i * 4));
+    }
+
+    private ByteBuffer floatBuffer(float[] values) {
+        ByteBuffer buffer = ByteBuffer
+            .allocateDirect(values.length * 4)
+            .order(ByteOrder.nativeOrder());
+        for (float value : values)
+            buffer.putFloat(value);
+        buffer.rewind();
+        return buffer;
+    }
+}
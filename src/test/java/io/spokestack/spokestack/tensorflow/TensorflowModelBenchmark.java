@@ -0,0 +1,127 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assume.*;
+
+/**
+ * load time and run latency of the tensorflow model loader options, on the
+ * host CPU. this benchmark requires a model and the native tensorflow-lite
+ * library, so it is not run with the unit tests. it is run as follows:
+ *
+ * mvn test -Dtest=TensorflowModelBenchmark \
+ *   -Dtflite.benchmark.model=path/to/model.tflite \
+ *   -Dtflite.benchmark.runs=1000
+ *
+ * for models that accept inputs of varying lengths, such as the NLU model,
+ * -Dtflite.benchmark.lengths=8,16,32,64 also measures the run latency of
+ * each input length (see the nlu-length-buckets NLU property).
+ */
+public class TensorflowModelBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4};
+
+    @Test
+    public void benchmark() throws Exception {
+        String path = System.getProperty("tflite.benchmark.model");
+        assumeTrue(path != null);
+        int runs = Integer.getInteger("tflite.benchmark.runs", 1000);
+
+        System.out.printf("%-8s %8s %10s %10s %10s%n",
+            "load", "threads", "load (ms)", "mean (us)", "p99 (us)");
+        for (int threads : THREAD_COUNTS) {
+            measure("file", threads, runs, () -> new TensorflowModel.Loader()
+                .setPath(path)
+                .setThreadCount(threads));
+            measure("mapped", threads, runs, () -> new TensorflowModel.Loader()
+                .setBuffer(map(path))
+                .setThreadCount(threads));
+            measure("heap", threads, runs, () -> new TensorflowModel.Loader()
+                .setBuffer(read(path))
+                .setThreadCount(threads));
+        }
+    }
+
+    @Test
+    public void lengths() throws Exception {
+        String path = System.getProperty("tflite.benchmark.model");
+        String lengths = System.getProperty("tflite.benchmark.lengths");
+        assumeTrue(path != null && lengths != null);
+        int runs = Integer.getInteger("tflite.benchmark.runs", 1000);
+        int[] shape;
+        try (TensorflowModel model = new TensorflowModel.Loader()
+                .setPath(path)
+                .load()) {
+            shape = model.getInputShape(0);
+        }
+
+        System.out.printf("%-8s %8s %10s %10s %10s%n",
+            "length", "threads", "load (ms)", "mean (us)", "p99 (us)");
+        for (String length : lengths.split(",")) {
+            int[] resized = shape.clone();
+            resized[resized.length - 1] = Integer.parseInt(length.trim());
+            measure(length.trim(), 1, runs, () -> new TensorflowModel.Loader()
+                .setPath(path)
+                .setThreadCount(1)
+                .setInputShape(0, resized));
+        }
+    }
+
+    private void measure(String name,
+                         int threads,
+                         int runs,
+                         LoaderFactory factory) throws Exception {
+        long start = System.nanoTime();
+        try (TensorflowModel model = factory.create().load()) {
+            double load = (System.nanoTime() - start) / 1e6;
+
+            // warm up before timing runs
+            for (int i = 0; i < Math.min(runs, 10); i++)
+                model.run();
+            long[] latencies = new long[runs];
+            long total = 0;
+            for (int i = 0; i < runs; i++) {
+                long begin = System.nanoTime();
+                model.run();
+                latencies[i] = System.nanoTime() - begin;
+                total += latencies[i];
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %8d %10.2f %10.1f %10.1f%n",
+                name,
+                threads,
+                load,
+                total / 1e3 / runs,
+                latencies[(int) (runs * 0.99)] / 1e3);
+        }
+    }
+
+    private static ByteBuffer map(String path) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static ByteBuffer read(String path) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(new File(path), "r")) {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer
+                .allocateDirect(bytes.length)
+                .order(ByteOrder.nativeOrder());
+            buffer.put(bytes);
+            buffer.rewind();
+            return buffer;
+        }
+    }
+
+    private interface LoaderFactory {
+        TensorflowModel.Loader create() throws Exception;
+    }
+}
@@ -0,0 +1,185 @@
+package io.spokestack.spokestack.tensorflow;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assume.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.spokestack.spokestack.FeatureExtractor;
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.SpeechContext;
+import io.spokestack.spokestack.tensorflow.TensorflowModel.Loader.DType;
+
+public class TensorflowModelTest {
+    @Test
+    public void testRun() {
+        EchoModel model = new EchoModel();
+        assertEquals(4, model.getInputSize());
+        assertEquals(DType.UINT8, model.getInputType(0));
+        assertNotNull(model.getInputQuantization(0));
+        assertEquals(DType.FLOAT, model.getOutputType(0));
+        assertNull(model.getOutputQuantization(0));
+
+        // quantized inputs are presented as floats
+        model.floatInputs(0).put(new float[] {1, 2});
+        model.outputs(0).position(4);
+        model.run();
+
+        // views and buffers are rewound after each run
+        assertEquals(0, model.floatInputs(0).position());
+        assertEquals(0, model.inputs(0).position());
+        assertEquals(0, model.outputs(0).position());
+
+        float[] output = new float[2];
+        model.floatOutputs(0).get(output);
+        assertArrayEquals(new float[] {2, 4}, output);
+
+        // the state output is fed back as the state input
+        assertEquals(1, model.states().getFloat(0));
+        assertSame(model.states(), model.inputs(1));
+        model.run();
+        assertEquals(2, model.floatInputs(1).get(0));
+        model.run();
+        assertEquals(3, model.floatInputs(1).get(0));
+
+        // integer views share the buffer contents
+        model.intOutputs(1).put(0, 7);
+        assertEquals(7, model.outputs(1).getInt(0));
+    }
+
+    @Test
+    public void testAllocation() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        EchoModel model = new EchoModel();
+        float[] input = {1, 2};
+        for (int i = 0; i < 10000; i++) {
+            model.floatInputs(0).put(input);
+            model.run();
+        }
+
+        // the run path allocates nothing, regardless of the run count
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            model.floatInputs(0).put(input);
+            model.run();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    public void testStageAllocation() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // a feature extractor stage running its filter model for each hop,
+        // with a power-of-two fft window, which the fft computes in place
+        SpeechConfig config = new SpeechConfig()
+            .put("sample-rate", 16000)
+            .put("frame-width", 20)
+            .put("fft-hop-length", 10)
+            .put("fft-window-size", 512)
+            .put("mel-frame-width", 40)
+            .put("wake-filter-path", "filter-path");
+        TensorflowModel.Loader loader = new TensorflowModel.Loader() {
+            @Override
+            TensorflowModel create() {
+                return new FilterModel(257, 40);
+            }
+        };
+        FeatureExtractor stage = new FeatureExtractor(config, loader);
+        SpeechContext context = new SpeechContext(config);
+        context.setSpeech(true);
+        ByteBuffer frame = ByteBuffer.allocateDirect(320 * 2);
+        for (int i = 0; i < 10000; i++) {
+            frame.rewind();
+            stage.process(context, frame);
+        }
+
+        // the stage's hops transfer through the model's bound views,
+        // so they allocate nothing
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            frame.rewind();
+            stage.process(context, frame);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+        stage.close();
+    }
+
+    // a float input and a float output; the model copies the leading
+    // elements of its input to its output
+    private static class FilterModel extends TensorflowModel {
+        FilterModel(int inputs, int outputs) {
+            super(new TensorflowModel.Loader(),
+                null,
+                new ModelSchema(
+                    Arrays.asList(
+                        new ModelSchema.TensorSpec(new int[] {inputs},
+                            DType.FLOAT, null)),
+                    Arrays.asList(
+                        new ModelSchema.TensorSpec(new int[] {outputs},
+                            DType.FLOAT, null))));
+        }
+
+        @Override
+        void invoke(Object[] inputs, Map<Integer, Object> outputs) {
+            ByteBuffer input = (ByteBuffer) inputs[0];
+            ByteBuffer output = (ByteBuffer) outputs.get(0);
+            for (int i = 0; i < output.capacity(); i += 4)
+                output.putFloat(i, input.getFloat(i));
+        }
+
+        @Override
+        void dispose() {
+        }
+    }
+
+    // a uint8 input, a float output, and a float state tensor; the model
+    // echoes its quantized input and increments its state
+    private static class EchoModel extends TensorflowModel {
+        EchoModel() {
+            super(new TensorflowModel.Loader().setStatePosition(1),
+                null,
+                new ModelSchema(
+                    Arrays.asList(
+                        new ModelSchema.TensorSpec(new int[] {1, 2},
+                            DType.UINT8, new Quantization(0.5f, 0)),
+                        new ModelSchema.TensorSpec(new int[] {1},
+                            DType.FLOAT, null)),
+                    Arrays.asList(
+                        new ModelSchema.TensorSpec(new int[] {2},
+                            DType.FLOAT, null),
+                        new ModelSchema.TensorSpec(new int[] {1},
+                            DType.FLOAT, null))));
+        }
+
+        @Override
+        void invoke(Object[] inputs, Map<Integer, Object> outputs) {
+            ByteBuffer input = (ByteBuffer) inputs[0];
+            ByteBuffer output = (ByteBuffer) outputs.get(0);
+            for (int i = 0; i < 2; i++)
+                output.putFloat(i * 4, input.get(i) & 0xff);
+            ByteBuffer state = (ByteBuffer) outputs.get(1);
+            state.putFloat(0, ((ByteBuffer) inputs[1]).getFloat(0) + 1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.spokestack.spokestack.util;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(50));
+        assertThrows(IllegalArgumentException.class,
+              () -> histogram.getPercentile(-1));
+        assertThrows(IllegalArgumentException.class,
+              () -> histogram.getPercentile(101));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1..1000us
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean());
+
+        // small values are exact, larger values are within 25%
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(3, histogram.getPercentile(0.3));
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals("p50=511us p99=1000us max=1000us", histogram.toString());
+
+        // negative latencies are clamped
+        histogram.record(-1);
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    public void testCopyReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(20000000);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+
+        assertEquals(2, copy.getCount());
+        assertWithin(20000, copy.getPercentile(50));
+        assertEquals(Long.MAX_VALUE / 1000, copy.getPercentile(100));
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected, "" + actual);
+        assertTrue(actual <= expected * 1.25, "" + actual);
+    }
+}
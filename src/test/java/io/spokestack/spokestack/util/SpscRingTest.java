@@ -0,0 +1,93 @@
+package io.spokestack.spokestack.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpscRingTest {
+    @Test
+    public void testConstruction() {
+        assertThrows(IllegalArgumentException.class,
+              () -> new SpscRing<>(0, Slot::new));
+
+        assertEquals(1, new SpscRing<>(1, Slot::new).capacity());
+        assertEquals(4, new SpscRing<>(3, Slot::new).capacity());
+        assertEquals(4, new SpscRing<>(4, Slot::new).capacity());
+        assertEquals(8, new SpscRing<>(5, Slot::new).capacity());
+    }
+
+    @Test
+    public void testClaimRelease() {
+        SpscRing<Slot> ring = new SpscRing<>(2, Slot::new);
+        assertEquals(0, ring.size());
+        assertNull(ring.peek());
+
+        // claimed elements are invisible until published
+        Slot first = ring.claim();
+        first.value = 1;
+        assertSame(first, ring.claim());
+        assertNull(ring.peek());
+        ring.publish();
+        assertEquals(1, ring.size());
+
+        Slot second = ring.claim();
+        assertNotSame(first, second);
+        second.value = 2;
+        ring.publish();
+
+        // full ring
+        assertEquals(2, ring.size());
+        assertNull(ring.claim());
+
+        // elements are consumed in order and reused
+        assertEquals(1, ring.peek().value);
+        ring.release();
+        assertSame(first, ring.claim());
+        assertEquals(2, ring.peek().value);
+        ring.release();
+        assertNull(ring.peek());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        final int count = 100000;
+        final SpscRing<Slot> ring = new SpscRing<>(16, Slot::new);
+        final AtomicInteger errors = new AtomicInteger();
+
+        Thread consumer = new Thread(() -> {
+            int expected = 0;
+            while (expected < count) {
+                Slot slot = ring.peek();
+                if (slot == null) {
+                    Thread.yield();
+                    continue;
+                }
+                if (slot.value != expected) {
+                    errors.incrementAndGet();
+                }
+                expected++;
+                ring.release();
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < count; i++) {
+            Slot slot = ring.claim();
+            while (slot == null) {
+                Thread.yield();
+                slot = ring.claim();
+            }
+            slot.value = i;
+            ring.publish();
+        }
+        consumer.join();
+        assertEquals(0, errors.get());
+        assertEquals(0, ring.size());
+    }
+
+    private static class Slot {
+        private int value;
+    }
+}
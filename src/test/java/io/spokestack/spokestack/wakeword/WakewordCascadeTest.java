@@ -0,0 +1,151 @@
+package io.spokestack.spokestack.wakeword;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.mockito.Mockito.*;
+
+import io.spokestack.spokestack.SpeechConfig;
+import io.spokestack.spokestack.tensorflow.TensorflowModel;
+
+public class WakewordCascadeTest {
+    @Test
+    public void testConstruction() throws Exception {
+        final TensorflowModel.Loader loader =
+            spy(TensorflowModel.Loader.class);
+        final WakewordTriggerTest.TestModel model =
+            mock(WakewordTriggerTest.TestModel.class);
+        doReturn(model).when(loader).load();
+
+        // disabled by default
+        assertNull(WakewordCascade.create(new SpeechConfig(), loader, 2, 10));
+
+        // invalid type
+        assertThrows(IllegalArgumentException.class, () ->
+            WakewordCascade.create(
+                testConfig().put("wake-cascade", "zcr"), loader, 2, 10));
+
+        // missing threshold
+        assertThrows(IllegalArgumentException.class, () ->
+            WakewordCascade.create(
+                new SpeechConfig().put("wake-cascade", "energy"),
+                loader, 2, 10));
+
+        // invalid lengths
+        assertThrows(IllegalArgumentException.class, () ->
+            WakewordCascade.create(
+                testConfig().put("wake-cascade-hangover", -10),
+                loader, 2, 10));
+        assertThrows(IllegalArgumentException.class, () ->
+            WakewordCascade.create(
+                testConfig().put("wake-cascade-preroll", -10),
+                loader, 2, 10));
+
+        // the model is only loaded for the model type
+        WakewordCascade.create(testConfig(), loader, 2, 10).close();
+        verify(loader, never()).load();
+        WakewordCascade.create(
+            testConfig()
+                .put("wake-cascade", "model")
+                .put("wake-cascade-path", "cascade-path"),
+            loader, 2, 10).close();
+        verify(loader).setPath("cascade-path");
+        verify(model).close();
+    }
+
+    @Test
+    public void testEnergy() {
+        WakewordCascade cascade = new WakewordCascade(
+            testConfig(), spy(TensorflowModel.Loader.class), 2, 10);
+        float[] low = {0, 0};
+        float[] high = {1, 2};
+
+        // nothing passes while closed, but the pre-roll is retained
+        assertEquals(0, cascade.admit(new float[] {0.1f, 0}));
+        assertEquals(0, cascade.admit(new float[] {0.2f, 0}));
+        assertEquals(0, cascade.admit(new float[] {0.3f, 0}));
+
+        // the pre-roll is replayed when the cascade opens
+        assertEquals(3, cascade.admit(high));
+        assertEquals(0.2f, cascade.get(2)[0]);
+        assertEquals(0.3f, cascade.get(1)[0]);
+        assertEquals(1, cascade.get(0)[0]);
+
+        // the cascade remains open during the hangover
+        assertEquals(1, cascade.admit(low));
+        assertEquals(1, cascade.admit(low));
+        assertEquals(0, cascade.admit(low));
+        assertEquals(7, cascade.getHops());
+        assertEquals(5, cascade.getPassed());
+        assertEquals(5.0 / 7, cascade.getPassRate(), 1e-6);
+
+        // resets discard the hangover and pre-roll
+        assertEquals(2, cascade.admit(high));
+        cascade.reset();
+        assertEquals(0, cascade.admit(low));
+        cascade.reset();
+        assertEquals(1, cascade.admit(high));
+    }
+
+    @Test
+    public void testFlux() {
+        WakewordCascade cascade = new WakewordCascade(
+            testConfig()
+                .put("wake-cascade", "flux")
+                .put("wake-cascade-hangover", 0)
+                .put("wake-cascade-preroll", 0),
+            spy(TensorflowModel.Loader.class), 2, 10);
+
+        // onsets fire, but sustained or falling levels don't
+        assertEquals(0, cascade.admit(new float[] {4, 4}));
+        assertEquals(0, cascade.admit(new float[] {4, 4}));
+        assertEquals(1, cascade.admit(new float[] {6, 4}));
+        assertEquals(0, cascade.admit(new float[] {6, 4}));
+        assertEquals(0, cascade.admit(new float[] {1, 1}));
+
+        // the first hop after a reset has no flux
+        cascade.reset();
+        assertEquals(0, cascade.admit(new float[] {9, 9}));
+    }
+
+    @Test
+    public void testModel() {
+        TensorflowModel.Loader loader = spy(TensorflowModel.Loader.class);
+        WakewordTriggerTest.TestModel model =
+            mock(WakewordTriggerTest.TestModel.class);
+        doReturn(ByteBuffer
+                    .allocateDirect(2 * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(model).inputs(0);
+        doReturn(ByteBuffer
+                    .allocateDirect(1 * 4)
+                    .order(ByteOrder.nativeOrder()))
+            .when(model).outputs(0);
+        WakewordTriggerTest.TestModel.bindViews(model);
+        doCallRealMethod().when(model).run();
+        doReturn(model).when(loader).load();
+        WakewordCascade cascade = new WakewordCascade(
+            testConfig()
+                .put("wake-cascade", "model")
+                .put("wake-cascade-path", "cascade-path"),
+            loader, 2, 10);
+
+        model.setOutputs(0);
+        assertEquals(0, cascade.admit(new float[] {1, 2}));
+        model.setOutputs(1);
+        assertEquals(2, cascade.admit(new float[] {3, 4}));
+        verify(model, times(2)).run();
+        assertEquals(3, model.inputs(0).getFloat(0));
+    }
+
+    private SpeechConfig testConfig() {
+        return new SpeechConfig()
+            .put("wake-cascade", "energy")
+            .put("wake-cascade-threshold", 0.5)
+            .put("wake-cascade-hangover", 20)
+            .put("wake-cascade-preroll", 20);
+    }
+}
@@ -2,6 +2,7 @@ package io.spokestack.spokestack.wakeword;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 import androidx.annotation.NonNull;
 import org.junit.Test;
@@ -10,6 +11,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import static org.mockito.Mockito.*;
 
+import io.spokestack.spokestack.FeatureExtractor;
+import io.spokestack.spokestack.GatedProcessor;
 import io.spokestack.spokestack.OnSpeechEventListener;
 import io.spokestack.spokestack.SpeechConfig;
 import io.spokestack.spokestack.SpeechContext;
@@ -65,6 +68,35 @@ public class WakewordTriggerTest {
         });
         config.put("fft-window-type", "hann");
 
+        // invalid input layout
+        config.put("wake-input-layout", "circular");
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                new WakewordTrigger(config, loader);
+            }
+        });
+        config.put("wake-input-layout", "window");
+
+        // mismatched wake phrase detectors and thresholds
+        config.put("wake-phrases", "alpha,beta");
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                new WakewordTrigger(config, loader);
+            }
+        });
+        config.put("wake-detect-path", "alpha-path,beta-path");
+        config.put("wake-threshold", "0.1,0.2,0.3");
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                new WakewordTrigger(config, loader);
+            }
+        });
+        config.put("wake-threshold", 0.5);
+        new WakewordTrigger(config, loader);
+        verify(loader).setPath("beta-path");
+        config.put("wake-phrases", "wakeword");
+        config.put("wake-detect-path", "detect-path");
+
         // close coverage
         new WakewordTrigger(config, loader).close();
     }
@@ -221,6 +253,199 @@ public class WakewordTriggerTest {
         assertNull(env.event);
     }
 
+    @Test
+    public void testGating() throws Exception {
+        // verify that the detector is reset when the gate reopens,
+        // even though the deactivation frame was skipped
+        SpeechConfig config = testConfig().put("fft-window-size", 320);
+        TestEnv env = new TestEnv(config);
+        assertEquals(GatedProcessor.INACTIVE, env.wake.getGate());
+
+        env.context.setSpeech(true);
+        env.detect.setOutputs(1);
+        env.process();
+        env.process();
+        assertEquals(SpeechContext.Event.ACTIVATE, env.event);
+
+        env.wake.onGateChange(env.context, false);
+        env.context.setActive(false);
+        env.wake.onGateChange(env.context, true);
+        env.event = null;
+        env.process();
+
+        // no new activate event should be sent
+        assertNull(env.event);
+    }
+
+    @Test
+    public void testSharedFeatures() throws Exception {
+        // verify that the trigger runs only its encoder and detector
+        // over mel frames published by a feature extractor
+        TestEnv env = new TestEnv(testConfig().put("mel-features", "shared"));
+
+        env.context.setSpeech(false);
+        env.process();
+        verify(env.filter, never()).run();
+        verify(env.encode, never()).run();
+        assertEquals(0, env.context.getFeatures().getSequence());
+
+        env.context.setSpeech(true);
+        env.detect.setOutputs(1);
+        env.process();
+        long frames = env.context.getFeatures().getSequence();
+        assertTrue(frames > 0);
+        verify(env.filter, times((int) frames)).run();
+        verify(env.encode, times((int) frames)).run();
+        assertEquals(SpeechContext.Event.ACTIVATE, env.event);
+
+        env.wake.close();
+        verify(env.filter, never()).close();
+    }
+
+    @Test
+    public void testRollingInputs() throws Exception {
+        // verify that only the newest mel/encode frames are written to
+        // the model inputs, over the oldest frames
+        TestEnv env = new TestEnv(testConfig()
+            .put("wake-input-layout", "rolling")
+            .put("mel-frame-length", 20)
+            .put("wake-encode-length", 30));
+        ByteBuffer mels = env.encode.inputs(0);
+        ByteBuffer encodes = env.detect.inputs(0);
+        FloatBuffer melOffset = env.encode.floatInputs(2);
+        FloatBuffer encodeOffset = env.detect.floatInputs(1);
+        assertEquals(-1, encodes.getFloat(0));
+        assertEquals(-1, encodes.getFloat(encodes.capacity() - 4));
+
+        env.context.setSpeech(true);
+        env.filter.setOutputs(1);
+        env.encode.setOutputs(10);
+        env.process();
+        assertEquals(1, mels.getFloat(0));
+        assertEquals(0, mels.getFloat(40 * 4));
+        assertEquals(10, encodes.getFloat(0));
+        assertEquals(-1, encodes.getFloat(128 * 4));
+
+        // the models receive the position of the oldest frame
+        assertEquals(1, melOffset.get(0));
+        assertEquals(1, encodeOffset.get(0));
+
+        env.filter.setOutputs(2);
+        env.encode.setOutputs(20);
+        env.process();
+        env.filter.setOutputs(3);
+        env.encode.setOutputs(30);
+        env.process();
+        env.encode.setOutputs(40);
+        env.process();
+        assertEquals(3, mels.getFloat(0));
+        assertEquals(3, mels.getFloat(40 * 4));
+        assertEquals(40, encodes.getFloat(0));
+        assertEquals(20, encodes.getFloat(128 * 4));
+        assertEquals(30, encodes.getFloat(2 * 128 * 4));
+        assertEquals(0, melOffset.get(0));
+        assertEquals(1, encodeOffset.get(0));
+
+        // a reset clears the inputs and restarts the windows
+        env.context.setSpeech(false);
+        env.process();
+        assertEquals(0, mels.getFloat(0));
+        assertEquals(-1, encodes.getFloat(0));
+        assertEquals(-1, encodes.getFloat(2 * 128 * 4));
+    }
+
+    @Test
+    public void testRollingOffsetRequired() throws Exception {
+        // verify that rolling inputs are refused for models that don't
+        // accept the window's starting position
+        SpeechConfig config = testConfig()
+            .put("wake-input-layout", "rolling");
+        TestEnv env = new TestEnv(config);
+        doReturn(env.filter)
+            .doReturn(env.encode)
+            .doReturn(env.detect)
+            .when(env.loader).load();
+        doReturn(1).when(env.detect).getInputCount();
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                new WakewordTrigger(config, env.loader);
+            }
+        });
+
+        // the offset input isn't needed for windowed inputs
+        doReturn(env.filter)
+            .doReturn(env.encode)
+            .doReturn(env.detect)
+            .when(env.loader).load();
+        new WakewordTrigger(testConfig(), env.loader);
+    }
+
+    @Test
+    public void testCascade() throws Exception {
+        // verify that the models only run once the first stage fires
+        TestEnv env = new TestEnv(testConfig()
+            .put("trace-level", 0)
+            .put("wake-cascade", "energy")
+            .put("wake-cascade-threshold", 0));
+        WakewordCascade cascade = env.wake.getCascade();
+        assertNotNull(cascade);
+
+        // the silent test frames never fire the first stage
+        env.context.setSpeech(true);
+        env.detect.setOutputs(1);
+        env.process();
+        env.process();
+        verify(env.filter, never()).run();
+        verify(env.encode, never()).run();
+        verify(env.detect, never()).run();
+        assertTrue(cascade.getHops() > 0);
+        assertEquals(0, cascade.getPassed());
+
+        // the cascade metrics are traced at the end of the utterance
+        env.context.setSpeech(false);
+        env.process();
+        assertNotNull(env.context.getMessage());
+        assertFalse(env.context.isActive());
+
+        env.wake.close();
+    }
+
+    @Test
+    public void testWakePhrases() throws Exception {
+        // verify that each phrase is detected with its own threshold,
+        // and that the detected phrase is attached to the context
+        TestEnv env = new TestEnv(testConfig()
+            .put("wake-phrases", "alpha, beta")
+            .put("wake-detect-path", "alpha-path, beta-path")
+            .put("wake-threshold", "0.9, 0.4"));
+
+        env.context.setSpeech(true);
+        env.detect.setOutputs(0.5f);
+        env.detect2.setOutputs(0.3f);
+        env.process();
+        verify(env.detect, atLeast(1)).run();
+        verify(env.detect2, atLeast(1)).run();
+        assertFalse(env.context.isActive());
+
+        env.detect2.setOutputs(0.5f);
+        env.process();
+        assertEquals(SpeechContext.Event.ACTIVATE, env.event);
+        assertEquals("beta", env.context.getWakePhrase());
+
+        // the highest posterior wins when both phrases are detected
+        env.context.setActive(false);
+        env.context.setSpeech(false);
+        env.process();
+        env.context.setSpeech(true);
+        env.detect.setOutputs(0.95f);
+        env.process();
+        assertTrue(env.context.isActive());
+        assertEquals("alpha", env.context.getWakePhrase());
+
+        env.wake.close();
+        verify(env.detect2).close();
+    }
+
     @Test
     public void testTracing() throws Exception {
         // exercise trace events on activation
@@ -262,6 +487,15 @@ public class WakewordTriggerTest {
         public void run() {
             this.inputs(0).rewind();
             this.outputs(0).rewind();
+            this.floatInputs(0).rewind();
+            this.floatOutputs(0).rewind();
+        }
+
+        public static void bindViews(TestModel model) {
+            doReturn(model.inputs(0).asFloatBuffer())
+                .when(model).floatInputs(0);
+            doReturn(model.outputs(0).asFloatBuffer())
+                .when(model).floatOutputs(0);
         }
 
         public final void setOutputs(float ...outputs) {
@@ -276,7 +510,9 @@ public class WakewordTriggerTest {
         public final TestModel filter;
         public final TestModel encode;
         public final TestModel detect;
+        public final TestModel detect2;
         public final ByteBuffer frame;
+        public final FeatureExtractor features;
         public final WakewordTrigger wake;
         public final SpeechContext context;
         public SpeechContext.Event event;
@@ -298,6 +534,7 @@ public class WakewordTriggerTest {
             this.filter = mock(TestModel.class);
             this.encode = mock(TestModel.class);
             this.detect = mock(TestModel.class);
+            this.detect2 = mock(TestModel.class);
 
             doReturn(ByteBuffer
                         .allocateDirect(fftSize * 4)
@@ -327,16 +564,43 @@ public class WakewordTriggerTest {
                         .allocateDirect(1 * 4)
                         .order(ByteOrder.nativeOrder()))
                 .when(this.detect).outputs(0);
+            doReturn(ByteBuffer
+                        .allocateDirect(encodeLength * encodeWidth * 4)
+                        .order(ByteOrder.nativeOrder()))
+                .when(this.detect2).inputs(0);
+            doReturn(ByteBuffer
+                        .allocateDirect(1 * 4)
+                        .order(ByteOrder.nativeOrder()))
+                .when(this.detect2).outputs(0);
+            // declare the rolling offset inputs
+            doReturn(3).when(this.encode).getInputCount();
+            doReturn(2).when(this.detect).getInputCount();
+            doReturn(2).when(this.detect2).getInputCount();
+            doReturn(FloatBuffer.allocate(1))
+                .when(this.encode).floatInputs(2);
+            doReturn(FloatBuffer.allocate(1))
+                .when(this.detect).floatInputs(1);
+            doReturn(FloatBuffer.allocate(1))
+                .when(this.detect2).floatInputs(1);
+            TestModel.bindViews(this.filter);
+            TestModel.bindViews(this.encode);
+            TestModel.bindViews(this.detect);
+            TestModel.bindViews(this.detect2);
             doCallRealMethod().when(this.filter).run();
             doCallRealMethod().when(this.encode).run();
             doCallRealMethod().when(this.detect).run();
+            doCallRealMethod().when(this.detect2).run();
             doReturn(this.filter)
                 .doReturn(this.encode)
                 .doReturn(this.detect)
+                .doReturn(this.detect2)
                 .when(this.loader).load();
 
             // create the frame buffer and wakeword trigger
             this.frame = ByteBuffer.allocateDirect(frameWidth * sampleRate / 1000 * 2);
+            this.features = "shared".equals(config.getString("mel-features", "local"))
+                ? new FeatureExtractor(config, this.loader)
+                : null;
             this.wake = new WakewordTrigger(config, this.loader);
 
             // create the speech context for processing calls
@@ -345,6 +609,8 @@ public class WakewordTriggerTest {
         }
 
         public void process() throws Exception {
+            if (this.features != null)
+                this.features.process(this.context, this.frame);
             this.wake.process(this.context, this.frame);
         }
 